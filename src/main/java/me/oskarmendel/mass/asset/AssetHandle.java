@@ -0,0 +1,178 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.asset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Handle of an asset loaded by the AssetManager. Until the asset is loaded
+ * the handle hands out a placeholder, so the game can start using the 
+ * asset right away and swap it once it is ready.
+ * 
+ * The handle is completed on the render thread while the AssetManager 
+ * drains its uploads, which is also where the listeners are called.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name AssetHandle.java
+ *
+ * @param <T> - Type of the asset.
+ */
+public class AssetHandle<T> {
+	
+	/**
+	 * Name of the asset, usually its path.
+	 */
+	private final String name;
+	
+	/**
+	 * Asset handed out until the asset is loaded, may be null.
+	 */
+	private final T placeholder;
+	
+	/**
+	 * The loaded asset, null until loaded.
+	 */
+	private volatile T asset;
+	
+	/**
+	 * Cause of the failed load, null unless loading failed.
+	 */
+	private volatile Throwable error;
+	
+	/**
+	 * Listeners waiting for the asset.
+	 */
+	private final List<Consumer<T>> listeners;
+	
+	/**
+	 * Creates a new AssetHandle.
+	 * 
+	 * @param name - Name of the asset.
+	 * @param placeholder - Asset handed out until the asset is loaded, may be null.
+	 */
+	AssetHandle(String name, T placeholder) {
+		this.name = name;
+		this.placeholder = placeholder;
+		this.listeners = new ArrayList<>();
+	}
+	
+	/**
+	 * Getter for the asset of this handle.
+	 * 
+	 * @return - The loaded asset or the placeholder if the asset isn't loaded.
+	 */
+	public T get() {
+		T loaded = this.asset;
+		return loaded != null ? loaded : this.placeholder;
+	}
+	
+	/**
+	 * Registers a listener called with the asset once it is loaded, right 
+	 * away if it already is. Must be called on the render thread.
+	 * 
+	 * @param listener - Listener to call.
+	 */
+	public void onLoaded(Consumer<T> listener) {
+		if (this.asset != null) {
+			listener.accept(this.asset);
+		} else if (this.error == null) {
+			this.listeners.add(listener);
+		}
+	}
+	
+	/**
+	 * Completes this handle with the loaded asset and calls the listeners.
+	 * 
+	 * @param asset - The loaded asset.
+	 */
+	void complete(T asset) {
+		this.asset = asset;
+		
+		for (Consumer<T> listener : this.listeners) {
+			listener.accept(asset);
+		}
+		this.listeners.clear();
+	}
+	
+	/**
+	 * Marks this handle as failed, it keeps handing out the placeholder.
+	 * 
+	 * @param error - Cause of the failure.
+	 */
+	void fail(Throwable error) {
+		this.error = error;
+		this.listeners.clear();
+		
+		System.err.println("Failed to load " + this.name + ": " + error);
+	}
+	
+	/**
+	 * Checks if the asset is loaded.
+	 * 
+	 * @return - True if the asset is loaded; False otherwise.
+	 */
+	public boolean isLoaded() {
+		return this.asset != null;
+	}
+	
+	/**
+	 * Checks if loading the asset failed.
+	 * 
+	 * @return - True if loading failed; False otherwise.
+	 */
+	public boolean isFailed() {
+		return this.error != null;
+	}
+	
+	/**
+	 * Getter for the cause of the failed load.
+	 * 
+	 * @return - The cause or null unless loading failed.
+	 */
+	public Throwable getError() {
+		return this.error;
+	}
+	
+	/**
+	 * Getter for the placeholder of the asset.
+	 * 
+	 * @return - The placeholder, may be null.
+	 */
+	public T getPlaceholder() {
+		return this.placeholder;
+	}
+	
+	/**
+	 * Getter for the name of the asset.
+	 * 
+	 * @return - The name.
+	 */
+	public String getName() {
+		return this.name;
+	}
+}
@@ -0,0 +1,847 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.asset;
+
+import static org.lwjgl.opengl.GL32.glDeleteSync;
+import static org.lwjgl.stb.STBImage.stbi_failure_reason;
+import static org.lwjgl.stb.STBImage.stbi_image_free;
+import static org.lwjgl.stb.STBImage.stbi_load;
+import static org.lwjgl.stb.STBImage.stbi_set_flip_vertically_on_load;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import com.bulletphysics.collision.shapes.CollisionShape;
+
+import me.oskarmendel.mass.core.Screen;
+import me.oskarmendel.mass.entity.TestRoom;
+import me.oskarmendel.mass.gfx.Material;
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.MeshBuffers;
+import me.oskarmendel.mass.gfx.MeshGeometry;
+import me.oskarmendel.mass.gfx.Texture;
+import me.oskarmendel.mass.gfx.batch.StaticBatcher;
+import me.oskarmendel.mass.gfx.batch.StaticBatcher.BatchGeometry;
+import me.oskarmendel.mass.gfx.cook.MeshData;
+import me.oskarmendel.mass.gfx.cook.ModelData;
+import me.oskarmendel.mass.gfx.pvs.PotentiallyVisibleSet;
+import me.oskarmendel.mass.util.OBJLoader;
+import me.oskarmendel.mass.util.assimp.StaticMeshLoader;
+import me.oskarmendel.mass.util.assimp.TextureCache;
+
+/**
+ * Loads assets in the background. File IO, image decoding and mesh 
+ * importing run on a pool of worker threads. Buffers and textures are 
+ * uploaded on an UploadThread with a context shared with the Screen, what 
+ * is left for the render thread, creating vertex array objects and 
+ * materials and handing out the assets, is queued as small steps drained 
+ * every frame within a time budget. Every load returns an AssetHandle 
+ * handing out a placeholder until the asset is uploaded.
+ * 
+ * All methods except the work done by the workers must be called on the 
+ * render thread.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name AssetManager.java
+ */
+public class AssetManager {
+	
+	/**
+	 * Work done on the render thread turning the result of a worker into 
+	 * an asset.
+	 *
+	 * @param <D> - Type of the result of the worker.
+	 * @param <T> - Type of the asset.
+	 */
+	public interface Uploader<D, T> {
+		T upload(D data) throws Exception;
+	}
+	
+	/**
+	 * Work done by a worker.
+	 *
+	 * @param <D> - Type of the result.
+	 */
+	public interface Loader<D> {
+		D load() throws Exception;
+	}
+	
+	/**
+	 * Pool of the threads doing the IO, decoding and importing.
+	 */
+	private final ExecutorService workers;
+	
+	/**
+	 * Thread uploading buffers and textures with a shared context.
+	 */
+	private final UploadThread uploadThread;
+	
+	/**
+	 * Uploads waiting for the render thread, in completion order.
+	 */
+	private final Queue<Upload> uploads;
+	
+	/**
+	 * Time in nanoseconds the render thread spends on uploads per frame.
+	 */
+	private long uploadBudget;
+	
+	/**
+	 * Amount of assets which are not uploaded yet.
+	 */
+	private final AtomicInteger pending;
+	
+	/**
+	 * White texture handed out until textures are loaded.
+	 */
+	private final Texture placeholderTexture;
+	
+	/**
+	 * True once dispose was called, uploads finished afterwards are released.
+	 */
+	private boolean disposed;
+	
+	/**
+	 * Creates a new AssetManager. Must be called on the main thread since it
+	 * creates the shared context.
+	 * 
+	 * @param screen - Screen whose context the uploaded objects are used in.
+	 * @param workerCount - Amount of worker threads.
+	 * @param uploadBudget - Time in nanoseconds spent on uploads per frame.
+	 */
+	public AssetManager(Screen screen, int workerCount, long uploadBudget) {
+		AtomicInteger threads = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(workerCount, (Runnable runnable) -> {
+			Thread thread = new Thread(runnable, "ASSET_WORKER_THREAD_" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.uploadThread = new UploadThread(screen);
+		this.uploads = new ConcurrentLinkedQueue<>();
+		this.uploadBudget = uploadBudget;
+		this.pending = new AtomicInteger();
+		
+		ByteBuffer white = MemoryUtil.memAlloc(4);
+		white.putInt(0, 0xFFFFFFFF);
+		this.placeholderTexture = Texture.createTexture(1, 1, white);
+		MemoryUtil.memFree(white);
+	}
+	
+	/**
+	 * Loads the texture at the specified path, decoding it on a worker.
+	 * The handle hands out a white texture until the texture is uploaded.
+	 * 
+	 * @param path - Path of the texture file.
+	 * 
+	 * @return - Handle of the texture.
+	 */
+	public AssetHandle<Texture> loadTexture(String path) {
+		AssetHandle<Texture> handle = new AssetHandle<>(path, this.placeholderTexture);
+		
+		submit(handle, () -> {
+			DecodedImage image = decodeImage(path);
+			return new Upload(handle) {
+				private Texture texture;
+				
+				@Override
+				boolean usesContext() {
+					return true;
+				}
+				
+				@Override
+				void prepare() {
+					this.texture = image.upload();
+				}
+				
+				@Override
+				boolean step() {
+					handle.complete(this.texture);
+					this.texture = null;
+					return true;
+				}
+				
+				@Override
+				void release() {
+					super.release();
+					image.free();
+					if (this.texture != null) {
+						this.texture.delete();
+					}
+				}
+			};
+		});
+		
+		return handle;
+	}
+	
+	/**
+	 * Loads the OBJ file at the specified path, importing it on a worker. The
+	 * handle hands out an empty Mesh until the mesh is uploaded, which is 
+	 * deleted afterwards so it has to be replaced wherever it was used.
+	 * 
+	 * @param path - Path of the OBJ file.
+	 * 
+	 * @return - Handle of the Mesh.
+	 */
+	public AssetHandle<Mesh> loadMesh(String path) {
+		Mesh placeholder = createPlaceholderMesh();
+		AssetHandle<Mesh> handle = new AssetHandle<>(path, placeholder);
+		
+		submit(handle, () -> {
+			ModelData model = OBJLoader.importMesh(path);
+			return new ModelUpload(handle, model, decodeTextures(model), (Mesh[] meshes) -> {
+				handle.complete(meshes[0]);
+				placeholder.delete();
+			});
+		});
+		
+		return handle;
+	}
+	
+	/**
+	 * Loads the model at the specified path through Assimp, importing it and 
+	 * decoding its textures on a worker. The meshes are uploaded one at a 
+	 * time, the handle hands out no meshes until all of them are uploaded.
+	 * 
+	 * @param path - Path of the model.
+	 * @param texturesDir - Path of the textures of the model.
+	 * 
+	 * @return - Handle of the Meshes.
+	 */
+	public AssetHandle<Mesh[]> loadModel(String path, String texturesDir) {
+		AssetHandle<Mesh[]> handle = new AssetHandle<>(path, new Mesh[0]);
+		
+		submit(handle, () -> {
+			ModelData model = StaticMeshLoader.importModel(path, texturesDir, StaticMeshLoader.DEFAULT_FLAGS);
+			return new ModelUpload(handle, model, decodeTextures(model), handle::complete);
+		});
+		
+		return handle;
+	}
+	
+	/**
+	 * Loads the model at the specified path as a static level. Besides
+	 * importing the model the worker builds its collision shape, loads or
+	 * bakes its potentially visible set and combines its static batches,
+	 * whose meshes are uploaded together with the meshes of the model.
+	 *
+	 * @param path - Path of the model.
+	 * @param texturesDir - Path of the textures of the model.
+	 * @param pvsPath - Path of the stored potentially visible set of the level.
+	 * @param position - Position of the level.
+	 * @param scale - Scale of the level.
+	 *
+	 * @return - Handle of the Level.
+	 */
+	public AssetHandle<Level> loadLevel(String path, String texturesDir, String pvsPath, Vector3f position, float scale) {
+		AssetHandle<Level> handle = new AssetHandle<>(path, null);
+		
+		submit(handle, () -> {
+			ModelData model = StaticMeshLoader.importModel(path, texturesDir, StaticMeshLoader.DEFAULT_FLAGS);
+			
+			MeshData[] meshData = model.getMeshes();
+			MeshGeometry[] geometries = new MeshGeometry[meshData.length];
+			int[] materialIndices = new int[meshData.length];
+			for (int i = 0; i < meshData.length; i++) {
+				geometries[i] = meshData[i].getGeometry();
+				materialIndices[i] = meshData[i].getMaterialIndex();
+			}
+			
+			CollisionShape collisionShape = TestRoom.createCollisionShape(geometries, scale);
+			
+			final PotentiallyVisibleSet pvs = loadPvs(geometries, scale, pvsPath);
+			
+			Matrix4f modelMatrix = new Matrix4f().translationRotateScale(position, new Quaternionf(), scale);
+			List<BatchGeometry> batches = StaticBatcher.prepare(geometries, materialIndices, modelMatrix);
+			
+			// Upload the batches as extra meshes of the model, after the meshes of the level.
+			MeshData[] uploadData = Arrays.copyOf(meshData, meshData.length + batches.size());
+			for (int i = 0; i < batches.size(); i++) {
+				BatchGeometry batch = batches.get(i);
+				uploadData[meshData.length + i] = new MeshData(batch.getGeometry(), batch.getMeshlets(),
+						new MeshGeometry[0], batch.getMaterialIndex());
+			}
+			ModelData levelModel = new ModelData(model.getMaterials(), uploadData);
+			
+			return new ModelUpload(handle, levelModel, decodeTextures(levelModel), meshes -> {
+				Mesh[] levelMeshes = Arrays.copyOf(meshes, meshData.length);
+				Mesh[] batchMeshes = Arrays.copyOfRange(meshes, meshData.length, meshes.length);
+				
+				handle.complete(new Level(levelMeshes, collisionShape, pvs, batches, batchMeshes,
+						new Vector3f(position), scale));
+			});
+		});
+		
+		return handle;
+	}
+	
+	/**
+	 * Loads or bakes the potentially visible set of a level.
+	 * 
+	 * @param geometries - Geometry of the meshes of the level.
+	 * @param scale - Scale of the level.
+	 * @param path - Path of the stored potentially visible set.
+	 * 
+	 * @return - The potentially visible set, null if it could not be loaded.
+	 */
+	private static PotentiallyVisibleSet loadPvs(MeshGeometry[] geometries, float scale, String path) {
+		try {
+			return PotentiallyVisibleSet.load(geometries, scale, path);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Loads an asset with the specified work, the loader runs on a worker and
+	 * the uploader on the render thread.
+	 * 
+	 * @param name - Name of the asset.
+	 * @param placeholder - Asset handed out until the asset is uploaded, may be null.
+	 * @param loader - Work done on a worker.
+	 * @param uploader - Work done on the render thread with the result of the loader.
+	 * 
+	 * @return - Handle of the asset.
+	 */
+	public <D, T> AssetHandle<T> load(String name, T placeholder, Loader<D> loader, Uploader<D, T> uploader) {
+		AssetHandle<T> handle = new AssetHandle<>(name, placeholder);
+		
+		submit(handle, () -> {
+			D data = loader.load();
+			return new Upload(handle) {
+				@Override
+				boolean step() throws Exception {
+					handle.complete(uploader.upload(data));
+					return true;
+				}
+			};
+		});
+		
+		return handle;
+	}
+	
+	/**
+	 * Runs the work of an asset on a worker and queues its upload, or its
+	 * failure, for the render thread. Uploads using GL objects are prepared
+	 * on the UploadThread first.
+	 * 
+	 * @param handle - Handle of the asset.
+	 * @param loader - Work returning the upload of the asset.
+	 */
+	private void submit(AssetHandle<?> handle, Loader<Upload> loader) {
+		this.pending.incrementAndGet();
+		
+		this.workers.execute(() -> {
+			Upload upload;
+			try {
+				upload = loader.load();
+			} catch (Throwable e) {
+				publish(failed(handle, e));
+				return;
+			}
+			
+			if (!upload.usesContext()) {
+				publish(upload);
+				return;
+			}
+			
+			try {
+				this.uploadThread.execute(new PrepareTask(upload));
+			} catch (RejectedExecutionException e) {
+				// Disposed while the worker was busy.
+				upload.release();
+			}
+		});
+	}
+	
+	/**
+	 * Queues the specified upload for the render thread, or releases it if 
+	 * this AssetManager was disposed in the meantime.
+	 * 
+	 * @param upload - Upload to queue.
+	 */
+	private void publish(Upload upload) {
+		synchronized (this.uploads) {
+			if (!this.disposed) {
+				this.uploads.add(upload);
+				return;
+			}
+		}
+		
+		upload.release();
+	}
+	
+	/**
+	 * Creates an upload reporting the failure of an asset.
+	 * 
+	 * @param handle - Handle of the asset.
+	 * @param error - Cause of the failure.
+	 * 
+	 * @return - The upload failing the handle.
+	 */
+	private static Upload failed(AssetHandle<?> handle, Throwable error) {
+		return new Upload(handle) {
+			@Override
+			boolean step() {
+				handle.fail(error);
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * Makes the queued uploads until the upload budget of this frame is used 
+	 * up or an upload waits for its fence. At least one upload step is made 
+	 * every frame so loading always progresses. Must be called on the render
+	 * thread once per frame.
+	 */
+	public void update() {
+		long start = System.nanoTime();
+		
+		Upload upload;
+		while ((upload = this.uploads.peek()) != null) {
+			boolean done;
+			try {
+				// Objects from the shared context may only be used once their uploads are complete.
+				if (!upload.isReady()) {
+					break;
+				}
+				
+				done = upload.step();
+			} catch (Exception e) {
+				upload.release();
+				upload.target.fail(e);
+				done = true;
+			}
+			
+			if (done) {
+				this.uploads.poll();
+				this.pending.decrementAndGet();
+			}
+			
+			if (System.nanoTime() - start >= this.uploadBudget) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Checks if all the requested assets are uploaded or failed.
+	 * 
+	 * @return - True if no asset is being loaded; False otherwise.
+	 */
+	public boolean isIdle() {
+		return this.pending.get() == 0;
+	}
+	
+	/**
+	 * Setter for the time spent on uploads per frame.
+	 * 
+	 * @param uploadBudget - Time in nanoseconds.
+	 */
+	public void setUploadBudget(long uploadBudget) {
+		this.uploadBudget = uploadBudget;
+	}
+	
+	/**
+	 * Stops the workers and the UploadThread and releases the assets which 
+	 * are not uploaded yet, wherever they are in the pipeline. Workers still 
+	 * busy afterwards release their uploads themselves. Must be called on the
+	 * main thread.
+	 */
+	public void dispose() {
+		List<Upload> dropped = new ArrayList<>();
+		synchronized (this.uploads) {
+			this.disposed = true;
+			dropped.addAll(this.uploads);
+			this.uploads.clear();
+		}
+		
+		this.workers.shutdownNow();
+		try {
+			this.workers.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		for (Runnable task : this.uploadThread.dispose()) {
+			dropped.add(((PrepareTask) task).upload);
+		}
+		
+		for (Upload upload : dropped) {
+			upload.release();
+		}
+		
+		this.placeholderTexture.delete();
+	}
+	
+	/**
+	 * Creates an empty Mesh handed out until a Mesh is loaded.
+	 * 
+	 * @return - Mesh of a single degenerate triangle.
+	 */
+	private static Mesh createPlaceholderMesh() {
+		Mesh mesh = new Mesh(new float[9], new float[6], new float[9], new int[] {0, 1, 2});
+		mesh.releaseGeometry();
+		mesh.setMaterial(new Material());
+		
+		return mesh;
+	}
+	
+	/**
+	 * Decodes the textures of a model which are not in the TextureCache yet.
+	 * Runs on a worker, the cache is checked again when uploading.
+	 * 
+	 * @param model - The imported model.
+	 * 
+	 * @return - The decoded textures.
+	 */
+	private static List<DecodedImage> decodeTextures(ModelData model) {
+		List<DecodedImage> images = new ArrayList<>();
+		for (String path : model.getTexturePaths()) {
+			try {
+				images.add(decodeImage(path));
+			} catch (Exception e) {
+				// Left to the material, which reports the missing texture when uploaded.
+			}
+		}
+		
+		return images;
+	}
+	
+	/**
+	 * Decodes the image at the specified path into RGBA pixels.
+	 * 
+	 * @param path - Path of the image file.
+	 * 
+	 * @return - The decoded image.
+	 * 
+	 * @throws Exception - When the image couldn't be decoded.
+	 */
+	private static DecodedImage decodeImage(String path) throws Exception {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer w = stack.mallocInt(1);
+			IntBuffer h = stack.mallocInt(1);
+			IntBuffer comp = stack.mallocInt(1);
+			
+			stbi_set_flip_vertically_on_load(false);
+			ByteBuffer pixels = stbi_load(path, w, h, comp, 4);
+			if (pixels == null) {
+				throw new Exception("Failed to load a texture file! " + stbi_failure_reason());
+			}
+			
+			return new DecodedImage(path, w.get(0), h.get(0), pixels);
+		}
+	}
+	
+	/**
+	 * Image decoded by a worker waiting to be uploaded.
+	 */
+	private static class DecodedImage {
+		private final String path;
+		
+		private final int width;
+		
+		private final int height;
+		
+		private ByteBuffer pixels;
+		
+		DecodedImage(String path, int width, int height, ByteBuffer pixels) {
+			this.path = path;
+			this.width = width;
+			this.height = height;
+			this.pixels = pixels;
+		}
+		
+		/**
+		 * Uploads the image into a new texture and frees the pixels.
+		 * 
+		 * @return - The texture.
+		 */
+		Texture upload() {
+			Texture texture = Texture.createTexture(this.width, this.height, this.pixels);
+			free();
+			return texture;
+		}
+		
+		void free() {
+			if (this.pixels != null) {
+				stbi_image_free(this.pixels);
+				this.pixels = null;
+			}
+		}
+	}
+	
+	/**
+	 * Work made on the render thread to upload an asset, split into steps 
+	 * short enough to be spread over several frames.
+	 */
+	private abstract static class Upload {
+		/**
+		 * Handle of the uploaded asset.
+		 */
+		final AssetHandle<?> target;
+		
+		/**
+		 * Fence after the GL uploads of prepare or 0 if there is none.
+		 */
+		long fence;
+		
+		Upload(AssetHandle<?> target) {
+			this.target = target;
+		}
+		
+		/**
+		 * Checks if the upload uploads GL objects on the UploadThread.
+		 * 
+		 * @return - True if prepare has to be called on the UploadThread; False otherwise.
+		 */
+		boolean usesContext() {
+			return false;
+		}
+		
+		/**
+		 * Uploads the buffers and textures of the asset on the UploadThread.
+		 */
+		void prepare() throws Exception {
+			
+		}
+		
+		/**
+		 * Checks if the uploads of prepare are complete, called on the render thread.
+		 * 
+		 * @return - True if the upload can be stepped; False otherwise.
+		 * 
+		 * @throws IllegalStateException - If waiting for the fence failed.
+		 */
+		boolean isReady() {
+			if (this.fence != 0) {
+				long fence = this.fence;
+				
+				// The fence is deleted by isSignaled once signaled or when the wait failed.
+				this.fence = 0;
+				if (!UploadThread.isSignaled(fence)) {
+					this.fence = fence;
+				}
+			}
+			
+			return this.fence == 0;
+		}
+		
+		/**
+		 * Makes the next step of the upload.
+		 * 
+		 * @return - True if the upload is complete; False otherwise.
+		 */
+		abstract boolean step() throws Exception;
+		
+		/**
+		 * Frees the memory and GL objects of an upload which is dropped before
+		 * it completed.
+		 */
+		void release() {
+			if (this.fence != 0) {
+				glDeleteSync(this.fence);
+				this.fence = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Prepares an upload on the UploadThread and queues it for the render 
+	 * thread behind a fence.
+	 */
+	private class PrepareTask implements Runnable {
+		private final Upload upload;
+		
+		PrepareTask(Upload upload) {
+			this.upload = upload;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				this.upload.prepare();
+				this.upload.fence = UploadThread.fence();
+			} catch (Throwable e) {
+				this.upload.release();
+				publish(failed(this.upload.target, e));
+				return;
+			}
+			
+			publish(this.upload);
+		}
+	}
+	
+	/**
+	 * Upload of a model. The textures and the buffers of all meshes are 
+	 * uploaded on the UploadThread, the render thread then creates the 
+	 * materials in one step and one mesh per step.
+	 */
+	private static class ModelUpload extends Upload {
+		private final ModelData model;
+		
+		private final List<DecodedImage> images;
+		
+		private final Consumer<Mesh[]> completion;
+		
+		/**
+		 * Textures of the decoded images, null once handed to the TextureCache.
+		 */
+		private Texture[] textures;
+		
+		/**
+		 * Buffers of every mesh, null once taken over by the mesh.
+		 */
+		private final MeshBuffers[][] buffers;
+		
+		private final Mesh[] meshes;
+		
+		private Material[] materials;
+		
+		/**
+		 * Index of the next step.
+		 */
+		private int next;
+		
+		ModelUpload(AssetHandle<?> handle, ModelData model, List<DecodedImage> images, Consumer<Mesh[]> completion) {
+			super(handle);
+			this.model = model;
+			this.images = images;
+			this.completion = completion;
+			this.buffers = new MeshBuffers[model.getMeshes().length][];
+			this.meshes = new Mesh[model.getMeshes().length];
+		}
+		
+		@Override
+		boolean usesContext() {
+			return true;
+		}
+		
+		@Override
+		void prepare() {
+			this.textures = new Texture[this.images.size()];
+			for (int i = 0; i < this.textures.length; i++) {
+				this.textures[i] = this.images.get(i).upload();
+			}
+			
+			MeshData[] meshData = this.model.getMeshes();
+			for (int i = 0; i < meshData.length; i++) {
+				this.buffers[i] = meshData[i].uploadBuffers();
+			}
+		}
+		
+		@Override
+		boolean step() {
+			int step = this.next++;
+			
+			if (step == 0) {
+				TextureCache cache = TextureCache.getInstance();
+				for (int i = 0; i < this.textures.length; i++) {
+					String path = this.images.get(i).path;
+					if (cache.contains(path)) {
+						this.textures[i].delete();
+					} else {
+						cache.putTexture(path, this.textures[i]);
+					}
+				}
+				this.textures = null;
+				
+				this.materials = this.model.createMaterials();
+			} else {
+				int mesh = step - 1;
+				this.meshes[mesh] = this.model.getMeshes()[mesh].upload(this.materials, this.buffers[mesh]);
+				this.buffers[mesh] = null;
+			}
+			
+			if (this.next < 1 + this.meshes.length) {
+				return false;
+			}
+			
+			this.completion.accept(this.meshes);
+			return true;
+		}
+		
+		@Override
+		void release() {
+			super.release();
+			
+			for (DecodedImage image : this.images) {
+				image.free();
+			}
+			
+			if (this.textures != null) {
+				for (Texture texture : this.textures) {
+					if (texture != null) {
+						texture.delete();
+					}
+				}
+			}
+			
+			// Delete the meshes created so far, no handle received them. Their 
+			// textures stay in the TextureCache.
+			MeshData[] meshData = this.model.getMeshes();
+			for (int i = 0; i < meshData.length; i++) {
+				if (this.meshes[i] != null) {
+					this.meshes[i].deleteKeepingTextures();
+					this.meshes[i] = null;
+					continue;
+				}
+				
+				// Free the geometry and buffers of the meshes which were not created.				
+				if (this.buffers[i] != null) {
+					for (MeshBuffers meshBuffers : this.buffers[i]) {
+						meshBuffers.delete();
+					}
+				}
+				
+				meshData[i].getGeometry().release();
+				for (MeshGeometry lod : meshData[i].getLods()) {
+					lod.release();
+				}
+			}
+		}
+	}
+}
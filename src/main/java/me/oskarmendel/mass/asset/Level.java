@@ -0,0 +1,166 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.asset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joml.Vector3f;
+
+import com.bulletphysics.collision.shapes.CollisionShape;
+
+import me.oskarmendel.mass.entity.Entity;
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.batch.StaticBatch;
+import me.oskarmendel.mass.gfx.batch.StaticBatcher;
+import me.oskarmendel.mass.gfx.batch.StaticBatcher.BatchGeometry;
+import me.oskarmendel.mass.gfx.pvs.PotentiallyVisibleSet;
+
+/**
+ * Static level loaded by the AssetManager. Everything derived from the 
+ * geometry of the level, its collision shape, its potentially visible set
+ * and its static batches, is prepared while loading so adding the level 
+ * to the scene only has to create the entities.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name Level.java
+ */
+public class Level {
+	
+	/**
+	 * Meshes of the level.
+	 */
+	private final Mesh[] meshes;
+	
+	/**
+	 * Collision shape built from the geometry of the meshes.
+	 */
+	private final CollisionShape collisionShape;
+	
+	/**
+	 * Potentially visible set of the level, null if it could not be loaded.
+	 */
+	private final PotentiallyVisibleSet potentiallyVisibleSet;
+	
+	/**
+	 * Static batches prepared for the level.
+	 */
+	private final List<BatchGeometry> batches;
+	
+	/**
+	 * Mesh uploaded for every static batch.
+	 */
+	private final Mesh[] batchMeshes;
+	
+	private final Vector3f position;
+	
+	private final float scale;
+	
+	/**
+	 * Creates a new Level.
+	 * 
+	 * @param meshes - Meshes of the level.
+	 * @param collisionShape - Collision shape built from the geometry of the meshes.
+	 * @param potentiallyVisibleSet - Potentially visible set of the level, may be null.
+	 * @param batches - Static batches prepared for the level.
+	 * @param batchMeshes - Mesh uploaded for every static batch.
+	 * @param position - Position the level was prepared at.
+	 * @param scale - Scale the level was prepared with.
+	 */
+	Level(Mesh[] meshes, CollisionShape collisionShape, PotentiallyVisibleSet potentiallyVisibleSet, 
+			List<BatchGeometry> batches, Mesh[] batchMeshes, Vector3f position, float scale) {
+		this.meshes = meshes;
+		this.collisionShape = collisionShape;
+		this.potentiallyVisibleSet = potentiallyVisibleSet;
+		this.batches = batches;
+		this.batchMeshes = batchMeshes;
+		this.position = position;
+		this.scale = scale;
+	}
+	
+	/**
+	 * Creates the static batches of the level for the specified entity, 
+	 * which has to be created from the meshes of this level at its 
+	 * position and scale.
+	 * 
+	 * @param level - Entity of the level.
+	 * 
+	 * @return - The static batches.
+	 */
+	public List<StaticBatch> createBatches(Entity level) {
+		List<StaticBatch> staticBatches = new ArrayList<>(this.batches.size());
+		for (int i = 0; i < this.batches.size(); i++) {
+			staticBatches.add(StaticBatcher.create(this.batches.get(i), this.batchMeshes[i], level));
+		}
+		
+		return staticBatches;
+	}
+	
+	/**
+	 * Getter for the meshes of the level.
+	 * 
+	 * @return - The meshes.
+	 */
+	public Mesh[] getMeshes() {
+		return this.meshes;
+	}
+	
+	/**
+	 * Getter for the collision shape of the level.
+	 * 
+	 * @return - The collision shape.
+	 */
+	public CollisionShape getCollisionShape() {
+		return this.collisionShape;
+	}
+	
+	/**
+	 * Getter for the potentially visible set of the level.
+	 * 
+	 * @return - The potentially visible set, null if it could not be loaded.
+	 */
+	public PotentiallyVisibleSet getPotentiallyVisibleSet() {
+		return this.potentiallyVisibleSet;
+	}
+	
+	/**
+	 * Getter for the position of the level.
+	 * 
+	 * @return - The position.
+	 */
+	public Vector3f getPosition() {
+		return this.position;
+	}
+	
+	/**
+	 * Getter for the scale of the level.
+	 * 
+	 * @return - The scale.
+	 */
+	public float getScale() {
+		return this.scale;
+	}
+}
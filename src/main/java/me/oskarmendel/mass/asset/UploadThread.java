@@ -0,0 +1,196 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.asset;
+
+import static org.lwjgl.glfw.GLFW.glfwDestroyWindow;
+import static org.lwjgl.glfw.GLFW.glfwMakeContextCurrent;
+import static org.lwjgl.opengl.GL11.glFlush;
+import static org.lwjgl.opengl.GL32.GL_ALREADY_SIGNALED;
+import static org.lwjgl.opengl.GL32.GL_CONDITION_SATISFIED;
+import static org.lwjgl.opengl.GL32.GL_SYNC_GPU_COMMANDS_COMPLETE;
+import static org.lwjgl.opengl.GL32.GL_WAIT_FAILED;
+import static org.lwjgl.opengl.GL32.glClientWaitSync;
+import static org.lwjgl.opengl.GL32.glDeleteSync;
+import static org.lwjgl.opengl.GL32.glFenceSync;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.lwjgl.opengl.GL;
+
+import me.oskarmendel.mass.core.Screen;
+
+/**
+ * Thread owning a GL context shared with the context of the Screen. Buffers
+ * and textures are uploaded on this thread so the driver copies of large 
+ * uploads never block the render thread. Every batch of uploads is followed
+ * by a fence, the render thread only uses the uploaded objects once the 
+ * fence is signaled. Vertex array objects are not shared between contexts
+ * so they are still created on the render thread.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name UploadThread.java
+ */
+public class UploadThread implements Runnable {
+	
+	/**
+	 * Handle of the hidden window owning the shared context.
+	 */
+	private final long window;
+	
+	/**
+	 * Uploads waiting to be made on this thread.
+	 */
+	private final BlockingQueue<Runnable> tasks;
+	
+	/**
+	 * The thread the shared context is current on.
+	 */
+	private final Thread thread;
+	
+	/**
+	 * True once dispose was called.
+	 */
+	private boolean disposed;
+	
+	/**
+	 * Creates the shared context of the specified Screen and starts the 
+	 * thread making it current. Must be called on the main thread.
+	 * 
+	 * @param screen - Screen to share the context with.
+	 */
+	public UploadThread(Screen screen) {
+		this.window = screen.createSharedContext();
+		this.tasks = new LinkedBlockingQueue<>();
+		
+		this.thread = new Thread(this, "ASSET_UPLOAD_THREAD");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	@Override
+	public void run() {
+		glfwMakeContextCurrent(this.window);
+		GL.createCapabilities();
+		
+		try {
+			while (true) {
+				this.tasks.take().run();
+			}
+		} catch (InterruptedException e) {
+			// Disposed.
+		} finally {
+			GL.setCapabilities(null);
+			glfwMakeContextCurrent(NULL);
+		}
+	}
+	
+	/**
+	 * Queues the specified uploads to be made on this thread.
+	 * 
+	 * @param task - Uploads using the shared context.
+	 * 
+	 * @throws RejectedExecutionException - When this thread was disposed.
+	 */
+	public synchronized void execute(Runnable task) {
+		if (this.disposed) {
+			throw new RejectedExecutionException("Upload thread was disposed");
+		}
+		
+		this.tasks.add(task);
+	}
+	
+	/**
+	 * Inserts a fence after the uploads made so far and flushes them to the 
+	 * GPU so the fence gets signaled without this thread issuing more 
+	 * commands. Must be called on this thread.
+	 * 
+	 * @return - The fence.
+	 */
+	public static long fence() {
+		long fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		glFlush();
+		
+		return fence;
+	}
+	
+	/**
+	 * Checks without waiting if the specified fence is signaled and deletes 
+	 * it once it is. Called on the render thread.
+	 * 
+	 * @param fence - Fence returned by fence.
+	 * 
+	 * @return - True if the uploads before the fence are complete; False otherwise.
+	 * 
+	 * @throws IllegalStateException - If the wait failed, the fence is deleted 
+	 * 		and the uploads before it can't be trusted to be complete.
+	 */
+	public static boolean isSignaled(long fence) {
+		int status = glClientWaitSync(fence, 0, 0);
+		
+		if (status == GL_WAIT_FAILED) {
+			glDeleteSync(fence);
+			throw new IllegalStateException("Waiting for the upload fence failed");
+		}
+		
+		if (status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED) {
+			glDeleteSync(fence);
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Stops the thread and destroys the shared context. The upload being made
+	 * is finished, the ones still queued are returned without being run and 
+	 * later ones are rejected. Must be called on the main thread.
+	 * 
+	 * @return - The tasks which were never run.
+	 */
+	public List<Runnable> dispose() {
+		List<Runnable> dropped = new ArrayList<>();
+		synchronized (this) {
+			this.disposed = true;
+			this.tasks.drainTo(dropped);
+		}
+		
+		this.thread.interrupt();
+		try {
+			this.thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		glfwDestroyWindow(this.window);
+		
+		return dropped;
+	}
+}
@@ -52,6 +52,12 @@ public class Camera {
      * The camera view matrix.
      */
     private Matrix4f viewMatrix;
+    
+    /**
+     * True if the position or rotation of the camera changed since
+     * the last rendered frame.
+     */
+    private boolean changed;
 
     /**
      * Default constructor for the Camera class initializing
@@ -61,6 +67,7 @@ public class Camera {
         this.position = new Vector3f(0, 0, 0);
         this.rotation = new Vector3f(0, 0, 0);
         this.viewMatrix = new Matrix4f();
+        this.changed = true;
     }
 
     /**
@@ -73,6 +80,7 @@ public class Camera {
     public Camera(Vector3f position, Vector3f rotation) {
         this.position = position;
         this.rotation = rotation;
+        this.changed = true;
     }
 
     /**
@@ -93,6 +101,10 @@ public class Camera {
      * @param z - Z Coordinate.
      */
     public void setPosition(float x, float y, float z) {
+    	if (this.position.x != x || this.position.y != y || this.position.z != z) {
+    		this.changed = true;
+    	}
+    	
         this.position.x = x;
         this.position.y = y;
         this.position.z = z;
@@ -107,6 +119,10 @@ public class Camera {
      * @param deltaZ - Value to move the z position by.
      */
     public void movePosition(float deltaX, float deltaY, float deltaZ) {
+    	if (deltaX != 0 || deltaY != 0 || deltaZ != 0) {
+    		this.changed = true;
+    	}
+    	
         if (deltaZ != 0) {
             position.x += (float)Math.sin(Math.toRadians(rotation.y)) * -1.0f * deltaZ;
             position.z += (float)Math.cos(Math.toRadians(rotation.y)) * deltaZ;
@@ -139,6 +155,10 @@ public class Camera {
      * @param z - Z Rotation.
      */
     public void setRotation(float x, float y, float z) {
+    	if (this.rotation.x != x || this.rotation.y != y || this.rotation.z != z) {
+    		this.changed = true;
+    	}
+    	
         this.rotation.x = x;
         this.rotation.y = y;
         this.rotation.z = z;
@@ -153,6 +173,10 @@ public class Camera {
      * @param deltaZ - Value to move the x rotation by.
      */
     public void moveRotation(float deltaX, float deltaY, float deltaZ) {
+    	if (deltaX != 0 || deltaY != 0 || deltaZ != 0) {
+    		this.changed = true;
+    	}
+    	
         this.rotation.x += deltaX;
         this.rotation.y += deltaY;
         this.rotation.z += deltaZ;
@@ -176,4 +200,22 @@ public class Camera {
     public Matrix4f updateViewMatrix() {
         return Transformation.updateGenericViewMatrix(position, rotation, viewMatrix);
     }
+    
+    /**
+     * Getter for the changed value of the camera.
+     * 
+     * @return - True if the camera moved or rotated since the last rendered frame; False otherwise.
+     */
+    public boolean hasChanged() {
+    	return this.changed;
+    }
+    
+    /**
+     * Setter for the changed value of the camera.
+     * 
+     * @param changed - The changed value to set.
+     */
+    public void setChanged(boolean changed) {
+    	this.changed = changed;
+    }
 }
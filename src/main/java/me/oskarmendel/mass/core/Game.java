@@ -24,6 +24,9 @@
 
 package me.oskarmendel.mass.core;
 
+import me.oskarmendel.mass.asset.AssetHandle;
+import me.oskarmendel.mass.asset.AssetManager;
+import me.oskarmendel.mass.asset.Level;
 import me.oskarmendel.mass.entity.Entity;
 import me.oskarmendel.mass.entity.SkyBox;
 import me.oskarmendel.mass.entity.TestRoom;
@@ -31,6 +34,9 @@ import me.oskarmendel.mass.entity.masster.MassterBall;
 import me.oskarmendel.mass.entity.mob.Player;
 import me.oskarmendel.mass.gfx.*;
 import me.oskarmendel.mass.gfx.light.DirectionalLight;
+import me.oskarmendel.mass.gfx.pvs.PotentiallyVisibleSet;
+import me.oskarmendel.mass.gfx.shadow.ShadowFilterQuality;
+import me.oskarmendel.mass.gfx.shadow.ShadowTechnique;
 import me.oskarmendel.mass.gfx.weather.Fog;
 import me.oskarmendel.mass.hud.Font;
 import me.oskarmendel.mass.hud.Hud;
@@ -38,14 +44,14 @@ import me.oskarmendel.mass.hud.HudTextComponent;
 import me.oskarmendel.mass.input.MouseHandler;
 import me.oskarmendel.mass.phys.Collidable;
 import me.oskarmendel.mass.phys.PhysicsSpace;
-import me.oskarmendel.mass.util.OBJLoader;
 import me.oskarmendel.mass.util.Timer;
-import me.oskarmendel.mass.util.assimp.StaticMeshLoader;
 
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.lwjgl.glfw.GLFWErrorCallback;
 
+import java.util.Arrays;
+
 import static org.lwjgl.glfw.GLFW.*;
 
 /**
@@ -67,6 +73,11 @@ public class Game implements Runnable {
 
     public static final float CAMERA_POS_STEP = 0.05f;
 
+    /**
+     * Time in nanoseconds spent on uploading loaded assets every frame.
+     */
+    public static final long ASSET_UPLOAD_BUDGET = 2000000L;
+
     /**
      * The error callback for GLFW.
      * Strong reference due to the garbage collector.
@@ -107,6 +118,11 @@ public class Game implements Runnable {
     
     private PhysicsSpace physicsSpace;
     
+    /**
+     * Loads the assets of the game in the background.
+     */
+    private AssetManager assetManager;
+    
     MassterBall massterBall;
     TestRoom room;
     Player player;
@@ -154,7 +170,7 @@ public class Game implements Runnable {
         }
 
         ScreenOptions screenOptions = new ScreenOptionsBuilder().cullFace(false).showTriangles(false)
-                .showFPS(false).compatibleProfile(false).antialiasing(false).frustumCulling(true).build();
+                .showFPS(false).compatibleProfile(false).antialiasing(false).frustumCulling(true).occlusionCulling(true).build();
 
         // Create the GLFW screen.
         screen = new Screen(SCREEN_WIDTH, SCREEN_HEIGHT, SCREEN_TITLE, VSYNC, screenOptions);
@@ -167,7 +183,7 @@ public class Game implements Runnable {
 
         // Initialize renderer.
         try {
-			renderer.init();
+			renderer.init(screen);
 		} catch (Exception e1) {
 			e1.printStackTrace();
 		}
@@ -175,54 +191,56 @@ public class Game implements Runnable {
         scene = new Scene();
         scene.setRenderShadows(false);
         
-        Texture t = Texture.loadTexture("src/main/resources/textures/hexmap.png");
-        try {
-            Mesh cubeMesh = OBJLoader.loadMesh("src/main/resources/models/cube.obj");
-            Mesh[] testRoomMesh = StaticMeshLoader.load("src/main/resources/models/office/cs_office.obj", "src/main/resources/models/office/");
-            
-            Material mat = new Material(t, 1.0f);
+        assetManager = new AssetManager(screen, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), ASSET_UPLOAD_BUDGET);
+        
+        // The game starts right away with placeholders, assets replace them once uploaded.
+        AssetHandle<Texture> hexmap = assetManager.loadTexture("src/main/resources/textures/hexmap.png");
+        Material mat = new Material(hexmap.get(), 1.0f);
+        hexmap.onLoaded(mat::setTexture);
+        
+        AssetHandle<Mesh> cube = assetManager.loadMesh("src/main/resources/models/cube.obj");
+        cube.onLoaded((Mesh cubeMesh) -> {
+            // The cube only uses primitive collision shapes so its geometry is not needed after the upload.
+            cubeMesh.releaseGeometry();
             cubeMesh.setMaterial(mat);
-            //testRoomMesh.setMaterial(new Material());
-            
-            player = new Player(cubeMesh);
-            
-            massterBall = new MassterBall(cubeMesh);
-            massterBall.setPosition(0, -1, 0);
-            
-            room = new TestRoom(testRoomMesh, 0.1f);
-            room.setPosition(0, -1, 0);
-            room.setDisableFrustrumCulling(true);
-            
+            scene.replaceMesh(cube.getPlaceholder(), cubeMesh);
+        });
+        
+        player = new Player(cube.get());
+        
+        massterBall = new MassterBall(cube.get());
+        massterBall.setPosition(0, -1, 0);
+        
+        entities = new Entity[]{massterBall, player};
+        
+        AssetHandle<Level> office = assetManager.loadLevel("src/main/resources/models/office/cs_office.obj", 
+                "src/main/resources/models/office/", "src/main/resources/models/office/cs_office.pvs", 
+                new Vector3f(0, -1, 0), 0.1f);
+        office.onLoaded(this::addLevel);
+        
+        AssetHandle<Mesh[]> skyBoxMesh = assetManager.loadModel("src/main/resources/models/skybox.obj", "");
+        skyBoxMesh.onLoaded((Mesh[] meshes) -> {
             float skyBoxScale = 300.0f;
-            SkyBox skyBox = new SkyBox("src/main/resources/models/skybox.obj", new Color(1f, 0.0f, 0.0f));
+            SkyBox skyBox = new SkyBox(meshes[0], new Color(1f, 0.0f, 0.0f));
             skyBox.setScale(skyBoxScale);
             scene.setSkyBox(skyBox);
-            
-            entities = new Entity[]{massterBall, room, player};
-            
-            // Initialize the font for the Hud.
-            font = new Font("src/main/resources/font/OpenSans-Bold.ttf");
-            
-            // Initialize the Hud.
-            hud = new Hud(screenOptions, font, SCREEN_WIDTH, SCREEN_HEIGHT);
-            text = new HudTextComponent("HP: 100", 0, SCREEN_HEIGHT-40);
-            hud.addHudComponent(text);
-            
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        });
+        
+        // Initialize the font for the Hud on a worker and the Hud once it is loaded.
+        assetManager.load("src/main/resources/font/OpenSans-Bold.ttf", null, 
+                () -> new Font("src/main/resources/font/OpenSans-Bold.ttf"), 
+                (Font loadedFont) -> {
+                    font = loadedFont;
+                    hud = new Hud(screenOptions, font, SCREEN_WIDTH, SCREEN_HEIGHT);
+                    text = new HudTextComponent("HP: 100", 0, SCREEN_HEIGHT-40);
+                    hud.addHudComponent(text);
+                    return hud;
+                });
 
         physicsSpace = new PhysicsSpace();
         
         for (Entity ent : entities) {
-        	if (ent instanceof Collidable) {
-        	    if (ent instanceof Player) {
-                    physicsSpace.addCollisionObject(((Player) ent).getGhostObject());
-                    physicsSpace.addAction(((Player) ent).getCharacterController());
-                } else {
-                    physicsSpace.addRigidBody(((Collidable) ent).getRigidBody());
-                }
-        	}
+        	addToPhysics(ent);
         }
         
         scene.setEntities(entities);
@@ -236,6 +254,49 @@ public class Game implements Runnable {
         running = true;
     }
     
+    /**
+     * Adds the level to the game once it is loaded. Everything expensive was
+     * prepared while loading, only the entities are created here.
+     * 
+     * @param level - The loaded level.
+     */
+    private void addLevel(Level level) {
+        room = new TestRoom(level.getMeshes(), level.getScale(), level.getCollisionShape());
+        room.setPosition(level.getPosition().x, level.getPosition().y, level.getPosition().z);
+        room.setDisableFrustrumCulling(true);
+        room.setStatic(true);
+        
+        PotentiallyVisibleSet pvs = level.getPotentiallyVisibleSet();
+        if (pvs != null) {
+            pvs.attach(room);
+            scene.setPotentiallyVisibleSet(pvs);
+        }
+        
+        addToPhysics(room);
+        
+        entities = Arrays.copyOf(entities, entities.length + 1);
+        entities[entities.length - 1] = room;
+        
+        scene.setEntities(entities);
+        scene.setEntityMeshes(new Entity[]{room}, level.createBatches(room));
+    }
+    
+    /**
+     * Adds the collision objects of the specified entity to the physics space.
+     * 
+     * @param ent - Entity to add.
+     */
+    private void addToPhysics(Entity ent) {
+    	if (ent instanceof Collidable) {
+    	    if (ent instanceof Player) {
+                physicsSpace.addCollisionObject(((Player) ent).getGhostObject());
+                physicsSpace.addAction(((Player) ent).getCharacterController());
+            } else {
+                physicsSpace.addRigidBody(((Collidable) ent).getRigidBody());
+            }
+    	}
+    }
+    
     /**
      * 
      */
@@ -283,6 +344,9 @@ public class Game implements Runnable {
             // Update game and game logic.
             update();
 
+            // Upload the assets loaded in the background.
+            assetManager.update();
+
             render();
 
             screen.update();
@@ -300,6 +364,11 @@ public class Game implements Runnable {
      * This method releases resources used by the game.
      */
     public void dispose() {
+        // Stop loading assets.
+        if (assetManager != null) {
+            assetManager.dispose();
+        }
+
         // Dispose the renderer.
         renderer.dispose();
 
@@ -343,6 +412,27 @@ public class Game implements Runnable {
         } else if (screen.isKeyPressed(GLFW_KEY_X)) {
             cameraInc.y = 1;
         }
+        
+        // Select the shadow filter quality.
+        if (screen.isKeyPressed(GLFW_KEY_1)) {
+        	renderer.setShadowFilterQuality(ShadowFilterQuality.LOW);
+        	sceneChanged = true;
+        } else if (screen.isKeyPressed(GLFW_KEY_2)) {
+        	renderer.setShadowFilterQuality(ShadowFilterQuality.MEDIUM);
+        	sceneChanged = true;
+        } else if (screen.isKeyPressed(GLFW_KEY_3)) {
+        	renderer.setShadowFilterQuality(ShadowFilterQuality.HIGH);
+        	sceneChanged = true;
+        }
+        
+        // Select the shadow technique.
+        if (screen.isKeyPressed(GLFW_KEY_4)) {
+        	renderer.setShadowTechnique(ShadowTechnique.PCF);
+        	sceneChanged = true;
+        } else if (screen.isKeyPressed(GLFW_KEY_5)) {
+        	renderer.setShadowTechnique(ShadowTechnique.EVSM);
+        	sceneChanged = true;
+        }
     }
 
     /**
@@ -374,7 +464,10 @@ public class Game implements Runnable {
         	}
         }
         
-        physicsSpace.tick();
+        // The player falls through the world until the level is loaded.
+        if (room != null) {
+            physicsSpace.tick();
+        }
     }
 
     /**
@@ -383,6 +476,8 @@ public class Game implements Runnable {
     public void render() {
         renderer.render(this.screen, this.camera, this.scene, sceneChanged);
         
-        hud.render(this.screen);
+        if (hud != null) {
+            hud.render(this.screen);
+        }
     }
 }
@@ -25,6 +25,7 @@
 package me.oskarmendel.mass.core;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,7 +34,10 @@ import me.oskarmendel.mass.entity.Entity;
 import me.oskarmendel.mass.entity.SkyBox;
 import me.oskarmendel.mass.gfx.InstancedMesh;
 import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.batch.StaticBatch;
+import me.oskarmendel.mass.gfx.batch.StaticBatcher;
 import me.oskarmendel.mass.gfx.particle.ParticleEmitter;
+import me.oskarmendel.mass.gfx.pvs.PotentiallyVisibleSet;
 import me.oskarmendel.mass.gfx.weather.Fog;
 
 /**
@@ -85,6 +89,26 @@ public class Scene {
 	 */
 	private ParticleEmitter[] particleEmitters;
 	
+	/**
+	 * Potentially visible set of the static level in this Scene.
+	 */
+	private PotentiallyVisibleSet potentiallyVisibleSet;
+	
+	/**
+	 * Batches drawing the combined Meshes of the static Entities.
+	 */
+	private List<StaticBatch> staticBatches;
+	
+	/**
+	 * Meshes no longer drawn by this Scene since the last call to pollRemovedMeshes.
+	 */
+	private final List<Mesh> removedMeshes;
+	
+	/**
+	 * Entities removed from this Scene since the last call to pollRemovedEntities.
+	 */
+	private final List<Entity> removedEntities;
+	
 	/**
 	 * Default constructor for a scene. Initializes
 	 * all the fields of this scene.
@@ -92,6 +116,9 @@ public class Scene {
 	public Scene() {
 		meshMap = new HashMap<>();
 		instancedMeshMap = new HashMap<>();
+		staticBatches = new ArrayList<>();
+		removedMeshes = new ArrayList<>();
+		removedEntities = new ArrayList<>();
 		
 		renderShadows = true;
 	}
@@ -118,18 +145,48 @@ public class Scene {
 	
 	/**
 	 * Populates the maps of shared Meshes by walking through all the
-	 * Meshes among the Entities.
+	 * Meshes among the Entities. The Meshes of static Entities sharing 
+	 * a Material are combined into static batches which replace them in 
+	 * the maps, so the potentially visible set has to be set before.
+	 * 
+	 * Entities loaded later are added by calling this again with only 
+	 * the new Entities.
 	 * 
 	 * @param entities - All Entities to walk through Meshes of.
 	 */
 	public void setEntityMeshes(Entity[] entities) {
+		setEntityMeshes(entities, StaticBatcher.batch(entities));
+	}
+	
+	/**
+	 * Populates the maps of shared Meshes with the Meshes of the Entities
+	 * using static batches built ahead of time, for Entities whose batches
+	 * were prepared while loading.
+	 * 
+	 * @param entities - All Entities to walk through Meshes of.
+	 * @param batches - Static batches of the Entities.
+	 */
+	public void setEntityMeshes(Entity[] entities, List<StaticBatch> batches) {
 		int len = entities.length;
 		
+		this.staticBatches.addAll(batches);
+		for (StaticBatch batch : batches) {
+			meshMap.put(batch.getMesh(), new ArrayList<>(Collections.singletonList(batch)));
+			
+			if (this.potentiallyVisibleSet != null) {
+				this.potentiallyVisibleSet.addBatch(batch.getMesh(), batch.getSourceMeshes(), batch.getSourceEntities());
+			}
+		}
+		
 		for (int i = 0; i < len; i++) {
 			Entity e = entities[i];
 			Mesh[] meshes = e.getMeshes();
 			
 			for (Mesh m : meshes) {
+				if (isBatched(e, m)) {
+					continue;
+				}
+				
 				boolean instanced = m instanceof InstancedMesh;
 				
 				List<Entity> list = instanced ? instancedMeshMap.get(m) : meshMap.get(m);
@@ -147,6 +204,123 @@ public class Scene {
 		}
 	}
 	
+	/**
+	 * Replaces a Mesh with another one in all the Entities using it, used 
+	 * to swap placeholders for loaded Meshes.
+	 * 
+	 * @param mesh - Mesh to replace.
+	 * @param replacement - Mesh to use instead.
+	 */
+	public void replaceMesh(Mesh mesh, Mesh replacement) {
+		List<Entity> list = meshMap.remove(mesh);
+		if (list == null) {
+			return;
+		}
+		removedMeshes.add(mesh);
+		
+		for (Entity entity : list) {
+			Mesh[] meshes = entity.getMeshes().clone();
+			for (int i = 0; i < meshes.length; i++) {
+				if (meshes[i] == mesh) {
+					meshes[i] = replacement;
+				}
+			}
+			entity.setMeshes(meshes);
+		}
+		
+		List<Entity> existing = meshMap.get(replacement);
+		if (existing != null) {
+			existing.addAll(list);
+		} else {
+			meshMap.put(replacement, list);
+		}
+	}
+	
+	/**
+	 * Removes an Entity from this Scene together with the Meshes no other 
+	 * Entity uses. Static Entities combined into a static batch keep being 
+	 * drawn by the batch.
+	 * 
+	 * @param entity - Entity to remove.
+	 */
+	public void removeEntity(Entity entity) {
+		if (entities != null) {
+			List<Entity> remaining = new ArrayList<>(entities.length);
+			for (Entity e : entities) {
+				if (e != entity) {
+					remaining.add(e);
+				}
+			}
+			entities = remaining.toArray(new Entity[remaining.size()]);
+		}
+		
+		for (Mesh m : entity.getMeshes()) {
+			Map<? extends Mesh, List<Entity>> map = m instanceof InstancedMesh ? instancedMeshMap : meshMap;
+			List<Entity> list = map.get(m);
+			if (list != null && list.remove(entity) && list.isEmpty()) {
+				map.remove(m);
+				removedMeshes.add(m);
+			}
+		}
+		
+		removedEntities.add(entity);
+	}
+	
+	/**
+	 * Returns and forgets the Meshes no longer drawn by this Scene, so the 
+	 * renderer can release the state it keeps for them.
+	 * 
+	 * @return - The Meshes removed since the last call.
+	 */
+	public List<Mesh> pollRemovedMeshes() {
+		List<Mesh> removed = new ArrayList<>(removedMeshes);
+		removedMeshes.clear();
+		return removed;
+	}
+	
+	/**
+	 * Returns and forgets the Entities removed from this Scene, so the 
+	 * renderer can release the state it keeps for them.
+	 * 
+	 * @return - The Entities removed since the last call.
+	 */
+	public List<Entity> pollRemovedEntities() {
+		List<Entity> removed = new ArrayList<>(removedEntities);
+		removedEntities.clear();
+		return removed;
+	}
+	
+	/**
+	 * Checks if the specified Mesh of the specified Entity is drawn by a static batch.
+	 * 
+	 * @param entity - Entity using the Mesh.
+	 * @param mesh - Mesh to check.
+	 * 
+	 * @return - True if the Mesh is part of a static batch; False otherwise.
+	 */
+	private boolean isBatched(Entity entity, Mesh mesh) {
+		if (!entity.isStatic()) {
+			return false;
+		}
+		
+		for (StaticBatch batch : this.staticBatches) {
+			if (batch.contains(entity, mesh)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Getter for the static batches of this Scene.
+	 * 
+	 * @return - The static batches.
+	 */
+	public List<StaticBatch> getStaticBatches() {
+		return this.staticBatches;
+	}
+	
 	/**
 	 * Getter for the container of entities stored in this Scene.
 	 * 
@@ -256,6 +430,24 @@ public class Scene {
 		this.particleEmitters = particleEmitters;
 	}
 	
+	/**
+	 * Getter for the potentially visible set of the static level in this Scene.
+	 * 
+	 * @return - The PotentiallyVisibleSet of this Scene, null if there is none.
+	 */
+	public PotentiallyVisibleSet getPotentiallyVisibleSet() {
+		return this.potentiallyVisibleSet;
+	}
+	
+	/**
+	 * Setter for the potentially visible set of the static level in this Scene.
+	 * 
+	 * @param potentiallyVisibleSet - The PotentiallyVisibleSet to set.
+	 */
+	public void setPotentiallyVisibleSet(PotentiallyVisibleSet potentiallyVisibleSet) {
+		this.potentiallyVisibleSet = potentiallyVisibleSet;
+	}
+	
 	/**
 	 * Deletes this Scene by deleting all the stored Meshes and 
 	 * ParticleEmitters within it.
@@ -269,6 +461,13 @@ public class Scene {
 			mesh.delete();
 		}
 		
+		// The batched meshes are no longer part of the maps.
+		for (StaticBatch batch : staticBatches) {
+			for (Mesh mesh : batch.getSourceMeshes()) {
+				mesh.delete();
+			}
+		}
+		
 		if (this.particleEmitters != null) {
 			for (ParticleEmitter p : particleEmitters) {
 				p.delete();
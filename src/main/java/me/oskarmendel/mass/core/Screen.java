@@ -189,6 +189,35 @@ public class Screen {
         }
     }
 
+    /**
+     * Creates a hidden window whose OpenGL context shares its objects with 
+     * the context of this Screen, used to upload buffers and textures on 
+     * another thread. Has to be called on the main thread after init, the 
+     * context is made current on the thread using it.
+     *
+     * @return - The handle of the hidden window.
+     */
+    public long createSharedContext() {
+        glfwDefaultWindowHints();
+        glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 2);
+
+        if (this.screenOptions.getCompatibleProfile()) {
+            glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_COMPAT_PROFILE);
+        } else {
+            glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE);
+            glfwWindowHint(GLFW_OPENGL_FORWARD_COMPAT, GL_TRUE);
+        }
+
+        long window = glfwCreateWindow(1, 1, title, NULL, id);
+        if (window == NULL) {
+            throw new RuntimeException("Failed to create shared GLFW context");
+        }
+
+        return window;
+    }
+
     /**
      * Checks if specified key was pressed, returns true if the
      * key was pressed.
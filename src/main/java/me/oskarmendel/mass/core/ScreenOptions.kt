@@ -33,4 +33,5 @@ package me.oskarmendel.mass.core
  */
 data class ScreenOptions(val cullFace : Boolean = false, val showTriangles : Boolean = false,
                          val showFPS : Boolean = false, val compatibleProfile : Boolean = false,
-                         val antialiasing : Boolean = false, val frustumCulling : Boolean = false)
\ No newline at end of file
+                         val antialiasing : Boolean = false, val frustumCulling : Boolean = false,
+                         val occlusionCulling : Boolean = false, val shadowMapResolution : Int = 2048)
\ No newline at end of file
@@ -69,6 +69,18 @@ class ScreenOptionsBuilder {
     var frustumCulling : Boolean = false
         private set
 
+    /**
+     * Boolean value to switch the occlusion culling option on or off.
+     */
+    var occlusionCulling : Boolean = false
+        private set
+
+    /**
+     * Width and height of the shadow map of every shadow cascade, a power of two.
+     */
+    var shadowMapResolution : Int = 2048
+        private set
+
     /**
      * Sets the cullFace value of the ScreenOptions object to build.
      *
@@ -111,11 +123,26 @@ class ScreenOptionsBuilder {
      */
     fun frustumCulling(frustumCulling : Boolean) = apply { this.frustumCulling = frustumCulling }
 
+    /**
+     * Sets the occlusionCulling value of the ScreenOptions object to build.
+     *
+     * @param occlusionCulling - Boolean value to set for the occlusionCulling option.
+     */
+    fun occlusionCulling(occlusionCulling : Boolean) = apply { this.occlusionCulling = occlusionCulling }
+
+    /**
+     * Sets the shadowMapResolution value of the ScreenOptions object to build.
+     *
+     * @param shadowMapResolution - Power of two resolution to set for the shadowMapResolution option.
+     */
+    fun shadowMapResolution(shadowMapResolution : Int) = apply { this.shadowMapResolution = shadowMapResolution }
+
     /**
      * Builds the ScreenOptions object and returns the newly created ScreenOptions object.
      *
      * @return - ScreenOptions object built from values entered in this ScreenOptionsBuilder.
      */
     fun build() = ScreenOptions(this.cullFace, this.showTriangles, this.showFPS,
-            this.compatibleProfile, this.antialiasing, this.frustumCulling)
+            this.compatibleProfile, this.antialiasing, this.frustumCulling, this.occlusionCulling,
+            this.shadowMapResolution)
 }
\ No newline at end of file
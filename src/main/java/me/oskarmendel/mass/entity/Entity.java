@@ -25,6 +25,7 @@
 package me.oskarmendel.mass.entity;
 
 import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.lod.LodSelector;
 
 import org.joml.Quaternionf;
 import org.joml.Vector3f;
@@ -81,6 +82,29 @@ public abstract class Entity {
      * 
      */
     private boolean insideFrustrumCulling;
+    
+    /**
+     * Selected level of detail of this Entity for every view.
+     */
+    private final int[] lodLevels;
+    
+    /**
+     * True if the position, rotation or scale of this Entity changed
+     * since the last rendered frame.
+     */
+    private boolean transformChanged;
+    
+    /**
+     * Generation of the cached culling frustum the visibility of this 
+     * Entity was last tested against.
+     */
+    private int cullingGeneration;
+    
+    /**
+     * True if this Entity is part of the static level geometry which
+     * is not expected to move.
+     */
+    private boolean staticGeometry;
 
     /**
      * Default constructor for the Entity class.
@@ -98,6 +122,12 @@ public abstract class Entity {
         texturePosition = 0;
         insideFrustrumCulling = true;
         disableFrustrumCulling = false;
+        
+        lodLevels = new int[LodSelector.MAX_VIEWS];
+        
+        transformChanged = true;
+        cullingGeneration = 0;
+        staticGeometry = false;
     }
 
     /**
@@ -160,6 +190,10 @@ public abstract class Entity {
      * @param z - Z coordinate to set.
      */
     public void setPosition(float x, float y, float z) {
+    	if (this.position.x != x || this.position.y != y || this.position.z != z) {
+    		this.transformChanged = true;
+    	}
+    	
         this.position.x = x;
         this.position.y = y;
         this.position.z = z;
@@ -180,6 +214,10 @@ public abstract class Entity {
      * @param scale - Scale value to set.
      */
     public void setScale(float scale) {
+    	if (this.scale != scale) {
+    		this.transformChanged = true;
+    	}
+    	
         this.scale = scale;
     }
 
@@ -199,6 +237,11 @@ public abstract class Entity {
      * @param q - Rotation quaternion.
      */
     public void setRotation(Quaternionf q) {
+    	// The rotation may have been modified in place before being set again.
+    	if (q == this.rotation || !this.rotation.equals(q)) {
+    		this.transformChanged = true;
+    	}
+    	
         this.rotation.set(q);
     }
     
@@ -210,6 +253,10 @@ public abstract class Entity {
      * @param z
      */
     public void setRotation(float w, float x, float y, float z) {
+    	if (this.rotation.w != w || this.rotation.x != x || this.rotation.y != y || this.rotation.z != z) {
+    		this.transformChanged = true;
+    	}
+    	
     	this.rotation.w = w;
     	this.rotation.x = x;
     	this.rotation.y = y;
@@ -299,4 +346,84 @@ public abstract class Entity {
     public boolean setDisableFrustrumCulling(boolean disableFrustrumCulling) {
     	return this.disableFrustrumCulling = disableFrustrumCulling;
     }
+    
+    /**
+     * Getter for the level of detail selected for the specified view.
+     * 
+     * @param view - Index of the view.
+     * 
+     * @return - The selected level of detail.
+     */
+    public int getLodLevel(int view) {
+    	return this.lodLevels[view];
+    }
+    
+    /**
+     * Setter for the level of detail selected for the specified view.
+     * 
+     * @param view - Index of the view.
+     * @param level - The level of detail to set.
+     */
+    public void setLodLevel(int view, int level) {
+    	this.lodLevels[view] = level;
+    }
+    
+    /**
+     * Getter for the transform changed value of this Entity. Modifying the 
+     * vectors returned by the getters directly has to be followed by 
+     * setting this value.
+     * 
+     * @return - True if the transform changed since the last rendered frame; False otherwise.
+     */
+    public boolean isTransformChanged() {
+    	return this.transformChanged;
+    }
+    
+    /**
+     * Setter for the transform changed value of this Entity.
+     * 
+     * @param transformChanged - The transform changed value to set.
+     */
+    public void setTransformChanged(boolean transformChanged) {
+    	this.transformChanged = transformChanged;
+    }
+    
+    /**
+     * Getter for the generation of the cached culling frustum this Entity 
+     * was last tested against.
+     * 
+     * @return - The culling generation of this Entity.
+     */
+    public int getCullingGeneration() {
+    	return this.cullingGeneration;
+    }
+    
+    /**
+     * Setter for the generation of the cached culling frustum this Entity 
+     * was last tested against.
+     * 
+     * @param cullingGeneration - The culling generation to set.
+     */
+    public void setCullingGeneration(int cullingGeneration) {
+    	this.cullingGeneration = cullingGeneration;
+    }
+    
+    /**
+     * Getter for the static value of this Entity.
+     * 
+     * @return - True if this Entity is part of the static level geometry; False otherwise.
+     */
+    public boolean isStatic() {
+    	return this.staticGeometry;
+    }
+    
+    /**
+     * Setter for the static value of this Entity. Static entities may still 
+     * be moved but doing so invalidates the caches built from them.
+     * 
+     * @param staticGeometry - The static value to set.
+     */
+    public void setStatic(boolean staticGeometry) {
+    	this.staticGeometry = staticGeometry;
+    }
 }
@@ -72,10 +72,19 @@ public class SkyBox extends Entity {
 	 * find specified resources.
 	 */
 	public SkyBox(String modelPath, Color color) throws Exception {
+		this(StaticMeshLoader.load(modelPath, "")[0], color);
+	}
+	
+	/**
+	 * Creates a new SkyBox using the specified already loaded Mesh and
+	 * setting the texture to the specified color.
+	 * 
+	 * @param mesh - Mesh of the SkyBox model.
+	 * @param color - Color to set for the Material of the SkyBox.
+	 */
+	public SkyBox(Mesh mesh, Color color) {
 		super();
 		
-		Mesh mesh = StaticMeshLoader.load(modelPath, "")[0];
-		
 		mesh.setMaterial(new Material(color, 0));
 		
 		this.setMesh(mesh);
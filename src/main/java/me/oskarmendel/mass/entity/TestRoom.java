@@ -24,9 +24,6 @@
 
 package me.oskarmendel.mass.entity;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
 import javax.vecmath.Matrix4f;
 import javax.vecmath.Quat4f;
 import javax.vecmath.Vector3f;
@@ -34,6 +31,7 @@ import javax.vecmath.Vector3f;
 import com.bulletphysics.collision.shapes.BvhTriangleMeshShape;
 import com.bulletphysics.collision.shapes.CollisionShape;
 import com.bulletphysics.collision.shapes.IndexedMesh;
+import com.bulletphysics.collision.shapes.ScalarType;
 import com.bulletphysics.collision.shapes.ScaledBvhTriangleMeshShape;
 import com.bulletphysics.collision.shapes.TriangleIndexVertexArray;
 import com.bulletphysics.dynamics.RigidBody;
@@ -41,7 +39,10 @@ import com.bulletphysics.dynamics.RigidBodyConstructionInfo;
 import com.bulletphysics.linearmath.DefaultMotionState;
 import com.bulletphysics.linearmath.Transform;
 
+import org.lwjgl.opengl.GL11;
+
 import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.MeshGeometry;
 import me.oskarmendel.mass.phys.Collidable;
 
 /**
@@ -98,39 +99,76 @@ public class TestRoom extends Entity implements Collidable {
 	}
 	
 	/**
+	 * Creates a testing room using a collision shape built ahead of time 
+	 * with createCollisionShape.
 	 * 
+	 * @param meshes
+	 * @param scale
+	 * @param collisionShape - Shape built from the geometry of the meshes.
 	 */
-	@Override
-	public void initPhysics() {
-		DefaultMotionState groundMotionState = new DefaultMotionState(new Transform(new Matrix4f(new Quat4f(0, 0, 0, 1), new Vector3f(0, -1, 0), 1.0f))); 
-
+	public TestRoom(Mesh[] meshes, float scale, CollisionShape collisionShape) {
+		super(meshes);
+		this.setScale(scale);
+		this.collisionShape = collisionShape;
+		
+		initPhysics();
+	}
+	
+	/**
+	 * Builds the triangle mesh collision shape of the specified geometry. The 
+	 * shape reads the native geometry directly, so it has to stay alive with the 
+	 * shape. No GL calls are made so the shape can be built on any thread.
+	 * 
+	 * @param geometries - Geometry of the meshes of the room.
+	 * @param scale - Scale of the room.
+	 * 
+	 * @return - The collision shape.
+	 */
+	public static CollisionShape createCollisionShape(MeshGeometry[] geometries, float scale) {
 		//TODO: Un uglify this code.
 		TriangleIndexVertexArray vertArray = new TriangleIndexVertexArray();
 		
-		for (Mesh mesh : this.getMeshes()) {
-			// Construct collision shape based on the mesh vertices in the Mesh.
-			float[] positions = mesh.getPositions();
-			int[] indices = mesh.getIndices();
+		for (MeshGeometry geometry : geometries) {
+			// Construct collision shape reading the same native geometry the Mesh was uploaded from.
+			boolean shortIndices = geometry.getIndexType() == GL11.GL_UNSIGNED_SHORT;
 			
 			IndexedMesh indexedMesh = new IndexedMesh();
-			indexedMesh.numTriangles = indices.length / 3;
-			indexedMesh.triangleIndexBase = ByteBuffer.allocateDirect(indices.length*4).order(ByteOrder.nativeOrder());
-	        indexedMesh.triangleIndexBase.asIntBuffer().put(indices);
-	        indexedMesh.triangleIndexStride = 3 * 4;
-	        indexedMesh.numVertices = positions.length / 3;
-	        indexedMesh.vertexBase = ByteBuffer.allocateDirect(positions.length*4).order(ByteOrder.nativeOrder());
-	        indexedMesh.vertexBase.asFloatBuffer().put(positions);
-	        indexedMesh.vertexStride = 3 * 4;
-			
+			indexedMesh.numTriangles = geometry.getIndexCount() / 3;
+			indexedMesh.triangleIndexBase = geometry.getIndexBuffer();
+			indexedMesh.indexType = shortIndices ? ScalarType.SHORT : ScalarType.INTEGER;
+	        indexedMesh.triangleIndexStride = 3 * (shortIndices ? 2 : 4);
+	        indexedMesh.numVertices = geometry.getVertexCount();
+	        // The positions are the first three floats of every interleaved vertex.
+	        indexedMesh.vertexBase = geometry.getVertexBuffer();
+	        indexedMesh.vertexStride = geometry.getVertexStride();
 			
-			vertArray.addIndexedMesh(indexedMesh);
+			vertArray.addIndexedMesh(indexedMesh, indexedMesh.indexType);
 		}
 		
 		BvhTriangleMeshShape collShape = new BvhTriangleMeshShape(vertArray, false);
-		System.out.println("SCALE: " + this.getScale());
 		//collisionShape = new ScaledBvhTriangleMeshShape(collShape, new Vector3f(this.getcale(), this.getScale(), this.getScale()));
-		collisionShape = collShape;
-		collisionShape.setLocalScaling(new Vector3f(this.getScale(), this.getScale(), this.getScale()));
+		collShape.setLocalScaling(new Vector3f(scale, scale, scale));
+		
+		return collShape;
+	}
+	
+	/**
+	 * 
+	 */
+	@Override
+	public void initPhysics() {
+		DefaultMotionState groundMotionState = new DefaultMotionState(new Transform(new Matrix4f(new Quat4f(0, 0, 0, 1), new Vector3f(0, -1, 0), 1.0f))); 
+
+		if (this.collisionShape == null) {
+			Mesh[] meshes = this.getMeshes();
+			MeshGeometry[] geometries = new MeshGeometry[meshes.length];
+			for (int i = 0; i < meshes.length; i++) {
+				geometries[i] = meshes[i].getGeometry();
+			}
+			
+			this.collisionShape = createCollisionShape(geometries, this.getScale());
+		}
+		System.out.println("SCALE: " + this.getScale());
 		RigidBodyConstructionInfo groundRigidBodyCI = new RigidBodyConstructionInfo(0, groundMotionState, collisionShape, new Vector3f(0,0,0)); 
 		rigidBody = new RigidBody(groundRigidBodyCI);
 		this.rigidBody.activate();
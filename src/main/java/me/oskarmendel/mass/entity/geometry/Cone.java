@@ -116,7 +116,7 @@ public class Cone extends Entity implements Geometry {
 		generateNormals();
 		generateTextureCoordinates();
 		
-		Mesh mesh = new Mesh(cone_positions, cone_texture_coordinates, cone_normals, cone_indices);
+		Mesh mesh = Mesh.createPooled(cone_positions, cone_texture_coordinates, cone_normals, cone_indices);
 		Material mat = new Material();
 		
 		mesh.setMaterial(mat);
@@ -147,7 +147,7 @@ public class Cone extends Entity implements Geometry {
 		generateNormals();
 		generateTextureCoordinates();
 		
-		Mesh mesh = new Mesh(cone_positions, cone_texture_coordinates, cone_normals, cone_indices);
+		Mesh mesh = Mesh.createPooled(cone_positions, cone_texture_coordinates, cone_normals, cone_indices);
 		Material mat = new Material();
 		
 		mat.setAmbientColor(color.toVector4f());
@@ -182,7 +182,7 @@ public class Cone extends Entity implements Geometry {
 		generateNormals();
 		generateTextureCoordinates();
 		
-		Mesh mesh = new Mesh(cone_positions, cone_texture_coordinates, cone_normals, cone_indices);
+		Mesh mesh = Mesh.createPooled(cone_positions, cone_texture_coordinates, cone_normals, cone_indices);
 		Material mat = new Material(texture);
 		
 		mesh.setMaterial(mat);
@@ -297,7 +297,7 @@ public class Cone extends Entity implements Geometry {
 	 */
 	@Override
 	public void generateMesh() {
-		Mesh mesh = new Mesh(cone_positions, cone_texture_coordinates, cone_normals, cone_indices);
+		Mesh mesh = Mesh.createPooled(cone_positions, cone_texture_coordinates, cone_normals, cone_indices);
 		setMesh(mesh);
 	}
 	
@@ -144,7 +144,7 @@ public class Cube extends Entity {
     public Cube(Vector3f position, Quaternionf rotation, float scale) {
         super();
 
-        Mesh mesh = new Mesh(CUBE_POSITIONS, CUBE_TEXTURE_COORDINATES, CUBE_NORMALS, CUBE_INDICES);
+        Mesh mesh = Mesh.createPooled(CUBE_POSITIONS, CUBE_TEXTURE_COORDINATES, CUBE_NORMALS, CUBE_INDICES);
         Material mat = new Material();
 
         mesh.setMaterial(mat);
@@ -167,7 +167,7 @@ public class Cube extends Entity {
     public Cube(Vector3f position, Quaternionf rotation, float scale, Color color) {
         super();
 
-        Mesh mesh = new Mesh(CUBE_POSITIONS, CUBE_TEXTURE_COORDINATES, CUBE_NORMALS, CUBE_INDICES);
+        Mesh mesh = Mesh.createPooled(CUBE_POSITIONS, CUBE_TEXTURE_COORDINATES, CUBE_NORMALS, CUBE_INDICES);
         Material mat = new Material();
 
         mat.setAmbientColor(color.toVector4f());
@@ -194,7 +194,7 @@ public class Cube extends Entity {
     public Cube(Vector3f position, Quaternionf rotation, float scale, Texture texture) {
         super();
 
-        Mesh mesh = new Mesh(CUBE_POSITIONS, CUBE_TEXTURE_COORDINATES, CUBE_NORMALS, CUBE_INDICES);
+        Mesh mesh = Mesh.createPooled(CUBE_POSITIONS, CUBE_TEXTURE_COORDINATES, CUBE_NORMALS, CUBE_INDICES);
         Material mat = new Material(texture);
 
         mesh.setMaterial(mat);
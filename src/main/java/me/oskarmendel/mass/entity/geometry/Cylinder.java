@@ -115,7 +115,7 @@ public class Cylinder extends Entity implements Geometry {
 		generateNormals();
 		generateTextureCoordinates();
 		
-		Mesh mesh = new Mesh(cylinder_positions, cylinder_texture_coordinates, cylinder_normals, cylinder_indices);
+		Mesh mesh = Mesh.createPooled(cylinder_positions, cylinder_texture_coordinates, cylinder_normals, cylinder_indices);
 		Material mat = new Material();
 		
 		mesh.setMaterial(mat);
@@ -146,7 +146,7 @@ public class Cylinder extends Entity implements Geometry {
 		generateNormals();
 		generateTextureCoordinates();
 		
-		Mesh mesh = new Mesh(cylinder_positions, cylinder_texture_coordinates, cylinder_normals, cylinder_indices);
+		Mesh mesh = Mesh.createPooled(cylinder_positions, cylinder_texture_coordinates, cylinder_normals, cylinder_indices);
 		Material mat = new Material();
 		
 		mat.setAmbientColor(color.toVector4f());
@@ -181,7 +181,7 @@ public class Cylinder extends Entity implements Geometry {
 		generateNormals();
 		generateTextureCoordinates();
 		
-		Mesh mesh = new Mesh(cylinder_positions, cylinder_texture_coordinates, cylinder_normals, cylinder_indices);
+		Mesh mesh = Mesh.createPooled(cylinder_positions, cylinder_texture_coordinates, cylinder_normals, cylinder_indices);
 		Material mat = new Material(texture);
 		
 		mesh.setMaterial(mat);
@@ -300,7 +300,7 @@ public class Cylinder extends Entity implements Geometry {
 	 */
 	@Override
 	public void generateMesh() {
-		Mesh mesh = new Mesh(cylinder_positions, cylinder_texture_coordinates, cylinder_normals, cylinder_indices);
+		Mesh mesh = Mesh.createPooled(cylinder_positions, cylinder_texture_coordinates, cylinder_normals, cylinder_indices);
 		setMesh(mesh);
 	}
 	
@@ -114,7 +114,7 @@ public class Sphere extends Entity implements Geometry {
 		generateNormals();
 		generateTextureCoordinates();
 		
-		Mesh mesh = new Mesh(sphere_positions, sphere_texture_coordinates, sphere_normals, sphere_indices);
+		Mesh mesh = Mesh.createPooled(sphere_positions, sphere_texture_coordinates, sphere_normals, sphere_indices);
 		Material mat = new Material();
 		
 		mesh.setMaterial(mat);
@@ -145,7 +145,7 @@ public class Sphere extends Entity implements Geometry {
 		generateNormals();
 		generateTextureCoordinates();
 		
-		Mesh mesh = new Mesh(sphere_positions, sphere_texture_coordinates, sphere_normals, sphere_indices);
+		Mesh mesh = Mesh.createPooled(sphere_positions, sphere_texture_coordinates, sphere_normals, sphere_indices);
 		Material mat = new Material();
 		
 		mat.setAmbientColor(color.toVector4f());
@@ -180,7 +180,7 @@ public class Sphere extends Entity implements Geometry {
 		generateNormals();
 		generateTextureCoordinates();
 		
-		Mesh mesh = new Mesh(sphere_positions, sphere_texture_coordinates, sphere_normals, sphere_indices);
+		Mesh mesh = Mesh.createPooled(sphere_positions, sphere_texture_coordinates, sphere_normals, sphere_indices);
 		Material mat = new Material(texture);
 		
 		mesh.setMaterial(mat);
@@ -298,7 +298,7 @@ public class Sphere extends Entity implements Geometry {
 	 */
 	@Override
 	public void generateMesh() {
-		Mesh mesh = new Mesh(sphere_positions, sphere_texture_coordinates, sphere_normals, sphere_indices);
+		Mesh mesh = Mesh.createPooled(sphere_positions, sphere_texture_coordinates, sphere_normals, sphere_indices);
 		setMesh(mesh);
 	}
 	
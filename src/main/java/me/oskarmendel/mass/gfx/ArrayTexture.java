@@ -30,10 +30,8 @@ import static org.lwjgl.opengl.GL11.glGenTextures;
 import static org.lwjgl.opengl.GL11.glBindTexture;
 import static org.lwjgl.opengl.GL11.glDeleteTextures;
 import static org.lwjgl.opengl.GL11.glTexParameteri;
-import static org.lwjgl.opengl.GL11.glTexImage2D;
-import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
-import static org.lwjgl.opengl.GL11.GL_DEPTH_COMPONENT;
 import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_LEQUAL;
 import static org.lwjgl.opengl.GL11.GL_LINEAR;
 import static org.lwjgl.opengl.GL11.GL_NONE;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
@@ -41,10 +39,15 @@ import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
 import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_FUNC;
 import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_MODE;
+import static org.lwjgl.opengl.GL30.GL_COMPARE_REF_TO_TEXTURE;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
 
 /**
- * This class represents an array of textures.
+ * This class represents an array texture, a single texture object 
+ * holding several layers of the same size.
  * 
  * @author Oskar Mendel
  * @version 0.00.00
@@ -53,83 +56,109 @@ import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_MODE;
 public class ArrayTexture {
 	
 	/**
-	 * Array of ids for all the textures created and stored in this texture array.
+	 * Id of the texture object.
 	 */
-	private final int[] ids;
+	private final int id;
 	
 	/**
-	 * Width of the textures within this texture array.
+	 * Amount of layers in this texture array.
+	 */
+	private final int layers;
+	
+	/**
+	 * Width of the layers within this texture array.
 	 */
 	private final int width;
 	
 	/**
-	 * Height of the textures within this texture array.
+	 * Height of the layers within this texture array.
 	 */
 	private final int height;
 	
 	/**
-	 * Creates a new Array of Textures with the specified width and height.
+	 * Creates a new Array Texture with the specified amount of layers, width and height.
 	 * 
-	 * @param size - Amount of textures to create.
-	 * @param width - Width value of the textures.
-	 * @param height - Height value of the textures.
-	 * @param pixelFormat - Pixel format to use for the textures.
+	 * @param layers - Amount of layers to create.
+	 * @param width - Width value of the layers.
+	 * @param height - Height value of the layers.
+	 * @param internalFormat - Internal format to store the layers with.
+	 * @param pixelFormat - Pixel format to use for the layers.
 	 * 
 	 * @throws Exception
 	 */
-	public ArrayTexture(int size, int width, int height, int pixelFormat) throws Exception {
-		this.ids = new int[size];
-		glGenTextures(ids);
+	public ArrayTexture(int layers, int width, int height, int internalFormat, int pixelFormat) throws Exception {
+		this.id = glGenTextures();
 		
+		this.layers = layers;
 		this.width = width;
 		this.height = height;
 		
-		for (int i = 0; i < size; i++) {
-			glBindTexture(GL_TEXTURE_2D, ids[i]);
-            glTexImage2D(GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT, this.width, this.height, 0, pixelFormat, GL_FLOAT, (ByteBuffer) null);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_COMPARE_MODE, GL_NONE);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-		}
+		glBindTexture(GL_TEXTURE_2D_ARRAY, this.id);
+		glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, internalFormat, this.width, this.height, this.layers, 0, pixelFormat, GL_FLOAT, (ByteBuffer) null);
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_NONE);
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+	}
+	
+	/**
+	 * Switches depth comparison for this texture array on or off. With comparison
+	 * enabled the texture has to be sampled through a shadow sampler which returns
+	 * the filtered result of comparing the reference depth against the texels.
+	 * 
+	 * @param compare - Boolean value to switch depth comparison on or off.
+	 */
+	public void setDepthCompare(boolean compare) {
+		glBindTexture(GL_TEXTURE_2D_ARRAY, this.id);
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, compare ? GL_COMPARE_REF_TO_TEXTURE : GL_NONE);
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+	}
+	
+	/**
+	 * Getter for the id of the texture object.
+	 * 
+	 * @return - Id of the texture object of this texture array.
+	 */
+	public int getId() {
+		return this.id;
 	}
 	
 	/**
-	 * Getter for the array of texture ids.
+	 * Getter for the amount of layers in this texture array.
 	 * 
-	 * @return - Array of texture ids stored in this texture array.
+	 * @return - Amount of layers in this texture array.
 	 */
-	public int[] getIds() {
-		return this.ids;
+	public int getLayers() {
+		return this.layers;
 	}
 	
 	/**
-	 * Getter for the width value of the textures stored in 
+	 * Getter for the width value of the layers stored in 
 	 * this texture array.
 	 * 
-	 * @return - Width value of the textures stored in this texture array.
+	 * @return - Width value of the layers stored in this texture array.
 	 */
 	public int getWidth() {
 		return this.width;
 	}
 	
 	/**
-	 * Getter for the height value of the textures stored in 
+	 * Getter for the height value of the layers stored in 
 	 * this texture array.
 	 * 
-	 * @return - Height value of the textures stored in this texture array.
+	 * @return - Height value of the layers stored in this texture array.
 	 */
 	public int getHeight() {
 		return this.height;
 	}
 	
 	/**
-	 * Deletes all the textures created in this texture array.
+	 * Deletes the texture object of this texture array.
 	 */
 	public void delete() {
-		for (int id : this.ids) {
-			glDeleteTextures(id);
-		}
+		glDeleteTextures(this.id);
 	}
 }
@@ -31,10 +31,8 @@ import org.joml.Matrix4f;
 import org.lwjgl.system.MemoryUtil;
 
 import me.oskarmendel.mass.entity.Entity;
-import me.oskarmendel.mass.util.ArrayHelper;
 
 import static org.lwjgl.opengl.GL11.GL_FLOAT;
-import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
 import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
 import static org.lwjgl.opengl.GL15.glGenBuffers;
 import static org.lwjgl.opengl.GL15.glBindBuffer;
@@ -95,11 +93,12 @@ public class InstancedMesh extends Mesh {
      * @param instances - Number of instances.
 	 */
 	public InstancedMesh(float[] positions, float[] textCoords, float[] normals, int[] indices, int instances) {
-		super(positions, textCoords, normals, indices,  ArrayHelper.createEmptyArrayInt(MAX_WEIGHTS * positions.length / 3, 0), ArrayHelper.createEmptyArrayFloat(MAX_WEIGHTS * positions.length / 3, 0) );
-		
+		super(positions, textCoords, normals, indices);
 		
 		this.instances = instances;
 		
+		glBindVertexArray(vaoId);
+		
 		instancedDataVbo = glGenBuffers();
 		vboIdList.add(instancedDataVbo);
 		
@@ -245,7 +244,7 @@ public class InstancedMesh extends Mesh {
 		glBindBuffer(GL_ARRAY_BUFFER, this.instancedDataVbo);
 		glBufferData(GL_ARRAY_BUFFER, this.instancedDataBuffer, GL_DYNAMIC_READ);
 		
-		glDrawElementsInstanced(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0, entities.size());
+		glDrawElementsInstanced(GL_TRIANGLES, getVertexCount(), getIndexType(), 0, entities.size());
 		
 		glBindBuffer(GL_ARRAY_BUFFER, 0);
 	}
@@ -24,26 +24,29 @@
 
 package me.oskarmendel.mass.gfx;
 
-import org.lwjgl.system.MemoryUtil;
+import org.joml.Vector3f;
+import org.lwjgl.PointerBuffer;
 
 import me.oskarmendel.mass.entity.Entity;
-import me.oskarmendel.mass.util.ArrayHelper;
+import me.oskarmendel.mass.gfx.meshlet.MeshletCuller;
+import me.oskarmendel.mass.gfx.meshlet.MeshletSet;
+import me.oskarmendel.mass.gfx.pool.MeshBufferPool;
 
-import java.nio.FloatBuffer;
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
 import static org.lwjgl.opengl.GL13.GL_TEXTURE1;
 import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL14.glMultiDrawElements;
 import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
 
 /**
  * This class represents a Mesh.
@@ -66,14 +69,19 @@ public class Mesh {
     public static final int MAX_WEIGHTS = 4;
     
     /**
-     * Vertice positions of this mesh.
+     * Off-heap vertices and indices of this mesh, null once released.
      */
-    private float[] positions;
+    private MeshGeometry geometry;
     
     /**
-     * Indices of this mesh.
+     * Layout of the interleaved vertices of this mesh.
      */
-    private int[] indices;
+    private final VertexLayout vertexLayout;
+    
+    /**
+     * Type of the indices in the index buffer of this mesh.
+     */
+    private final int indexType;
     
     /**
      * The vertex array object for this mesh.
@@ -85,6 +93,16 @@ public class Mesh {
      */
     protected final List<Integer> vboIdList;
     
+    /**
+     * Pool holding the buffers of this mesh or null if the mesh owns its buffers.
+     */
+    private final MeshBufferPool pool;
+    
+    /**
+     * Ranges of the pooled buffers used by this mesh.
+     */
+    private MeshBufferPool.Allocation allocation;
+    
     /**
      * Amount of vertices in this Mesh.
      */
@@ -104,10 +122,30 @@ public class Mesh {
      * Bounding radius of this Mesh.
      */
     private float boundingRadius;
+    
+    /**
+     * Minimum corner of the axis aligned bounding box of this Mesh.
+     */
+    private final Vector3f boundsMin;
+    
+    /**
+     * Maximum corner of the axis aligned bounding box of this Mesh.
+     */
+    private final Vector3f boundsMax;
+    
+    /**
+     * Coarser levels of detail of this Mesh, ordered from finest to coarsest.
+     */
+    private Mesh[] lods;
+    
+    /**
+     * Clusters of the triangles of this Mesh culled separately, null for small meshes.
+     */
+    private MeshletSet meshlets;
 
     /**
      * Creates a new Mesh object by using the specified vertex positions, texture coordinates, normal coordinates 
-     * and indices. Sets the jointIndices and weights to empty arrays.
+     * and indices. The mesh is not skinned and stores no joint data.
      * 
      * @param positions - Vertex positions.
      * @param textCoords - Texture coordinates.
@@ -115,138 +153,153 @@ public class Mesh {
      * @param indices - Indices.
      */
     public Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices) {
-        this(positions, textCoords, normals, indices, ArrayHelper.createEmptyArrayInt(MAX_WEIGHTS * positions.length / 3, 0), ArrayHelper.createEmptyArrayFloat(MAX_WEIGHTS * positions.length / 3, 0));
+        this(positions, textCoords, normals, indices, null, null);
     }
     
     /**
      * Creates a new Mesh object by using the specified vertex positions, texture coordinates, normal coordinates 
-     * indices, jointIndices and weights.
+     * indices, jointIndices and weights. The joint data is only stored if any of the weights is above zero.
      * 
      * @param positions - Vertex positions.
      * @param textCoords - Texture coordinates.
      * @param normals - Normal coordinates.
      * @param indices - Indices.
-     * @param jointIndices - Joint indices.
-     * @param weights - Weights.
+     * @param jointIndices - Joint indices, may be null.
+     * @param weights - Weights, may be null.
      */
     public Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices, int[] jointIndices, float[] weights) {
-        this.positions = positions;
-    	this.indices = indices;
+    	this(new MeshGeometry(positions, textCoords, normals, indices, jointIndices, weights));
+    }
+    
+    /**
+     * Creates a new Mesh object uploading the specified geometry. The Mesh keeps 
+     * the geometry so it can be shared with collision shapes until it is released.
+     * 
+     * @param geometry - Packed vertices and indices.
+     */
+    public Mesh(MeshGeometry geometry) {
+    	this(geometry, (MeshBufferPool) null);
+    }
+    
+    /**
+     * Creates a new Mesh object uploading the specified geometry into ranges of 
+     * the specified pool. Pooled meshes share the vertex array object and buffers
+     * of the pool and are drawn with a base vertex, so creating and deleting them
+     * does not create or delete any GL objects.
+     * 
+     * @param geometry - Packed vertices and indices.
+     * @param pool - Pool to allocate the buffers from, null to create own buffers.
+     */
+    public Mesh(MeshGeometry geometry, MeshBufferPool pool) {
+    	this(geometry, pool, pool == null ? MeshBuffers.upload(geometry) : null);
+    }
+    
+    /**
+     * Creates a new Mesh object using buffers the specified geometry was already
+     * uploaded into, possibly by another thread with a shared context. Only the
+     * vertex array object is created, the Mesh takes over the buffers.
+     * 
+     * @param geometry - Packed vertices and indices.
+     * @param buffers - Uploaded buffers of the geometry.
+     */
+    public Mesh(MeshGeometry geometry, MeshBuffers buffers) {
+    	this(geometry, null, buffers);
+    }
+    
+    /**
+     * Creates a new Mesh object either in the specified pool or using the 
+     * specified buffers.
+     * 
+     * @param geometry - Packed vertices and indices.
+     * @param pool - Pool to allocate the buffers from, null to use the buffers.
+     * @param buffers - Uploaded buffers of the geometry, null if pooled.
+     */
+    private Mesh(MeshGeometry geometry, MeshBufferPool pool, MeshBuffers buffers) {
+    	this.geometry = geometry;
+    	this.pool = pool;
+    	this.boundsMin = new Vector3f();
+    	this.boundsMax = new Vector3f();
+    	this.vertexLayout = geometry.getVertexLayout();
+    	this.indexType = geometry.getIndexType();
     	
-    	// Store array of floats in the buffer to interface correctly with C Library.
-        FloatBuffer positionBuffer = null;
-        FloatBuffer textCoordsBuffer = null;
-        FloatBuffer normalsBuffer = null;
-        FloatBuffer weightsBuffer = null;
-        IntBuffer jointIndicesBuffer = null;
-        IntBuffer indicesBuffer = null;
-        try {
-        	calculateBoundingRadius(positions);
-        	
-            color = DEFAULT_COLOR;
-            vertexCount = indices.length;
-            vboIdList = new ArrayList<>();
-
-            // Create the VAO and bind it.
-            vaoId = glGenVertexArrays();
-            glBindVertexArray(vaoId);
-
-            // Position VBO
-            int vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            positionBuffer = MemoryUtil.memAllocFloat(positions.length);
-            positionBuffer.put(positions).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, positionBuffer, GL_STATIC_DRAW);
-            // Define structure of data and store it in VAO attribute list.
-            glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-
-            // Texture coordinates VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            textCoordsBuffer = MemoryUtil.memAllocFloat(textCoords.length);
-            textCoordsBuffer.put(textCoords).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, textCoordsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-
-            // Vertex normals VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            normalsBuffer = MemoryUtil.memAllocFloat(normals.length);
-            normalsBuffer.put(normals).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, normalsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
-
-            // Weights VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            weightsBuffer = MemoryUtil.memAllocFloat(weights.length);
-            weightsBuffer.put(weights).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, weightsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(3, 4, GL_FLOAT, false, 0, 0);
-            
-            // Joint indices VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            jointIndicesBuffer = MemoryUtil.memAllocInt(jointIndices.length);
-            jointIndicesBuffer.put(jointIndices).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, jointIndicesBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(4, 4, GL_FLOAT, false, 0, 0);
-            
-            // Index VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            indicesBuffer = MemoryUtil.memAllocInt(indices.length);
-            indicesBuffer.put(indices).flip();
-            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
-
-            // Unbinds the VBO and VAO.
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
-            glBindVertexArray(0);
-        } finally {
-            if (positionBuffer != null) {
-                MemoryUtil.memFree(positionBuffer);
-            }
-
-            if (textCoordsBuffer != null) {
-                MemoryUtil.memFree(textCoordsBuffer);
-            }
-            
-            if (normalsBuffer != null) {
-            	MemoryUtil.memFree(normalsBuffer);
-            }
-            
-            if (weightsBuffer != null) {
-            	MemoryUtil.memFree(weightsBuffer);
-            }
-            
-            if (jointIndicesBuffer != null) {
-            	MemoryUtil.memFree(jointIndicesBuffer);
-            }
-
-            if (indicesBuffer != null) {
-                MemoryUtil.memFree(indicesBuffer);
-            }
+    	calculateBounds(geometry);
+    	
+        color = DEFAULT_COLOR;
+        vertexCount = geometry.getIndexCount();
+        vboIdList = new ArrayList<>();
+        
+        if (pool != null) {
+        	vaoId = pool.getVaoId();
+        	allocation = pool.allocate(geometry);
+        	return;
         }
+
+        // Create the VAO and bind it.
+        vaoId = glGenVertexArrays();
+        glBindVertexArray(vaoId);
+
+        // Interleaved vertex VBO.
+        vboIdList.add(buffers.getVertexBufferId());
+        glBindBuffer(GL_ARRAY_BUFFER, buffers.getVertexBufferId());
+        // Define structure of data and store it in VAO attribute list.
+        this.vertexLayout.setupAttributes();
+        
+        // Index VBO
+        vboIdList.add(buffers.getIndexBufferId());
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, buffers.getIndexBufferId());
+
+        // Unbinds the VBO and VAO.
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindVertexArray(0);
+    }
+    
+    /**
+     * Creates a new Mesh in the shared pool of its vertex layout. Used for 
+     * geometry created and destroyed while playing.
+     * 
+     * @param positions - Vertex positions.
+     * @param textCoords - Texture coordinates.
+     * @param normals - Normal coordinates.
+     * @param indices - Indices.
+     * 
+     * @return The pooled Mesh.
+     */
+    public static Mesh createPooled(float[] positions, float[] textCoords, float[] normals, int[] indices) {
+    	MeshGeometry geometry = new MeshGeometry(positions, textCoords, normals, indices, null, null);
+    	return new Mesh(geometry, MeshBufferPool.getInstance(geometry.getVertexLayout()));
     }
     
     /**
-     * Calculates the bounding radius based upon the vertices of this Mesh.
+     * Selects the smallest index type able to address the specified amount of vertices.
+     * 8 bit indices are not used since most hardware converts them on the fly.
+     * 
+     * @param vertices - Amount of vertices to address.
      * 
-     * @param positions - Array of vertices.
+     * @return GL_UNSIGNED_SHORT if the vertices fit into 16 bits; GL_UNSIGNED_INT otherwise.
      */
-    private void calculateBoundingRadius(float positions[]) {
-    	int len = positions.length;
+    public static int selectIndexType(int vertices) {
+    	return vertices <= 0xFFFF + 1 ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+    }
+    
+    /**
+     * Calculates the bounding radius and the axis aligned bounding box based 
+     * upon the bounds of the vertex positions in the specified geometry.
+     * 
+     * @param geometry - Geometry of this Mesh.
+     */
+    private void calculateBounds(MeshGeometry geometry) {
+    	if (geometry.getVertexCount() == 0) {
+    		return;
+    	}
+    	
+    	float[] bounds = geometry.getBounds();
+    	this.boundsMin.set(bounds[0], bounds[1], bounds[2]);
+    	this.boundsMax.set(bounds[3], bounds[4], bounds[5]);
     	
+    	// The largest absolute coordinate of any vertex lies on a corner of the box.
     	this.boundingRadius = 0;
-    	for (int i = 0; i < len; i++) {
-    		float pos = positions[i];
-    		boundingRadius = Math.max(Math.abs(pos), this.boundingRadius);
+    	for (float bound : bounds) {
+    		this.boundingRadius = Math.max(this.boundingRadius, Math.abs(bound));
     	}
     }
     
@@ -275,11 +328,7 @@ public class Mesh {
         
 	     // Draw the mesh.
 	    glBindVertexArray(getVaoId());
-	    glEnableVertexAttribArray(0);
-	    glEnableVertexAttribArray(1);
-	    glEnableVertexAttribArray(2);
-	    glEnableVertexAttribArray(3);
-	    glEnableVertexAttribArray(4);
+	    this.vertexLayout.enableAttributes();
     }
     
     /**
@@ -288,17 +337,60 @@ public class Mesh {
      */
     protected void endRenderer() {
     	// Restore state.
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
-        glDisableVertexAttribArray(3);
-        glDisableVertexAttribArray(4);
+        this.vertexLayout.disableAttributes();
         
         glBindVertexArray(0);
         
         glBindTexture(GL_TEXTURE_2D, 0);
     }
 
+    /**
+     * Issues the draw call of this mesh, offset to its ranges if it is pooled.
+     * The vertex array object has to be bound.
+     */
+    protected void drawElements() {
+    	if (this.allocation != null) {
+    		glDrawElementsBaseVertex(GL_TRIANGLES, getVertexCount(), getIndexType(), 
+    				this.allocation.getIndexOffset(), this.allocation.getBaseVertex());
+    	} else {
+    		glDrawElements(GL_TRIANGLES, getVertexCount(), getIndexType(), 0);
+    	}
+    }
+    
+    /**
+     * Issues one draw call drawing the specified ranges of the index buffer
+     * of this mesh. The vertex array object has to be bound.
+     * 
+     * @param counts - Amount of indices of every range.
+     * @param offsets - Byte offset of every range in the index buffer of this mesh.
+     */
+    public void drawRanges(IntBuffer counts, PointerBuffer offsets) {
+    	if (this.allocation == null) {
+    		glMultiDrawElements(GL_TRIANGLES, counts, getIndexType(), offsets);
+    		return;
+    	}
+    	
+    	for (int i = counts.position(); i < counts.limit(); i++) {
+    		glDrawElementsBaseVertex(GL_TRIANGLES, counts.get(i), getIndexType(), 
+    				this.allocation.getIndexOffset() + offsets.get(i), this.allocation.getBaseVertex());
+    	}
+    }
+    
+    /**
+     * Draws this mesh for the specified entity, only drawing the visible 
+     * meshlets if a culler is specified and this mesh has meshlets.
+     * 
+     * @param entity - Entity the mesh is drawn for.
+     * @param culler - Meshlet culler of the view, may be null.
+     */
+    private void drawElements(Entity entity, MeshletCuller culler) {
+    	if (culler != null && this.meshlets != null) {
+    		culler.draw(this, entity);
+    	} else {
+    		drawElements();
+    	}
+    }
+    
     /**
      * Render method that draws the mesh then restores the
      * state when finished.
@@ -306,7 +398,7 @@ public class Mesh {
     public void render() {
     	initRenderer();
     	
-        glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+        drawElements();
         
         endRenderer();
     }
@@ -319,20 +411,84 @@ public class Mesh {
      * @param consumer - Consumer for the entities.
      */
     public void renderList(List<Entity> entities, Consumer<Entity> consumer) {
+    	renderList(entities, Entity::insideFrustrum, consumer);
+    }
+    
+    /**
+     * Render method that renders the entities in a list accepted by the
+     * specified filter then restores the state when finished.
+     * 
+     * @param entities - List of entities to render.
+     * @param filter - Filter deciding which entities to render.
+     * @param consumer - Consumer for the entities.
+     */
+    public void renderList(List<Entity> entities, Predicate<Entity> filter, Consumer<Entity> consumer) {
+    	renderList(entities, filter, consumer, null);
+    }
+    
+    /**
+     * Render method that renders the entities in a list accepted by the
+     * specified filter, culling the meshlets of this mesh with the specified
+     * culler, then restores the state when finished.
+     * 
+     * @param entities - List of entities to render.
+     * @param filter - Filter deciding which entities to render.
+     * @param consumer - Consumer for the entities.
+     * @param culler - Meshlet culler of the view, may be null.
+     */
+    public void renderList(List<Entity> entities, Predicate<Entity> filter, Consumer<Entity> consumer, MeshletCuller culler) {
     	initRenderer();
     	
     	for (Entity e : entities) {
-    		if (e.insideFrustrum()) {
+    		if (filter.test(e)) {
 	    		// Set up data required from the entity.
 	    		consumer.accept(e);
 	    		
 	    		// Render the entity.
-	    		glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+	    		drawElements(e, culler);
     		}
     	}
     	
     	endRenderer();
     }
+    
+    /**
+     * Render method that renders the entities in a list accepted by the 
+     * specified filter using the level of detail each entity selected
+     * for the specified view.
+     * 
+     * @param entities - List of entities to render.
+     * @param view - Index of the view the levels of detail were selected for.
+     * @param filter - Filter deciding which entities to render.
+     * @param consumer - Consumer for the entities.
+     */
+    public void renderList(List<Entity> entities, int view, Predicate<Entity> filter, Consumer<Entity> consumer) {
+    	renderList(entities, view, filter, consumer, null);
+    }
+    
+    /**
+     * Render method that renders the entities in a list accepted by the 
+     * specified filter using the level of detail each entity selected
+     * for the specified view and culling the meshlets of the levels that 
+     * have them with the specified culler.
+     * 
+     * @param entities - List of entities to render.
+     * @param view - Index of the view the levels of detail were selected for.
+     * @param filter - Filter deciding which entities to render.
+     * @param consumer - Consumer for the entities.
+     * @param culler - Meshlet culler of the view, may be null.
+     */
+    public void renderList(List<Entity> entities, int view, Predicate<Entity> filter, Consumer<Entity> consumer, 
+    		MeshletCuller culler) {
+    	int levels = getLodCount();
+    	
+    	for (int i = 0; i < levels; i++) {
+    		int level = i;
+    		getLod(level).renderList(entities, (Entity entity) -> {
+    			return Math.min(entity.getLodLevel(view), levels - 1) == level && filter.test(entity);
+    		}, consumer, culler);
+    	}
+    }
 
     /**
      * Getter for the vertex array object id in this mesh.
@@ -343,6 +499,24 @@ public class Mesh {
         return this.vaoId;
     }
 
+    /**
+     * Getter for the layout of the vertices of this mesh.
+     *
+     * @return Layout of the interleaved vertices.
+     */
+    public VertexLayout getVertexLayout() {
+        return this.vertexLayout;
+    }
+
+    /**
+     * Getter for the type of the indices of this mesh.
+     *
+     * @return GL_UNSIGNED_SHORT or GL_UNSIGNED_INT.
+     */
+    public int getIndexType() {
+        return this.indexType;
+    }
+
     /**
      * Getter for the vertex count in this mesh.
      *
@@ -368,6 +542,12 @@ public class Mesh {
      */
     public void setMaterial(Material material) {
         this.material = material;
+        
+        if (this.lods != null) {
+        	for (Mesh lod : this.lods) {
+        		lod.setMaterial(material);
+        	}
+        }
     }
 
     /**
@@ -405,64 +585,190 @@ public class Mesh {
     public void setBoundingRadius(float boundingRadius) {
     	this.boundingRadius = boundingRadius;
     }
+    
+    /**
+     * Getter for the minimum corner of the bounding box of this Mesh.
+     * 
+     * @return - The minimum corner of the bounding box in model space.
+     */
+    public Vector3f getBoundsMin() {
+    	return this.boundsMin;
+    }
+    
+    /**
+     * Getter for the maximum corner of the bounding box of this Mesh.
+     * 
+     * @return - The maximum corner of the bounding box in model space.
+     */
+    public Vector3f getBoundsMax() {
+    	return this.boundsMax;
+    }
+
+    /**
+     * Getter for the amount of levels of detail of this Mesh including
+     * the Mesh itself.
+     * 
+     * @return - The amount of levels of detail.
+     */
+    public int getLodCount() {
+    	return this.lods != null ? this.lods.length + 1 : 1;
+    }
+    
+    /**
+     * Getter for the Mesh used for the specified level of detail.
+     * 
+     * @param level - Level of detail where 0 is this Mesh.
+     * 
+     * @return - The Mesh of the level, the coarsest available if the level is too high.
+     */
+    public Mesh getLod(int level) {
+    	if (level <= 0 || this.lods == null || this.lods.length == 0) {
+    		return this;
+    	}
+    	
+    	return this.lods[Math.min(level, this.lods.length) - 1];
+    }
+    
+    /**
+     * Setter for the coarser levels of detail of this Mesh.
+     * 
+     * @param lods - Meshes ordered from finest to coarsest.
+     */
+    public void setLods(Mesh[] lods) {
+    	this.lods = lods;
+    	
+    	if (this.material != null) {
+    		setMaterial(this.material);
+    	}
+    }
 
     /**
      * Deletes this mesh and deletes the vertex array object and the
      * vertex buffer object.
      */
     public void delete() {
-        glDisableVertexAttribArray(0);
-
-        // Delete the vertex buffer objects.
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        for (int vboId : vboIdList) {
-        	glDeleteBuffers(vboId);
-        }
+        deleteKeepingTextures();
 
         Texture texture = material.getTexture();
         // Delete the texture used by this mesh.
         if (texture != null) {
             texture.delete();
         }
+    }
+    
+    /**
+     * Deletes the buffers of this mesh and its levels of detail but keeps 
+     * the texture of its material, for meshes whose textures are shared 
+     * through the TextureCache.
+     */
+    public void deleteKeepingTextures() {
+        deleteBuffers();
+        
+        // The levels of detail share the material of this mesh.
+        if (this.lods != null) {
+        	for (Mesh lod : this.lods) {
+        		lod.deleteBuffers();
+        	}
+        }
+    }
+    
+    /**
+     * Deletes the vertex array object and the vertex buffer objects 
+     * of this mesh.
+     */
+    protected void deleteBuffers() {
+    	releaseGeometry();
+    	
+    	// Pooled meshes only return their ranges.
+    	if (this.pool != null) {
+    		if (this.allocation != null) {
+    			this.pool.free(this.allocation);
+    			this.allocation = null;
+    		}
+    		return;
+    	}
+    	
+        // Delete the vertex buffer objects.
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        for (int vboId : vboIdList) {
+        	glDeleteBuffers(vboId);
+        }
 
         // Delete the vertex array object.
         glBindVertexArray(0);
         glDeleteVertexArrays(vaoId);
     }
+    
+    /**
+     * Frees the off-heap geometry of this Mesh. Render only meshes can call 
+     * this right after loading since the GPU buffers stay valid, meshes used
+     * for collision shapes have to keep it.
+     */
+    public void releaseGeometry() {
+    	if (this.geometry != null) {
+    		this.geometry.release();
+    		this.geometry = null;
+    	}
+    }
+    
+    /**
+     * Checks if this Mesh still holds its off-heap geometry.
+     * 
+     * @return - True if the geometry was not released; False otherwise.
+     */
+    public boolean hasGeometry() {
+    	return this.geometry != null;
+    }
+    
+    /**
+     * Getter for the off-heap geometry of this Mesh.
+     * 
+     * @return - The geometry of this Mesh.
+     * 
+     * @throws IllegalStateException - If the geometry was released.
+     */
+    public MeshGeometry getGeometry() {
+    	if (this.geometry == null) {
+    		throw new IllegalStateException("Mesh geometry was released");
+    	}
+    	
+    	return this.geometry;
+    }
 
 	/**
-	 * Getter for the array of vertex positions for this Mesh.
+	 * Getter for the meshlets of this Mesh.
 	 * 
-	 * @return - The vertex positions of this Mesh.
+	 * @return - The meshlets or null if this Mesh is culled as a whole.
 	 */
-	public float[] getPositions() {
-		return positions;
+	public MeshletSet getMeshlets() {
+		return this.meshlets;
 	}
 
 	/**
-	 * Setter for the vertex positions for this Mesh.
+	 * Setter for the meshlets of this Mesh. The meshlets have to be built 
+	 * from the indices this Mesh was created with.
 	 * 
-	 * @param positions - The positions array to set.
+	 * @param meshlets - The meshlets to set, null to cull the Mesh as a whole.
 	 */
-	public void setPositions(float[] positions) {
-		this.positions = positions;
+	public void setMeshlets(MeshletSet meshlets) {
+		this.meshlets = meshlets;
 	}
 
 	/**
-	 * Getter for the array of indices for this Mesh.
+	 * Reads the vertex positions of this Mesh out of its geometry.
 	 * 
-	 * @return - The indices of this mesh.
+	 * @return - A new array with the vertex positions of this Mesh.
 	 */
-	public int[] getIndices() {
-		return indices;
+	public float[] getPositions() {
+		return getGeometry().getPositions();
 	}
 
 	/**
-	 * Setter for the indices for this Mesh.
+	 * Reads the indices of this Mesh out of its geometry.
 	 * 
-	 * @param indices - The indices array to set
+	 * @return - A new array with the indices of this mesh.
 	 */
-	public void setIndices(int[] indices) {
-		this.indices = indices;
+	public int[] getIndices() {
+		return getGeometry().getIndices();
 	}
 }
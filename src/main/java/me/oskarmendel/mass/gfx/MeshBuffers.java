@@ -0,0 +1,117 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx;
+
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL15.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+
+/**
+ * Vertex and index buffer of a Mesh uploaded ahead of creating the Mesh.
+ * Buffers are shared between GL contexts while vertex array objects are 
+ * not, so the buffers can be uploaded on a loader thread with a shared 
+ * context and the Mesh is created on the render thread afterwards.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshBuffers.java
+ */
+public class MeshBuffers {
+	
+	/**
+	 * Id of the interleaved vertex buffer.
+	 */
+	private final int vertexBufferId;
+	
+	/**
+	 * Id of the index buffer.
+	 */
+	private final int indexBufferId;
+	
+	/**
+	 * Creates a new MeshBuffers out of the specified buffers.
+	 * 
+	 * @param vertexBufferId - Id of the interleaved vertex buffer.
+	 * @param indexBufferId - Id of the index buffer.
+	 */
+	public MeshBuffers(int vertexBufferId, int indexBufferId) {
+		this.vertexBufferId = vertexBufferId;
+		this.indexBufferId = indexBufferId;
+	}
+	
+	/**
+	 * Uploads the vertices and indices of the specified geometry into new 
+	 * buffers using the GL context current on the calling thread. The index 
+	 * buffer is filled through the array buffer binding since the element 
+	 * array binding belongs to a vertex array object.
+	 * 
+	 * @param geometry - Packed vertices and indices.
+	 * 
+	 * @return - The uploaded buffers.
+	 */
+	public static MeshBuffers upload(MeshGeometry geometry) {
+		int vertexBufferId = glGenBuffers();
+		glBindBuffer(GL_ARRAY_BUFFER, vertexBufferId);
+		glBufferData(GL_ARRAY_BUFFER, geometry.getVertexBuffer(), GL_STATIC_DRAW);
+		
+		int indexBufferId = glGenBuffers();
+		glBindBuffer(GL_ARRAY_BUFFER, indexBufferId);
+		glBufferData(GL_ARRAY_BUFFER, geometry.getIndexBuffer(), GL_STATIC_DRAW);
+		
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		
+		return new MeshBuffers(vertexBufferId, indexBufferId);
+	}
+	
+	/**
+	 * Deletes the buffers, used when they are dropped before a Mesh took 
+	 * them over.
+	 */
+	public void delete() {
+		glDeleteBuffers(this.vertexBufferId);
+		glDeleteBuffers(this.indexBufferId);
+	}
+	
+	/**
+	 * Getter for the id of the interleaved vertex buffer.
+	 * 
+	 * @return - The vertex buffer id.
+	 */
+	public int getVertexBufferId() {
+		return this.vertexBufferId;
+	}
+	
+	/**
+	 * Getter for the id of the index buffer.
+	 * 
+	 * @return - The index buffer id.
+	 */
+	public int getIndexBufferId() {
+		return this.indexBufferId;
+	}
+}
@@ -0,0 +1,412 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx;
+
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Off-heap store of the interleaved vertices and the indices of a Mesh.
+ * The geometry is packed once and the same native memory is uploaded to
+ * the GPU and read by the physics collision shapes, so no Java heap copy
+ * of the vertices has to be kept around.
+ * 
+ * The positions are stored as three floats at the start of every vertex
+ * which makes the vertex buffer readable as a strided position array.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshGeometry.java
+ */
+public class MeshGeometry {
+	
+	/**
+	 * Layout of the interleaved vertices.
+	 */
+	private final VertexLayout vertexLayout;
+	
+	/**
+	 * GL type of the indices, GL_UNSIGNED_SHORT or GL_UNSIGNED_INT.
+	 */
+	private final int indexType;
+	
+	/**
+	 * Amount of vertices.
+	 */
+	private final int vertexCount;
+	
+	/**
+	 * Amount of indices.
+	 */
+	private final int indexCount;
+	
+	/**
+	 * Interleaved vertices, null once released.
+	 */
+	private ByteBuffer vertices;
+	
+	/**
+	 * Indices, null once released.
+	 */
+	private ByteBuffer indices;
+	
+	/**
+	 * True if the vertices and indices were allocated by this geometry and
+	 * have to be freed when it is released.
+	 */
+	private final boolean ownsMemory;
+	
+	/**
+	 * Axis aligned bounds as minimum x, y, z and maximum x, y, z, null until
+	 * calculated from the vertices.
+	 */
+	private float[] bounds;
+	
+	/**
+	 * Creates a new MeshGeometry packing the specified vertex attributes and indices
+	 * into native memory. The joint data is only stored if any of the weights is above zero.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param textCoords - Texture coordinates.
+	 * @param normals - Normal coordinates.
+	 * @param indices - Indices.
+	 * @param jointIndices - Joint indices, may be null.
+	 * @param weights - Weights, may be null.
+	 */
+	public MeshGeometry(float[] positions, float[] textCoords, float[] normals, int[] indices, int[] jointIndices, float[] weights) {
+		this.vertexLayout = VertexLayout.select(weights);
+		this.vertexCount = positions.length / 3;
+		this.indexCount = indices.length;
+		this.indexType = Mesh.selectIndexType(this.vertexCount);
+		
+		this.vertices = this.vertexLayout.pack(positions, textCoords, normals, jointIndices, weights);
+		this.indices = packIndices(indices, this.indexType);
+		this.ownsMemory = true;
+		this.bounds = null;
+	}
+	
+	/**
+	 * Creates a new MeshGeometry over already packed vertices and indices in
+	 * memory this geometry doesn't own, such as a memory mapped file. The 
+	 * memory is not freed when the geometry is released.
+	 * 
+	 * @param vertexLayout - Layout of the vertices.
+	 * @param vertices - Interleaved vertices.
+	 * @param vertexCount - Amount of vertices.
+	 * @param indices - Indices of the type selected for the vertex count.
+	 * @param indexCount - Amount of indices.
+	 * @param bounds - Axis aligned bounds of the vertices as minimum x, y, z and
+	 *                 maximum x, y, z, may be null.
+	 */
+	public MeshGeometry(VertexLayout vertexLayout, ByteBuffer vertices, int vertexCount, ByteBuffer indices, int indexCount, float[] bounds) {
+		this.vertexLayout = vertexLayout;
+		this.vertexCount = vertexCount;
+		this.indexCount = indexCount;
+		this.indexType = Mesh.selectIndexType(vertexCount);
+		
+		this.vertices = vertices;
+		this.indices = indices;
+		this.ownsMemory = false;
+		this.bounds = bounds;
+	}
+	
+	/**
+	 * Creates a new MeshGeometry taking ownership of the specified packed vertices.
+	 * 
+	 * @param vertexLayout - Layout of the vertices.
+	 * @param vertices - Interleaved vertices in native memory.
+	 * @param vertexCount - Amount of vertices.
+	 * @param indices - Indices.
+	 */
+	private MeshGeometry(VertexLayout vertexLayout, ByteBuffer vertices, int vertexCount, int[] indices) {
+		this.vertexLayout = vertexLayout;
+		this.vertexCount = vertexCount;
+		this.indexCount = indices.length;
+		this.indexType = Mesh.selectIndexType(vertexCount);
+		
+		this.vertices = vertices;
+		this.indices = packIndices(indices, this.indexType);
+		this.ownsMemory = true;
+		this.bounds = null;
+	}
+	
+	/**
+	 * Combines several geometries into one, transforming the vertices of each
+	 * geometry with its own matrix. All the geometries must use the same layout.
+	 * 
+	 * @param parts - Geometries to combine.
+	 * @param transforms - Matrix transforming the vertices of each geometry.
+	 * 
+	 * @return - The combined geometry.
+	 */
+	public static MeshGeometry combine(MeshGeometry[] parts, Matrix4f[] transforms) {
+		VertexLayout layout = parts[0].getVertexLayout();
+		int stride = layout.getStride();
+		
+		int vertexCount = 0;
+		int indexCount = 0;
+		for (MeshGeometry part : parts) {
+			if (part.getVertexLayout() != layout) {
+				throw new IllegalArgumentException("Combined geometries must use the same vertex layout");
+			}
+			vertexCount += part.getVertexCount();
+			indexCount += part.getIndexCount();
+		}
+		
+		ByteBuffer vertices = MemoryUtil.memAlloc(vertexCount * stride);
+		int[] indices = new int[indexCount];
+		Matrix3f normalMatrix = new Matrix3f();
+		Vector3f tmp = new Vector3f();
+		
+		int baseVertex = 0;
+		int indexOffset = 0;
+		for (int p = 0; p < parts.length; p++) {
+			MeshGeometry part = parts[p];
+			ByteBuffer source = part.getVertexBuffer();
+			transforms[p].normal(normalMatrix);
+			
+			for (int v = 0; v < part.getVertexCount(); v++) {
+				layout.transformVertex(source, v * stride, vertices, (baseVertex + v) * stride, transforms[p], normalMatrix, tmp);
+			}
+			
+			for (int index : part.getIndices()) {
+				indices[indexOffset++] = baseVertex + index;
+			}
+			baseVertex += part.getVertexCount();
+		}
+		
+		return new MeshGeometry(layout, vertices, vertexCount, indices);
+	}
+	
+	/**
+	 * Stores the indices in native memory using the specified index type.
+	 * 
+	 * @param indices - Indices to store.
+	 * @param indexType - GL_UNSIGNED_SHORT or GL_UNSIGNED_INT.
+	 * 
+	 * @return - Buffer holding the indices, ready to be read.
+	 */
+	private static ByteBuffer packIndices(int[] indices, int indexType) {
+		ByteBuffer buffer;
+		
+		// Using 16 bit indices whenever all the vertices can be addressed with them.
+		if (indexType == GL_UNSIGNED_SHORT) {
+			buffer = MemoryUtil.memAlloc(indices.length * 2);
+			for (int index : indices) {
+				buffer.putShort((short) index);
+			}
+		} else {
+			buffer = MemoryUtil.memAlloc(indices.length * 4);
+			buffer.asIntBuffer().put(indices);
+			buffer.position(buffer.limit());
+		}
+		buffer.flip();
+		
+		return buffer;
+	}
+	
+	/**
+	 * Getter for a view of the interleaved vertices. The view shares the 
+	 * native memory of this geometry and uses the native byte order.
+	 * 
+	 * @return - The interleaved vertices.
+	 */
+	public ByteBuffer getVertexBuffer() {
+		return view(this.vertices);
+	}
+	
+	/**
+	 * Getter for a view of the indices. The view shares the native memory 
+	 * of this geometry and uses the native byte order.
+	 * 
+	 * @return - The indices, two or four bytes each depending on the index type.
+	 */
+	public ByteBuffer getIndexBuffer() {
+		return view(this.indices);
+	}
+	
+	/**
+	 * Creates a view of the specified buffer, duplicates always use big endian
+	 * so the native order has to be restored.
+	 * 
+	 * @param buffer - Buffer to view.
+	 * 
+	 * @return - The view of the buffer.
+	 */
+	private static ByteBuffer view(ByteBuffer buffer) {
+		if (buffer == null) {
+			throw new IllegalStateException("Mesh geometry was released");
+		}
+		
+		return buffer.duplicate().order(ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * Reads the vertex positions out of the interleaved vertices into a new array.
+	 * 
+	 * @return - The vertex positions, three floats per vertex.
+	 */
+	public float[] getPositions() {
+		ByteBuffer buffer = getVertexBuffer();
+		int stride = this.vertexLayout.getStride();
+		
+		float[] positions = new float[this.vertexCount * 3];
+		for (int v = 0; v < this.vertexCount; v++) {
+			positions[v * 3] = buffer.getFloat(v * stride);
+			positions[v * 3 + 1] = buffer.getFloat(v * stride + 4);
+			positions[v * 3 + 2] = buffer.getFloat(v * stride + 8);
+		}
+		
+		return positions;
+	}
+	
+	/**
+	 * Reads the indices into a new array.
+	 * 
+	 * @return - The indices.
+	 */
+	public int[] getIndices() {
+		ByteBuffer buffer = getIndexBuffer();
+		
+		int[] result = new int[this.indexCount];
+		if (this.indexType == GL_UNSIGNED_SHORT) {
+			for (int i = 0; i < this.indexCount; i++) {
+				result[i] = buffer.getShort(i * 2) & 0xFFFF;
+			}
+		} else {
+			buffer.asIntBuffer().get(result);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Frees the native memory of this geometry. The GPU buffers uploaded 
+	 * from it stay valid but no collision shape may read it afterwards.
+	 */
+	public void release() {
+		if (this.vertices != null && this.ownsMemory) {
+			MemoryUtil.memFree(this.vertices);
+		}
+		
+		if (this.indices != null && this.ownsMemory) {
+			MemoryUtil.memFree(this.indices);
+		}
+		
+		this.vertices = null;
+		this.indices = null;
+	}
+	
+	/**
+	 * Checks if the native memory of this geometry was released.
+	 * 
+	 * @return - True if released; False otherwise.
+	 */
+	public boolean isReleased() {
+		return this.vertices == null;
+	}
+	
+	/**
+	 * Getter for the axis aligned bounds of the vertices, calculated on the
+	 * first call unless they were passed in.
+	 * 
+	 * @return - Minimum x, y, z and maximum x, y, z.
+	 */
+	public float[] getBounds() {
+		if (this.bounds == null) {
+			ByteBuffer buffer = getVertexBuffer();
+			int stride = this.vertexLayout.getStride();
+			
+			float[] bounds = {0, 0, 0, 0, 0, 0};
+			if (this.vertexCount > 0) {
+				Arrays.fill(bounds, 0, 3, Float.MAX_VALUE);
+				Arrays.fill(bounds, 3, 6, -Float.MAX_VALUE);
+			}
+			for (int v = 0; v < this.vertexCount; v++) {
+				for (int c = 0; c < 3; c++) {
+					float value = buffer.getFloat(v * stride + c * 4);
+					bounds[c] = Math.min(bounds[c], value);
+					bounds[c + 3] = Math.max(bounds[c + 3], value);
+				}
+			}
+			this.bounds = bounds;
+		}
+		
+		return this.bounds;
+	}
+	
+	/**
+	 * Getter for the layout of the interleaved vertices.
+	 * 
+	 * @return - The vertex layout.
+	 */
+	public VertexLayout getVertexLayout() {
+		return this.vertexLayout;
+	}
+	
+	/**
+	 * Getter for the size in bytes of one vertex.
+	 * 
+	 * @return - The vertex stride.
+	 */
+	public int getVertexStride() {
+		return this.vertexLayout.getStride();
+	}
+	
+	/**
+	 * Getter for the GL type of the indices.
+	 * 
+	 * @return - GL_UNSIGNED_SHORT or GL_UNSIGNED_INT.
+	 */
+	public int getIndexType() {
+		return this.indexType;
+	}
+	
+	/**
+	 * Getter for the amount of vertices.
+	 * 
+	 * @return - The vertex count.
+	 */
+	public int getVertexCount() {
+		return this.vertexCount;
+	}
+	
+	/**
+	 * Getter for the amount of indices.
+	 * 
+	 * @return - The index count.
+	 */
+	public int getIndexCount() {
+		return this.indexCount;
+	}
+}
@@ -32,13 +32,23 @@ import me.oskarmendel.mass.entity.Entity;
 import me.oskarmendel.mass.entity.SkyBox;
 import me.oskarmendel.mass.entity.animated.AnimatedEntity;
 import me.oskarmendel.mass.gfx.filter.FrustumCullingFilter;
+import me.oskarmendel.mass.gfx.filter.OcclusionCullingFilter;
 import me.oskarmendel.mass.gfx.light.DirectionalLight;
 import me.oskarmendel.mass.gfx.light.PointLight;
 import me.oskarmendel.mass.gfx.light.SpotLight;
+import me.oskarmendel.mass.gfx.lod.LodSelector;
+import me.oskarmendel.mass.gfx.meshlet.MeshletCuller;
+import me.oskarmendel.mass.gfx.pool.MeshBufferPool;
+import me.oskarmendel.mass.gfx.pvs.PotentiallyVisibleSet;
 import me.oskarmendel.mass.gfx.shader.Shader;
 import me.oskarmendel.mass.gfx.shader.ShaderProgram;
+import me.oskarmendel.mass.gfx.shadow.LocalShadow;
+import me.oskarmendel.mass.gfx.shadow.LocalShadowRenderer;
+import me.oskarmendel.mass.gfx.shadow.ShadowAtlas;
 import me.oskarmendel.mass.gfx.shadow.ShadowCascade;
+import me.oskarmendel.mass.gfx.shadow.ShadowFilterQuality;
 import me.oskarmendel.mass.gfx.shadow.ShadowRenderer;
+import me.oskarmendel.mass.gfx.shadow.ShadowTechnique;
 
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
@@ -47,6 +57,8 @@ import org.joml.Vector4f;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL13.GL_TEXTURE2;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE3;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE4;
 
 import java.util.List;
 import java.util.Map;
@@ -64,6 +76,11 @@ public class Renderer {
     
     private static final int MAX_SPOT_LIGHTS = 5;
     
+    /**
+     * Bytes of pooled mesh data moved per frame to close the holes of deleted meshes.
+     */
+    private static final long MESH_COMPACTION_BUDGET = 256 * 1024;
+    
     /**
      * 
      */
@@ -71,6 +88,8 @@ public class Renderer {
     
     private final ShadowRenderer shadowRenderer;
     
+    private final LocalShadowRenderer localShadowRenderer;
+    
     private ShaderProgram defaultShaderProgram;
     
     private ShaderProgram skyBoxShaderProgram;
@@ -79,6 +98,12 @@ public class Renderer {
     
     private final FrustumCullingFilter frustumFilter;
     
+    private final OcclusionCullingFilter occlusionFilter;
+    
+    private final LodSelector lodSelector;
+    
+    private final MeshletCuller meshletCuller;
+    
     //private final List<Entity> filteredEntities;
 
     /**
@@ -88,15 +113,23 @@ public class Renderer {
         this.transformation = new Transformation();
         //this.specularPower = 10f;
         this.shadowRenderer = new ShadowRenderer();
+        this.localShadowRenderer = new LocalShadowRenderer();
         this.frustumFilter = new FrustumCullingFilter();
+        this.occlusionFilter = new OcclusionCullingFilter();
+        this.lodSelector = new LodSelector();
+        this.meshletCuller = new MeshletCuller();
         //this.filteredEntities = new ArrayList<>();
     }
 
     /**
      * Initializes the renderer.
+     * 
+     * @param screen - Screen to read the rendering options from.
      */
-    public void init() throws Exception {
-    	shadowRenderer.init();
+    public void init(Screen screen) throws Exception {
+    	shadowRenderer.init(screen.getScreenOptions().getShadowMapResolution());
+    	localShadowRenderer.init();
+    	occlusionFilter.init();
     	
     	setupSkyBoxShader();
     	setupDefaultShader();
@@ -145,15 +178,22 @@ public class Renderer {
 		this.defaultShaderProgram.createDirectionalLightUniform("directionalLight");
 		this.defaultShaderProgram.createFogUniform("fog");
 		
-		for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-			this.defaultShaderProgram.createUniform("shadowMap_" + i);
-		}
+		this.defaultShaderProgram.createUniform("shadowMap");
 		
 		this.defaultShaderProgram.createUniform("orthoProjectionMatrix", ShadowRenderer.NUM_CASCADES);
 		this.defaultShaderProgram.createUniform("modelNonInstancedMatrix");
 		this.defaultShaderProgram.createUniform("lightViewMatrix", ShadowRenderer.NUM_CASCADES);
 		this.defaultShaderProgram.createUniform("cascadeFarPlanes", ShadowRenderer.NUM_CASCADES);
 		this.defaultShaderProgram.createUniform("renderShadow");
+		this.defaultShaderProgram.createUniform("shadowKernelSize");
+		this.defaultShaderProgram.createUniform("shadowMoments");
+		this.defaultShaderProgram.createUniform("shadowTechnique");
+		this.defaultShaderProgram.createUniform("shadowAtlas");
+		this.defaultShaderProgram.createUniform("viewInverseMatrix");
+		this.defaultShaderProgram.createUniform("spotLightShadowMatrices", MAX_SPOT_LIGHTS);
+		this.defaultShaderProgram.createUniform("spotLightShadowTiles", MAX_SPOT_LIGHTS);
+		this.defaultShaderProgram.createUniform("pointLightShadowTiles", MAX_POINT_LIGHTS * 6);
+		this.defaultShaderProgram.createUniform("pointLightShadowParams", MAX_POINT_LIGHTS);
 		
 		this.defaultShaderProgram.createUniform("jointsMatrix");
 		
@@ -175,17 +215,49 @@ public class Renderer {
      */
     public void render(Screen screen, Camera camera, Scene scene, boolean changed) {
         clear();
+        
+        MeshBufferPool.compactAll(MESH_COMPACTION_BUDGET);
+        
+        // Release the queries of meshes and entities the scene no longer draws.
+        for (Mesh mesh : scene.pollRemovedMeshes()) {
+        	this.occlusionFilter.remove(mesh);
+        }
+        for (Entity entity : scene.pollRemovedEntities()) {
+        	this.occlusionFilter.remove(entity);
+        }
+        
+        // Find the visible cells of the level before any per object culling.
+        PotentiallyVisibleSet pvs = scene.getPotentiallyVisibleSet();
+        if (pvs != null) {
+        	pvs.update(camera.getPosition());
+        }
 
         //TODO: if (screen.getOptions().frustumCulling) { - Oskar Mendel 2017-07-01
         if (true) {
-        	this.frustumFilter.updateFrustum(screen.getProjectionMatrix(), camera.getViewMatrix());
+        	this.frustumFilter.updateFrustum(screen.getProjectionMatrix(), camera.getViewMatrix(), camera.hasChanged());
         	this.frustumFilter.filter(scene.getEntityMeshes());
         	this.frustumFilter.filter(scene.getEntityInstancedMeshes());
         }
         
+        this.meshletCuller.update(screen.getProjectionMatrix(), camera.getViewMatrix(), camera.getPosition());
+        
+        this.lodSelector.updatePerspective(scene.getEntities(), LodSelector.VIEW_CAMERA, camera.getPosition(), 
+        		Screen.FOV, this.transformation);
+        
+        boolean occlusionCulling = screen.getScreenOptions().getOcclusionCulling();
+        if (occlusionCulling) {
+        	this.occlusionFilter.update();
+        }
+        
         // Render depth map.
-        if (scene.isRenderShadows() && changed) {
-        	shadowRenderer.render(screen, scene, camera, transformation, this);
+        if (scene.isRenderShadows()) {
+        	// Cascades skipped while things changed are caught up on the following frames.
+        	if (changed || shadowRenderer.hasPendingCascades()) {
+        		shadowRenderer.render(screen, scene, camera, transformation, this, changed);
+        	}
+        	
+        	// Local shadows are throttled per frame so dirty ones are rendered even when nothing changed.
+        	localShadowRenderer.render(screen, scene, camera, transformation);
         }
         
         glViewport(0, 0, screen.getWidth(), screen.getHeight());
@@ -194,7 +266,35 @@ public class Renderer {
         screen.updateProjectionMatrix();
         
         renderSkyBox(screen, camera, scene);
-        renderScene(screen, camera, scene);
+        renderScene(screen, camera, scene, occlusionCulling);
+        
+        // Test the visibility for the next frame against the finished depth buffer.
+        if (occlusionCulling) {
+        	this.occlusionFilter.issueQueries(scene.getEntityMeshes(), (Mesh mesh, Entity entity) -> {
+        		return isPotentiallyVisible(pvs, mesh, entity) && entity.insideFrustrum();
+        	}, screen.getProjectionMatrix(), 
+        			camera.getViewMatrix(), camera.getPosition(), this.transformation);
+        }
+        
+        resetChanges(camera, scene);
+    }
+    
+    /**
+     * Marks the camera and all the entities of the scene as unchanged 
+     * once a frame has been rendered.
+     * 
+     * @param camera
+     * @param scene
+     */
+    private void resetChanges(Camera camera, Scene scene) {
+    	camera.setChanged(false);
+    	
+    	Entity[] entities = scene.getEntities();
+    	if (entities != null) {
+    		for (Entity entity : entities) {
+    			entity.setTransformChanged(false);
+    		}
+    	}
     }
     
     /**
@@ -244,8 +344,9 @@ public class Renderer {
      * @param screen
      * @param camera
      * @param scene
+     * @param occlusionCulling
      */
-    private void renderScene(Screen screen, Camera camera, Scene scene) {
+    private void renderScene(Screen screen, Camera camera, Scene scene, boolean occlusionCulling) {
     	this.defaultShaderProgram.use();
     	
     	Matrix4f viewMatrix = camera.getViewMatrix();
@@ -269,14 +370,17 @@ public class Renderer {
     	this.defaultShaderProgram.setUniform(("texture_sampler"), 0);
     	this.defaultShaderProgram.setUniform(("normalMap"), 1);
     	
-    	int start = 2;
-    	for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-    		this.defaultShaderProgram.setUniform(("shadowMap_" + i), start + i);
-    	}
+    	this.defaultShaderProgram.setUniform(("shadowMap"), 2);
     	
     	this.defaultShaderProgram.setUniform(("renderShadow"), scene.isRenderShadows() ? 1 : 0);
+    	this.defaultShaderProgram.setUniform(("shadowKernelSize"), this.shadowRenderer.getFilterQuality().getKernelSize());
+    	this.defaultShaderProgram.setUniform(("shadowMoments"), 4);
+    	this.defaultShaderProgram.setUniform(("shadowTechnique"), this.shadowRenderer.getTechnique().ordinal());
     	
-    	renderNonInstancedMeshes(scene);
+    	this.defaultShaderProgram.setUniform(("shadowAtlas"), 3);
+    	renderLocalShadows(viewMatrix, sceneLight);
+    	
+    	renderNonInstancedMeshes(scene, occlusionCulling);
     	
     	renderInstancedMeshes(scene, viewMatrix);
     	
@@ -343,14 +447,77 @@ public class Renderer {
 		this.defaultShaderProgram.setUniform("directionalLight", currDirLight);
     }
     
+    /**
+     * Sets the uniforms used to sample the shadows of the point and spot lights
+     * from the shadow atlas. The shadow matrices take view space positions and 
+     * include the tile of the shadow within the atlas.
+     * 
+     * @param viewMatrix
+     * @param sceneLight
+     */
+    private void renderLocalShadows(Matrix4f viewMatrix, SceneLight sceneLight) {
+    	Matrix4f viewInverseMatrix = new Matrix4f(viewMatrix).invert();
+    	this.defaultShaderProgram.setUniform(("viewInverseMatrix"), viewInverseMatrix);
+    	
+    	float atlasSize = this.localShadowRenderer.getAtlasSize();
+    	Vector4f tileRect = new Vector4f();
+    	
+    	SpotLight[] spotLights = sceneLight.getSpotLights();
+    	for (int i = 0; i < MAX_SPOT_LIGHTS; i++) {
+    		LocalShadow shadow = spotLights != null && i < spotLights.length 
+    				? this.localShadowRenderer.getShadow(spotLights[i]) : null;
+    		
+    		if (shadow == null || !shadow.isReady()) {
+    			this.defaultShaderProgram.setUniform("spotLightShadowTiles", tileRect.set(0, 0, 0, 0), i);
+    			continue;
+    		}
+    		
+    		// Map the clip space of the light into the tile of the atlas.
+    		ShadowAtlas.Tile tile = shadow.getTile(0);
+    		float scale = tile.getSize() / atlasSize;
+    		tileRect.set(tile.getX() / atlasSize, tile.getY() / atlasSize, scale, 0);
+    		
+    		Matrix4f shadowMatrix = new Matrix4f()
+    				.translate(tileRect.x + scale * 0.5f, tileRect.y + scale * 0.5f, 0.5f)
+    				.scale(scale * 0.5f, scale * 0.5f, 0.5f)
+    				.mul(shadow.getViewProjectionMatrix(0))
+    				.mul(viewInverseMatrix);
+    		
+    		this.defaultShaderProgram.setUniform("spotLightShadowMatrices", shadowMatrix, i);
+    		this.defaultShaderProgram.setUniform("spotLightShadowTiles", tileRect, i);
+    	}
+    	
+    	PointLight[] pointLights = sceneLight.getPointLights();
+    	for (int i = 0; i < MAX_POINT_LIGHTS; i++) {
+    		LocalShadow shadow = pointLights != null && i < pointLights.length 
+    				? this.localShadowRenderer.getShadow(pointLights[i]) : null;
+    		
+    		if (shadow == null || !shadow.isReady()) {
+    			this.defaultShaderProgram.setUniform("pointLightShadowParams", tileRect.set(0, 0, 0, 0), i);
+    			continue;
+    		}
+    		
+    		for (int face = 0; face < shadow.getFaces(); face++) {
+    			ShadowAtlas.Tile tile = shadow.getTile(face);
+    			tileRect.set(tile.getX() / atlasSize, tile.getY() / atlasSize, tile.getSize() / atlasSize, 0);
+    			this.defaultShaderProgram.setUniform("pointLightShadowTiles", tileRect, i * 6 + face);
+    		}
+    		
+    		this.defaultShaderProgram.setUniform("pointLightShadowParams", 
+    				tileRect.set(LocalShadow.Z_NEAR, shadow.getRange(), 1, 0), i);
+    	}
+    }
+    
     /**
      * 
      * @param scene
+     * @param occlusionCulling
      */
-    private void renderNonInstancedMeshes(Scene scene) {
+    private void renderNonInstancedMeshes(Scene scene, boolean occlusionCulling) {
     	this.defaultShaderProgram.setUniform(("isInstanced"), 0);
     	// Render each mesh
     	Map<Mesh, List<Entity>> mapMeshes = scene.getEntityMeshes();
+    	PotentiallyVisibleSet pvs = scene.getPotentiallyVisibleSet();
     	for (Mesh mesh : mapMeshes.keySet()) {
     		this.defaultShaderProgram.setUniform("material", mesh.getMaterial());
     		 
@@ -361,7 +528,12 @@ public class Renderer {
     		}
     		 
 			this.shadowRenderer.bindTextures(GL_TEXTURE2);
-			mesh.renderList(mapMeshes.get(mesh), (Entity entity) -> {
+			this.localShadowRenderer.bindTextures(GL_TEXTURE3);
+			this.shadowRenderer.bindMomentsTextures(GL_TEXTURE4);
+			mesh.renderList(mapMeshes.get(mesh), LodSelector.VIEW_CAMERA, (Entity entity) -> {
+				return isPotentiallyVisible(pvs, mesh, entity) && entity.insideFrustrum() 
+						&& (!occlusionCulling || this.occlusionFilter.isVisible(mesh, entity));
+			}, (Entity entity) -> {
 				this.defaultShaderProgram.setUniform(("selectedNonInstanced"), entity.isSelected() ? 1.0f : 0.0f);
 				Matrix4f modelMatrix = this.transformation.buildModelMatrix(entity);
 				this.defaultShaderProgram.setUniform(("modelNonInstancedMatrix"), modelMatrix);
@@ -369,10 +541,24 @@ public class Renderer {
 					// TODO: If its animated render the shadows differently.
 					// Oskar Mendel - 2017-07-03
 				}
-			});
+			}, this.meshletCuller);
     	}
     }
     
+    /**
+     * Checks if the specified entity rendered with the specified mesh is part
+     * of the potentially visible set of the camera.
+     * 
+     * @param pvs - Potentially visible set of the scene, may be null.
+     * @param mesh - Mesh to check.
+     * @param entity - Entity using the mesh.
+     * 
+     * @return True if the entity is potentially visible; False otherwise.
+     */
+    public static boolean isPotentiallyVisible(PotentiallyVisibleSet pvs, Mesh mesh, Entity entity) {
+    	return pvs == null || pvs.isVisible(mesh, entity);
+    }
+    
     /**
      * 
      * @param scene
@@ -382,6 +568,24 @@ public class Renderer {
     	
     }
 
+    /**
+     * Sets the filter kernel used when sampling the shadow maps.
+     * 
+     * @param filterQuality - Filter kernel preset to use.
+     */
+    public void setShadowFilterQuality(ShadowFilterQuality filterQuality) {
+    	this.shadowRenderer.setFilterQuality(filterQuality);
+    }
+
+    /**
+     * Sets the technique the shadow cascades are filtered with.
+     * 
+     * @param technique - Shadow technique to use.
+     */
+    public void setShadowTechnique(ShadowTechnique technique) {
+    	this.shadowRenderer.setTechnique(technique);
+    }
+
     /**
      * Clears the screen.
      */
@@ -397,6 +601,14 @@ public class Renderer {
         	this.shadowRenderer.delete();
         }
         
+        if (this.localShadowRenderer != null) {
+        	this.localShadowRenderer.delete();
+        }
+        
+        if (this.occlusionFilter != null) {
+        	this.occlusionFilter.delete();
+        }
+        
         if (this.skyBoxShaderProgram != null) {
         	this.skyBoxShaderProgram.delete();
         }
@@ -404,5 +616,9 @@ public class Renderer {
         if (this.defaultShaderProgram != null) {
         	this.defaultShaderProgram.delete();
         }
+        
+        this.meshletCuller.delete();
+        
+        MeshBufferPool.deleteAll();
     }
 }
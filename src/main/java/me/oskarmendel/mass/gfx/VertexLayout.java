@@ -0,0 +1,408 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx;
+
+import java.nio.ByteBuffer;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttrib4f;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+import static org.lwjgl.opengl.GL30.glVertexAttribI4i;
+import static org.lwjgl.opengl.GL30.glVertexAttribIPointer;
+import static org.lwjgl.opengl.GL33.GL_INT_2_10_10_10_REV;
+
+/**
+ * Describes how the vertices of a Mesh are stored in its single 
+ * interleaved vertex buffer.
+ * 
+ * Every vertex stores its position as three floats, its texture coordinates
+ * as two half floats and its normal packed into a signed 10-10-10-2 integer,
+ * 20 bytes in total. Skinned vertices additionally store four normalized
+ * byte weights and four byte joint indices, 28 bytes in total.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name VertexLayout.java
+ */
+public final class VertexLayout {
+	
+	/**
+	 * Attribute location of the vertex positions.
+	 */
+	public static final int POSITION = 0;
+	
+	/**
+	 * Attribute location of the texture coordinates.
+	 */
+	public static final int TEXTURE_COORDINATES = 1;
+	
+	/**
+	 * Attribute location of the vertex normals.
+	 */
+	public static final int NORMAL = 2;
+	
+	/**
+	 * Attribute location of the joint weights.
+	 */
+	public static final int JOINT_WEIGHTS = 3;
+	
+	/**
+	 * Attribute location of the joint indices.
+	 */
+	public static final int JOINT_INDICES = 4;
+	
+	/**
+	 * Layout of vertices without skinning.
+	 */
+	public static final VertexLayout STATIC = new VertexLayout(false);
+	
+	/**
+	 * Layout of vertices skinned by up to four joints.
+	 */
+	public static final VertexLayout SKINNED = new VertexLayout(true);
+	
+	/**
+	 * Largest joint index a skinned vertex can store.
+	 */
+	public static final int MAX_JOINT_INDEX = 255;
+	
+	private static final int POSITION_OFFSET = 0;
+	
+	private static final int TEXTURE_COORDINATES_OFFSET = 12;
+	
+	private static final int NORMAL_OFFSET = 16;
+	
+	private static final int JOINT_WEIGHTS_OFFSET = 20;
+	
+	private static final int JOINT_INDICES_OFFSET = 24;
+	
+	/**
+	 * True if the vertices store joint weights and indices.
+	 */
+	private final boolean skinned;
+	
+	/**
+	 * Size of a single vertex in bytes.
+	 */
+	private final int stride;
+	
+	/**
+	 * Creates a new VertexLayout.
+	 * 
+	 * @param skinned - True if the vertices store joint weights and indices.
+	 */
+	private VertexLayout(boolean skinned) {
+		this.skinned = skinned;
+		this.stride = skinned ? JOINT_INDICES_OFFSET + Mesh.MAX_WEIGHTS : JOINT_WEIGHTS_OFFSET;
+	}
+	
+	/**
+	 * Selects the layout for vertices with the specified weights, only vertices
+	 * with a weight above zero need the skinned layout.
+	 * 
+	 * @param weights - Joint weights of the vertices, may be null.
+	 * 
+	 * @return The skinned layout if any weight is above zero; The static layout otherwise.
+	 */
+	public static VertexLayout select(float[] weights) {
+		if (weights != null) {
+			for (float weight : weights) {
+				if (weight > 0) {
+					return SKINNED;
+				}
+			}
+		}
+		
+		return STATIC;
+	}
+	
+	/**
+	 * Interleaves the specified vertex data into a newly allocated buffer 
+	 * which has to be freed with MemoryUtil.memFree. Missing texture 
+	 * coordinates and normals are stored as zero.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param textCoords - Texture coordinates.
+	 * @param normals - Normal coordinates.
+	 * @param jointIndices - Joint indices, only used by the skinned layout.
+	 * @param weights - Joint weights, only used by the skinned layout.
+	 * 
+	 * @return Buffer holding the interleaved vertices, ready to be read.
+	 */
+	public ByteBuffer pack(float[] positions, float[] textCoords, float[] normals, int[] jointIndices, float[] weights) {
+		int vertices = positions.length / 3;
+		ByteBuffer buffer = MemoryUtil.memAlloc(vertices * this.stride);
+		
+		for (int i = 0; i < vertices; i++) {
+			buffer.putFloat(positions[i * 3]);
+			buffer.putFloat(positions[i * 3 + 1]);
+			buffer.putFloat(positions[i * 3 + 2]);
+			
+			buffer.putShort(toHalfFloat(value(textCoords, i * 2)));
+			buffer.putShort(toHalfFloat(value(textCoords, i * 2 + 1)));
+			
+			buffer.putInt(packNormal(value(normals, i * 3), value(normals, i * 3 + 1), value(normals, i * 3 + 2)));
+			
+			if (this.skinned) {
+				putWeights(buffer, weights, i * Mesh.MAX_WEIGHTS);
+				
+				for (int j = 0; j < Mesh.MAX_WEIGHTS; j++) {
+					int jointIndex = jointIndices != null && i * Mesh.MAX_WEIGHTS + j < jointIndices.length 
+							? jointIndices[i * Mesh.MAX_WEIGHTS + j] : 0;
+					buffer.put((byte) Math.max(0, Math.min(jointIndex, MAX_JOINT_INDEX)));
+				}
+			}
+		}
+		
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Stores the weights of a vertex as normalized bytes. The rounding error
+	 * is added to the largest weight so the weights still sum up to one.
+	 * 
+	 * @param buffer - Buffer to store the weights in.
+	 * @param weights - Joint weights of all the vertices.
+	 * @param start - Index of the first weight of the vertex.
+	 */
+	private static void putWeights(ByteBuffer buffer, float[] weights, int start) {
+		int[] quantized = new int[Mesh.MAX_WEIGHTS];
+		int sum = 0;
+		int largest = 0;
+		
+		for (int j = 0; j < Mesh.MAX_WEIGHTS; j++) {
+			float weight = Math.max(0, Math.min(value(weights, start + j), 1));
+			quantized[j] = Math.round(weight * 255);
+			sum += quantized[j];
+			
+			if (quantized[j] > quantized[largest]) {
+				largest = j;
+			}
+		}
+		
+		if (sum > 0) {
+			quantized[largest] = Math.max(0, quantized[largest] + 255 - sum);
+		}
+		
+		for (int j = 0; j < Mesh.MAX_WEIGHTS; j++) {
+			buffer.put((byte) quantized[j]);
+		}
+	}
+	
+	/**
+	 * Reads a value from an array which may be too short or null.
+	 * 
+	 * @param array - Array to read from.
+	 * @param index - Index of the value.
+	 * 
+	 * @return The value or zero if the array has no such index.
+	 */
+	private static float value(float[] array, int index) {
+		return array != null && index < array.length ? array[index] : 0;
+	}
+	
+	/**
+	 * Defines the attributes of this layout for the currently 
+	 * bound vertex array and vertex buffer.
+	 */
+	public void setupAttributes() {
+		glVertexAttribPointer(POSITION, 3, GL_FLOAT, false, this.stride, POSITION_OFFSET);
+		glVertexAttribPointer(TEXTURE_COORDINATES, 2, GL_HALF_FLOAT, false, this.stride, TEXTURE_COORDINATES_OFFSET);
+		glVertexAttribPointer(NORMAL, 4, GL_INT_2_10_10_10_REV, true, this.stride, NORMAL_OFFSET);
+		
+		if (this.skinned) {
+			glVertexAttribPointer(JOINT_WEIGHTS, 4, GL_UNSIGNED_BYTE, true, this.stride, JOINT_WEIGHTS_OFFSET);
+			glVertexAttribIPointer(JOINT_INDICES, 4, GL_UNSIGNED_BYTE, this.stride, JOINT_INDICES_OFFSET);
+		}
+	}
+	
+	/**
+	 * Enables the attributes of this layout. Without skinning the joint 
+	 * attributes are set to zero so the shaders leave the vertices untouched.
+	 */
+	public void enableAttributes() {
+		glEnableVertexAttribArray(POSITION);
+		glEnableVertexAttribArray(TEXTURE_COORDINATES);
+		glEnableVertexAttribArray(NORMAL);
+		
+		if (this.skinned) {
+			glEnableVertexAttribArray(JOINT_WEIGHTS);
+			glEnableVertexAttribArray(JOINT_INDICES);
+		} else {
+			glVertexAttrib4f(JOINT_WEIGHTS, 0, 0, 0, 0);
+			glVertexAttribI4i(JOINT_INDICES, 0, 0, 0, 0);
+		}
+	}
+	
+	/**
+	 * Disables the attributes of this layout.
+	 */
+	public void disableAttributes() {
+		glDisableVertexAttribArray(POSITION);
+		glDisableVertexAttribArray(TEXTURE_COORDINATES);
+		glDisableVertexAttribArray(NORMAL);
+		
+		if (this.skinned) {
+			glDisableVertexAttribArray(JOINT_WEIGHTS);
+			glDisableVertexAttribArray(JOINT_INDICES);
+		}
+	}
+	
+	/**
+	 * Getter for the size of a single vertex.
+	 * 
+	 * @return - Size of a single vertex in bytes.
+	 */
+	public int getStride() {
+		return this.stride;
+	}
+	
+	/**
+	 * Getter for whether the vertices of this layout store joint weights and indices.
+	 * 
+	 * @return - True if the layout is skinned; False otherwise.
+	 */
+	public boolean isSkinned() {
+		return this.skinned;
+	}
+	
+	/**
+	 * Copies one vertex of this layout transforming its position and normal.
+	 * 
+	 * @param source - Buffer to read the vertex from.
+	 * @param sourceOffset - Byte offset of the vertex in the source buffer.
+	 * @param dest - Buffer to write the vertex to.
+	 * @param destOffset - Byte offset of the vertex in the destination buffer.
+	 * @param positionMatrix - Matrix transforming the position.
+	 * @param normalMatrix - Matrix transforming the normal.
+	 * @param tmp - Temporary vector.
+	 */
+	void transformVertex(ByteBuffer source, int sourceOffset, ByteBuffer dest, int destOffset, 
+			Matrix4f positionMatrix, Matrix3f normalMatrix, Vector3f tmp) {
+		for (int i = 0; i < this.stride; i++) {
+			dest.put(destOffset + i, source.get(sourceOffset + i));
+		}
+		
+		tmp.set(source.getFloat(sourceOffset + POSITION_OFFSET), source.getFloat(sourceOffset + POSITION_OFFSET + 4), 
+				source.getFloat(sourceOffset + POSITION_OFFSET + 8));
+		positionMatrix.transformPosition(tmp);
+		dest.putFloat(destOffset + POSITION_OFFSET, tmp.x);
+		dest.putFloat(destOffset + POSITION_OFFSET + 4, tmp.y);
+		dest.putFloat(destOffset + POSITION_OFFSET + 8, tmp.z);
+		
+		int normal = source.getInt(sourceOffset + NORMAL_OFFSET);
+		tmp.set(unpackSigned10(normal), unpackSigned10(normal >> 10), unpackSigned10(normal >> 20));
+		normalMatrix.transform(tmp);
+		if (tmp.lengthSquared() > 0) {
+			tmp.normalize();
+		}
+		dest.putInt(destOffset + NORMAL_OFFSET, packNormal(tmp.x, tmp.y, tmp.z));
+	}
+	
+	/**
+	 * Unpacks a signed normalized 10 bit integer.
+	 * 
+	 * @param bits - The 10 lowest bits hold the packed value.
+	 * 
+	 * @return The value between -1 and 1.
+	 */
+	private static float unpackSigned10(int bits) {
+		// Sign extend the 10 bits.
+		int value = (bits << 22) >> 22;
+		return Math.max(value / 511.0f, -1.0f);
+	}
+	
+	/**
+	 * Packs a normal into a signed normalized 10-10-10-2 integer.
+	 * 
+	 * @param x - X component of the normal.
+	 * @param y - Y component of the normal.
+	 * @param z - Z component of the normal.
+	 * 
+	 * @return The packed normal.
+	 */
+	static int packNormal(float x, float y, float z) {
+		return packSigned10(x) | (packSigned10(y) << 10) | (packSigned10(z) << 20);
+	}
+	
+	/**
+	 * Packs a value between -1 and 1 into a signed normalized 10 bit integer.
+	 * 
+	 * @param value - Value to pack.
+	 * 
+	 * @return The 10 lowest bits hold the packed value.
+	 */
+	private static int packSigned10(float value) {
+		return Math.round(Math.max(-1, Math.min(value, 1)) * 511) & 0x3FF;
+	}
+	
+	/**
+	 * Converts a float into the bits of a half float, rounding to nearest.
+	 * 
+	 * @param value - Value to convert.
+	 * 
+	 * @return The bits of the half float.
+	 */
+	static short toHalfFloat(float value) {
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int rounded = (bits & 0x7FFFFFFF) + 0x1000;
+		
+		// Too large for a half float, infinity or NaN.
+		if (rounded >= 0x47800000) {
+			if ((bits & 0x7FFFFFFF) >= 0x47800000) {
+				if (rounded < 0x7F800000) {
+					return (short) (sign | 0x7C00);
+				}
+				return (short) (sign | 0x7C00 | ((bits & 0x007FFFFF) >>> 13));
+			}
+			return (short) (sign | 0x7BFF);
+		}
+		
+		// Normalized half float.
+		if (rounded >= 0x38800000) {
+			return (short) (sign | ((rounded - 0x38000000) >>> 13));
+		}
+		
+		// Too small even for a denormalized half float.
+		if (rounded < 0x33000000) {
+			return (short) sign;
+		}
+		
+		// Denormalized half float.
+		int exponent = (bits & 0x7FFFFFFF) >>> 23;
+		return (short) (sign | ((((bits & 0x7FFFFF) | 0x800000) + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+	}
+}
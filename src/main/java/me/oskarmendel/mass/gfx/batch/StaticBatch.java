@@ -0,0 +1,108 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.batch;
+
+import java.util.List;
+
+import me.oskarmendel.mass.entity.Entity;
+import me.oskarmendel.mass.gfx.Mesh;
+
+/**
+ * Render only entity holding the combined, pre-transformed mesh of several 
+ * static submeshes sharing a material. The entity sits at the center of the 
+ * bounds of the combined geometry so per object culling uses tight bounds.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name StaticBatch.java
+ */
+public class StaticBatch extends Entity {
+	
+	/**
+	 * Meshes combined into this batch.
+	 */
+	private final List<Mesh> sourceMeshes;
+	
+	/**
+	 * Entities whose meshes were combined into this batch.
+	 */
+	private final List<Entity> sourceEntities;
+	
+	/**
+	 * Creates a new StaticBatch drawing the specified combined mesh.
+	 * 
+	 * @param mesh - Combined mesh, relative to the center of the batch.
+	 * @param x - X coordinate of the center of the batch.
+	 * @param y - Y coordinate of the center of the batch.
+	 * @param z - Z coordinate of the center of the batch.
+	 * @param sourceMeshes - Meshes combined into the batch.
+	 * @param sourceEntities - Entity of every combined mesh.
+	 */
+	StaticBatch(Mesh mesh, float x, float y, float z, List<Mesh> sourceMeshes, List<Entity> sourceEntities) {
+		super(mesh);
+		
+		this.sourceMeshes = sourceMeshes;
+		this.sourceEntities = sourceEntities;
+		
+		setPosition(x, y, z);
+		setStatic(true);
+	}
+	
+	/**
+	 * Getter for the meshes combined into this batch.
+	 * 
+	 * @return - The combined meshes.
+	 */
+	public List<Mesh> getSourceMeshes() {
+		return this.sourceMeshes;
+	}
+	
+	/**
+	 * Getter for the entity of every combined mesh, in the same order as the meshes.
+	 * 
+	 * @return - The entities of the combined meshes.
+	 */
+	public List<Entity> getSourceEntities() {
+		return this.sourceEntities;
+	}
+	
+	/**
+	 * Checks if the specified mesh of the specified entity was combined into this batch.
+	 * 
+	 * @param entity - Entity using the mesh.
+	 * @param mesh - Mesh to check.
+	 * 
+	 * @return - True if the mesh is drawn by this batch; False otherwise.
+	 */
+	public boolean contains(Entity entity, Mesh mesh) {
+		for (int i = 0; i < this.sourceMeshes.size(); i++) {
+			if (this.sourceMeshes.get(i) == mesh && this.sourceEntities.get(i) == entity) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+}
@@ -0,0 +1,356 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.batch;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import me.oskarmendel.mass.entity.Entity;
+import me.oskarmendel.mass.gfx.InstancedMesh;
+import me.oskarmendel.mass.gfx.Material;
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.MeshGeometry;
+import me.oskarmendel.mass.gfx.Transformation;
+import me.oskarmendel.mass.gfx.meshlet.MeshletBuilder;
+import me.oskarmendel.mass.gfx.meshlet.MeshletSet;
+
+/**
+ * Combines the submeshes of static entities that share a material into one 
+ * mesh per material. The vertices are transformed into world space once, so 
+ * the level is drawn with as many draw calls as it has materials instead of 
+ * as many as it has submeshes. Static entities must not move afterwards.
+ * 
+ * Levels loaded in the background combine their geometry on the loading 
+ * thread with prepare and turn the uploaded result into batches with create.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name StaticBatcher.java
+ */
+public class StaticBatcher {
+	
+	/**
+	 * Materials used by fewer meshes than this are left unbatched.
+	 */
+	private static final int MIN_MESHES = 2;
+	
+	private StaticBatcher() {
+		
+	}
+	
+	/**
+	 * Builds the batches for the static entities among the specified entities.
+	 * 
+	 * @param entities - Entities of the scene.
+	 * 
+	 * @return - The created batches.
+	 */
+	public static List<StaticBatch> batch(Entity[] entities) {
+		Map<Material, List<Mesh>> meshGroups = new LinkedHashMap<>();
+		Map<Material, List<Entity>> entityGroups = new LinkedHashMap<>();
+		
+		for (Entity entity : entities) {
+			if (!entity.isStatic()) {
+				continue;
+			}
+			
+			for (Mesh mesh : entity.getMeshes()) {
+				if (!canBatch(mesh)) {
+					continue;
+				}
+				
+				List<Mesh> meshes = meshGroups.get(mesh.getMaterial());
+				if (meshes == null) {
+					meshes = new ArrayList<>();
+					meshGroups.put(mesh.getMaterial(), meshes);
+					entityGroups.put(mesh.getMaterial(), new ArrayList<>());
+				}
+				meshes.add(mesh);
+				entityGroups.get(mesh.getMaterial()).add(entity);
+			}
+		}
+		
+		List<StaticBatch> batches = new ArrayList<>();
+		Transformation transformation = new Transformation();
+		
+		for (Map.Entry<Material, List<Mesh>> group : meshGroups.entrySet()) {
+			List<Mesh> meshes = group.getValue();
+			if (meshes.size() < MIN_MESHES) {
+				continue;
+			}
+			
+			batches.add(createBatch(group.getKey(), meshes, entityGroups.get(group.getKey()), transformation));
+		}
+		
+		return batches;
+	}
+	
+	/**
+	 * Checks if the specified mesh can be part of a batch.
+	 * 
+	 * @param mesh - Mesh to check.
+	 * 
+	 * @return - True if the mesh can be batched; False otherwise.
+	 */
+	private static boolean canBatch(Mesh mesh) {
+		return !(mesh instanceof InstancedMesh) && mesh.getMaterial() != null && mesh.hasGeometry() 
+				&& !mesh.getVertexLayout().isSkinned();
+	}
+	
+	/**
+	 * Combines the geometry of the submeshes of a static entity sharing a 
+	 * material, without creating any GL objects. Runs on any thread, the
+	 * combined geometry is uploaded into a Mesh and passed to create.
+	 * 
+	 * @param geometries - Geometry of every submesh.
+	 * @param materialIndices - Index of the material of every submesh, negative for none.
+	 * @param modelMatrix - Model matrix the entity will be placed with.
+	 * 
+	 * @return - The combined geometry of every batch.
+	 */
+	public static List<BatchGeometry> prepare(MeshGeometry[] geometries, int[] materialIndices, Matrix4f modelMatrix) {
+		Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < geometries.length; i++) {
+			if (materialIndices[i] < 0 || geometries[i].getVertexLayout().isSkinned()) {
+				continue;
+			}
+			
+			List<Integer> group = groups.get(materialIndices[i]);
+			if (group == null) {
+				group = new ArrayList<>();
+				groups.put(materialIndices[i], group);
+			}
+			group.add(i);
+		}
+		
+		List<BatchGeometry> batches = new ArrayList<>();
+		for (Map.Entry<Integer, List<Integer>> group : groups.entrySet()) {
+			List<Integer> members = group.getValue();
+			if (members.size() < MIN_MESHES) {
+				continue;
+			}
+			
+			MeshGeometry[] parts = new MeshGeometry[members.size()];
+			Matrix4f[] transforms = new Matrix4f[members.size()];
+			int[] sourceIndices = new int[members.size()];
+			for (int i = 0; i < parts.length; i++) {
+				sourceIndices[i] = members.get(i);
+				parts[i] = geometries[sourceIndices[i]];
+				transforms[i] = new Matrix4f(modelMatrix);
+			}
+			
+			BatchGeometry batch = combine(parts, transforms);
+			batch.materialIndex = group.getKey();
+			batch.sourceIndices = sourceIndices;
+			batches.add(batch);
+		}
+		
+		return batches;
+	}
+	
+	/**
+	 * Creates a batch out of prepared geometry once it is uploaded. Only cheap
+	 * work is left, so this is called on the render thread.
+	 * 
+	 * @param batch - Prepared batch.
+	 * @param mesh - Mesh uploaded from the combined geometry, with the material set.
+	 * @param entity - Static entity the batch was prepared for.
+	 * 
+	 * @return - The batch.
+	 */
+	public static StaticBatch create(BatchGeometry batch, Mesh mesh, Entity entity) {
+		Mesh[] entityMeshes = entity.getMeshes();
+		List<Mesh> sourceMeshes = new ArrayList<>(batch.sourceIndices.length);
+		List<Entity> sourceEntities = new ArrayList<>(batch.sourceIndices.length);
+		for (int index : batch.sourceIndices) {
+			sourceMeshes.add(entityMeshes[index]);
+			sourceEntities.add(entity);
+		}
+		
+		return createBatch(mesh, batch, sourceMeshes, sourceEntities);
+	}
+	
+	/**
+	 * Combines the specified meshes into one batch.
+	 * 
+	 * @param material - Material shared by the meshes.
+	 * @param meshes - Meshes to combine.
+	 * @param entities - Entity of every mesh.
+	 * @param transformation - Transformation used to build the model matrices.
+	 * 
+	 * @return - The batch.
+	 */
+	private static StaticBatch createBatch(Material material, List<Mesh> meshes, List<Entity> entities, 
+			Transformation transformation) {
+		Matrix4f[] transforms = new Matrix4f[meshes.size()];
+		MeshGeometry[] parts = new MeshGeometry[meshes.size()];
+		
+		for (int i = 0; i < meshes.size(); i++) {
+			transforms[i] = new Matrix4f(transformation.buildModelMatrix(entities.get(i)));
+			parts[i] = meshes.get(i).getGeometry();
+		}
+		
+		BatchGeometry batch = combine(parts, transforms);
+		Mesh mesh = new Mesh(batch.geometry);
+		mesh.setMaterial(material);
+		
+		return createBatch(mesh, batch, new ArrayList<>(meshes), new ArrayList<>(entities));
+	}
+	
+	/**
+	 * Creates the batch entity drawing the uploaded combined geometry.
+	 * 
+	 * @param mesh - Mesh uploaded from the combined geometry.
+	 * @param batch - Combined geometry.
+	 * @param sourceMeshes - Meshes combined into the batch.
+	 * @param sourceEntities - Entity of every combined mesh.
+	 * 
+	 * @return - The batch.
+	 */
+	private static StaticBatch createBatch(Mesh mesh, BatchGeometry batch, List<Mesh> sourceMeshes, List<Entity> sourceEntities) {
+		mesh.setMeshlets(batch.meshlets);
+		
+		// Sphere around the bounds of the batch, used by the per object culling.
+		mesh.setBoundingRadius(batch.boundingRadius);
+		
+		// Batches are only rendered, the source meshes keep their geometry for collision shapes.
+		mesh.releaseGeometry();
+		
+		Vector3f center = batch.center;
+		return new StaticBatch(mesh, center.x, center.y, center.z, sourceMeshes, sourceEntities);
+	}
+	
+	/**
+	 * Combines the specified geometry into one geometry relative to the center 
+	 * of its world space bounds and builds its meshlets.
+	 * 
+	 * @param parts - Geometry to combine.
+	 * @param transforms - Model matrix of every part, modified to be relative to the center.
+	 * 
+	 * @return - The combined geometry.
+	 */
+	private static BatchGeometry combine(MeshGeometry[] parts, Matrix4f[] transforms) {
+		Vector3f min = new Vector3f(Float.MAX_VALUE);
+		Vector3f max = new Vector3f(-Float.MAX_VALUE);
+		Vector3f corner = new Vector3f();
+		
+		for (int i = 0; i < parts.length; i++) {
+			// World space bounds from the corners of the model space bounds.
+			float[] bounds = parts[i].getBounds();
+			for (int c = 0; c < 8; c++) {
+				corner.set((c & 1) == 0 ? bounds[0] : bounds[3], (c & 2) == 0 ? bounds[1] : bounds[4], (c & 4) == 0 ? bounds[2] : bounds[5]);
+				transforms[i].transformPosition(corner);
+				min.min(corner);
+				max.max(corner);
+			}
+		}
+		
+		// Store the vertices relative to the center of the batch.
+		Vector3f center = new Vector3f(min).add(max).mul(0.5f);
+		for (Matrix4f transform : transforms) {
+			transform.translateLocal(-center.x, -center.y, -center.z);
+		}
+		
+		BatchGeometry batch = new BatchGeometry();
+		batch.geometry = MeshGeometry.combine(parts, transforms);
+		batch.center = center;
+		batch.boundingRadius = new Vector3f(max).sub(min).length() * 0.5f;
+		
+		int[] indices = batch.geometry.getIndices();
+		if (MeshletBuilder.shouldBuild(indices)) {
+			batch.meshlets = MeshletBuilder.build(batch.geometry.getPositions(), indices);
+		}
+		
+		return batch;
+	}
+	
+	/**
+	 * Combined geometry of a batch which is not uploaded yet.
+	 */
+	public static class BatchGeometry {
+		
+		/**
+		 * Combined vertices relative to the center.
+		 */
+		private MeshGeometry geometry;
+		
+		/**
+		 * Meshlets of the combined geometry, null for small batches.
+		 */
+		private MeshletSet meshlets;
+		
+		/**
+		 * World space center of the batch.
+		 */
+		private Vector3f center;
+		
+		/**
+		 * Radius of the sphere around the bounds of the batch.
+		 */
+		private float boundingRadius;
+		
+		/**
+		 * Material index shared by the combined submeshes.
+		 */
+		private int materialIndex;
+		
+		/**
+		 * Index of every combined submesh in its entity.
+		 */
+		private int[] sourceIndices;
+		
+		/**
+		 * Getter for the combined geometry.
+		 * 
+		 * @return - The combined geometry.
+		 */
+		public MeshGeometry getGeometry() {
+			return this.geometry;
+		}
+		
+		/**
+		 * Getter for the meshlets of the combined geometry.
+		 * 
+		 * @return - The meshlets or null.
+		 */
+		public MeshletSet getMeshlets() {
+			return this.meshlets;
+		}
+		
+		/**
+		 * Getter for the material index shared by the combined submeshes.
+		 * 
+		 * @return - The material index.
+		 */
+		public int getMaterialIndex() {
+			return this.materialIndex;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.cook;
+
+import org.joml.Vector4f;
+
+import me.oskarmendel.mass.gfx.Material;
+import me.oskarmendel.mass.gfx.Texture;
+import me.oskarmendel.mass.util.assimp.TextureCache;
+
+/**
+ * Description of an imported material referencing its textures by path. 
+ * It is created without touching GL so models can be imported on any thread,
+ * the Material itself is created when the model is uploaded.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MaterialData.java
+ */
+public class MaterialData {
+	
+	private final Vector4f ambientColor;
+	
+	private final Vector4f diffuseColor;
+	
+	private final Vector4f specularColor;
+	
+	private final float reflectance;
+	
+	/**
+	 * Path of the texture, null if the material isn't textured.
+	 */
+	private final String texturePath;
+	
+	/**
+	 * Path of the normal map, null if the material has none.
+	 */
+	private final String normalMapPath;
+	
+	/**
+	 * Creates a new MaterialData describing the default Material.
+	 */
+	public MaterialData() {
+		this(Material.DEFAULT_COLOR.toVector4f(), Material.DEFAULT_COLOR.toVector4f(), 
+				Material.DEFAULT_COLOR.toVector4f(), 0, null, null);
+	}
+	
+	/**
+	 * Creates a new MaterialData with the specified colors and textures.
+	 * 
+	 * @param ambientColor - Ambient color.
+	 * @param diffuseColor - Diffuse color.
+	 * @param specularColor - Specular color.
+	 * @param reflectance - Reflectance.
+	 * @param texturePath - Path of the texture, may be null.
+	 * @param normalMapPath - Path of the normal map, may be null.
+	 */
+	public MaterialData(Vector4f ambientColor, Vector4f diffuseColor, Vector4f specularColor, float reflectance, 
+			String texturePath, String normalMapPath) {
+		this.ambientColor = ambientColor;
+		this.diffuseColor = diffuseColor;
+		this.specularColor = specularColor;
+		this.reflectance = reflectance;
+		this.texturePath = texturePath;
+		this.normalMapPath = normalMapPath;
+	}
+	
+	/**
+	 * Creates the described Material, loading its textures through the
+	 * TextureCache. Must be called on the thread owning the GL context.
+	 * 
+	 * @return - The created Material.
+	 */
+	public Material create() {
+		Material material = new Material(this.ambientColor, this.diffuseColor, this.specularColor, this.reflectance);
+		material.setTexture(loadTexture(this.texturePath));
+		material.setNormalMap(loadTexture(this.normalMapPath));
+		
+		return material;
+	}
+	
+	/**
+	 * Loads a texture of the material, a texture failing to load is left out.
+	 * 
+	 * @param path - Path of the texture, may be null.
+	 * 
+	 * @return - The texture or null.
+	 */
+	private static Texture loadTexture(String path) {
+		if (path == null) {
+			return null;
+		}
+		
+		try {
+			return TextureCache.getInstance().getTexture(path);
+		} catch (Exception e) {
+			System.err.println("Failed to load texture " + path + ": " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Getter for the ambient color.
+	 * 
+	 * @return - The ambient color.
+	 */
+	public Vector4f getAmbientColor() {
+		return this.ambientColor;
+	}
+	
+	/**
+	 * Getter for the diffuse color.
+	 * 
+	 * @return - The diffuse color.
+	 */
+	public Vector4f getDiffuseColor() {
+		return this.diffuseColor;
+	}
+	
+	/**
+	 * Getter for the specular color.
+	 * 
+	 * @return - The specular color.
+	 */
+	public Vector4f getSpecularColor() {
+		return this.specularColor;
+	}
+	
+	/**
+	 * Getter for the reflectance.
+	 * 
+	 * @return - The reflectance.
+	 */
+	public float getReflectance() {
+		return this.reflectance;
+	}
+	
+	/**
+	 * Getter for the path of the texture.
+	 * 
+	 * @return - The path or null if the material isn't textured.
+	 */
+	public String getTexturePath() {
+		return this.texturePath;
+	}
+	
+	/**
+	 * Getter for the path of the normal map.
+	 * 
+	 * @return - The path or null if the material has no normal map.
+	 */
+	public String getNormalMapPath() {
+		return this.normalMapPath;
+	}
+}
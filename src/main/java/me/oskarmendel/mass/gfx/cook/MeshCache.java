@@ -0,0 +1,556 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.cook;
+
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.joml.Vector4f;
+
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.MeshGeometry;
+import me.oskarmendel.mass.gfx.VertexLayout;
+import me.oskarmendel.mass.gfx.meshlet.MeshletSet;
+
+/**
+ * Binary cache of imported models. The first import of a model writes the 
+ * meshes as they are uploaded, interleaved vertices and indices along with 
+ * the bounds, meshlets, levels of detail and materials of every submesh, 
+ * into a cooked file next to the model. Later launches memory map the cooked
+ * file and upload the mapped vertices and indices directly, skipping the 
+ * import, welding, optimization and simplification.
+ * 
+ * Reading and writing makes no GL calls so models can be cooked on any thread.
+ * 
+ * The cooked file stores a hash of the content of the model and of the
+ * import flags and is cooked again as soon as the hash doesn't match. The 
+ * data is stored in the native byte order, padded to four bytes.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshCache.java
+ */
+public class MeshCache {
+	
+	/**
+	 * Identifier written at the start of a cooked mesh file.
+	 */
+	private static final int FILE_MAGIC = 0x4D534831;
+	
+	/**
+	 * Version of the cooked format, bump when the format or the processing 
+	 * of imported meshes changes.
+	 */
+	private static final int FILE_VERSION = 1;
+	
+	/**
+	 * Written in the native byte order to detect files cooked on a machine 
+	 * with a different byte order.
+	 */
+	private static final int BYTE_ORDER_MARK = 0x01020304;
+	
+	/**
+	 * Extension of cooked mesh files.
+	 */
+	private static final String FILE_EXTENSION = ".mesh";
+	
+	/**
+	 * Length of the source hash in bytes.
+	 */
+	private static final int HASH_LENGTH = 32;
+	
+	private MeshCache() {
+		
+	}
+	
+	/**
+	 * Hashes the content of the source file together with the flags it is
+	 * imported with.
+	 * 
+	 * @param sourcePath - Path of the source model.
+	 * @param flags - Import flags affecting the imported meshes.
+	 * 
+	 * @return - The hash identifying the cooked meshes.
+	 * 
+	 * @throws IOException - When the source file couldn't be read.
+	 */
+	public static byte[] hash(String sourcePath, int flags) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not available", e);
+		}
+		
+		try (FileChannel channel = FileChannel.open(new File(sourcePath).toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long offset = 0; offset < size; offset += Integer.MAX_VALUE) {
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(Integer.MAX_VALUE, size - offset)));
+			}
+		}
+		
+		ByteBuffer settings = ByteBuffer.allocate(8);
+		settings.putInt(FILE_VERSION).putInt(flags).flip();
+		digest.update(settings);
+		
+		return digest.digest();
+	}
+	
+	/**
+	 * Reads the cooked model of the specified source model.
+	 * 
+	 * @param sourcePath - Path of the source model.
+	 * @param hash - Hash of the source model, see hash.
+	 * 
+	 * @return - The cooked model using the mapped memory, null if the model 
+	 *           wasn't cooked or the cooked file doesn't match the model.
+	 */
+	public static ModelData read(String sourcePath, byte[] hash) {
+		File file = getCookedFile(sourcePath);
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.nativeOrder());
+		} catch (IOException e) {
+			return null;
+		}
+		
+		try {
+			if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION || buffer.getInt() != BYTE_ORDER_MARK) {
+				return null;
+			}
+			
+			byte[] storedHash = new byte[HASH_LENGTH];
+			buffer.get(storedHash);
+			if (!Arrays.equals(storedHash, hash)) {
+				return null;
+			}
+			
+			MaterialData[] materials = new MaterialData[readCount(buffer)];
+			for (int i = 0; i < materials.length; i++) {
+				materials[i] = readMaterial(buffer);
+			}
+			
+			MeshData[] meshes = new MeshData[readCount(buffer)];
+			for (int i = 0; i < meshes.length; i++) {
+				meshes[i] = readMesh(buffer, materials.length);
+			}
+			
+			return new ModelData(materials, meshes);
+		} catch (BufferUnderflowException | IllegalArgumentException | IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Cooks the specified model.
+	 * 
+	 * @param sourcePath - Path of the source model.
+	 * @param hash - Hash of the source model, see hash.
+	 * @param model - Model imported from the source model.
+	 * 
+	 * @throws IOException - When the cooked file couldn't be written.
+	 */
+	public static void write(String sourcePath, byte[] hash, ModelData model) throws IOException {
+		// Written next to the cooked file and moved over it once complete.
+		File file = getCookedFile(sourcePath);
+		File temporary = new File(file.getPath() + ".tmp");
+		
+		try (CookedWriter out = new CookedWriter(FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+			out.putInt(FILE_MAGIC);
+			out.putInt(FILE_VERSION);
+			out.putInt(BYTE_ORDER_MARK);
+			out.putBytes(ByteBuffer.wrap(hash));
+			
+			out.putInt(model.getMaterials().length);
+			for (MaterialData material : model.getMaterials()) {
+				writeMaterial(out, material);
+			}
+			
+			out.putInt(model.getMeshes().length);
+			for (MeshData mesh : model.getMeshes()) {
+				writeMesh(out, mesh);
+			}
+		}
+		
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/**
+	 * Getter for the cooked file of the specified source model, the source
+	 * path with the extension replaced.
+	 * 
+	 * @param sourcePath - Path of the source model.
+	 * 
+	 * @return - The cooked file.
+	 */
+	private static File getCookedFile(String sourcePath) {
+		int extension = sourcePath.lastIndexOf('.');
+		if (extension <= Math.max(sourcePath.lastIndexOf('/'), sourcePath.lastIndexOf('\\'))) {
+			extension = sourcePath.length();
+		}
+		
+		return new File(sourcePath.substring(0, extension) + FILE_EXTENSION);
+	}
+	
+	/**
+	 * Writes the colors and texture paths of a material.
+	 * 
+	 * @param out - Writer of the cooked file.
+	 * @param material - Material to write.
+	 * 
+	 * @throws IOException - When IO operation failed.
+	 */
+	private static void writeMaterial(CookedWriter out, MaterialData material) throws IOException {
+		for (Vector4f color : new Vector4f[] {material.getAmbientColor(), material.getDiffuseColor(), material.getSpecularColor()}) {
+			out.putFloat(color.x);
+			out.putFloat(color.y);
+			out.putFloat(color.z);
+			out.putFloat(color.w);
+		}
+		out.putFloat(material.getReflectance());
+		
+		// Materials without a texture store an empty path.
+		out.putString(material.getTexturePath() != null ? material.getTexturePath() : "");
+		out.putString(material.getNormalMapPath() != null ? material.getNormalMapPath() : "");
+	}
+	
+	/**
+	 * Reads a material.
+	 * 
+	 * @param buffer - Mapped cooked file.
+	 * 
+	 * @return - The read material.
+	 * 
+	 * @throws IOException - When the material is damaged.
+	 */
+	private static MaterialData readMaterial(ByteBuffer buffer) throws IOException {
+		Vector4f[] colors = new Vector4f[3];
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = new Vector4f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+		}
+		float reflectance = buffer.getFloat();
+		String texturePath = readString(buffer);
+		String normalMapPath = readString(buffer);
+		
+		return new MaterialData(colors[0], colors[1], colors[2], reflectance, 
+				texturePath.isEmpty() ? null : texturePath, normalMapPath.isEmpty() ? null : normalMapPath);
+	}
+	
+	/**
+	 * Writes the material index, geometry, meshlets and levels of detail of a mesh.
+	 * 
+	 * @param out - Writer of the cooked file.
+	 * @param mesh - Mesh to write.
+	 * 
+	 * @throws IOException - When IO operation failed.
+	 */
+	private static void writeMesh(CookedWriter out, MeshData mesh) throws IOException {
+		out.putInt(mesh.getMaterialIndex());
+		writeGeometry(out, mesh.getGeometry());
+		
+		MeshletSet meshlets = mesh.getMeshlets();
+		int meshletCount = meshlets != null ? meshlets.getCount() : 0;
+		out.putInt(meshletCount);
+		for (int i = 0; i < meshletCount; i++) {
+			out.putInt(meshlets.getIndexStart(i));
+		}
+		for (int i = 0; i < meshletCount; i++) {
+			out.putInt(meshlets.getIndexCount(i));
+		}
+		for (int i = 0; i < meshletCount * 4; i++) {
+			out.putFloat(meshlets.getSpheres()[i]);
+		}
+		for (int i = 0; i < meshletCount * 4; i++) {
+			out.putFloat(meshlets.getCones()[i]);
+		}
+		
+		out.putInt(mesh.getLods().length);
+		for (MeshGeometry lod : mesh.getLods()) {
+			writeGeometry(out, lod);
+		}
+	}
+	
+	/**
+	 * Reads a mesh.
+	 * 
+	 * @param buffer - Mapped cooked file.
+	 * @param materialCount - Amount of materials in the file.
+	 * 
+	 * @return - The read mesh.
+	 * 
+	 * @throws IOException - When the mesh is damaged.
+	 */
+	private static MeshData readMesh(ByteBuffer buffer, int materialCount) throws IOException {
+		int material = buffer.getInt();
+		if (material < MeshData.NO_MATERIAL || material >= materialCount) {
+			throw new IOException("Invalid material index " + material);
+		}
+		
+		MeshGeometry geometry = readGeometry(buffer);
+		
+		MeshletSet meshlets = null;
+		int meshletCount = readCount(buffer);
+		if (meshletCount > 0) {
+			int[] starts = new int[meshletCount];
+			int[] counts = new int[meshletCount];
+			float[] spheres = new float[meshletCount * 4];
+			float[] cones = new float[meshletCount * 4];
+			buffer.asIntBuffer().get(starts);
+			skip(buffer, meshletCount * 4);
+			buffer.asIntBuffer().get(counts);
+			skip(buffer, meshletCount * 4);
+			buffer.asFloatBuffer().get(spheres);
+			skip(buffer, meshletCount * 16);
+			buffer.asFloatBuffer().get(cones);
+			skip(buffer, meshletCount * 16);
+			meshlets = new MeshletSet(meshletCount, starts, counts, spheres, cones);
+		}
+		
+		MeshGeometry[] lods = new MeshGeometry[readCount(buffer)];
+		for (int i = 0; i < lods.length; i++) {
+			lods[i] = readGeometry(buffer);
+		}
+		
+		return new MeshData(geometry, meshlets, lods, material);
+	}
+	
+	/**
+	 * Writes the vertex layout, bounds, interleaved vertices and indices of a geometry.
+	 * 
+	 * @param out - Writer of the cooked file.
+	 * @param geometry - Geometry to write.
+	 * 
+	 * @throws IOException - When IO operation failed.
+	 */
+	private static void writeGeometry(CookedWriter out, MeshGeometry geometry) throws IOException {
+		out.putInt(geometry.getVertexLayout().isSkinned() ? 1 : 0);
+		out.putInt(geometry.getVertexCount());
+		out.putInt(geometry.getIndexCount());
+		for (float bound : geometry.getBounds()) {
+			out.putFloat(bound);
+		}
+		
+		out.putBytes(geometry.getVertexBuffer());
+		out.putBytes(geometry.getIndexBuffer());
+	}
+	
+	/**
+	 * Reads a geometry as views of the mapped file.
+	 * 
+	 * @param buffer - Mapped cooked file.
+	 * 
+	 * @return - Geometry using the mapped memory.
+	 * 
+	 * @throws IOException - When the geometry is damaged.
+	 */
+	private static MeshGeometry readGeometry(ByteBuffer buffer) throws IOException {
+		VertexLayout layout = buffer.getInt() != 0 ? VertexLayout.SKINNED : VertexLayout.STATIC;
+		int vertexCount = buffer.getInt();
+		int indexCount = buffer.getInt();
+		if (vertexCount < 0 || indexCount < 0) {
+			throw new IOException("Invalid geometry size");
+		}
+		
+		float[] bounds = new float[6];
+		buffer.asFloatBuffer().get(bounds);
+		skip(buffer, bounds.length * 4);
+		
+		int indexSize = Mesh.selectIndexType(vertexCount) == GL_UNSIGNED_SHORT ? 2 : 4;
+		ByteBuffer vertices = slice(buffer, (long) vertexCount * layout.getStride());
+		ByteBuffer indices = slice(buffer, (long) indexCount * indexSize);
+		
+		return new MeshGeometry(layout, vertices, vertexCount, indices, indexCount, bounds);
+	}
+	
+	/**
+	 * Reads an element count.
+	 * 
+	 * @param buffer - Mapped cooked file.
+	 * 
+	 * @return - The count.
+	 * 
+	 * @throws IOException - When the count is negative.
+	 */
+	private static int readCount(ByteBuffer buffer) throws IOException {
+		int count = buffer.getInt();
+		if (count < 0) {
+			throw new IOException("Invalid count " + count);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Reads a string stored as its length followed by its UTF-8 bytes.
+	 * 
+	 * @param buffer - Mapped cooked file.
+	 * 
+	 * @return - The read string.
+	 * 
+	 * @throws IOException - When the string is damaged.
+	 */
+	private static String readString(ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("Invalid string length " + length);
+		}
+		
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		skip(buffer, 0);
+		
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Cuts the specified amount of bytes at the position of the buffer out 
+	 * of it and moves the position past them and their padding.
+	 * 
+	 * @param buffer - Mapped cooked file.
+	 * @param length - Amount of bytes.
+	 * 
+	 * @return - View of the bytes.
+	 * 
+	 * @throws IOException - When the file ends before the bytes.
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, long length) throws IOException {
+		if (length > buffer.remaining()) {
+			throw new IOException("Cooked file is truncated");
+		}
+		
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(slice.position() + (int) length);
+		skip(buffer, (int) length);
+		
+		return slice.slice().order(ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * Moves the position of the buffer forward by the specified amount of
+	 * bytes and to the next multiple of four.
+	 * 
+	 * @param buffer - Mapped cooked file.
+	 * @param length - Amount of bytes to skip.
+	 * 
+	 * @throws IOException - When the file ends before the bytes.
+	 */
+	private static void skip(ByteBuffer buffer, int length) throws IOException {
+		int position = (buffer.position() + length + 3) & ~3;
+		if (length < 0 || position > buffer.limit()) {
+			throw new IOException("Cooked file is truncated");
+		}
+		buffer.position(position);
+	}
+	
+	/**
+	 * Buffered writer of native ordered values into a file channel, keeping
+	 * every value aligned to four bytes.
+	 */
+	private static class CookedWriter implements AutoCloseable {
+		private final FileChannel channel;
+		
+		private final ByteBuffer buffer;
+		
+		CookedWriter(FileChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.nativeOrder());
+		}
+		
+		void putInt(int value) throws IOException {
+			ensureRemaining(4);
+			this.buffer.putInt(value);
+		}
+		
+		void putFloat(float value) throws IOException {
+			ensureRemaining(4);
+			this.buffer.putFloat(value);
+		}
+		
+		void putString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			putBytes(ByteBuffer.wrap(bytes));
+		}
+		
+		/**
+		 * Writes the remaining bytes of the buffer followed by padding to four bytes.
+		 */
+		void putBytes(ByteBuffer bytes) throws IOException {
+			int padding = -bytes.remaining() & 3;
+			flush();
+			while (bytes.hasRemaining()) {
+				this.channel.write(bytes);
+			}
+			ensureRemaining(padding);
+			for (int i = 0; i < padding; i++) {
+				this.buffer.put((byte) 0);
+			}
+		}
+		
+		private void ensureRemaining(int bytes) throws IOException {
+			if (this.buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+		
+		private void flush() throws IOException {
+			this.buffer.flip();
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+			this.buffer.clear();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				this.channel.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.cook;
+
+import me.oskarmendel.mass.gfx.Material;
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.MeshBuffers;
+import me.oskarmendel.mass.gfx.MeshGeometry;
+import me.oskarmendel.mass.gfx.meshlet.MeshletSet;
+
+/**
+ * A fully processed mesh waiting to be uploaded: its packed geometry, 
+ * meshlets, levels of detail and the index of its material in the model.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshData.java
+ */
+public class MeshData {
+	
+	/**
+	 * Material index of meshes without a material.
+	 */
+	public static final int NO_MATERIAL = -1;
+	
+	private final MeshGeometry geometry;
+	
+	/**
+	 * Meshlets of the mesh, null for small meshes.
+	 */
+	private final MeshletSet meshlets;
+	
+	/**
+	 * Geometry of the levels of detail ordered from finest to coarsest.
+	 */
+	private final MeshGeometry[] lods;
+	
+	private final int materialIndex;
+	
+	/**
+	 * Creates a new MeshData.
+	 * 
+	 * @param geometry - Packed geometry of the mesh.
+	 * @param meshlets - Meshlets of the mesh, may be null.
+	 * @param lods - Geometry of the levels of detail.
+	 * @param materialIndex - Index of the material in the model or NO_MATERIAL.
+	 */
+	public MeshData(MeshGeometry geometry, MeshletSet meshlets, MeshGeometry[] lods, int materialIndex) {
+		this.geometry = geometry;
+		this.meshlets = meshlets;
+		this.lods = lods;
+		this.materialIndex = materialIndex;
+	}
+	
+	/**
+	 * Uploads the mesh and its levels of detail. The levels of detail are only
+	 * rendered so their geometry is released right away, the mesh keeps its
+	 * geometry for collision shapes. Must be called on the thread owning the 
+	 * GL context.
+	 * 
+	 * @param materials - Materials of the model.
+	 * 
+	 * @return - The uploaded Mesh.
+	 */
+	public Mesh upload(Material[] materials) {
+		return upload(materials, uploadBuffers());
+	}
+	
+	/**
+	 * Uploads the vertices and indices of the mesh and its levels of detail
+	 * into new buffers using the GL context current on the calling thread, 
+	 * which may be a context shared with the render thread.
+	 * 
+	 * @return - The buffers of the mesh followed by the buffers of every level of detail.
+	 */
+	public MeshBuffers[] uploadBuffers() {
+		MeshBuffers[] buffers = new MeshBuffers[this.lods.length + 1];
+		buffers[0] = MeshBuffers.upload(this.geometry);
+		for (int i = 0; i < this.lods.length; i++) {
+			buffers[i + 1] = MeshBuffers.upload(this.lods[i]);
+		}
+		
+		return buffers;
+	}
+	
+	/**
+	 * Creates the mesh and its levels of detail out of already uploaded 
+	 * buffers, only creating their vertex array objects. Must be called on 
+	 * the thread owning the GL context.
+	 * 
+	 * @param materials - Materials of the model.
+	 * @param buffers - Buffers returned by uploadBuffers.
+	 * 
+	 * @return - The uploaded Mesh.
+	 */
+	public Mesh upload(Material[] materials, MeshBuffers[] buffers) {
+		Mesh mesh = new Mesh(this.geometry, buffers[0]);
+		mesh.setMeshlets(this.meshlets);
+		
+		Mesh[] lodMeshes = new Mesh[this.lods.length];
+		for (int i = 0; i < lodMeshes.length; i++) {
+			lodMeshes[i] = new Mesh(this.lods[i], buffers[i + 1]);
+			lodMeshes[i].releaseGeometry();
+		}
+		mesh.setLods(lodMeshes);
+		
+		if (this.materialIndex != NO_MATERIAL) {
+			mesh.setMaterial(materials[this.materialIndex]);
+		}
+		
+		return mesh;
+	}
+	
+	/**
+	 * Getter for the packed geometry of the mesh.
+	 * 
+	 * @return - The geometry.
+	 */
+	public MeshGeometry getGeometry() {
+		return this.geometry;
+	}
+	
+	/**
+	 * Getter for the meshlets of the mesh.
+	 * 
+	 * @return - The meshlets or null for small meshes.
+	 */
+	public MeshletSet getMeshlets() {
+		return this.meshlets;
+	}
+	
+	/**
+	 * Getter for the geometry of the levels of detail.
+	 * 
+	 * @return - The levels ordered from finest to coarsest.
+	 */
+	public MeshGeometry[] getLods() {
+		return this.lods;
+	}
+	
+	/**
+	 * Getter for the index of the material of the mesh.
+	 * 
+	 * @return - Index into the materials of the model or NO_MATERIAL.
+	 */
+	public int getMaterialIndex() {
+		return this.materialIndex;
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.cook;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import me.oskarmendel.mass.gfx.Material;
+import me.oskarmendel.mass.gfx.Mesh;
+
+/**
+ * An imported model held in memory without any GL objects, as produced by
+ * the model loaders and the MeshCache. Uploading it creates the Materials
+ * and Meshes of the model.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name ModelData.java
+ */
+public class ModelData {
+	
+	private final MaterialData[] materials;
+	
+	private final MeshData[] meshes;
+	
+	/**
+	 * Creates a new ModelData.
+	 * 
+	 * @param materials - Materials referenced by the meshes.
+	 * @param meshes - Meshes of the model.
+	 */
+	public ModelData(MaterialData[] materials, MeshData[] meshes) {
+		this.materials = materials;
+		this.meshes = meshes;
+	}
+	
+	/**
+	 * Creates the Materials of the model. Must be called on the thread owning 
+	 * the GL context.
+	 * 
+	 * @return - The Materials in the order of the material indices.
+	 */
+	public Material[] createMaterials() {
+		Material[] result = new Material[this.materials.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.materials[i].create();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Uploads all meshes of the model at once. Must be called on the thread 
+	 * owning the GL context.
+	 * 
+	 * @return - The uploaded Meshes.
+	 */
+	public Mesh[] upload() {
+		Material[] materials = createMaterials();
+		
+		Mesh[] result = new Mesh[this.meshes.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.meshes[i].upload(materials);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Collects the paths of all textures used by the materials of the model.
+	 * 
+	 * @return - The distinct texture paths.
+	 */
+	public Set<String> getTexturePaths() {
+		Set<String> paths = new LinkedHashSet<>();
+		for (MaterialData material : this.materials) {
+			if (material.getTexturePath() != null) {
+				paths.add(material.getTexturePath());
+			}
+			if (material.getNormalMapPath() != null) {
+				paths.add(material.getNormalMapPath());
+			}
+		}
+		
+		return paths;
+	}
+	
+	/**
+	 * Getter for the materials of the model.
+	 * 
+	 * @return - The materials.
+	 */
+	public MaterialData[] getMaterials() {
+		return this.materials;
+	}
+	
+	/**
+	 * Getter for the meshes of the model.
+	 * 
+	 * @return - The meshes.
+	 */
+	public MeshData[] getMeshes() {
+		return this.meshes;
+	}
+}
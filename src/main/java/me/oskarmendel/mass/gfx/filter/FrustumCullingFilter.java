@@ -38,6 +38,11 @@ import me.oskarmendel.mass.gfx.Mesh;
  * This class helps improve performance through filtering
  * entities that shouldn't be rendered so that the game wont attempt
  * to render entities which shouldn't.
+ * 
+ * Only entities which moved are tested against the exact frustum. Entities
+ * which did not move are tested against a cached enlarged frustum which is 
+ * kept until the camera leaves it, so they are only re-tested when it is 
+ * rebuilt.
  *
  * @author Oskar Mendel
  * @version 0.00.00
@@ -49,6 +54,41 @@ public class FrustumCullingFilter {
 	
 	private final FrustumIntersection frustumInt;
 	
+	/**
+	 * Extra field of view of the cached enlarged frustum in radians.
+	 */
+	private static final float ENLARGE_ANGLE = (float) Math.toRadians(10.0f);
+	
+	/**
+	 * Distance the cached enlarged frustum is pulled back behind the camera.
+	 */
+	private static final float ENLARGE_DISTANCE = 1.0f;
+	
+	/**
+	 * Largest field of view of the cached enlarged frustum in radians.
+	 */
+	private static final float MAX_FOV = (float) Math.toRadians(170.0f);
+	
+	private final Matrix4f enlargedMatrix;
+	
+	private final FrustumIntersection enlargedFrustumInt;
+	
+	private final Matrix4f lastProjectionMatrix;
+	
+	private final Matrix4f tmpMatrix;
+	
+	private final Vector3f tmpCorner;
+	
+	/**
+	 * Generation of the cached enlarged frustum, increased every time it is rebuilt.
+	 */
+	private int generation;
+	
+	/**
+	 * True if the exact frustum changed during the last update.
+	 */
+	private boolean frustumChanged;
+	
 	/**
 	 * Default constructor for a new FrustumCullingFilter which
 	 * initializes the fields of this class.
@@ -56,6 +96,14 @@ public class FrustumCullingFilter {
 	public FrustumCullingFilter() {
 		projectionViewMatrix = new Matrix4f();
 		frustumInt = new FrustumIntersection();
+		enlargedMatrix = new Matrix4f();
+		enlargedFrustumInt = new FrustumIntersection();
+		lastProjectionMatrix = new Matrix4f();
+		tmpMatrix = new Matrix4f();
+		tmpCorner = new Vector3f();
+		
+		generation = 0;
+		frustumChanged = true;
 	}
 	
 	/**
@@ -65,10 +113,73 @@ public class FrustumCullingFilter {
 	 * @param viewMatrix - View matrix.
 	 */
 	public void updateFrustum(Matrix4f projMatrix, Matrix4f viewMatrix) {
+		updateFrustum(projMatrix, viewMatrix, true);
+	}
+	
+	/**
+	 * Updates the frustum filter before rendering. The frustum is only rebuilt
+	 * if the camera or the projection changed.
+	 * 
+	 * @param projMatrix - Projection matrix.
+	 * @param viewMatrix - View matrix.
+	 * @param cameraChanged - True if the camera moved or rotated since the last update.
+	 */
+	public void updateFrustum(Matrix4f projMatrix, Matrix4f viewMatrix, boolean cameraChanged) {
+		this.frustumChanged = cameraChanged || this.generation == 0 || !this.lastProjectionMatrix.equals(projMatrix);
+		if (!this.frustumChanged) {
+			return;
+		}
+		
+		this.lastProjectionMatrix.set(projMatrix);
+		
 		this.projectionViewMatrix.set(projMatrix);
 		this.projectionViewMatrix.mul(viewMatrix);
 		
 		this.frustumInt.set(this.projectionViewMatrix);
+		
+		if (!enlargedFrustumContains()) {
+			updateEnlargedFrustum(projMatrix, viewMatrix);
+		}
+	}
+	
+	/**
+	 * Checks if the exact frustum is still inside the cached enlarged frustum.
+	 * Both are convex so it is enough to test the corners of the exact frustum.
+	 * 
+	 * @return True if the enlarged frustum contains the exact frustum; False otherwise.
+	 */
+	private boolean enlargedFrustumContains() {
+		if (this.generation == 0) {
+			return false;
+		}
+		
+		for (int i = 0; i < 8; i++) {
+			this.projectionViewMatrix.frustumCorner(i, this.tmpCorner);
+			if (!this.enlargedFrustumInt.testPoint(this.tmpCorner)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Rebuilds the cached enlarged frustum from the current camera by widening
+	 * the field of view and pulling it back behind the camera.
+	 * 
+	 * @param projMatrix - Projection matrix.
+	 * @param viewMatrix - View matrix.
+	 */
+	private void updateEnlargedFrustum(Matrix4f projMatrix, Matrix4f viewMatrix) {
+		float fov = Math.min(projMatrix.perspectiveFov() + ENLARGE_ANGLE, MAX_FOV);
+		float aspectRatio = projMatrix.m11() / projMatrix.m00();
+		
+		this.enlargedMatrix.setPerspective(fov, aspectRatio, projMatrix.perspectiveNear(), 
+				projMatrix.perspectiveFar() + 2 * ENLARGE_DISTANCE);
+		this.enlargedMatrix.mul(this.tmpMatrix.set(viewMatrix).translateLocal(0, 0, -ENLARGE_DISTANCE));
+		
+		this.enlargedFrustumInt.set(this.enlargedMatrix);
+		this.generation++;
 	}
 	
 	/**
@@ -95,10 +206,20 @@ public class FrustumCullingFilter {
 		Vector3f position;
 		
 		for (Entity e : entities) {
-			if (!e.isDisableFrustrumCulling()) {
-				boundingRadius = e.getScale() * meshBoundingRadius;
-				position = e.getPosition();
+			if (e.isDisableFrustrumCulling()) {
+				continue;
+			}
+			
+			boundingRadius = e.getScale() * meshBoundingRadius;
+			position = e.getPosition();
+			
+			if (e.isTransformChanged()) {
 				e.setInsideFrtustrum(insideFrustum(position.x, position.y, position.z, boundingRadius));
+				e.setCullingGeneration(0);
+			} else if (this.frustumChanged && e.getCullingGeneration() != this.generation) {
+				// Conservative result which stays valid while the enlarged frustum is kept.
+				e.setInsideFrtustrum(this.enlargedFrustumInt.testSphere(position.x, position.y, position.z, boundingRadius));
+				e.setCullingGeneration(this.generation);
 			}
 		}
 	}
@@ -0,0 +1,497 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.filter;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import me.oskarmendel.mass.entity.Entity;
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.Transformation;
+import me.oskarmendel.mass.gfx.shader.Shader;
+import me.oskarmendel.mass.gfx.shader.ShaderProgram;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.GL_FRAGMENT_SHADER;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
+import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL33.GL_ANY_SAMPLES_PASSED;
+
+/**
+ * This class filters entities hidden behind other geometry by using
+ * hardware occlusion queries.
+ * 
+ * Entities that were visible the last frame are drawn normally and only
+ * re-tested every few frames. Entities that were hidden the last frame 
+ * are tested each frame by rendering their bounding boxes against the 
+ * depth buffer of the finished scene. The boxes are slightly inflated and
+ * tested with GL_LEQUAL so visible entities don't occlude their own box.
+ * Query results are only read once they are available so the CPU never 
+ * waits for the GPU, which means visibility changes show up one frame late.
+ * 
+ * Entities rejected by the earlier culling count as visible again, so 
+ * they are drawn on the frame they come back into view.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name OcclusionCullingFilter.java
+ */
+public class OcclusionCullingFilter {
+	
+	/**
+	 * Amount of frames between each re-test of a visible entity.
+	 */
+	private static final int VISIBLE_TEST_INTERVAL = 4;
+	
+	/**
+	 * Share of the largest extent of a bounding box it is inflated by on every side.
+	 */
+	private static final float BOX_INFLATION = 0.01f;
+	
+	/**
+	 * Minimum distance in model space a bounding box is inflated by, keeps 
+	 * flat bounds like walls and floors from being degenerate.
+	 */
+	private static final float MIN_BOX_INFLATION = 0.01f;
+	
+	/**
+	 * Corners of a unit bounding box.
+	 */
+	private static final float[] BOX_POSITIONS = {
+			0, 0, 0,
+			1, 0, 0,
+			1, 1, 0,
+			0, 1, 0,
+			0, 0, 1,
+			1, 0, 1,
+			1, 1, 1,
+			0, 1, 1
+	};
+	
+	/**
+	 * Indices for the triangles of a unit bounding box.
+	 */
+	private static final int[] BOX_INDICES = {
+			0, 2, 1, 0, 3, 2,
+			4, 5, 6, 4, 6, 7,
+			0, 1, 5, 0, 5, 4,
+			3, 6, 2, 3, 7, 6,
+			0, 4, 7, 0, 7, 3,
+			1, 2, 6, 1, 6, 5
+	};
+	
+	/**
+	 * Occlusion state of every entity for each of its meshes.
+	 */
+	private final Map<Mesh, Map<Entity, OcclusionQuery>> queries;
+	
+	/**
+	 * Model matrix of the bounding box being tested.
+	 */
+	private final Matrix4f boxModelMatrix;
+	
+	/**
+	 * Model view matrix of the bounding box being tested.
+	 */
+	private final Matrix4f boxModelViewMatrix;
+	
+	/**
+	 * Inverse model matrix used to test the camera against the bounding box.
+	 */
+	private final Matrix4f inverseModelMatrix;
+	
+	/**
+	 * Camera position in the model space of the entity being tested.
+	 */
+	private final Vector3f localCameraPosition;
+	
+	/**
+	 * Minimum corner of the inflated bounding box being tested.
+	 */
+	private final Vector3f boxMin;
+	
+	/**
+	 * Extent of the inflated bounding box being tested.
+	 */
+	private final Vector3f boxSize;
+	
+	/**
+	 * Shader program used to render the bounding boxes.
+	 */
+	private ShaderProgram boundsShaderProgram;
+	
+	/**
+	 * The vertex array object for the bounding box.
+	 */
+	private int boxVaoId;
+	
+	/**
+	 * The vertex buffer objects for the bounding box.
+	 */
+	private int[] boxVboIds;
+	
+	/**
+	 * Amount of frames that queries have been issued for.
+	 */
+	private int frame;
+	
+	/**
+	 * Default constructor for a new OcclusionCullingFilter which
+	 * initializes the fields of this class.
+	 */
+	public OcclusionCullingFilter() {
+		this.queries = new HashMap<>();
+		this.boxModelMatrix = new Matrix4f();
+		this.boxModelViewMatrix = new Matrix4f();
+		this.inverseModelMatrix = new Matrix4f();
+		this.localCameraPosition = new Vector3f();
+		this.boxMin = new Vector3f();
+		this.boxSize = new Vector3f();
+	}
+	
+	/**
+	 * Initializes the filter by setting up the bounding box shader
+	 * program and the bounding box geometry.
+	 */
+	public void init() {
+		this.boundsShaderProgram = new ShaderProgram();
+		
+		Shader vertexShader = Shader.loadShader(GL_VERTEX_SHADER, "src/main/resources/shaders/occlusion.vert");
+		Shader fragmentShader = Shader.loadShader(GL_FRAGMENT_SHADER, "src/main/resources/shaders/occlusion.frag");
+		
+		this.boundsShaderProgram.attachShader(vertexShader);
+		this.boundsShaderProgram.attachShader(fragmentShader);
+		this.boundsShaderProgram.link();
+		
+		this.boundsShaderProgram.createUniform("projectionMatrix");
+		this.boundsShaderProgram.createUniform("modelViewMatrix");
+		
+		FloatBuffer positionBuffer = null;
+		IntBuffer indicesBuffer = null;
+		try {
+			this.boxVaoId = glGenVertexArrays();
+			glBindVertexArray(this.boxVaoId);
+			
+			this.boxVboIds = new int[2];
+			glGenBuffers(this.boxVboIds);
+			
+			positionBuffer = MemoryUtil.memAllocFloat(BOX_POSITIONS.length);
+			positionBuffer.put(BOX_POSITIONS).flip();
+			glBindBuffer(GL_ARRAY_BUFFER, this.boxVboIds[0]);
+			glBufferData(GL_ARRAY_BUFFER, positionBuffer, GL_STATIC_DRAW);
+			glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+			
+			indicesBuffer = MemoryUtil.memAllocInt(BOX_INDICES.length);
+			indicesBuffer.put(BOX_INDICES).flip();
+			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.boxVboIds[1]);
+			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+			
+			glBindBuffer(GL_ARRAY_BUFFER, 0);
+			glBindVertexArray(0);
+		} finally {
+			if (positionBuffer != null) {
+				MemoryUtil.memFree(positionBuffer);
+			}
+			
+			if (indicesBuffer != null) {
+				MemoryUtil.memFree(indicesBuffer);
+			}
+		}
+	}
+	
+	/**
+	 * Collects the results of the queries issued during earlier frames.
+	 * Queries which results are not yet available keep their previous state.
+	 */
+	public void update() {
+		for (Map<Entity, OcclusionQuery> entityQueries : this.queries.values()) {
+			for (OcclusionQuery query : entityQueries.values()) {
+				if (query.pending && glGetQueryObjecti(query.id, GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+					if (!query.discarded) {
+						query.visible = glGetQueryObjecti(query.id, GL_QUERY_RESULT) != 0;
+					}
+					query.pending = false;
+					query.discarded = false;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks if the specified entity was visible with the specified mesh
+	 * during the last completed occlusion test.
+	 * 
+	 * @param mesh - Mesh to check.
+	 * @param entity - Entity using the mesh.
+	 * 
+	 * @return True if the entity is visible or hasn't been tested yet; False otherwise.
+	 */
+	public boolean isVisible(Mesh mesh, Entity entity) {
+		Map<Entity, OcclusionQuery> entityQueries = this.queries.get(mesh);
+		OcclusionQuery query = entityQueries != null ? entityQueries.get(entity) : null;
+		
+		return query == null || query.visible;
+	}
+	
+	/**
+	 * Issues occlusion queries for the entities that passed the earlier culling 
+	 * by rendering their bounding boxes against the current depth buffer. 
+	 * Should be called after the scene has been rendered.
+	 * 
+	 * @param mapMesh - Map of meshes and connected entities to test.
+	 * @param filter - Filter deciding which entities passed the earlier culling.
+	 * @param projectionMatrix - Projection matrix.
+	 * @param viewMatrix - View matrix.
+	 * @param cameraPosition - Position of the camera.
+	 * @param transformation - Transformation object.
+	 */
+	public void issueQueries(Map<? extends Mesh, List<Entity>> mapMesh, BiPredicate<Mesh, Entity> filter, Matrix4f projectionMatrix, 
+			Matrix4f viewMatrix, Vector3f cameraPosition, Transformation transformation) {
+		boolean cullFace = glIsEnabled(GL_CULL_FACE);
+		
+		glColorMask(false, false, false, false);
+		glDepthMask(false);
+		glDepthFunc(GL_LEQUAL);
+		glDisable(GL_CULL_FACE);
+		
+		this.boundsShaderProgram.use();
+		this.boundsShaderProgram.setUniform(("projectionMatrix"), projectionMatrix);
+		
+		glBindVertexArray(this.boxVaoId);
+		glEnableVertexAttribArray(0);
+		
+		for (Map.Entry<? extends Mesh, List<Entity>> e : mapMesh.entrySet()) {
+			Mesh mesh = e.getKey();
+			Map<Entity, OcclusionQuery> entityQueries = this.queries.get(mesh);
+			if (entityQueries == null) {
+				entityQueries = new HashMap<>();
+				this.queries.put(mesh, entityQueries);
+			}
+			
+			for (Entity entity : e.getValue()) {
+				OcclusionQuery query = entityQueries.get(entity);
+				
+				// Forget the visibility of rejected entities so they aren't hidden when they come back.
+				if (!filter.test(mesh, entity)) {
+					if (query != null) {
+						query.visible = true;
+						query.discarded = query.pending;
+					}
+					continue;
+				}
+				
+				if (query == null) {
+					query = new OcclusionQuery(glGenQueries(), entityQueries.size());
+					entityQueries.put(entity, query);
+				}
+				
+				// Wait for the previous query and re-test visible entities less often.
+				if (query.pending || (query.visible && (this.frame + query.offset) % VISIBLE_TEST_INTERVAL != 0)) {
+					continue;
+				}
+				
+				inflateBounds(mesh);
+				this.boxModelMatrix.set(transformation.buildModelMatrix(entity))
+					.translate(this.boxMin)
+					.scale(this.boxSize);
+				
+				// The box can't be tested when the camera is inside of it.
+				if (containsCamera(cameraPosition, entity.getScale())) {
+					query.visible = true;
+					continue;
+				}
+				
+				viewMatrix.mulAffine(this.boxModelMatrix, this.boxModelViewMatrix);
+				this.boundsShaderProgram.setUniform(("modelViewMatrix"), this.boxModelViewMatrix);
+				
+				glBeginQuery(GL_ANY_SAMPLES_PASSED, query.id);
+				glDrawElements(GL_TRIANGLES, BOX_INDICES.length, GL_UNSIGNED_INT, 0);
+				glEndQuery(GL_ANY_SAMPLES_PASSED);
+				
+				query.pending = true;
+			}
+		}
+		
+		glDisableVertexAttribArray(0);
+		glBindVertexArray(0);
+		
+		this.boundsShaderProgram.stopUse();
+		
+		glColorMask(true, true, true, true);
+		glDepthMask(true);
+		glDepthFunc(GL_LESS);
+		if (cullFace) {
+			glEnable(GL_CULL_FACE);
+		}
+		
+		this.frame++;
+	}
+	
+	/**
+	 * Sets the box bounds to the bounds of the specified mesh inflated on 
+	 * every side, so the faces of the box lie in front of the surfaces of a 
+	 * box shaped mesh and flat bounds get a thickness.
+	 * 
+	 * @param mesh - Mesh to take the bounds of.
+	 */
+	private void inflateBounds(Mesh mesh) {
+		Vector3f min = mesh.getBoundsMin();
+		Vector3f max = mesh.getBoundsMax();
+		
+		max.sub(min, this.boxSize);
+		float largest = Math.max(this.boxSize.x, Math.max(this.boxSize.y, this.boxSize.z));
+		float inflation = Math.max(largest * BOX_INFLATION, MIN_BOX_INFLATION);
+		
+		min.sub(inflation, inflation, inflation, this.boxMin);
+		this.boxSize.add(2 * inflation, 2 * inflation, 2 * inflation);
+	}
+	
+	/**
+	 * Checks if the camera is inside or close to the bounding box currently 
+	 * set in the box model matrix.
+	 * 
+	 * @param cameraPosition - Position of the camera.
+	 * @param scale - Scale of the entity owning the bounding box.
+	 * 
+	 * @return True if the camera is inside the bounding box; False otherwise.
+	 */
+	private boolean containsCamera(Vector3f cameraPosition, float scale) {
+		this.boxModelMatrix.invertAffine(this.inverseModelMatrix);
+		this.inverseModelMatrix.transformPosition(cameraPosition, this.localCameraPosition);
+		
+		// Margin in the unit box space covering the near plane of the camera.
+		float margin = 0.1f / Math.max(scale, 0.0001f);
+		
+		return this.localCameraPosition.x > -margin && this.localCameraPosition.x < 1 + margin
+				&& this.localCameraPosition.y > -margin && this.localCameraPosition.y < 1 + margin
+				&& this.localCameraPosition.z > -margin && this.localCameraPosition.z < 1 + margin;
+	}
+	
+	/**
+	 * Deletes the queries of all the entities using the specified mesh. 
+	 * Should be called once the mesh is no longer drawn by the scene.
+	 * 
+	 * @param mesh - Mesh that was removed.
+	 */
+	public void remove(Mesh mesh) {
+		Map<Entity, OcclusionQuery> entityQueries = this.queries.remove(mesh);
+		if (entityQueries != null) {
+			for (OcclusionQuery query : entityQueries.values()) {
+				glDeleteQueries(query.id);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the queries of the specified entity for all of its meshes.
+	 * Should be called once the entity is removed from the scene.
+	 * 
+	 * @param entity - Entity that was removed.
+	 */
+	public void remove(Entity entity) {
+		for (Map<Entity, OcclusionQuery> entityQueries : this.queries.values()) {
+			OcclusionQuery query = entityQueries.remove(entity);
+			if (query != null) {
+				glDeleteQueries(query.id);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes all the queries and the bounding box resources 
+	 * used by this filter.
+	 */
+	public void delete() {
+		for (Map<Entity, OcclusionQuery> entityQueries : this.queries.values()) {
+			for (OcclusionQuery query : entityQueries.values()) {
+				glDeleteQueries(query.id);
+			}
+		}
+		this.queries.clear();
+		
+		if (this.boxVboIds != null) {
+			glDeleteBuffers(this.boxVboIds);
+			glDeleteVertexArrays(this.boxVaoId);
+		}
+		
+		if (this.boundsShaderProgram != null) {
+			this.boundsShaderProgram.delete();
+		}
+	}
+	
+	/**
+	 * Inner class holding the occlusion state for one entity and mesh.
+	 */
+	private static class OcclusionQuery {
+		
+		/**
+		 * Handle of the query object.
+		 */
+		private final int id;
+		
+		/**
+		 * Frame offset used to spread re-tests of visible entities over frames.
+		 */
+		private final int offset;
+		
+		/**
+		 * Result of the last completed query.
+		 */
+		private boolean visible;
+		
+		/**
+		 * True while a query is waiting for its result.
+		 */
+		private boolean pending;
+		
+		/**
+		 * True if the result of the pending query is ignored because the 
+		 * entity was rejected by the earlier culling since it was issued.
+		 */
+		private boolean discarded;
+		
+		public OcclusionQuery(int id, int offset) {
+			this.id = id;
+			this.offset = offset;
+			this.visible = true;
+			this.pending = false;
+			this.discarded = false;
+		}
+	}
+}
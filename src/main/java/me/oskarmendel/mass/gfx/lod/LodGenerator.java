@@ -0,0 +1,225 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.lod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.MeshGeometry;
+import me.oskarmendel.mass.gfx.optimize.MeshOptimizer;
+
+/**
+ * Generates a chain of simplified meshes for a mesh at import time.
+ * Every level keeps roughly half of the triangles of the previous level
+ * and is only kept if the simplification removed enough triangles.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name LodGenerator.java
+ */
+public class LodGenerator {
+	
+	/**
+	 * Maximum amount of simplified levels generated for a mesh.
+	 */
+	public static final int MAX_LEVELS = 3;
+	
+	/**
+	 * Meshes with fewer triangles than this are not simplified.
+	 */
+	public static final int MIN_TRIANGLES = 256;
+	
+	/**
+	 * Share of the triangles of the previous level to aim for.
+	 */
+	private static final float REDUCTION = 0.5f;
+	
+	/**
+	 * Maximum error of the first level relative to the size of the mesh,
+	 * doubled for every following level.
+	 */
+	private static final float BASE_ERROR = 0.01f;
+	
+	/**
+	 * Minimum share of triangles a level has to remove to be kept.
+	 */
+	private static final float MIN_REDUCTION = 0.1f;
+	
+	private LodGenerator() {
+		
+	}
+	
+	/**
+	 * Generates the simplified levels of detail for the specified mesh data.
+	 * The returned meshes do not have a material assigned.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param textCoords - Texture coordinates.
+	 * @param normals - Normal coordinates.
+	 * @param indices - Indices.
+	 * 
+	 * @return Array of simplified meshes ordered from finest to coarsest, empty if 
+	 * the mesh is too small to be simplified.
+	 */
+	public static Mesh[] generate(float[] positions, float[] textCoords, float[] normals, int[] indices) {
+		MeshGeometry[] levels = simplify(positions, textCoords, normals, indices);
+		
+		// Levels of detail are only rendered, the source mesh keeps the geometry for collision shapes.
+		Mesh[] meshes = new Mesh[levels.length];
+		for (int i = 0; i < levels.length; i++) {
+			meshes[i] = new Mesh(levels[i]);
+			meshes[i].releaseGeometry();
+		}
+		
+		return meshes;
+	}
+	
+	/**
+	 * Generates the geometry of the simplified levels of detail for the 
+	 * specified mesh data. No GL calls are made so this can run on any thread,
+	 * the levels are uploaded by creating a Mesh out of each geometry.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param textCoords - Texture coordinates.
+	 * @param normals - Normal coordinates.
+	 * @param indices - Indices.
+	 * 
+	 * @return Geometry of every level ordered from finest to coarsest, empty if 
+	 * the mesh is too small to be simplified.
+	 */
+	public static MeshGeometry[] simplify(float[] positions, float[] textCoords, float[] normals, int[] indices) {
+		if (indices.length / 3 < MIN_TRIANGLES) {
+			return new MeshGeometry[0];
+		}
+		
+		float extent = extent(positions);
+		
+		List<MeshGeometry> levels = new ArrayList<>();
+		int[] previous = indices;
+		float maxError = BASE_ERROR * extent;
+		
+		for (int level = 0; level < MAX_LEVELS; level++) {
+			int target = (int) (previous.length / 3 * REDUCTION) * 3;
+			int[] simplified = MeshSimplifier.simplify(positions, previous, target, maxError);
+			
+			if (simplified.length == 0 || simplified.length > previous.length * (1 - MIN_REDUCTION)) {
+				break;
+			}
+			
+			levels.add(createGeometry(positions, textCoords, normals, simplified));
+			
+			previous = simplified;
+			maxError *= 2;
+		}
+		
+		return levels.toArray(new MeshGeometry[levels.size()]);
+	}
+	
+	/**
+	 * Packs the vertices referenced by the specified indices into a new geometry.
+	 * The simplified mesh is reordered for the vertex cache like the source mesh.
+	 * 
+	 * @param positions - Vertex positions of the source mesh.
+	 * @param textCoords - Texture coordinates of the source mesh.
+	 * @param normals - Normal coordinates of the source mesh.
+	 * @param indices - Simplified indices referencing the source vertices.
+	 * 
+	 * @return A new geometry containing only the used vertices.
+	 */
+	private static MeshGeometry createGeometry(float[] positions, float[] textCoords, float[] normals, int[] indices) {
+		int[] remap = new int[positions.length / 3];
+		Arrays.fill(remap, -1);
+		
+		int vertexCount = 0;
+		int[] newIndices = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			int index = indices[i];
+			if (remap[index] == -1) {
+				remap[index] = vertexCount++;
+			}
+			newIndices[i] = remap[index];
+		}
+		
+		float[] newPositions = compact(positions, 3, remap, vertexCount);
+		float[] newTextCoords = compact(textCoords, 2, remap, vertexCount);
+		float[] newNormals = compact(normals, 3, remap, vertexCount);
+		MeshOptimizer.optimize(newPositions, newTextCoords, newNormals, newIndices);
+		
+		return new MeshGeometry(newPositions, newTextCoords, newNormals, newIndices, null, null);
+	}
+	
+	/**
+	 * Copies the attributes of the used vertices into a new array. Attributes 
+	 * missing in the source array are left out.
+	 * 
+	 * @param source - Source attribute array.
+	 * @param stride - Components per vertex.
+	 * @param remap - New index of every source vertex or -1 if unused.
+	 * @param vertexCount - Amount of used vertices.
+	 * 
+	 * @return The compacted attribute array.
+	 */
+	private static float[] compact(float[] source, int stride, int[] remap, int vertexCount) {
+		int available = Math.min(source.length / stride, remap.length);
+		if (available < remap.length) {
+			return new float[0];
+		}
+		
+		float[] result = new float[vertexCount * stride];
+		for (int v = 0; v < available; v++) {
+			if (remap[v] != -1) {
+				System.arraycopy(source, v * stride, result, remap[v] * stride, stride);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Calculates the length of the diagonal of the bounding box of the vertices.
+	 * 
+	 * @param positions - Vertex positions.
+	 * 
+	 * @return The size of the mesh.
+	 */
+	private static float extent(float[] positions) {
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+		
+		for (int i = 0; i + 2 < positions.length; i += 3) {
+			minX = Math.min(minX, positions[i]);
+			minY = Math.min(minY, positions[i + 1]);
+			minZ = Math.min(minZ, positions[i + 2]);
+			maxX = Math.max(maxX, positions[i]);
+			maxY = Math.max(maxY, positions[i + 1]);
+			maxZ = Math.max(maxZ, positions[i + 2]);
+		}
+		
+		float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+		return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.lod;
+
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import me.oskarmendel.mass.entity.Entity;
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.Transformation;
+import me.oskarmendel.mass.gfx.shadow.ShadowCascade;
+import me.oskarmendel.mass.gfx.shadow.ShadowRenderer;
+
+/**
+ * Selects the level of detail of entities for a view from the projected 
+ * size of their bounding sphere. A level only changes once the size has
+ * moved past its threshold by a margin to avoid popping between levels.
+ * 
+ * Every view keeps its own selection on the entity, the camera view and 
+ * one view for every shadow cascade.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name LodSelector.java
+ */
+public class LodSelector {
+	
+	/**
+	 * View index of the camera.
+	 */
+	public static final int VIEW_CAMERA = 0;
+	
+	/**
+	 * View index of the shadow pass, the finest level among the cascades 
+	 * an entity reaches.
+	 */
+	public static final int VIEW_SHADOW = 1;
+	
+	/**
+	 * Amount of views a level of detail is selected for.
+	 */
+	public static final int MAX_VIEWS = 2 + ShadowRenderer.NUM_CASCADES;
+	
+	/**
+	 * Projected size, as a share of the view height, below which 
+	 * the next coarser level is used.
+	 */
+	private static final float[] SCREEN_SIZES = {0.4f, 0.2f, 0.08f};
+	
+	/**
+	 * Relative margin around each threshold before switching level.
+	 */
+	private static final float HYSTERESIS = 0.15f;
+	
+	private final Vector3f boundsMin;
+	
+	private final Vector3f boundsMax;
+	
+	private final Vector3f center;
+	
+	/**
+	 * Creates a new LodSelector.
+	 */
+	public LodSelector() {
+		this.boundsMin = new Vector3f();
+		this.boundsMax = new Vector3f();
+		this.center = new Vector3f();
+	}
+	
+	/**
+	 * Getter for the view index of the specified shadow cascade.
+	 * 
+	 * @param cascade - Index of the shadow cascade.
+	 * 
+	 * @return The view index of the shadow cascade.
+	 */
+	public static int cascadeView(int cascade) {
+		return 2 + cascade;
+	}
+	
+	/**
+	 * Selects the levels of detail of the entities for a perspective view.
+	 * 
+	 * @param entities - Entities to select levels of detail for.
+	 * @param view - Index of the view.
+	 * @param viewPosition - Position of the viewer.
+	 * @param fov - Vertical field of view in radians.
+	 * @param transformation - Transformation used to build model matrices.
+	 */
+	public void updatePerspective(Entity[] entities, int view, Vector3f viewPosition, float fov, Transformation transformation) {
+		if (entities == null) {
+			return;
+		}
+		
+		float tanHalfFov = (float) Math.tan(fov * 0.5f);
+		
+		for (Entity entity : entities) {
+			int levels = levelCount(entity);
+			if (levels <= 1) {
+				continue;
+			}
+			
+			float radius = boundingSphere(entity, transformation.buildModelMatrix(entity));
+			float distance = this.center.distance(viewPosition);
+			float size = distance > radius ? radius / (distance * tanHalfFov) : Float.MAX_VALUE;
+			
+			entity.setLodLevel(view, selectLevel(entity.getLodLevel(view), size, levels));
+		}
+	}
+	
+	/**
+	 * Selects the levels of detail of the entities for every shadow cascade
+	 * and for the shadow pass rendering all the cascades at once.
+	 * 
+	 * @param entities - Entities to select levels of detail for.
+	 * @param shadowCascades - Shadow cascades to select levels of detail for.
+	 * @param transformation - Transformation used to build model matrices.
+	 */
+	public void updateCascades(Entity[] entities, List<ShadowCascade> shadowCascades, Transformation transformation) {
+		if (entities == null) {
+			return;
+		}
+		
+		int cascades = shadowCascades.size();
+		
+		for (Entity entity : entities) {
+			int levels = levelCount(entity);
+			if (levels <= 1) {
+				continue;
+			}
+			
+			float radius = boundingSphere(entity, transformation.buildModelMatrix(entity));
+			int shadowLevel = levels - 1;
+			
+			for (int i = 0; i < cascades; i++) {
+				ShadowCascade shadowCascade = shadowCascades.get(i);
+				float viewSize = shadowCascade.getOrthoSize();
+				float size = viewSize > 0 ? 2 * radius / viewSize : Float.MAX_VALUE;
+				
+				int view = cascadeView(i);
+				int level = selectLevel(entity.getLodLevel(view), size, levels);
+				entity.setLodLevel(view, level);
+				
+				if (shadowCascade.containsSphere(this.center, radius)) {
+					shadowLevel = Math.min(shadowLevel, level);
+				}
+			}
+			
+			entity.setLodLevel(VIEW_SHADOW, shadowLevel);
+		}
+	}
+	
+	/**
+	 * Selects the level of detail for the specified projected size, only 
+	 * leaving the current level when the size is clearly past its thresholds.
+	 * 
+	 * @param current - Currently selected level.
+	 * @param size - Projected size as a share of the view.
+	 * @param levels - Amount of available levels.
+	 * 
+	 * @return The level to use.
+	 */
+	public static int selectLevel(int current, float size, int levels) {
+		int maxLevel = Math.min(levels - 1, SCREEN_SIZES.length);
+		int level = Math.min(current, maxLevel);
+		
+		while (level > 0 && size > SCREEN_SIZES[level - 1] * (1 + HYSTERESIS)) {
+			level--;
+		}
+		
+		while (level < maxLevel && size < SCREEN_SIZES[level] * (1 - HYSTERESIS)) {
+			level++;
+		}
+		
+		return level;
+	}
+	
+	/**
+	 * Getter for the amount of levels of detail available to an entity.
+	 * 
+	 * @param entity - Entity to check.
+	 * 
+	 * @return The largest amount of levels among the meshes of the entity.
+	 */
+	private static int levelCount(Entity entity) {
+		int levels = 1;
+		for (Mesh mesh : entity.getMeshes()) {
+			levels = Math.max(levels, mesh.getLodCount());
+		}
+		
+		return levels;
+	}
+	
+	/**
+	 * Calculates the world space bounding sphere of all the meshes of 
+	 * an entity. The center is stored in the center of this selector.
+	 * 
+	 * @param entity - Entity to calculate the bounding sphere for.
+	 * @param modelMatrix - Model matrix of the entity.
+	 * 
+	 * @return The radius of the bounding sphere.
+	 */
+	private float boundingSphere(Entity entity, Matrix4f modelMatrix) {
+		this.boundsMin.set(Float.MAX_VALUE);
+		this.boundsMax.set(-Float.MAX_VALUE);
+		
+		for (Mesh mesh : entity.getMeshes()) {
+			this.boundsMin.min(mesh.getBoundsMin());
+			this.boundsMax.max(mesh.getBoundsMax());
+		}
+		
+		float radius = this.boundsMin.distance(this.boundsMax) * 0.5f * entity.getScale();
+		this.center.set(this.boundsMin).add(this.boundsMax).mul(0.5f);
+		modelMatrix.transformPosition(this.center);
+		
+		return radius;
+	}
+}
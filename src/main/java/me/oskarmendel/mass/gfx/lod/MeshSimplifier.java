@@ -0,0 +1,448 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.lod;
+
+import java.util.Arrays;
+
+/**
+ * Simplifies triangle meshes using quadric error metrics. Edges are 
+ * collapsed onto one of their existing vertices so the texture coordinates
+ * and normals of the source mesh stay valid for the simplified indices.
+ * 
+ * Vertices on open borders and on attribute seams are locked to avoid 
+ * cracks opening up in the simplified mesh.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshSimplifier.java
+ */
+final class MeshSimplifier {
+	
+	/**
+	 * Number of doubles used to store one symmetric quadric.
+	 */
+	private static final int QUADRIC_SIZE = 10;
+	
+	/**
+	 * Maximum number of collapse passes before giving up on the target.
+	 */
+	private static final int MAX_PASSES = 64;
+	
+	private MeshSimplifier() {
+		
+	}
+	
+	/**
+	 * Simplifies the specified triangle list until it contains at most the 
+	 * target amount of indices or no collapse below the error limit remains.
+	 * 
+	 * @param positions - Vertex positions of the mesh.
+	 * @param indices - Triangle indices to simplify.
+	 * @param targetIndexCount - Wanted amount of indices in the result.
+	 * @param maxError - Maximum error allowed, as a distance in model space.
+	 * 
+	 * @return Simplified triangle indices referencing the same vertices.
+	 */
+	static int[] simplify(float[] positions, int[] indices, int targetIndexCount, float maxError) {
+		int vertexCount = positions.length / 3;
+		double errorLimit = (double) maxError * maxError;
+		
+		boolean[] locked = findLockedVertices(positions, indices, vertexCount);
+		
+		double[] quadrics = new double[vertexCount * QUADRIC_SIZE];
+		double[] weights = new double[vertexCount];
+		computeQuadrics(positions, indices, quadrics, weights);
+		
+		int[] result = Arrays.copyOf(indices, indices.length);
+		int indexCount = result.length;
+		
+		int[] collapse = new int[vertexCount];
+		boolean[] touched = new boolean[vertexCount];
+		
+		for (int pass = 0; pass < MAX_PASSES && indexCount > targetIndexCount; pass++) {
+			int[] triangleOffsets = new int[vertexCount + 1];
+			int[] vertexTriangles = buildAdjacency(result, indexCount, vertexCount, triangleOffsets);
+			
+			// Gather every collapse candidate of the current triangles sorted by cost.
+			int[] candidateFrom = new int[indexCount * 2];
+			int[] candidateTo = new int[indexCount * 2];
+			long[] candidateOrder = new long[indexCount * 2];
+			int candidates = 0;
+			
+			for (int i = 0; i < indexCount; i += 3) {
+				for (int e = 0; e < 3; e++) {
+					int a = result[i + e];
+					int b = result[i + (e + 1) % 3];
+					
+					for (int d = 0; d < 2; d++) {
+						int from = d == 0 ? a : b;
+						int to = d == 0 ? b : a;
+						
+						if (locked[from]) {
+							continue;
+						}
+						
+						float cost = (float) collapseError(quadrics, weights, from, to, positions);
+						if (cost > errorLimit) {
+							continue;
+						}
+						
+						candidateFrom[candidates] = from;
+						candidateTo[candidates] = to;
+						candidateOrder[candidates] = ((long) Float.floatToIntBits(cost) << 32) | candidates;
+						candidates++;
+					}
+				}
+			}
+			
+			if (candidates == 0) {
+				break;
+			}
+			
+			Arrays.sort(candidateOrder, 0, candidates);
+			
+			for (int v = 0; v < vertexCount; v++) {
+				collapse[v] = v;
+			}
+			Arrays.fill(touched, false);
+			
+			int collapses = 0;
+			int removedIndices = 0;
+			for (int c = 0; c < candidates && indexCount - removedIndices > targetIndexCount; c++) {
+				int candidate = (int) candidateOrder[c];
+				int from = candidateFrom[candidate];
+				int to = candidateTo[candidate];
+				
+				if (touched[from] || touched[to]) {
+					continue;
+				}
+				
+				if (flipsTriangles(positions, result, vertexTriangles, triangleOffsets, from, to)) {
+					continue;
+				}
+				
+				collapse[from] = to;
+				for (int q = 0; q < QUADRIC_SIZE; q++) {
+					quadrics[to * QUADRIC_SIZE + q] += quadrics[from * QUADRIC_SIZE + q];
+				}
+				weights[to] += weights[from];
+				
+				// Lock the neighbourhood so the flip test stays valid for this pass.
+				for (int t = triangleOffsets[from]; t < triangleOffsets[from + 1]; t++) {
+					int triangle = vertexTriangles[t];
+					touched[result[triangle]] = true;
+					touched[result[triangle + 1]] = true;
+					touched[result[triangle + 2]] = true;
+					
+					if (result[triangle] == to || result[triangle + 1] == to || result[triangle + 2] == to) {
+						removedIndices += 3;
+					}
+				}
+				
+				collapses++;
+			}
+			
+			if (collapses == 0) {
+				break;
+			}
+			
+			indexCount = remapIndices(result, indexCount, collapse);
+		}
+		
+		return Arrays.copyOf(result, indexCount);
+	}
+	
+	/**
+	 * Finds the vertices which may not be moved, these are the vertices on 
+	 * open borders and vertices sharing a position with other vertices.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param indices - Triangle indices.
+	 * @param vertexCount - Amount of vertices.
+	 * 
+	 * @return Array marking the locked vertices.
+	 */
+	private static boolean[] findLockedVertices(float[] positions, int[] indices, int vertexCount) {
+		boolean[] locked = new boolean[vertexCount];
+		
+		// Edges only used by one triangle are borders or attribute seams.
+		long[] edges = new long[indices.length];
+		for (int i = 0; i < indices.length; i += 3) {
+			for (int e = 0; e < 3; e++) {
+				int a = indices[i + e];
+				int b = indices[i + (e + 1) % 3];
+				edges[i + e] = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+			}
+		}
+		Arrays.sort(edges);
+		
+		for (int i = 0; i < edges.length; ) {
+			int j = i + 1;
+			while (j < edges.length && edges[j] == edges[i]) {
+				j++;
+			}
+			
+			if (j - i == 1) {
+				locked[(int) (edges[i] >>> 32)] = true;
+				locked[(int) edges[i]] = true;
+			}
+			i = j;
+		}
+		
+		// Vertices sharing a position are split by an attribute seam.
+		int capacity = Integer.highestOneBit(Math.max(vertexCount, 1) * 2) * 2;
+		int[] table = new int[capacity];
+		Arrays.fill(table, -1);
+		
+		for (int v = 0; v < vertexCount; v++) {
+			int hash = Float.floatToIntBits(positions[v * 3]) * 73856093
+					^ Float.floatToIntBits(positions[v * 3 + 1]) * 19349663
+					^ Float.floatToIntBits(positions[v * 3 + 2]) * 83492791;
+			int slot = (hash ^ (hash >>> 16)) & (capacity - 1);
+			
+			while (table[slot] != -1) {
+				int other = table[slot];
+				if (positions[other * 3] == positions[v * 3] 
+						&& positions[other * 3 + 1] == positions[v * 3 + 1] 
+						&& positions[other * 3 + 2] == positions[v * 3 + 2]) {
+					locked[other] = true;
+					locked[v] = true;
+					break;
+				}
+				slot = (slot + 1) & (capacity - 1);
+			}
+			
+			if (table[slot] == -1) {
+				table[slot] = v;
+			}
+		}
+		
+		return locked;
+	}
+	
+	/**
+	 * Accumulates the area weighted plane quadrics of every triangle 
+	 * into its vertices.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param indices - Triangle indices.
+	 * @param quadrics - Destination quadrics.
+	 * @param weights - Destination quadric weights.
+	 */
+	private static void computeQuadrics(float[] positions, int[] indices, double[] quadrics, double[] weights) {
+		for (int i = 0; i < indices.length; i += 3) {
+			int i0 = indices[i] * 3;
+			int i1 = indices[i + 1] * 3;
+			int i2 = indices[i + 2] * 3;
+			
+			double e1x = positions[i1] - positions[i0];
+			double e1y = positions[i1 + 1] - positions[i0 + 1];
+			double e1z = positions[i1 + 2] - positions[i0 + 2];
+			double e2x = positions[i2] - positions[i0];
+			double e2y = positions[i2 + 1] - positions[i0 + 1];
+			double e2z = positions[i2 + 2] - positions[i0 + 2];
+			
+			double nx = e1y * e2z - e1z * e2y;
+			double ny = e1z * e2x - e1x * e2z;
+			double nz = e1x * e2y - e1y * e2x;
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (length == 0) {
+				continue;
+			}
+			
+			double area = length * 0.5;
+			nx /= length;
+			ny /= length;
+			nz /= length;
+			double d = -(nx * positions[i0] + ny * positions[i0 + 1] + nz * positions[i0 + 2]);
+			
+			for (int k = 0; k < 3; k++) {
+				int q = indices[i + k] * QUADRIC_SIZE;
+				quadrics[q] += area * nx * nx;
+				quadrics[q + 1] += area * nx * ny;
+				quadrics[q + 2] += area * nx * nz;
+				quadrics[q + 3] += area * nx * d;
+				quadrics[q + 4] += area * ny * ny;
+				quadrics[q + 5] += area * ny * nz;
+				quadrics[q + 6] += area * ny * d;
+				quadrics[q + 7] += area * nz * nz;
+				quadrics[q + 8] += area * nz * d;
+				quadrics[q + 9] += area * d * d;
+				weights[indices[i + k]] += area;
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the mean squared distance error of collapsing a vertex
+	 * onto another vertex.
+	 * 
+	 * @param quadrics - Vertex quadrics.
+	 * @param weights - Vertex quadric weights.
+	 * @param from - Vertex to remove.
+	 * @param to - Vertex to keep.
+	 * @param positions - Vertex positions.
+	 * 
+	 * @return The error of the collapse.
+	 */
+	private static double collapseError(double[] quadrics, double[] weights, int from, int to, float[] positions) {
+		double x = positions[to * 3];
+		double y = positions[to * 3 + 1];
+		double z = positions[to * 3 + 2];
+		
+		double error = 0;
+		for (int v = 0; v < 2; v++) {
+			int q = (v == 0 ? from : to) * QUADRIC_SIZE;
+			error += quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z + 2 * quadrics[q + 3] * x
+					+ quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z + 2 * quadrics[q + 6] * y
+					+ quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z
+					+ quadrics[q + 9];
+		}
+		
+		double weight = weights[from] + weights[to];
+		return weight > 0 ? Math.abs(error) / weight : 0;
+	}
+	
+	/**
+	 * Builds the list of triangles using every vertex.
+	 * 
+	 * @param indices - Triangle indices.
+	 * @param indexCount - Amount of indices in use.
+	 * @param vertexCount - Amount of vertices.
+	 * @param offsets - Destination offsets into the returned array, one per vertex plus one.
+	 * 
+	 * @return The first index of every triangle grouped by vertex.
+	 */
+	private static int[] buildAdjacency(int[] indices, int indexCount, int vertexCount, int[] offsets) {
+		for (int i = 0; i < indexCount; i++) {
+			offsets[indices[i] + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		
+		int[] fill = Arrays.copyOf(offsets, vertexCount);
+		int[] triangles = new int[indexCount];
+		for (int i = 0; i < indexCount; i++) {
+			triangles[fill[indices[i]]++] = i - i % 3;
+		}
+		
+		return triangles;
+	}
+	
+	/**
+	 * Checks if moving a vertex onto another vertex flips any of the 
+	 * remaining triangles around it.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param indices - Triangle indices.
+	 * @param vertexTriangles - Triangles grouped by vertex.
+	 * @param offsets - Offsets of the triangle groups.
+	 * @param from - Vertex to remove.
+	 * @param to - Vertex to keep.
+	 * 
+	 * @return True if a triangle would flip; False otherwise.
+	 */
+	private static boolean flipsTriangles(float[] positions, int[] indices, int[] vertexTriangles, int[] offsets, int from, int to) {
+		for (int t = offsets[from]; t < offsets[from + 1]; t++) {
+			int triangle = vertexTriangles[t];
+			int a = indices[triangle];
+			int b = indices[triangle + 1];
+			int c = indices[triangle + 2];
+			
+			if (a == to || b == to || c == to) {
+				continue;
+			}
+			
+			double[] before = normal(positions, a, b, c, -1, -1);
+			double[] after = normal(positions, a, b, c, from, to);
+			
+			if (before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Calculates the unnormalized normal of a triangle where one vertex 
+	 * is optionally replaced by another vertex.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param a - First vertex.
+	 * @param b - Second vertex.
+	 * @param c - Third vertex.
+	 * @param from - Vertex to replace or -1.
+	 * @param to - Replacing vertex.
+	 * 
+	 * @return The normal of the triangle.
+	 */
+	private static double[] normal(float[] positions, int a, int b, int c, int from, int to) {
+		a = a == from ? to : a;
+		b = b == from ? to : b;
+		c = c == from ? to : c;
+		
+		double e1x = positions[b * 3] - positions[a * 3];
+		double e1y = positions[b * 3 + 1] - positions[a * 3 + 1];
+		double e1z = positions[b * 3 + 2] - positions[a * 3 + 2];
+		double e2x = positions[c * 3] - positions[a * 3];
+		double e2y = positions[c * 3 + 1] - positions[a * 3 + 1];
+		double e2z = positions[c * 3 + 2] - positions[a * 3 + 2];
+		
+		return new double[] {
+				e1y * e2z - e1z * e2y,
+				e1z * e2x - e1x * e2z,
+				e1x * e2y - e1y * e2x
+		};
+	}
+	
+	/**
+	 * Applies the collapses of a pass to the indices and removes the 
+	 * triangles that became degenerate.
+	 * 
+	 * @param indices - Triangle indices to update in place.
+	 * @param indexCount - Amount of indices in use.
+	 * @param collapse - Vertex each vertex collapsed onto.
+	 * 
+	 * @return The new amount of indices in use.
+	 */
+	private static int remapIndices(int[] indices, int indexCount, int[] collapse) {
+		int write = 0;
+		for (int i = 0; i < indexCount; i += 3) {
+			int a = collapse[indices[i]];
+			int b = collapse[indices[i + 1]];
+			int c = collapse[indices[i + 2]];
+			
+			if (a != b && b != c && a != c) {
+				indices[write++] = a;
+				indices[write++] = b;
+				indices[write++] = c;
+			}
+		}
+		
+		return write;
+	}
+}
@@ -0,0 +1,268 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.meshlet;
+
+import java.util.Arrays;
+
+/**
+ * Splits the triangles of a mesh into meshlets at import time. The triangles
+ * are grouped in index buffer order, which the mesh optimizer left spatially 
+ * coherent, so every meshlet stays a contiguous index range that can be drawn 
+ * on its own.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshletBuilder.java
+ */
+public class MeshletBuilder {
+	
+	/**
+	 * Meshes with fewer triangles than this are culled per object only.
+	 */
+	public static final int MIN_MESH_TRIANGLES = 1024;
+	
+	/**
+	 * Smallest amount of triangles a meshlet is closed at because of its normals.
+	 */
+	public static final int MIN_TRIANGLES = 64;
+	
+	/**
+	 * Largest amount of triangles in a meshlet.
+	 */
+	public static final int MAX_TRIANGLES = 128;
+	
+	/**
+	 * A meshlet with enough triangles is closed when a triangle's normal deviates
+	 * this much from the average normal, which keeps the normal cones narrow.
+	 */
+	private static final float NORMAL_BREAK = 0.5f;
+	
+	/**
+	 * Cones whose normals spread further than this from the axis can not be culled.
+	 */
+	private static final float MIN_CONE_DOT = 0.1f;
+	
+	private MeshletBuilder() {
+		
+	}
+	
+	/**
+	 * Checks if a mesh with the specified indices is large enough to be split.
+	 * 
+	 * @param indices - Triangle indices.
+	 * 
+	 * @return - True if the mesh should be split into meshlets; False otherwise.
+	 */
+	public static boolean shouldBuild(int[] indices) {
+		return indices.length / 3 >= MIN_MESH_TRIANGLES;
+	}
+	
+	/**
+	 * Splits the triangles of the mesh into meshlets.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param indices - Triangle indices.
+	 * 
+	 * @return - The meshlets of the mesh.
+	 */
+	public static MeshletSet build(float[] positions, int[] indices) {
+		int triangleCount = indices.length / 3;
+		float[] normals = triangleNormals(positions, indices);
+		
+		int capacity = triangleCount / MIN_TRIANGLES + 1;
+		int[] starts = new int[capacity];
+		int[] counts = new int[capacity];
+		int meshlets = 0;
+		
+		int start = 0;
+		float sumX = 0, sumY = 0, sumZ = 0;
+		for (int t = 0; t < triangleCount; t++) {
+			int size = t - start;
+			
+			boolean close = size == MAX_TRIANGLES;
+			if (!close && size >= MIN_TRIANGLES) {
+				float length = (float) Math.sqrt(sumX * sumX + sumY * sumY + sumZ * sumZ);
+				float dot = normals[t * 3] * sumX + normals[t * 3 + 1] * sumY + normals[t * 3 + 2] * sumZ;
+				close = length > 0 && dot < NORMAL_BREAK * length;
+			}
+			
+			if (close) {
+				starts[meshlets] = start * 3;
+				counts[meshlets] = size * 3;
+				meshlets++;
+				
+				start = t;
+				sumX = sumY = sumZ = 0;
+			}
+			
+			sumX += normals[t * 3];
+			sumY += normals[t * 3 + 1];
+			sumZ += normals[t * 3 + 2];
+		}
+		
+		if (start < triangleCount) {
+			starts[meshlets] = start * 3;
+			counts[meshlets] = (triangleCount - start) * 3;
+			meshlets++;
+		}
+		
+		float[] spheres = new float[meshlets * 4];
+		float[] cones = new float[meshlets * 4];
+		for (int m = 0; m < meshlets; m++) {
+			calculateSphere(positions, indices, starts[m], counts[m], spheres, m * 4);
+			calculateCone(normals, starts[m] / 3, counts[m] / 3, cones, m * 4);
+		}
+		
+		return new MeshletSet(meshlets, Arrays.copyOf(starts, meshlets), Arrays.copyOf(counts, meshlets), spheres, cones);
+	}
+	
+	/**
+	 * Calculates the unit normal of every triangle, zero for degenerate triangles.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param indices - Triangle indices.
+	 * 
+	 * @return - Three floats per triangle.
+	 */
+	private static float[] triangleNormals(float[] positions, int[] indices) {
+		float[] normals = new float[indices.length];
+		
+		for (int i = 0; i + 2 < indices.length; i += 3) {
+			int a = indices[i] * 3;
+			int b = indices[i + 1] * 3;
+			int c = indices[i + 2] * 3;
+			
+			float e1x = positions[b] - positions[a];
+			float e1y = positions[b + 1] - positions[a + 1];
+			float e1z = positions[b + 2] - positions[a + 2];
+			float e2x = positions[c] - positions[a];
+			float e2y = positions[c + 1] - positions[a + 1];
+			float e2z = positions[c + 2] - positions[a + 2];
+			
+			float nx = e1y * e2z - e1z * e2y;
+			float ny = e1z * e2x - e1x * e2z;
+			float nz = e1x * e2y - e1y * e2x;
+			float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+			
+			if (length > 0) {
+				normals[i] = nx / length;
+				normals[i + 1] = ny / length;
+				normals[i + 2] = nz / length;
+			}
+		}
+		
+		return normals;
+	}
+	
+	/**
+	 * Calculates a bounding sphere around the center of the bounding box of a meshlet.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param indices - Triangle indices.
+	 * @param start - First index of the meshlet.
+	 * @param count - Amount of indices of the meshlet.
+	 * @param dest - Array receiving the center and radius.
+	 * @param offset - Offset in the destination array.
+	 */
+	private static void calculateSphere(float[] positions, int[] indices, int start, int count, float[] dest, int offset) {
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+		
+		for (int i = start; i < start + count; i++) {
+			int v = indices[i] * 3;
+			minX = Math.min(minX, positions[v]);
+			minY = Math.min(minY, positions[v + 1]);
+			minZ = Math.min(minZ, positions[v + 2]);
+			maxX = Math.max(maxX, positions[v]);
+			maxY = Math.max(maxY, positions[v + 1]);
+			maxZ = Math.max(maxZ, positions[v + 2]);
+		}
+		
+		float cx = (minX + maxX) * 0.5f;
+		float cy = (minY + maxY) * 0.5f;
+		float cz = (minZ + maxZ) * 0.5f;
+		
+		float radius = 0;
+		for (int i = start; i < start + count; i++) {
+			int v = indices[i] * 3;
+			float dx = positions[v] - cx;
+			float dy = positions[v + 1] - cy;
+			float dz = positions[v + 2] - cz;
+			radius = Math.max(radius, dx * dx + dy * dy + dz * dz);
+		}
+		
+		dest[offset] = cx;
+		dest[offset + 1] = cy;
+		dest[offset + 2] = cz;
+		dest[offset + 3] = (float) Math.sqrt(radius);
+	}
+	
+	/**
+	 * Calculates the normal cone of a meshlet. The axis is the average normal 
+	 * and the cutoff the sine of the largest angle between a normal and the 
+	 * axis. Meshlets with widely spread normals get a cutoff of one so they 
+	 * are never culled.
+	 * 
+	 * @param normals - Unit normal of every triangle.
+	 * @param start - First triangle of the meshlet.
+	 * @param count - Amount of triangles of the meshlet.
+	 * @param dest - Array receiving the axis and cutoff.
+	 * @param offset - Offset in the destination array.
+	 */
+	private static void calculateCone(float[] normals, int start, int count, float[] dest, int offset) {
+		float ax = 0, ay = 0, az = 0;
+		for (int t = start; t < start + count; t++) {
+			ax += normals[t * 3];
+			ay += normals[t * 3 + 1];
+			az += normals[t * 3 + 2];
+		}
+		
+		float length = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+		if (length == 0) {
+			dest[offset + 3] = 1;
+			return;
+		}
+		ax /= length;
+		ay /= length;
+		az /= length;
+		
+		float minDot = 1;
+		for (int t = start; t < start + count; t++) {
+			float nx = normals[t * 3];
+			float ny = normals[t * 3 + 1];
+			float nz = normals[t * 3 + 2];
+			
+			// Degenerate triangles are never rasterized and do not widen the cone.
+			if (nx != 0 || ny != 0 || nz != 0) {
+				minDot = Math.min(minDot, nx * ax + ny * ay + nz * az);
+			}
+		}
+		
+		dest[offset] = ax;
+		dest[offset + 1] = ay;
+		dest[offset + 2] = az;
+		dest[offset + 3] = minDot <= MIN_CONE_DOT ? 1 : (float) Math.sqrt(1 - minDot * minDot);
+	}
+}
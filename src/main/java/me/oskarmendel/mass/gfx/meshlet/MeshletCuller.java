@@ -0,0 +1,220 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.meshlet;
+
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+
+import java.nio.IntBuffer;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
+
+import me.oskarmendel.mass.entity.Entity;
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.Transformation;
+
+/**
+ * Culls the meshlets of large meshes on the CPU before drawing them. A meshlet 
+ * is skipped when its bounding sphere is outside of the view frustum or when
+ * its normal cone shows that all of its triangles face away from the camera.
+ * The visible meshlets are merged into as few index ranges as possible and 
+ * drawn with a single multi draw call.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshletCuller.java
+ */
+public class MeshletCuller {
+	
+	/**
+	 * Initial amount of index ranges the draw buffers hold.
+	 */
+	private static final int INITIAL_RANGES = 256;
+	
+	private final FrustumIntersection frustumInt;
+	
+	private final Matrix4f projectionViewMatrix;
+	
+	private final Vector3f cameraPosition;
+	
+	private final Transformation transformation;
+	
+	private final Matrix4f inverseModelMatrix;
+	
+	private final Vector3f localCamera;
+	
+	private final Vector3f worldCenter;
+	
+	private IntBuffer counts;
+	
+	private PointerBuffer offsets;
+	
+	/**
+	 * Meshlets tested and drawn since the last update, for statistics.
+	 */
+	private int testedMeshlets;
+	
+	private int drawnMeshlets;
+	
+	/**
+	 * Creates a new MeshletCuller.
+	 */
+	public MeshletCuller() {
+		this.frustumInt = new FrustumIntersection();
+		this.projectionViewMatrix = new Matrix4f();
+		this.cameraPosition = new Vector3f();
+		this.transformation = new Transformation();
+		this.inverseModelMatrix = new Matrix4f();
+		this.localCamera = new Vector3f();
+		this.worldCenter = new Vector3f();
+		this.counts = MemoryUtil.memAllocInt(INITIAL_RANGES);
+		this.offsets = MemoryUtil.memAllocPointer(INITIAL_RANGES);
+	}
+	
+	/**
+	 * Updates the view the meshlets are culled for.
+	 * 
+	 * @param projectionMatrix - Projection matrix.
+	 * @param viewMatrix - View matrix.
+	 * @param cameraPosition - Position of the camera in world space.
+	 */
+	public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix, Vector3f cameraPosition) {
+		this.projectionViewMatrix.set(projectionMatrix).mul(viewMatrix);
+		this.frustumInt.set(this.projectionViewMatrix);
+		this.cameraPosition.set(cameraPosition);
+		
+		this.testedMeshlets = 0;
+		this.drawnMeshlets = 0;
+	}
+	
+	/**
+	 * Draws the visible meshlets of the specified mesh rendered for the specified 
+	 * entity. The vertex array object of the mesh has to be bound.
+	 * 
+	 * @param mesh - Mesh to draw, has to have meshlets.
+	 * @param entity - Entity the mesh is rendered for.
+	 */
+	public void draw(Mesh mesh, Entity entity) {
+		MeshletSet meshlets = mesh.getMeshlets();
+		int indexSize = mesh.getIndexType() == GL_UNSIGNED_SHORT ? 2 : 4;
+		
+		Matrix4f modelMatrix = this.transformation.buildModelMatrix(entity);
+		modelMatrix.invertAffine(this.inverseModelMatrix);
+		this.inverseModelMatrix.transformPosition(this.cameraPosition, this.localCamera);
+		float scale = entity.getScale();
+		
+		float[] spheres = meshlets.getSpheres();
+		float[] cones = meshlets.getCones();
+		
+		this.counts.clear();
+		this.offsets.clear();
+		int rangeEnd = -1;
+		
+		for (int m = 0; m < meshlets.getCount(); m++) {
+			int s = m * 4;
+			
+			// Back facing test in model space, valid since entities are scaled uniformly.
+			float dx = spheres[s] - this.localCamera.x;
+			float dy = spheres[s + 1] - this.localCamera.y;
+			float dz = spheres[s + 2] - this.localCamera.z;
+			float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+			if (dx * cones[s] + dy * cones[s + 1] + dz * cones[s + 2] >= cones[s + 3] * distance + spheres[s + 3]) {
+				continue;
+			}
+			
+			modelMatrix.transformPosition(spheres[s], spheres[s + 1], spheres[s + 2], this.worldCenter);
+			if (!this.frustumInt.testSphere(this.worldCenter.x, this.worldCenter.y, this.worldCenter.z, spheres[s + 3] * scale)) {
+				continue;
+			}
+			
+			int start = meshlets.getIndexStart(m);
+			int count = meshlets.getIndexCount(m);
+			
+			// Extend the previous range when the meshlets are adjacent in the index buffer.
+			if (start == rangeEnd) {
+				int last = this.counts.position() - 1;
+				this.counts.put(last, this.counts.get(last) + count);
+			} else {
+				ensureCapacity();
+				this.counts.put(count);
+				this.offsets.put((long) start * indexSize);
+			}
+			rangeEnd = start + count;
+			this.drawnMeshlets++;
+		}
+		this.testedMeshlets += meshlets.getCount();
+		
+		if (this.counts.position() > 0) {
+			this.counts.flip();
+			this.offsets.flip();
+			mesh.drawRanges(this.counts, this.offsets);
+		}
+	}
+	
+	/**
+	 * Grows the draw buffers if they are full.
+	 */
+	private void ensureCapacity() {
+		if (this.counts.hasRemaining()) {
+			return;
+		}
+		
+		int position = this.counts.position();
+		int capacity = this.counts.capacity() * 2;
+		this.counts = MemoryUtil.memRealloc(this.counts, capacity);
+		this.offsets = MemoryUtil.memRealloc(this.offsets, capacity);
+		this.counts.limit(capacity).position(position);
+		this.offsets.limit(capacity).position(position);
+	}
+	
+	/**
+	 * Getter for the amount of meshlets tested since the last update.
+	 * 
+	 * @return - Amount of tested meshlets.
+	 */
+	public int getTestedMeshlets() {
+		return this.testedMeshlets;
+	}
+	
+	/**
+	 * Getter for the amount of meshlets drawn since the last update.
+	 * 
+	 * @return - Amount of drawn meshlets.
+	 */
+	public int getDrawnMeshlets() {
+		return this.drawnMeshlets;
+	}
+	
+	/**
+	 * Frees the draw buffers of this culler.
+	 */
+	public void delete() {
+		MemoryUtil.memFree(this.counts);
+		MemoryUtil.memFree(this.offsets);
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.meshlet;
+
+/**
+ * The clusters of a Mesh. Every meshlet is a contiguous range of the index 
+ * buffer with a bounding sphere and a cone containing the normals of its 
+ * triangles, both in model space. The data is stored as flat arrays so 
+ * culling thousands of meshlets does not touch thousands of objects.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshletSet.java
+ */
+public class MeshletSet {
+	
+	/**
+	 * Amount of meshlets.
+	 */
+	private final int count;
+	
+	/**
+	 * First index of every meshlet.
+	 */
+	private final int[] indexStarts;
+	
+	/**
+	 * Amount of indices of every meshlet.
+	 */
+	private final int[] indexCounts;
+	
+	/**
+	 * Bounding sphere of every meshlet as center x, y, z and radius.
+	 */
+	private final float[] spheres;
+	
+	/**
+	 * Normal cone of every meshlet as axis x, y, z and cutoff. The meshlet 
+	 * faces away from every point inside the cone behind its bounding sphere.
+	 */
+	private final float[] cones;
+	
+	/**
+	 * Creates a new MeshletSet out of the specified meshlet data.
+	 * 
+	 * @param count - Amount of meshlets.
+	 * @param indexStarts - First index of every meshlet.
+	 * @param indexCounts - Amount of indices of every meshlet.
+	 * @param spheres - Bounding spheres, four floats per meshlet.
+	 * @param cones - Normal cones, four floats per meshlet.
+	 */
+	public MeshletSet(int count, int[] indexStarts, int[] indexCounts, float[] spheres, float[] cones) {
+		this.count = count;
+		this.indexStarts = indexStarts;
+		this.indexCounts = indexCounts;
+		this.spheres = spheres;
+		this.cones = cones;
+	}
+	
+	/**
+	 * Getter for the amount of meshlets.
+	 * 
+	 * @return - The amount of meshlets.
+	 */
+	public int getCount() {
+		return this.count;
+	}
+	
+	/**
+	 * Getter for the first index of a meshlet.
+	 * 
+	 * @param meshlet - Index of the meshlet.
+	 * 
+	 * @return - Offset of the first index of the meshlet in the index buffer.
+	 */
+	public int getIndexStart(int meshlet) {
+		return this.indexStarts[meshlet];
+	}
+	
+	/**
+	 * Getter for the amount of indices of a meshlet.
+	 * 
+	 * @param meshlet - Index of the meshlet.
+	 * 
+	 * @return - Amount of indices, three per triangle.
+	 */
+	public int getIndexCount(int meshlet) {
+		return this.indexCounts[meshlet];
+	}
+	
+	/**
+	 * Getter for the bounding spheres of the meshlets.
+	 * 
+	 * @return - Center x, y, z and radius of every meshlet.
+	 */
+	public float[] getSpheres() {
+		return this.spheres;
+	}
+	
+	/**
+	 * Getter for the normal cones of the meshlets.
+	 * 
+	 * @return - Axis x, y, z and cutoff of every meshlet.
+	 */
+	public float[] getCones() {
+		return this.cones;
+	}
+}
@@ -0,0 +1,527 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.optimize;
+
+import java.util.Arrays;
+
+/**
+ * Reorders the triangles and vertices of a mesh at import time so it
+ * renders faster without changing how it looks.
+ * 
+ * The optimization runs in three steps:
+ * 1. The triangles are reordered for the post transform vertex cache 
+ *    using the Tipsify algorithm.
+ * 2. The triangles are split into clusters where the vertex cache order
+ *    starts over and the clusters are sorted so the clusters facing away 
+ *    from the center are drawn first, reducing overdraw.
+ * 3. The vertices are renumbered in the order they are first used so the 
+ *    vertex fetches read memory sequentially.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshOptimizer.java
+ */
+public class MeshOptimizer {
+	
+	/**
+	 * Size of the vertex cache Tipsify optimizes for.
+	 */
+	private static final int TIPSIFY_CACHE_SIZE = 16;
+	
+	/**
+	 * Size of the simulated FIFO vertex cache used to measure the results.
+	 */
+	public static final int SIMULATED_CACHE_SIZE = 16;
+	
+	private MeshOptimizer() {
+		
+	}
+	
+	/**
+	 * Optimizes the specified mesh data in place. The indices are reordered 
+	 * and the vertex attributes are permuted to match the new vertex order.
+	 * 
+	 * @param positions - Vertex positions.
+	 * @param textCoords - Texture coordinates.
+	 * @param normals - Normal coordinates.
+	 * @param indices - Triangle indices.
+	 * 
+	 * @return Statistics of the vertex cache before and after the optimization.
+	 */
+	public static Statistics optimize(float[] positions, float[] textCoords, float[] normals, int[] indices) {
+		int vertexCount = positions.length / 3;
+		int triangleCount = indices.length / 3;
+		
+		Statistics statistics = new Statistics();
+		statistics.triangles = triangleCount;
+		statistics.vertices = countUsedVertices(indices, vertexCount);
+		statistics.missesBefore = simulateCacheMisses(indices, vertexCount, SIMULATED_CACHE_SIZE);
+		
+		if (triangleCount == 0) {
+			statistics.missesAfter = statistics.missesBefore;
+			return statistics;
+		}
+		
+		int[] ordered = tipsify(indices, vertexCount, TIPSIFY_CACHE_SIZE);
+		ordered = sortClusters(ordered, positions, vertexCount);
+		System.arraycopy(ordered, 0, indices, 0, ordered.length);
+		
+		int[] remap = reorderVertices(indices, vertexCount);
+		permute(positions, 3, remap, vertexCount);
+		permute(textCoords, 2, remap, vertexCount);
+		permute(normals, 3, remap, vertexCount);
+		
+		statistics.missesAfter = simulateCacheMisses(indices, vertexCount, SIMULATED_CACHE_SIZE);
+		return statistics;
+	}
+	
+	/**
+	 * Orders the triangles for the vertex cache with the Tipsify algorithm.
+	 * Triangles are emitted as fans around a vertex and the next vertex to fan
+	 * around is picked among the vertices of the emitted triangles that are 
+	 * still in the cache.
+	 * 
+	 * @param indices - Triangle indices.
+	 * @param vertexCount - Amount of vertices.
+	 * @param cacheSize - Size of the vertex cache to optimize for.
+	 * 
+	 * @return The reordered indices.
+	 */
+	static int[] tipsify(int[] indices, int vertexCount, int cacheSize) {
+		int triangleCount = indices.length / 3;
+		
+		// Triangles using every vertex.
+		int[] adjacencyOffsets = new int[vertexCount + 1];
+		for (int index : indices) {
+			adjacencyOffsets[index + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			adjacencyOffsets[v + 1] += adjacencyOffsets[v];
+		}
+		
+		int[] adjacency = new int[indices.length];
+		int[] fill = Arrays.copyOf(adjacencyOffsets, vertexCount);
+		for (int i = 0; i < indices.length; i++) {
+			adjacency[fill[indices[i]]++] = i / 3;
+		}
+		
+		int[] liveTriangles = new int[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			liveTriangles[v] = adjacencyOffsets[v + 1] - adjacencyOffsets[v];
+		}
+		
+		int[] cacheTime = new int[vertexCount];
+		boolean[] emitted = new boolean[triangleCount];
+		int[] deadEnd = new int[indices.length];
+		int deadEndSize = 0;
+		int[] candidates = new int[indices.length];
+		
+		int[] result = new int[indices.length];
+		int written = 0;
+		
+		int time = cacheSize + 1;
+		int cursor = 0;
+		int fanning = nextLiveVertex(liveTriangles, 0);
+		cursor = fanning + 1;
+		
+		while (fanning >= 0) {
+			int candidateCount = 0;
+			
+			for (int a = adjacencyOffsets[fanning]; a < adjacencyOffsets[fanning + 1]; a++) {
+				int t = adjacency[a];
+				if (emitted[t]) {
+					continue;
+				}
+				
+				for (int k = 0; k < 3; k++) {
+					int v = indices[t * 3 + k];
+					result[written++] = v;
+					deadEnd[deadEndSize++] = v;
+					candidates[candidateCount++] = v;
+					liveTriangles[v]--;
+					
+					if (time - cacheTime[v] > cacheSize) {
+						cacheTime[v] = time;
+						time++;
+					}
+				}
+				
+				emitted[t] = true;
+			}
+			
+			// Prefer the vertex that stays longest in the cache while fanning around it.
+			int best = -1;
+			int bestPriority = -1;
+			for (int c = 0; c < candidateCount; c++) {
+				int v = candidates[c];
+				if (liveTriangles[v] <= 0) {
+					continue;
+				}
+				
+				int priority = 0;
+				if (time - cacheTime[v] + 2 * liveTriangles[v] <= cacheSize) {
+					priority = time - cacheTime[v];
+				}
+				
+				if (priority > bestPriority) {
+					best = v;
+					bestPriority = priority;
+				}
+			}
+			
+			// Dead end, continue with a recently used vertex or the next vertex with triangles left.
+			while (best < 0 && deadEndSize > 0) {
+				int v = deadEnd[--deadEndSize];
+				if (liveTriangles[v] > 0) {
+					best = v;
+				}
+			}
+			
+			if (best < 0) {
+				best = nextLiveVertex(liveTriangles, cursor);
+				cursor = best + 1;
+			}
+			
+			fanning = best;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Finds the first vertex at or after the specified vertex which 
+	 * still has triangles left to emit.
+	 * 
+	 * @param liveTriangles - Amount of triangles left for every vertex.
+	 * @param start - Vertex to start searching from.
+	 * 
+	 * @return The found vertex or -1 if all the triangles were emitted.
+	 */
+	private static int nextLiveVertex(int[] liveTriangles, int start) {
+		for (int v = Math.max(start, 0); v < liveTriangles.length; v++) {
+			if (liveTriangles[v] > 0) {
+				return v;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Splits the cache ordered triangles into clusters where the simulated 
+	 * cache misses all three vertices of a triangle and sorts the clusters 
+	 * so the ones facing away from the center of the mesh are drawn first. 
+	 * Those usually occlude the rest of the mesh, and since the splits
+	 * happen where the cache starts over the cache order is kept.
+	 * 
+	 * @param indices - Cache ordered triangle indices.
+	 * @param positions - Vertex positions.
+	 * @param vertexCount - Amount of vertices.
+	 * 
+	 * @return The triangle indices with the clusters sorted.
+	 */
+	static int[] sortClusters(int[] indices, float[] positions, int vertexCount) {
+		int triangleCount = indices.length / 3;
+		
+		// Find the first triangle of every cluster.
+		int[] clusterStarts = new int[triangleCount + 1];
+		int clusterCount = 0;
+		
+		int[] cacheTime = new int[vertexCount];
+		Arrays.fill(cacheTime, -SIMULATED_CACHE_SIZE - 1);
+		int time = 0;
+		
+		for (int t = 0; t < triangleCount; t++) {
+			int misses = 0;
+			for (int k = 0; k < 3; k++) {
+				int v = indices[t * 3 + k];
+				if (time - cacheTime[v] > SIMULATED_CACHE_SIZE) {
+					cacheTime[v] = time++;
+					misses++;
+				}
+			}
+			
+			if (t == 0 || misses == 3) {
+				clusterStarts[clusterCount++] = t;
+			}
+		}
+		clusterStarts[clusterCount] = triangleCount;
+		
+		if (clusterCount <= 1) {
+			return indices;
+		}
+		
+		// Center of the mesh weighted by the triangle areas.
+		float[] meshCenter = new float[3];
+		float meshArea = 0;
+		float[] triangle = new float[7];
+		for (int t = 0; t < triangleCount; t++) {
+			triangleData(indices, positions, t, triangle);
+			meshCenter[0] += triangle[0] * triangle[6];
+			meshCenter[1] += triangle[1] * triangle[6];
+			meshCenter[2] += triangle[2] * triangle[6];
+			meshArea += triangle[6];
+		}
+		if (meshArea > 0) {
+			meshCenter[0] /= meshArea;
+			meshCenter[1] /= meshArea;
+			meshCenter[2] /= meshArea;
+		}
+		
+		// Sort key of every cluster, how far the cluster faces away from the center.
+		float[] keys = new float[clusterCount];
+		Integer[] order = new Integer[clusterCount];
+		for (int c = 0; c < clusterCount; c++) {
+			float cx = 0, cy = 0, cz = 0, nx = 0, ny = 0, nz = 0, area = 0;
+			
+			for (int t = clusterStarts[c]; t < clusterStarts[c + 1]; t++) {
+				triangleData(indices, positions, t, triangle);
+				cx += triangle[0] * triangle[6];
+				cy += triangle[1] * triangle[6];
+				cz += triangle[2] * triangle[6];
+				nx += triangle[3];
+				ny += triangle[4];
+				nz += triangle[5];
+				area += triangle[6];
+			}
+			
+			float normalLength = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (area > 0 && normalLength > 0) {
+				keys[c] = ((cx / area - meshCenter[0]) * nx + (cy / area - meshCenter[1]) * ny 
+						+ (cz / area - meshCenter[2]) * nz) / normalLength;
+			}
+			order[c] = c;
+		}
+		
+		Arrays.sort(order, (Integer a, Integer b) -> Float.compare(keys[b], keys[a]));
+		
+		int[] result = new int[indices.length];
+		int written = 0;
+		for (int c : order) {
+			int start = clusterStarts[c] * 3;
+			int length = (clusterStarts[c + 1] - clusterStarts[c]) * 3;
+			System.arraycopy(indices, start, result, written, length);
+			written += length;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Calculates the centroid, the area weighted normal and the area of a triangle.
+	 * 
+	 * @param indices - Triangle indices.
+	 * @param positions - Vertex positions.
+	 * @param t - Index of the triangle.
+	 * @param dest - Array receiving the centroid, the normal and the area.
+	 */
+	private static void triangleData(int[] indices, float[] positions, int t, float[] dest) {
+		int a = indices[t * 3] * 3;
+		int b = indices[t * 3 + 1] * 3;
+		int c = indices[t * 3 + 2] * 3;
+		
+		float e1x = positions[b] - positions[a];
+		float e1y = positions[b + 1] - positions[a + 1];
+		float e1z = positions[b + 2] - positions[a + 2];
+		float e2x = positions[c] - positions[a];
+		float e2y = positions[c + 1] - positions[a + 1];
+		float e2z = positions[c + 2] - positions[a + 2];
+		
+		dest[0] = (positions[a] + positions[b] + positions[c]) / 3.0f;
+		dest[1] = (positions[a + 1] + positions[b + 1] + positions[c + 1]) / 3.0f;
+		dest[2] = (positions[a + 2] + positions[b + 2] + positions[c + 2]) / 3.0f;
+		dest[3] = e1y * e2z - e1z * e2y;
+		dest[4] = e1z * e2x - e1x * e2z;
+		dest[5] = e1x * e2y - e1y * e2x;
+		dest[6] = 0.5f * (float) Math.sqrt(dest[3] * dest[3] + dest[4] * dest[4] + dest[5] * dest[5]);
+	}
+	
+	/**
+	 * Renumbers the vertices in the order the indices first use them
+	 * and rewrites the indices. Unused vertices are moved to the end.
+	 * 
+	 * @param indices - Triangle indices, rewritten in place.
+	 * @param vertexCount - Amount of vertices.
+	 * 
+	 * @return Array mapping every old vertex to its new position.
+	 */
+	static int[] reorderVertices(int[] indices, int vertexCount) {
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+		
+		int next = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			if (remap[v] < 0) {
+				remap[v] = next++;
+			}
+			indices[i] = remap[v];
+		}
+		
+		for (int v = 0; v < vertexCount; v++) {
+			if (remap[v] < 0) {
+				remap[v] = next++;
+			}
+		}
+		
+		return remap;
+	}
+	
+	/**
+	 * Moves the attributes of every vertex to its new position.
+	 * 
+	 * @param attributes - Vertex attributes, permuted in place. Skipped if too short.
+	 * @param components - Amount of components per vertex.
+	 * @param remap - New position of every vertex.
+	 * @param vertexCount - Amount of vertices.
+	 */
+	private static void permute(float[] attributes, int components, int[] remap, int vertexCount) {
+		if (attributes == null || attributes.length < vertexCount * components) {
+			return;
+		}
+		
+		float[] copy = Arrays.copyOf(attributes, vertexCount * components);
+		for (int v = 0; v < vertexCount; v++) {
+			System.arraycopy(copy, v * components, attributes, remap[v] * components, components);
+		}
+	}
+	
+	/**
+	 * Counts the vertices referenced by the indices.
+	 * 
+	 * @param indices - Triangle indices.
+	 * @param vertexCount - Amount of vertices.
+	 * 
+	 * @return Amount of distinct vertices referenced.
+	 */
+	private static int countUsedVertices(int[] indices, int vertexCount) {
+		boolean[] used = new boolean[vertexCount];
+		int count = 0;
+		for (int index : indices) {
+			if (!used[index]) {
+				used[index] = true;
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Simulates a FIFO vertex cache and counts the vertices transformed 
+	 * when drawing the indices.
+	 * 
+	 * @param indices - Triangle indices.
+	 * @param vertexCount - Amount of vertices.
+	 * @param cacheSize - Size of the simulated cache.
+	 * 
+	 * @return Amount of cache misses.
+	 */
+	public static int simulateCacheMisses(int[] indices, int vertexCount, int cacheSize) {
+		int[] cacheTime = new int[vertexCount];
+		Arrays.fill(cacheTime, -cacheSize - 1);
+		
+		int time = 0;
+		int misses = 0;
+		for (int index : indices) {
+			if (time - cacheTime[index] > cacheSize) {
+				cacheTime[index] = time++;
+				misses++;
+			}
+		}
+		
+		return misses;
+	}
+	
+	/**
+	 * Vertex cache statistics of one or more optimized meshes.
+	 */
+	public static class Statistics {
+		
+		private int triangles;
+		
+		private int vertices;
+		
+		private int missesBefore;
+		
+		private int missesAfter;
+		
+		/**
+		 * Adds the statistics of another mesh to these statistics.
+		 * 
+		 * @param other - Statistics to add.
+		 */
+		public void add(Statistics other) {
+			this.triangles += other.triangles;
+			this.vertices += other.vertices;
+			this.missesBefore += other.missesBefore;
+			this.missesAfter += other.missesAfter;
+		}
+		
+		/**
+		 * Getter for the average cache miss ratio before the optimization,
+		 * the amount of transformed vertices per triangle.
+		 * 
+		 * @return - ACMR before the optimization.
+		 */
+		public float getAcmrBefore() {
+			return this.triangles > 0 ? (float) this.missesBefore / this.triangles : 0;
+		}
+		
+		/**
+		 * Getter for the average cache miss ratio after the optimization.
+		 * 
+		 * @return - ACMR after the optimization.
+		 */
+		public float getAcmrAfter() {
+			return this.triangles > 0 ? (float) this.missesAfter / this.triangles : 0;
+		}
+		
+		/**
+		 * Getter for the average transform to vertex ratio before the optimization,
+		 * the amount of times every vertex is transformed. 1.0 is optimal.
+		 * 
+		 * @return - ATVR before the optimization.
+		 */
+		public float getAtvrBefore() {
+			return this.vertices > 0 ? (float) this.missesBefore / this.vertices : 0;
+		}
+		
+		/**
+		 * Getter for the average transform to vertex ratio after the optimization.
+		 * 
+		 * @return - ATVR after the optimization.
+		 */
+		public float getAtvrAfter() {
+			return this.vertices > 0 ? (float) this.missesAfter / this.vertices : 0;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%d triangles, ACMR %.3f -> %.3f, ATVR %.3f -> %.3f", this.triangles, 
+					getAcmrBefore(), getAcmrAfter(), getAtvrBefore(), getAtvrAfter());
+		}
+	}
+}
@@ -0,0 +1,445 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.pool;
+
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL15.glBufferSubData;
+import static org.lwjgl.opengl.GL15.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL31.GL_COPY_READ_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_COPY_WRITE_BUFFER;
+import static org.lwjgl.opengl.GL31.glCopyBufferSubData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.oskarmendel.mass.gfx.MeshGeometry;
+import me.oskarmendel.mass.gfx.VertexLayout;
+
+/**
+ * Pool of large vertex and index buffers shared by many meshes of the same 
+ * vertex layout. Every mesh gets a range of each buffer and is drawn with a 
+ * base vertex, so creating and deleting meshes does not create or delete 
+ * any GL objects. The buffers grow when they run out of space and are 
+ * compacted a little every frame to close the holes left by deleted meshes.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name MeshBufferPool.java
+ */
+public class MeshBufferPool {
+	
+	/**
+	 * Initial amount of vertices the vertex buffer can hold.
+	 */
+	private static final int INITIAL_VERTICES = 64 * 1024;
+	
+	/**
+	 * Initial size of the index buffer in 4 byte words.
+	 */
+	private static final int INITIAL_INDEX_WORDS = 128 * 1024;
+	
+	/**
+	 * Size in bytes of the units the index buffer is allocated in, keeping
+	 * every range aligned for both 16 and 32 bit indices.
+	 */
+	private static final int INDEX_WORD_SIZE = 4;
+	
+	/**
+	 * Pool of every vertex layout.
+	 */
+	private static final Map<VertexLayout, MeshBufferPool> POOLS = new HashMap<>();
+	
+	/**
+	 * Layout of the vertices in this pool.
+	 */
+	private final VertexLayout vertexLayout;
+	
+	/**
+	 * Vertex array object referencing the pooled buffers.
+	 */
+	private final int vaoId;
+	
+	private int vertexVboId;
+	
+	private int indexVboId;
+	
+	private final RangeAllocator vertexAllocator;
+	
+	private final RangeAllocator indexAllocator;
+	
+	/**
+	 * Live allocations, used to find ranges to move when compacting.
+	 */
+	private final List<Allocation> allocations;
+	
+	/**
+	 * Creates a new MeshBufferPool for the specified vertex layout.
+	 * 
+	 * @param vertexLayout - Layout of the pooled vertices.
+	 */
+	private MeshBufferPool(VertexLayout vertexLayout) {
+		this.vertexLayout = vertexLayout;
+		this.vertexAllocator = new RangeAllocator(INITIAL_VERTICES);
+		this.indexAllocator = new RangeAllocator(INITIAL_INDEX_WORDS);
+		this.allocations = new ArrayList<>();
+		
+		this.vaoId = glGenVertexArrays();
+		this.vertexVboId = createBuffer((long) INITIAL_VERTICES * vertexLayout.getStride());
+		this.indexVboId = createBuffer((long) INITIAL_INDEX_WORDS * INDEX_WORD_SIZE);
+		bindBuffers();
+	}
+	
+	/**
+	 * Getter for the pool of the specified vertex layout, creating it on first use.
+	 * 
+	 * @param vertexLayout - Layout of the vertices to pool.
+	 * 
+	 * @return The pool of the vertex layout.
+	 */
+	public static MeshBufferPool getInstance(VertexLayout vertexLayout) {
+		MeshBufferPool pool = POOLS.get(vertexLayout);
+		
+		if (pool == null) {
+			pool = new MeshBufferPool(vertexLayout);
+			POOLS.put(vertexLayout, pool);
+		}
+		
+		return pool;
+	}
+	
+	/**
+	 * Compacts all the pools, moving at most the specified amount of bytes
+	 * in total so the work is spread over several frames.
+	 * 
+	 * @param maxBytes - Budget of bytes to move.
+	 */
+	public static void compactAll(long maxBytes) {
+		for (MeshBufferPool pool : POOLS.values()) {
+			maxBytes -= pool.compact(maxBytes);
+		}
+	}
+	
+	/**
+	 * Deletes all the pools and their buffers.
+	 */
+	public static void deleteAll() {
+		for (MeshBufferPool pool : POOLS.values()) {
+			pool.delete();
+		}
+		
+		POOLS.clear();
+	}
+	
+	/**
+	 * Allocates ranges for the specified geometry and uploads it into them.
+	 * 
+	 * @param geometry - Geometry to upload.
+	 * 
+	 * @return The allocated ranges.
+	 */
+	public Allocation allocate(MeshGeometry geometry) {
+		if (geometry.getVertexLayout() != this.vertexLayout) {
+			throw new IllegalArgumentException("Geometry does not use the vertex layout of the pool");
+		}
+		
+		int vertices = geometry.getVertexCount();
+		int indexSize = geometry.getIndexType() == GL_UNSIGNED_SHORT ? 2 : 4;
+		int indexWords = (geometry.getIndexCount() * indexSize + INDEX_WORD_SIZE - 1) / INDEX_WORD_SIZE;
+		
+		int baseVertex = this.vertexAllocator.allocate(vertices);
+		if (baseVertex < 0) {
+			this.vertexVboId = growBuffer(this.vertexVboId, this.vertexAllocator, vertices, this.vertexLayout.getStride());
+			bindBuffers();
+			baseVertex = this.vertexAllocator.allocate(vertices);
+		}
+		
+		int indexWord = this.indexAllocator.allocate(indexWords);
+		if (indexWord < 0) {
+			this.indexVboId = growBuffer(this.indexVboId, this.indexAllocator, indexWords, INDEX_WORD_SIZE);
+			bindBuffers();
+			indexWord = this.indexAllocator.allocate(indexWords);
+		}
+		
+		glBindBuffer(GL_COPY_WRITE_BUFFER, this.vertexVboId);
+		glBufferSubData(GL_COPY_WRITE_BUFFER, (long) baseVertex * this.vertexLayout.getStride(), geometry.getVertexBuffer());
+		glBindBuffer(GL_COPY_WRITE_BUFFER, this.indexVboId);
+		glBufferSubData(GL_COPY_WRITE_BUFFER, (long) indexWord * INDEX_WORD_SIZE, geometry.getIndexBuffer());
+		glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+		
+		Allocation allocation = new Allocation(baseVertex, vertices, indexWord, indexWords);
+		this.allocations.add(allocation);
+		return allocation;
+	}
+	
+	/**
+	 * Frees the ranges of the specified allocation.
+	 * 
+	 * @param allocation - Allocation to free.
+	 */
+	public void free(Allocation allocation) {
+		if (!this.allocations.remove(allocation)) {
+			return;
+		}
+		
+		this.vertexAllocator.free(allocation.baseVertex, allocation.vertexCount);
+		this.indexAllocator.free(allocation.indexWord, allocation.indexWords);
+	}
+	
+	/**
+	 * Moves the allocations at the end of the buffers into free ranges closer 
+	 * to the start. Ranges are only moved into lower free ranges so source and 
+	 * destination never overlap.
+	 * 
+	 * @param maxBytes - Budget of bytes to move.
+	 * 
+	 * @return The amount of bytes moved.
+	 */
+	public long compact(long maxBytes) {
+		long moved = 0;
+		boolean progress = true;
+		
+		while (moved < maxBytes && progress) {
+			progress = false;
+			
+			Allocation last = findLastVertexRange();
+			if (last != null) {
+				int offset = this.vertexAllocator.allocate(last.vertexCount);
+				if (offset >= 0 && offset < last.baseVertex) {
+					int stride = this.vertexLayout.getStride();
+					copyRange(this.vertexVboId, (long) last.baseVertex * stride, (long) offset * stride, (long) last.vertexCount * stride);
+					this.vertexAllocator.free(last.baseVertex, last.vertexCount);
+					last.baseVertex = offset;
+					moved += (long) last.vertexCount * stride;
+					progress = true;
+				} else if (offset >= 0) {
+					this.vertexAllocator.free(offset, last.vertexCount);
+				}
+			}
+			
+			last = findLastIndexRange();
+			if (last != null && moved < maxBytes) {
+				int offset = this.indexAllocator.allocate(last.indexWords);
+				if (offset >= 0 && offset < last.indexWord) {
+					copyRange(this.indexVboId, (long) last.indexWord * INDEX_WORD_SIZE, (long) offset * INDEX_WORD_SIZE, 
+							(long) last.indexWords * INDEX_WORD_SIZE);
+					this.indexAllocator.free(last.indexWord, last.indexWords);
+					last.indexWord = offset;
+					moved += (long) last.indexWords * INDEX_WORD_SIZE;
+					progress = true;
+				} else if (offset >= 0) {
+					this.indexAllocator.free(offset, last.indexWords);
+				}
+			}
+		}
+		
+		return moved;
+	}
+	
+	/**
+	 * Finds the allocation with the highest vertex range that lies behind a free range.
+	 * 
+	 * @return The allocation or null if the vertex buffer has no holes.
+	 */
+	private Allocation findLastVertexRange() {
+		int firstFree = this.vertexAllocator.getFirstFreeOffset();
+		Allocation last = null;
+		
+		for (Allocation allocation : this.allocations) {
+			if (allocation.baseVertex > firstFree && allocation.vertexCount > 0 
+					&& (last == null || allocation.baseVertex > last.baseVertex)) {
+				last = allocation;
+			}
+		}
+		
+		return firstFree < 0 ? null : last;
+	}
+	
+	/**
+	 * Finds the allocation with the highest index range that lies behind a free range.
+	 * 
+	 * @return The allocation or null if the index buffer has no holes.
+	 */
+	private Allocation findLastIndexRange() {
+		int firstFree = this.indexAllocator.getFirstFreeOffset();
+		Allocation last = null;
+		
+		for (Allocation allocation : this.allocations) {
+			if (allocation.indexWord > firstFree && allocation.indexWords > 0 
+					&& (last == null || allocation.indexWord > last.indexWord)) {
+				last = allocation;
+			}
+		}
+		
+		return firstFree < 0 ? null : last;
+	}
+	
+	/**
+	 * Copies a range of a buffer to another, non overlapping, range of the same buffer.
+	 */
+	private static void copyRange(int bufferId, long source, long destination, long size) {
+		glBindBuffer(GL_COPY_READ_BUFFER, bufferId);
+		glBindBuffer(GL_COPY_WRITE_BUFFER, bufferId);
+		glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, source, destination, size);
+		glBindBuffer(GL_COPY_READ_BUFFER, 0);
+		glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+	}
+	
+	/**
+	 * Creates a new buffer object of the specified size.
+	 * 
+	 * @param size - Size in bytes.
+	 * 
+	 * @return Handle of the buffer object.
+	 */
+	private static int createBuffer(long size) {
+		int bufferId = glGenBuffers();
+		glBindBuffer(GL_COPY_WRITE_BUFFER, bufferId);
+		glBufferData(GL_COPY_WRITE_BUFFER, size, GL_STATIC_DRAW);
+		glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+		return bufferId;
+	}
+	
+	/**
+	 * Replaces a buffer with a larger one holding the same data.
+	 * 
+	 * @param bufferId - Buffer to grow.
+	 * @param allocator - Allocator of the buffer.
+	 * @param required - Amount of units that must fit in one range afterwards.
+	 * @param unitSize - Size in bytes of one unit.
+	 * 
+	 * @return Handle of the new buffer object.
+	 */
+	private static int growBuffer(int bufferId, RangeAllocator allocator, int required, int unitSize) {
+		int oldCapacity = allocator.getCapacity();
+		int newCapacity = Math.max(oldCapacity * 2, oldCapacity + required);
+		
+		int newBufferId = createBuffer((long) newCapacity * unitSize);
+		glBindBuffer(GL_COPY_READ_BUFFER, bufferId);
+		glBindBuffer(GL_COPY_WRITE_BUFFER, newBufferId);
+		glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, (long) oldCapacity * unitSize);
+		glBindBuffer(GL_COPY_READ_BUFFER, 0);
+		glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+		glDeleteBuffers(bufferId);
+		
+		allocator.grow(newCapacity);
+		return newBufferId;
+	}
+	
+	/**
+	 * Points the vertex array object at the current buffers.
+	 */
+	private void bindBuffers() {
+		glBindVertexArray(this.vaoId);
+		glBindBuffer(GL_ARRAY_BUFFER, this.vertexVboId);
+		this.vertexLayout.setupAttributes();
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.indexVboId);
+		glBindVertexArray(0);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Deletes the buffers and the vertex array object of this pool.
+	 */
+	public void delete() {
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		glDeleteBuffers(this.vertexVboId);
+		glDeleteBuffers(this.indexVboId);
+		
+		glBindVertexArray(0);
+		glDeleteVertexArrays(this.vaoId);
+		
+		this.allocations.clear();
+	}
+	
+	/**
+	 * Getter for the vertex array object of this pool.
+	 * 
+	 * @return Handle of the vertex array object.
+	 */
+	public int getVaoId() {
+		return this.vaoId;
+	}
+	
+	/**
+	 * Getter for the layout of the vertices in this pool.
+	 * 
+	 * @return The vertex layout.
+	 */
+	public VertexLayout getVertexLayout() {
+		return this.vertexLayout;
+	}
+	
+	/**
+	 * Ranges of the pooled buffers used by one mesh. The ranges may move 
+	 * when the pool is compacted so they have to be read at draw time.
+	 */
+	public static class Allocation {
+		
+		private int baseVertex;
+		
+		private final int vertexCount;
+		
+		private int indexWord;
+		
+		private final int indexWords;
+		
+		private Allocation(int baseVertex, int vertexCount, int indexWord, int indexWords) {
+			this.baseVertex = baseVertex;
+			this.vertexCount = vertexCount;
+			this.indexWord = indexWord;
+			this.indexWords = indexWords;
+		}
+		
+		/**
+		 * Getter for the index of the first vertex of the range, 
+		 * added to every index when drawing.
+		 * 
+		 * @return The base vertex.
+		 */
+		public int getBaseVertex() {
+			return this.baseVertex;
+		}
+		
+		/**
+		 * Getter for the byte offset of the first index in the index buffer.
+		 * 
+		 * @return The index offset in bytes.
+		 */
+		public long getIndexOffset() {
+			return (long) this.indexWord * INDEX_WORD_SIZE;
+		}
+	}
+}
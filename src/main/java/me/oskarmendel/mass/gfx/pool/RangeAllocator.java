@@ -0,0 +1,196 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.pool;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Free-list allocator handing out ranges of a linear address space such as 
+ * a GPU buffer. Free ranges are indexed both by offset, to merge neighbours
+ * when a range is freed, and by size, to find the best fitting range in 
+ * logarithmic time. Ties are resolved towards the lowest offset which keeps 
+ * the used ranges packed at the start of the space.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name RangeAllocator.java
+ */
+public class RangeAllocator {
+	
+	/**
+	 * Size of every free range keyed by its offset.
+	 */
+	private final TreeMap<Integer, Integer> freeByOffset;
+	
+	/**
+	 * Free ranges ordered by size and then offset, packed as size << 32 | offset.
+	 */
+	private final TreeSet<Long> freeBySize;
+	
+	/**
+	 * Size of the address space.
+	 */
+	private int capacity;
+	
+	/**
+	 * Amount of allocated units.
+	 */
+	private int used;
+	
+	/**
+	 * Creates a new RangeAllocator managing the specified amount of units.
+	 * 
+	 * @param capacity - Size of the address space.
+	 */
+	public RangeAllocator(int capacity) {
+		this.freeByOffset = new TreeMap<>();
+		this.freeBySize = new TreeSet<>();
+		this.capacity = capacity;
+		
+		if (capacity > 0) {
+			addFree(0, capacity);
+		}
+	}
+	
+	/**
+	 * Allocates a range of the specified size.
+	 * 
+	 * @param size - Amount of units to allocate.
+	 * 
+	 * @return Offset of the allocated range or -1 if no free range is large enough.
+	 */
+	public int allocate(int size) {
+		if (size <= 0) {
+			return -1;
+		}
+		
+		Long best = this.freeBySize.ceiling((long) size << 32);
+		if (best == null) {
+			return -1;
+		}
+		
+		int offset = (int) (best & 0xFFFFFFFFL);
+		int freeSize = (int) (best >>> 32);
+		removeFree(offset, freeSize);
+		
+		if (freeSize > size) {
+			addFree(offset + size, freeSize - size);
+		}
+		
+		this.used += size;
+		return offset;
+	}
+	
+	/**
+	 * Frees a previously allocated range and merges it with adjacent free ranges.
+	 * 
+	 * @param offset - Offset of the range.
+	 * @param size - Size of the range.
+	 */
+	public void free(int offset, int size) {
+		this.used -= size;
+		
+		Map.Entry<Integer, Integer> previous = this.freeByOffset.lowerEntry(offset);
+		if (previous != null && previous.getKey() + previous.getValue() == offset) {
+			removeFree(previous.getKey(), previous.getValue());
+			offset = previous.getKey();
+			size += previous.getValue();
+		}
+		
+		Integer nextSize = this.freeByOffset.get(offset + size);
+		if (nextSize != null) {
+			removeFree(offset + size, nextSize);
+			size += nextSize;
+		}
+		
+		addFree(offset, size);
+	}
+	
+	/**
+	 * Extends the address space, the new units become free.
+	 * 
+	 * @param newCapacity - New size of the address space.
+	 */
+	public void grow(int newCapacity) {
+		if (newCapacity <= this.capacity) {
+			return;
+		}
+		
+		int oldCapacity = this.capacity;
+		this.capacity = newCapacity;
+		
+		// Counted as used until freed so the merge keeps the totals right.
+		this.used += newCapacity - oldCapacity;
+		free(oldCapacity, newCapacity - oldCapacity);
+	}
+	
+	/**
+	 * Getter for the offset of the lowest free range.
+	 * 
+	 * @return Offset of the first free range or -1 if everything is allocated.
+	 */
+	public int getFirstFreeOffset() {
+		return this.freeByOffset.isEmpty() ? -1 : this.freeByOffset.firstKey();
+	}
+	
+	private void addFree(int offset, int size) {
+		this.freeByOffset.put(offset, size);
+		this.freeBySize.add(((long) size << 32) | offset);
+	}
+	
+	private void removeFree(int offset, int size) {
+		this.freeByOffset.remove(offset);
+		this.freeBySize.remove(((long) size << 32) | offset);
+	}
+	
+	/**
+	 * Getter for the size of the address space.
+	 * 
+	 * @return Amount of units managed.
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+	
+	/**
+	 * Getter for the amount of allocated units.
+	 * 
+	 * @return Amount of used units.
+	 */
+	public int getUsed() {
+		return this.used;
+	}
+	
+	/**
+	 * Getter for the amount of free ranges, a measure of the fragmentation.
+	 * 
+	 * @return Amount of free ranges.
+	 */
+	public int getFreeRangeCount() {
+		return this.freeByOffset.size();
+	}
+}
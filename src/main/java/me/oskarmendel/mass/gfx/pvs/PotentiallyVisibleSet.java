@@ -0,0 +1,583 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.pvs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+import me.oskarmendel.mass.entity.Entity;
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.MeshGeometry;
+import me.oskarmendel.mass.gfx.batch.StaticBatch;
+
+/**
+ * This class represents a potentially visible set for a static level.
+ * 
+ * The level is partitioned into a grid of cells and for every cell
+ * the set of cells that can be seen from it is stored. At runtime the
+ * cell containing the camera decides which parts of the level and which
+ * entities are worth passing on to the per object culling.
+ * 
+ * A set is loaded or baked from the level geometry alone, so it can be
+ * prepared on any thread, and attached to the level entity afterwards.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name PotentiallyVisibleSet.java
+ */
+public class PotentiallyVisibleSet {
+	
+	/**
+	 * Identifier written at the start of a stored potentially visible set.
+	 */
+	private static final int FILE_MAGIC = 0x50565331;
+	
+	/**
+	 * Version of the stored format, bump when the format or the baking changes.
+	 */
+	private static final int FILE_VERSION = 2;
+	
+	/**
+	 * Length of the level hash in bytes.
+	 */
+	private static final int HASH_LENGTH = 32;
+	
+	/**
+	 * Value used for positions outside of the cell grid.
+	 */
+	private static final int NO_CELL = -1;
+	
+	/**
+	 * The static level entity this set is attached to, null until attached.
+	 */
+	private Entity level;
+	
+	/**
+	 * Amount of cells along each axis.
+	 */
+	private final int cellsX, cellsY, cellsZ;
+	
+	/**
+	 * Minimum corner of the cell grid in the model space of the level.
+	 */
+	private final Vector3f gridMin;
+	
+	/**
+	 * Size of a single cell in the model space of the level.
+	 */
+	private final Vector3f cellSize;
+	
+	/**
+	 * Set of visible cells for every cell in the grid.
+	 */
+	private final BitSet[] visibleCells;
+	
+	/**
+	 * Cells touched by the triangles of each level mesh, in the order of 
+	 * the level geometry.
+	 */
+	private final BitSet[] geometryCells;
+	
+	/**
+	 * Cells touched by the triangles of each level mesh.
+	 */
+	private final Map<Mesh, BitSet> meshCells;
+	
+	/**
+	 * Visibility of each level mesh from the current camera cell.
+	 */
+	private final Map<Mesh, Boolean> meshVisibility;
+	
+	/**
+	 * Matrix transforming world positions into the model space of the level.
+	 */
+	private final Matrix4f inverseLevelMatrix;
+	
+	/**
+	 * Temporary position in the model space of the level.
+	 */
+	private final Vector3f localPosition;
+	
+	/**
+	 * Cell containing the camera.
+	 */
+	private int cameraCell;
+	
+	/**
+	 * Creates a new PotentiallyVisibleSet for the specified level geometry 
+	 * using the specified grid and cell visibility.
+	 * 
+	 * @param geometries - Geometry of every level mesh.
+	 * @param cellsX - Amount of cells along the x axis.
+	 * @param cellsY - Amount of cells along the y axis.
+	 * @param cellsZ - Amount of cells along the z axis.
+	 * @param gridMin - Minimum corner of the grid.
+	 * @param cellSize - Size of each cell.
+	 * @param visibleCells - Set of visible cells for each cell.
+	 */
+	PotentiallyVisibleSet(MeshGeometry[] geometries, int cellsX, int cellsY, int cellsZ, 
+			Vector3f gridMin, Vector3f cellSize, BitSet[] visibleCells) {
+		this.cellsX = cellsX;
+		this.cellsY = cellsY;
+		this.cellsZ = cellsZ;
+		this.gridMin = gridMin;
+		this.cellSize = cellSize;
+		this.visibleCells = visibleCells;
+		this.meshCells = new HashMap<>();
+		this.meshVisibility = new HashMap<>();
+		this.inverseLevelMatrix = new Matrix4f();
+		this.localPosition = new Vector3f();
+		this.cameraCell = NO_CELL;
+		
+		this.geometryCells = new BitSet[geometries.length];
+		for (int i = 0; i < geometries.length; i++) {
+			this.geometryCells[i] = calculateMeshCells(geometries[i]);
+		}
+	}
+	
+	/**
+	 * Loads the potentially visible set of the specified level from the specified 
+	 * path. When no matching set is stored it is computed and stored at the path.
+	 * The stored set is identified by a hash of the level geometry, its scale
+	 * and the bake parameters.
+	 * 
+	 * @param level - Static level entity to load the set for.
+	 * @param path - File path of the stored set.
+	 * 
+	 * @return The potentially visible set for the level.
+	 * 
+	 * @throws IOException - When the set couldn't be stored.
+	 */
+	public static PotentiallyVisibleSet load(Entity level, String path) throws IOException {
+		Mesh[] meshes = level.getMeshes();
+		MeshGeometry[] geometries = new MeshGeometry[meshes.length];
+		for (int i = 0; i < meshes.length; i++) {
+			geometries[i] = meshes[i].getGeometry();
+		}
+		
+		PotentiallyVisibleSet pvs = load(geometries, level.getScale(), path);
+		pvs.attach(level);
+		
+		return pvs;
+	}
+	
+	/**
+	 * Loads the potentially visible set of the specified level geometry from 
+	 * the specified path, computing and storing it when no matching set is 
+	 * stored. No GL calls are made so this can run on any thread, the set has
+	 * to be attached to the level entity before it is used.
+	 * 
+	 * @param geometries - Geometry of every level mesh, in the order of the meshes of the level.
+	 * @param scale - Scale of the level entity.
+	 * @param path - File path of the stored set.
+	 * 
+	 * @return The potentially visible set for the level geometry.
+	 * 
+	 * @throws IOException - When the set couldn't be stored.
+	 */
+	public static PotentiallyVisibleSet load(MeshGeometry[] geometries, float scale, String path) throws IOException {
+		byte[] hash = hash(geometries, scale);
+		
+		File file = new File(path);
+		if (file.isFile()) {
+			PotentiallyVisibleSet pvs = read(geometries, file, hash);
+			if (pvs != null) {
+				return pvs;
+			}
+		}
+		
+		VisibilityBaker baker = new VisibilityBaker(geometries);
+		PotentiallyVisibleSet pvs = baker.bake(geometries);
+		pvs.save(file, hash);
+		
+		return pvs;
+	}
+	
+	/**
+	 * Attaches this set to the level entity whose geometry it was loaded for.
+	 * 
+	 * @param level - Static level entity, its meshes in the order of the geometry.
+	 */
+	public void attach(Entity level) {
+		Mesh[] meshes = level.getMeshes();
+		if (meshes.length != this.geometryCells.length) {
+			throw new IllegalArgumentException("Level has " + meshes.length + " meshes, the set was loaded for " 
+					+ this.geometryCells.length);
+		}
+		
+		this.level = level;
+		for (int i = 0; i < meshes.length; i++) {
+			this.meshCells.put(meshes[i], this.geometryCells[i]);
+		}
+		this.cameraCell = NO_CELL;
+	}
+	
+	/**
+	 * Hashes the vertices and indices of the level geometry together with 
+	 * the scale of the level and the parameters of the bake.
+	 * 
+	 * @param geometries - Geometry of every level mesh.
+	 * @param scale - Scale of the level entity.
+	 * 
+	 * @return The hash identifying the stored set.
+	 */
+	private static byte[] hash(MeshGeometry[] geometries, float scale) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+		
+		for (MeshGeometry geometry : geometries) {
+			digest.update(geometry.getVertexBuffer());
+			digest.update(geometry.getIndexBuffer());
+		}
+		
+		ByteBuffer settings = ByteBuffer.allocate(16);
+		settings.putInt(FILE_VERSION).putFloat(scale)
+			.putInt(VisibilityBaker.MAX_CELLS_PER_AXIS).putInt(VisibilityBaker.RAYS_PER_CELL_PAIR).flip();
+		digest.update(settings);
+		
+		return digest.digest();
+	}
+	
+	/**
+	 * Reads a stored potentially visible set.
+	 * 
+	 * @param geometries - Geometry of every level mesh.
+	 * @param file - File to read from.
+	 * @param hash - Hash of the level, see hash.
+	 * 
+	 * @return The stored set, null if the stored set doesn't match the level.
+	 */
+	private static PotentiallyVisibleSet read(MeshGeometry[] geometries, File file, byte[] hash) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+				return null;
+			}
+			
+			byte[] storedHash = new byte[HASH_LENGTH];
+			in.readFully(storedHash);
+			if (!Arrays.equals(storedHash, hash)) {
+				return null;
+			}
+			
+			int cellsX = in.readInt();
+			int cellsY = in.readInt();
+			int cellsZ = in.readInt();
+			Vector3f gridMin = new Vector3f(in.readFloat(), in.readFloat(), in.readFloat());
+			Vector3f cellSize = new Vector3f(in.readFloat(), in.readFloat(), in.readFloat());
+			
+			BitSet[] visibleCells = new BitSet[cellsX * cellsY * cellsZ];
+			for (int i = 0; i < visibleCells.length; i++) {
+				long[] words = new long[in.readInt()];
+				for (int j = 0; j < words.length; j++) {
+					words[j] = in.readLong();
+				}
+				visibleCells[i] = BitSet.valueOf(words);
+			}
+			
+			return new PotentiallyVisibleSet(geometries, cellsX, cellsY, cellsZ, gridMin, cellSize, visibleCells);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Stores this potentially visible set at the specified file.
+	 * 
+	 * @param file - File to write to.
+	 * @param hash - Hash of the level, see hash.
+	 * 
+	 * @throws IOException - When IO operation failed.
+	 */
+	private void save(File file, byte[] hash) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.write(hash);
+			out.writeInt(this.cellsX);
+			out.writeInt(this.cellsY);
+			out.writeInt(this.cellsZ);
+			out.writeFloat(this.gridMin.x);
+			out.writeFloat(this.gridMin.y);
+			out.writeFloat(this.gridMin.z);
+			out.writeFloat(this.cellSize.x);
+			out.writeFloat(this.cellSize.y);
+			out.writeFloat(this.cellSize.z);
+			
+			for (BitSet cells : this.visibleCells) {
+				long[] words = cells.toLongArray();
+				out.writeInt(words.length);
+				for (long word : words) {
+					out.writeLong(word);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the cells touched by the triangles of the specified geometry.
+	 * 
+	 * @param geometry - Geometry of a level mesh.
+	 * 
+	 * @return Set of cells touched by the mesh.
+	 */
+	private BitSet calculateMeshCells(MeshGeometry geometry) {
+		BitSet cells = new BitSet(this.visibleCells.length);
+		float[] positions = geometry.getPositions();
+		int[] indices = geometry.getIndices();
+		
+		for (int i = 0; i + 2 < indices.length; i += 3) {
+			int a = indices[i] * 3;
+			int b = indices[i + 1] * 3;
+			int c = indices[i + 2] * 3;
+			
+			int minX = cellCoordinate(Math.min(positions[a], Math.min(positions[b], positions[c])), this.gridMin.x, this.cellSize.x, this.cellsX);
+			int maxX = cellCoordinate(Math.max(positions[a], Math.max(positions[b], positions[c])), this.gridMin.x, this.cellSize.x, this.cellsX);
+			int minY = cellCoordinate(Math.min(positions[a + 1], Math.min(positions[b + 1], positions[c + 1])), this.gridMin.y, this.cellSize.y, this.cellsY);
+			int maxY = cellCoordinate(Math.max(positions[a + 1], Math.max(positions[b + 1], positions[c + 1])), this.gridMin.y, this.cellSize.y, this.cellsY);
+			int minZ = cellCoordinate(Math.min(positions[a + 2], Math.min(positions[b + 2], positions[c + 2])), this.gridMin.z, this.cellSize.z, this.cellsZ);
+			int maxZ = cellCoordinate(Math.max(positions[a + 2], Math.max(positions[b + 2], positions[c + 2])), this.gridMin.z, this.cellSize.z, this.cellsZ);
+			
+			for (int z = minZ; z <= maxZ; z++) {
+				for (int y = minY; y <= maxY; y++) {
+					for (int x = minX; x <= maxX; x++) {
+						cells.set(cellIndex(x, y, z));
+					}
+				}
+			}
+		}
+		
+		return cells;
+	}
+	
+	/**
+	 * Registers a static batch combining the specified meshes. The batch 
+	 * touches every cell touched by a combined level mesh, batches containing
+	 * meshes of other entities are treated as touching every cell.
+	 * 
+	 * @param batch - Combined mesh of the batch.
+	 * @param sourceMeshes - Meshes combined into the batch.
+	 * @param sourceEntities - Entity of every combined mesh.
+	 */
+	public void addBatch(Mesh batch, List<Mesh> sourceMeshes, List<Entity> sourceEntities) {
+		BitSet cells = new BitSet(this.visibleCells.length);
+		
+		for (int i = 0; i < sourceMeshes.size(); i++) {
+			BitSet meshCells = this.meshCells.get(sourceMeshes.get(i));
+			if (sourceEntities.get(i) != this.level || meshCells == null) {
+				cells.set(0, this.visibleCells.length);
+				break;
+			}
+			cells.or(meshCells);
+		}
+		
+		this.meshCells.put(batch, cells);
+		
+		// Recalculate the visibility of the meshes on the next update.
+		this.cameraCell = NO_CELL;
+	}
+	
+	/**
+	 * Updates the cell containing the camera and the visibility of the level 
+	 * meshes from it. Should be called once per frame before culling.
+	 * 
+	 * @param cameraPosition - World position of the camera.
+	 */
+	public void update(Vector3f cameraPosition) {
+		if (this.level == null) {
+			return;
+		}
+		
+		Vector3f position = this.level.getPosition();
+		Quaternionf rotation = this.level.getRotation();
+		float scale = this.level.getScale();
+		
+		this.inverseLevelMatrix.translationRotateScale(position.x, position.y, position.z, 
+				rotation.x, rotation.y, rotation.z, rotation.w, scale, scale, scale).invertAffine();
+		
+		int cell = cellAt(cameraPosition);
+		if (cell == this.cameraCell) {
+			return;
+		}
+		
+		this.cameraCell = cell;
+		this.meshVisibility.clear();
+		if (cell != NO_CELL) {
+			for (Map.Entry<Mesh, BitSet> e : this.meshCells.entrySet()) {
+				this.meshVisibility.put(e.getKey(), e.getValue().intersects(this.visibleCells[cell]));
+			}
+		}
+	}
+	
+	/**
+	 * Checks if the specified entity rendered with the specified mesh can 
+	 * be seen from the cell containing the camera. Parts of the level and 
+	 * static batches are tested through the cells they touch, other entities 
+	 * through the cells overlapped by their bounding sphere.
+	 * 
+	 * @param mesh - Mesh to check.
+	 * @param entity - Entity using the mesh.
+	 * 
+	 * @return True if the entity is potentially visible; False otherwise.
+	 */
+	public boolean isVisible(Mesh mesh, Entity entity) {
+		if (this.cameraCell == NO_CELL) {
+			return true;
+		}
+		
+		if (entity == this.level || entity instanceof StaticBatch) {
+			Boolean visible = this.meshVisibility.get(mesh);
+			return visible == null || visible;
+		}
+		
+		// Sphere around the origin of the entity enclosing the bounding box of the mesh.
+		Vector3f min = mesh.getBoundsMin();
+		Vector3f max = mesh.getBoundsMax();
+		float x = Math.max(Math.abs(min.x), Math.abs(max.x));
+		float y = Math.max(Math.abs(min.y), Math.abs(max.y));
+		float z = Math.max(Math.abs(min.z), Math.abs(max.z));
+		float radius = (float) Math.sqrt(x * x + y * y + z * z) * entity.getScale();
+		
+		return isSphereVisible(entity.getPosition(), radius);
+	}
+	
+	/**
+	 * Checks if any cell overlapped by the bounding box of the specified 
+	 * world space sphere can be seen from the cell containing the camera.
+	 * Spheres reaching outside of the grid are always visible.
+	 * 
+	 * @param center - World position of the center of the sphere.
+	 * @param radius - World radius of the sphere.
+	 * 
+	 * @return True if the sphere is potentially visible; False otherwise.
+	 */
+	private boolean isSphereVisible(Vector3f center, float radius) {
+		this.inverseLevelMatrix.transformPosition(center, this.localPosition);
+		float localRadius = radius / Math.max(this.level.getScale(), 0.0001f);
+		
+		int minX = (int) Math.floor((this.localPosition.x - localRadius - this.gridMin.x) / this.cellSize.x);
+		int minY = (int) Math.floor((this.localPosition.y - localRadius - this.gridMin.y) / this.cellSize.y);
+		int minZ = (int) Math.floor((this.localPosition.z - localRadius - this.gridMin.z) / this.cellSize.z);
+		int maxX = (int) Math.floor((this.localPosition.x + localRadius - this.gridMin.x) / this.cellSize.x);
+		int maxY = (int) Math.floor((this.localPosition.y + localRadius - this.gridMin.y) / this.cellSize.y);
+		int maxZ = (int) Math.floor((this.localPosition.z + localRadius - this.gridMin.z) / this.cellSize.z);
+		
+		if (minX < 0 || minY < 0 || minZ < 0 || maxX >= this.cellsX || maxY >= this.cellsY || maxZ >= this.cellsZ) {
+			return true;
+		}
+		
+		BitSet visible = this.visibleCells[this.cameraCell];
+		for (int z = minZ; z <= maxZ; z++) {
+			for (int y = minY; y <= maxY; y++) {
+				for (int x = minX; x <= maxX; x++) {
+					if (visible.get(cellIndex(x, y, z))) {
+						return true;
+					}
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Finds the cell containing the specified world position.
+	 * 
+	 * @param worldPosition - Position to find the cell for.
+	 * 
+	 * @return Index of the cell, NO_CELL if the position is outside of the grid.
+	 */
+	private int cellAt(Vector3f worldPosition) {
+		this.inverseLevelMatrix.transformPosition(worldPosition, this.localPosition);
+		
+		int x = (int) Math.floor((this.localPosition.x - this.gridMin.x) / this.cellSize.x);
+		int y = (int) Math.floor((this.localPosition.y - this.gridMin.y) / this.cellSize.y);
+		int z = (int) Math.floor((this.localPosition.z - this.gridMin.z) / this.cellSize.z);
+		
+		if (x < 0 || y < 0 || z < 0 || x >= this.cellsX || y >= this.cellsY || z >= this.cellsZ) {
+			return NO_CELL;
+		}
+		
+		return cellIndex(x, y, z);
+	}
+	
+	/**
+	 * Getter for the index of the cell at the specified grid coordinates.
+	 * 
+	 * @param x - X coordinate in the grid.
+	 * @param y - Y coordinate in the grid.
+	 * @param z - Z coordinate in the grid.
+	 * 
+	 * @return Index of the cell.
+	 */
+	private int cellIndex(int x, int y, int z) {
+		return (z * this.cellsY + y) * this.cellsX + x;
+	}
+	
+	/**
+	 * Converts a model space coordinate into a clamped grid coordinate.
+	 * 
+	 * @param value - Model space coordinate.
+	 * @param min - Minimum value of the grid along the axis.
+	 * @param size - Size of a cell along the axis.
+	 * @param cells - Amount of cells along the axis.
+	 * 
+	 * @return Grid coordinate along the axis.
+	 */
+	static int cellCoordinate(float value, float min, float size, int cells) {
+		int c = (int) Math.floor((value - min) / size);
+		return Math.max(0, Math.min(cells - 1, c));
+	}
+	
+	/**
+	 * Getter for the static level entity of this set.
+	 * 
+	 * @return - The level entity.
+	 */
+	public Entity getLevel() {
+		return this.level;
+	}
+}
@@ -0,0 +1,461 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.pvs;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.joml.Vector3f;
+
+import me.oskarmendel.mass.gfx.MeshGeometry;
+
+/**
+ * Computes the cell to cell visibility of a static level by casting 
+ * rays between random points of every pair of cells against the 
+ * triangles of the level.
+ * 
+ * Sampling can miss visibility through small openings so the result is
+ * widened by the neighbours of every visible cell to stay conservative.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name VisibilityBaker.java
+ */
+class VisibilityBaker {
+	
+	/**
+	 * Maximum amount of cells along the longest axis of the level.
+	 */
+	static final int MAX_CELLS_PER_AXIS = 16;
+	
+	/**
+	 * Amount of rays cast between two cells before they are considered hidden.
+	 */
+	static final int RAYS_PER_CELL_PAIR = 32;
+	
+	/**
+	 * Tolerance used when intersecting rays with triangles.
+	 */
+	private static final float EPSILON = 1e-6f;
+	
+	/**
+	 * Vertex positions of all the level triangles, nine floats per triangle.
+	 */
+	private final float[] triangles;
+	
+	/**
+	 * Start offset of each cell within the cell triangle list.
+	 */
+	private final int[] cellTriangleStart;
+	
+	/**
+	 * Triangles overlapping each cell stored one cell after another.
+	 */
+	private final int[] cellTriangles;
+	
+	/**
+	 * Amount of cells along each axis.
+	 */
+	private final int cellsX, cellsY, cellsZ;
+	
+	/**
+	 * Minimum corner of the cell grid.
+	 */
+	private final Vector3f gridMin;
+	
+	/**
+	 * Size of a single cell.
+	 */
+	private final Vector3f cellSize;
+	
+	/**
+	 * Creates a new VisibilityBaker for the triangles of the specified geometry.
+	 * No GL calls are made so the bake can run on any thread.
+	 * 
+	 * @param geometries - Geometry of the static level meshes.
+	 */
+	VisibilityBaker(MeshGeometry[] geometries) {
+		this.triangles = collectTriangles(geometries);
+		
+		Vector3f min = new Vector3f(Float.MAX_VALUE);
+		Vector3f max = new Vector3f(-Float.MAX_VALUE);
+		for (MeshGeometry geometry : geometries) {
+			if (geometry.getVertexCount() == 0) {
+				continue;
+			}
+			float[] bounds = geometry.getBounds();
+			min.min(new Vector3f(bounds[0], bounds[1], bounds[2]));
+			max.max(new Vector3f(bounds[3], bounds[4], bounds[5]));
+		}
+		
+		// Pad the grid so geometry on the border falls inside it.
+		Vector3f extent = new Vector3f(max).sub(min);
+		float longest = Math.max(extent.x, Math.max(extent.y, extent.z));
+		float size = Math.max(longest / MAX_CELLS_PER_AXIS, EPSILON);
+		min.sub(size * 0.01f, size * 0.01f, size * 0.01f);
+		extent.add(size * 0.02f, size * 0.02f, size * 0.02f);
+		
+		this.cellsX = Math.max(1, (int) Math.ceil(extent.x / size));
+		this.cellsY = Math.max(1, (int) Math.ceil(extent.y / size));
+		this.cellsZ = Math.max(1, (int) Math.ceil(extent.z / size));
+		this.gridMin = min;
+		this.cellSize = new Vector3f(extent.x / this.cellsX, extent.y / this.cellsY, extent.z / this.cellsZ);
+		
+		// Bin the triangles into the cells they overlap in two passes.
+		int cells = this.cellsX * this.cellsY * this.cellsZ;
+		int[] counts = new int[cells + 1];
+		forEachTriangleCell((triangle, cell) -> counts[cell + 1]++);
+		for (int i = 1; i <= cells; i++) {
+			counts[i] += counts[i - 1];
+		}
+		
+		this.cellTriangleStart = counts.clone();
+		this.cellTriangles = new int[counts[cells]];
+		forEachTriangleCell((triangle, cell) -> this.cellTriangles[counts[cell]++] = triangle);
+	}
+	
+	/**
+	 * Computes the potentially visible set for the specified level geometry.
+	 * 
+	 * @param geometries - Geometry of the level meshes this baker was created with.
+	 * 
+	 * @return The computed potentially visible set, not attached to a level yet.
+	 */
+	PotentiallyVisibleSet bake(MeshGeometry[] geometries) {
+		int cells = this.cellsX * this.cellsY * this.cellsZ;
+		BitSet[] visible = new BitSet[cells];
+		
+		// Each cell tests the cells after it, the result is mirrored afterwards.
+		IntStream.range(0, cells).parallel().forEach((int i) -> {
+			BitSet set = new BitSet(cells);
+			Random random = new Random(i);
+			int[] stamps = new int[this.triangles.length / 9];
+			int[] ray = new int[1];
+			
+			set.set(i);
+			for (int j = i + 1; j < cells; j++) {
+				if (isCellVisible(i, j, random, stamps, ray)) {
+					set.set(j);
+				}
+			}
+			visible[i] = set;
+		});
+		
+		for (int i = 0; i < cells; i++) {
+			for (int j = visible[i].nextSetBit(i + 1); j >= 0; j = visible[i].nextSetBit(j + 1)) {
+				visible[j].set(i);
+			}
+		}
+		
+		// Widen the result by the neighbours of every visible cell.
+		BitSet[] widened = new BitSet[cells];
+		for (int i = 0; i < cells; i++) {
+			widened[i] = new BitSet(cells);
+			for (int j = visible[i].nextSetBit(0); j >= 0; j = visible[i].nextSetBit(j + 1)) {
+				addNeighbours(j, widened[i]);
+			}
+		}
+		
+		return new PotentiallyVisibleSet(geometries, this.cellsX, this.cellsY, this.cellsZ, 
+				this.gridMin, this.cellSize, widened);
+	}
+	
+	/**
+	 * Checks if any of the sampled rays between two cells is unobstructed.
+	 * 
+	 * @param from - Index of the first cell.
+	 * @param to - Index of the second cell.
+	 * @param random - Random generator for the sample points.
+	 * @param stamps - Last ray that tested each triangle.
+	 * @param ray - Counter of the cast rays.
+	 * 
+	 * @return True if the cells can see each other; False otherwise.
+	 */
+	private boolean isCellVisible(int from, int to, Random random, int[] stamps, int[] ray) {
+		if (areNeighbours(from, to)) {
+			return true;
+		}
+		
+		float[] p = new float[3];
+		float[] q = new float[3];
+		for (int i = 0; i < RAYS_PER_CELL_PAIR; i++) {
+			samplePoint(from, random, p);
+			samplePoint(to, random, q);
+			
+			if (!isBlocked(p, q, stamps, ++ray[0])) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Checks if the segment between two points hits any triangle by walking
+	 * through the cells along the segment.
+	 * 
+	 * @param p - Start point.
+	 * @param q - End point.
+	 * @param stamps - Last ray that tested each triangle.
+	 * @param ray - Identifier of this ray.
+	 * 
+	 * @return True if the segment is blocked; False otherwise.
+	 */
+	private boolean isBlocked(float[] p, float[] q, int[] stamps, int ray) {
+		float dx = q[0] - p[0];
+		float dy = q[1] - p[1];
+		float dz = q[2] - p[2];
+		
+		int x = PotentiallyVisibleSet.cellCoordinate(p[0], this.gridMin.x, this.cellSize.x, this.cellsX);
+		int y = PotentiallyVisibleSet.cellCoordinate(p[1], this.gridMin.y, this.cellSize.y, this.cellsY);
+		int z = PotentiallyVisibleSet.cellCoordinate(p[2], this.gridMin.z, this.cellSize.z, this.cellsZ);
+		
+		int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+		int stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+		int stepZ = dz > 0 ? 1 : (dz < 0 ? -1 : 0);
+		
+		float tMaxX = stepX != 0 ? (this.gridMin.x + (x + (stepX > 0 ? 1 : 0)) * this.cellSize.x - p[0]) / dx : Float.MAX_VALUE;
+		float tMaxY = stepY != 0 ? (this.gridMin.y + (y + (stepY > 0 ? 1 : 0)) * this.cellSize.y - p[1]) / dy : Float.MAX_VALUE;
+		float tMaxZ = stepZ != 0 ? (this.gridMin.z + (z + (stepZ > 0 ? 1 : 0)) * this.cellSize.z - p[2]) / dz : Float.MAX_VALUE;
+		float tDeltaX = stepX != 0 ? this.cellSize.x / Math.abs(dx) : Float.MAX_VALUE;
+		float tDeltaY = stepY != 0 ? this.cellSize.y / Math.abs(dy) : Float.MAX_VALUE;
+		float tDeltaZ = stepZ != 0 ? this.cellSize.z / Math.abs(dz) : Float.MAX_VALUE;
+		
+		while (true) {
+			int cell = (z * this.cellsY + y) * this.cellsX + x;
+			for (int i = this.cellTriangleStart[cell]; i < this.cellTriangleStart[cell + 1]; i++) {
+				int triangle = this.cellTriangles[i];
+				if (stamps[triangle] != ray) {
+					stamps[triangle] = ray;
+					if (intersects(triangle, p, dx, dy, dz)) {
+						return true;
+					}
+				}
+			}
+			
+			if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+				if (tMaxX > 1) {
+					return false;
+				}
+				x += stepX;
+				tMaxX += tDeltaX;
+			} else if (tMaxY < tMaxZ) {
+				if (tMaxY > 1) {
+					return false;
+				}
+				y += stepY;
+				tMaxY += tDeltaY;
+			} else {
+				if (tMaxZ > 1) {
+					return false;
+				}
+				z += stepZ;
+				tMaxZ += tDeltaZ;
+			}
+			
+			if (x < 0 || y < 0 || z < 0 || x >= this.cellsX || y >= this.cellsY || z >= this.cellsZ) {
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * Intersects a segment with a triangle using the Möller-Trumbore algorithm.
+	 * 
+	 * @param triangle - Index of the triangle.
+	 * @param p - Start point of the segment.
+	 * @param dx - X length of the segment.
+	 * @param dy - Y length of the segment.
+	 * @param dz - Z length of the segment.
+	 * 
+	 * @return True if the segment hits the triangle; False otherwise.
+	 */
+	private boolean intersects(int triangle, float[] p, float dx, float dy, float dz) {
+		int t = triangle * 9;
+		float e1x = this.triangles[t + 3] - this.triangles[t];
+		float e1y = this.triangles[t + 4] - this.triangles[t + 1];
+		float e1z = this.triangles[t + 5] - this.triangles[t + 2];
+		float e2x = this.triangles[t + 6] - this.triangles[t];
+		float e2y = this.triangles[t + 7] - this.triangles[t + 1];
+		float e2z = this.triangles[t + 8] - this.triangles[t + 2];
+		
+		float px = dy * e2z - dz * e2y;
+		float py = dz * e2x - dx * e2z;
+		float pz = dx * e2y - dy * e2x;
+		float det = e1x * px + e1y * py + e1z * pz;
+		if (Math.abs(det) < EPSILON) {
+			return false;
+		}
+		
+		float inv = 1.0f / det;
+		float sx = p[0] - this.triangles[t];
+		float sy = p[1] - this.triangles[t + 1];
+		float sz = p[2] - this.triangles[t + 2];
+		float u = (sx * px + sy * py + sz * pz) * inv;
+		if (u < 0 || u > 1) {
+			return false;
+		}
+		
+		float qx = sy * e1z - sz * e1y;
+		float qy = sz * e1x - sx * e1z;
+		float qz = sx * e1y - sy * e1x;
+		float v = (dx * qx + dy * qy + dz * qz) * inv;
+		if (v < 0 || u + v > 1) {
+			return false;
+		}
+		
+		float distance = (e2x * qx + e2y * qy + e2z * qz) * inv;
+		return distance > EPSILON && distance < 1 - EPSILON;
+	}
+	
+	/**
+	 * Picks a random point inside the specified cell.
+	 * 
+	 * @param cell - Index of the cell.
+	 * @param random - Random generator.
+	 * @param dest - Destination of the point.
+	 */
+	private void samplePoint(int cell, Random random, float[] dest) {
+		int x = cell % this.cellsX;
+		int y = (cell / this.cellsX) % this.cellsY;
+		int z = cell / (this.cellsX * this.cellsY);
+		
+		dest[0] = this.gridMin.x + (x + random.nextFloat()) * this.cellSize.x;
+		dest[1] = this.gridMin.y + (y + random.nextFloat()) * this.cellSize.y;
+		dest[2] = this.gridMin.z + (z + random.nextFloat()) * this.cellSize.z;
+	}
+	
+	/**
+	 * Checks if two cells share a face, edge or corner.
+	 * 
+	 * @param a - Index of the first cell.
+	 * @param b - Index of the second cell.
+	 * 
+	 * @return True if the cells are neighbours; False otherwise.
+	 */
+	private boolean areNeighbours(int a, int b) {
+		int ax = a % this.cellsX, ay = (a / this.cellsX) % this.cellsY, az = a / (this.cellsX * this.cellsY);
+		int bx = b % this.cellsX, by = (b / this.cellsX) % this.cellsY, bz = b / (this.cellsX * this.cellsY);
+		
+		return Math.abs(ax - bx) <= 1 && Math.abs(ay - by) <= 1 && Math.abs(az - bz) <= 1;
+	}
+	
+	/**
+	 * Adds the specified cell and all of its neighbours to the specified set.
+	 * 
+	 * @param cell - Index of the cell.
+	 * @param dest - Set to add the cells to.
+	 */
+	private void addNeighbours(int cell, BitSet dest) {
+		int cx = cell % this.cellsX;
+		int cy = (cell / this.cellsX) % this.cellsY;
+		int cz = cell / (this.cellsX * this.cellsY);
+		
+		for (int z = Math.max(0, cz - 1); z <= Math.min(this.cellsZ - 1, cz + 1); z++) {
+			for (int y = Math.max(0, cy - 1); y <= Math.min(this.cellsY - 1, cy + 1); y++) {
+				for (int x = Math.max(0, cx - 1); x <= Math.min(this.cellsX - 1, cx + 1); x++) {
+					dest.set((z * this.cellsY + y) * this.cellsX + x);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Calls the specified consumer for every cell overlapped by the 
+	 * bounding box of every triangle.
+	 * 
+	 * @param consumer - Consumer of triangle and cell indices.
+	 */
+	private void forEachTriangleCell(TriangleCellConsumer consumer) {
+		int count = this.triangles.length / 9;
+		for (int triangle = 0; triangle < count; triangle++) {
+			int t = triangle * 9;
+			int minX = PotentiallyVisibleSet.cellCoordinate(Math.min(this.triangles[t], Math.min(this.triangles[t + 3], this.triangles[t + 6])), this.gridMin.x, this.cellSize.x, this.cellsX);
+			int maxX = PotentiallyVisibleSet.cellCoordinate(Math.max(this.triangles[t], Math.max(this.triangles[t + 3], this.triangles[t + 6])), this.gridMin.x, this.cellSize.x, this.cellsX);
+			int minY = PotentiallyVisibleSet.cellCoordinate(Math.min(this.triangles[t + 1], Math.min(this.triangles[t + 4], this.triangles[t + 7])), this.gridMin.y, this.cellSize.y, this.cellsY);
+			int maxY = PotentiallyVisibleSet.cellCoordinate(Math.max(this.triangles[t + 1], Math.max(this.triangles[t + 4], this.triangles[t + 7])), this.gridMin.y, this.cellSize.y, this.cellsY);
+			int minZ = PotentiallyVisibleSet.cellCoordinate(Math.min(this.triangles[t + 2], Math.min(this.triangles[t + 5], this.triangles[t + 8])), this.gridMin.z, this.cellSize.z, this.cellsZ);
+			int maxZ = PotentiallyVisibleSet.cellCoordinate(Math.max(this.triangles[t + 2], Math.max(this.triangles[t + 5], this.triangles[t + 8])), this.gridMin.z, this.cellSize.z, this.cellsZ);
+			
+			for (int z = minZ; z <= maxZ; z++) {
+				for (int y = minY; y <= maxY; y++) {
+					for (int x = minX; x <= maxX; x++) {
+						consumer.accept(triangle, (z * this.cellsY + y) * this.cellsX + x);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Collects the vertex positions of all triangles in the specified geometry.
+	 * 
+	 * @param geometries - Geometry to collect triangles from.
+	 * 
+	 * @return Array of triangle vertex positions, nine floats per triangle.
+	 */
+	private static float[] collectTriangles(MeshGeometry[] geometries) {
+		float[] result = new float[countTriangles(geometries) * 9];
+		int offset = 0;
+		
+		for (MeshGeometry geometry : geometries) {
+			float[] positions = geometry.getPositions();
+			int[] indices = geometry.getIndices();
+			for (int i = 0; i + 2 < indices.length; i += 3) {
+				for (int j = 0; j < 3; j++) {
+					int v = indices[i + j] * 3;
+					result[offset++] = positions[v];
+					result[offset++] = positions[v + 1];
+					result[offset++] = positions[v + 2];
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Counts the triangles of the specified geometry.
+	 * 
+	 * @param geometries - Geometry to count triangles of.
+	 * 
+	 * @return Amount of triangles.
+	 */
+	static int countTriangles(MeshGeometry[] geometries) {
+		int count = 0;
+		for (MeshGeometry geometry : geometries) {
+			count += geometry.getIndexCount() / 3;
+		}
+		return count;
+	}
+	
+	/**
+	 * Consumer of a triangle and a cell it overlaps.
+	 */
+	private interface TriangleCellConsumer {
+		void accept(int triangle, int cell);
+	}
+}
@@ -264,6 +264,17 @@ public class ShaderProgram {
     public void setUniform(String location, Vector4f value) {
         glUniform4f(uniformLocations.get(location), value.x, value.y, value.z, value.w);
     }
+    
+    /**
+     * Set the uniform variable at the specified location.
+     * 
+     * @param location - Uniform location.
+     * @param value - Value to set at the specified location.
+     * @param pos - Array position for the value to set.
+     */
+    public void setUniform(String location, Vector4f value, int pos) {
+    	setUniform((location + "[" + pos + "]"), value);
+    }
 
     /**
      * Sets the uniform variable at the specified location.
@@ -0,0 +1,168 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.shadow;
+
+import org.joml.Vector3f;
+
+import me.oskarmendel.mass.core.Camera;
+import me.oskarmendel.mass.gfx.light.DirectionalLight;
+
+/**
+ * Decides which shadow cascades are updated each frame. The near cascade
+ * is updated every frame while the farther cascades are updated less often,
+ * at offsets chosen so at most one of them is updated in the same frame.
+ * 
+ * All cascades are updated at once when the light turns or the camera
+ * jumps since the old cascades would no longer cover the view.
+ * 
+ * Cascades skipped on a frame with changes stay pending until they are 
+ * updated, so the scheduler keeps running on the frames after the changes
+ * until every cascade has caught up.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name CascadeScheduler.java
+ */
+class CascadeScheduler {
+	
+	/**
+	 * Amount of frames between the updates of every cascade.
+	 */
+	private static final int[] UPDATE_INTERVALS = {1, 2, 4};
+	
+	/**
+	 * Frame offset of the updates of every cascade.
+	 */
+	private static final int[] UPDATE_OFFSETS = {0, 1, 2};
+	
+	/**
+	 * Distance the camera has to move within one frame to count as a jump.
+	 */
+	private static final float JUMP_DISTANCE = 2.0f;
+	
+	/**
+	 * Degrees the camera has to turn within one frame to count as a jump.
+	 */
+	private static final float JUMP_ANGLE = 20.0f;
+	
+	/**
+	 * Amount of cascades to schedule.
+	 */
+	private final int cascades;
+	
+	private final Vector3f lastCameraPosition;
+	
+	private final Vector3f lastCameraRotation;
+	
+	private final Vector3f lastLightDirection;
+	
+	private int frame;
+	
+	/**
+	 * Bit mask of the cascades which are out of date with the last changes.
+	 */
+	private int pendingMask;
+	
+	private boolean initialized;
+	
+	/**
+	 * Creates a new CascadeScheduler for the specified amount of cascades.
+	 * 
+	 * @param cascades - Amount of cascades to schedule.
+	 */
+	CascadeScheduler(int cascades) {
+		this.cascades = cascades;
+		this.lastCameraPosition = new Vector3f();
+		this.lastCameraRotation = new Vector3f();
+		this.lastLightDirection = new Vector3f();
+		this.frame = 0;
+		this.pendingMask = 0;
+		this.initialized = false;
+	}
+	
+	/**
+	 * Advances the scheduler by one frame and returns the cascades 
+	 * to update in this frame. Without changes only the pending cascades
+	 * are updated once they are due.
+	 * 
+	 * @param camera - Camera the cascades are fitted to.
+	 * @param light - Light casting the shadows.
+	 * @param changed - True if the camera or the scene changed this frame.
+	 * 
+	 * @return Bit mask with one bit set for every cascade to update.
+	 */
+	int schedule(Camera camera, DirectionalLight light, boolean changed) {
+		boolean force = !this.initialized 
+				|| camera.getPosition().distance(this.lastCameraPosition) > JUMP_DISTANCE
+				|| angleDifference(camera.getRotation(), this.lastCameraRotation) > JUMP_ANGLE
+				|| (light != null && !light.getDirection().equals(this.lastLightDirection));
+		
+		this.lastCameraPosition.set(camera.getPosition());
+		this.lastCameraRotation.set(camera.getRotation());
+		if (light != null) {
+			this.lastLightDirection.set(light.getDirection());
+		}
+		this.initialized = true;
+		
+		if (changed || force) {
+			this.pendingMask = (1 << this.cascades) - 1;
+		}
+		
+		int mask = 0;
+		for (int i = 0; i < this.cascades; i++) {
+			int interval = UPDATE_INTERVALS[Math.min(i, UPDATE_INTERVALS.length - 1)];
+			int offset = UPDATE_OFFSETS[Math.min(i, UPDATE_OFFSETS.length - 1)];
+			
+			if ((this.pendingMask & (1 << i)) != 0 && (force || this.frame % interval == offset % interval)) {
+				mask |= 1 << i;
+			}
+		}
+		
+		this.pendingMask &= ~mask;
+		this.frame++;
+		return mask;
+	}
+	
+	/**
+	 * Checks if any cascade is still out of date with the last changes.
+	 * 
+	 * @return True if a cascade is pending.
+	 */
+	boolean hasPendingCascades() {
+		return this.pendingMask != 0;
+	}
+	
+	/**
+	 * Calculates the largest difference between two rotations in degrees.
+	 * 
+	 * @param a - First rotation.
+	 * @param b - Second rotation.
+	 * 
+	 * @return The largest difference of the rotation components.
+	 */
+	private static float angleDifference(Vector3f a, Vector3f b) {
+		return Math.max(Math.abs(a.x - b.x), Math.max(Math.abs(a.y - b.y), Math.abs(a.z - b.z)));
+	}
+}
@@ -0,0 +1,366 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.shadow;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import me.oskarmendel.mass.gfx.light.PointLight;
+import me.oskarmendel.mass.gfx.shadow.ShadowAtlas.Tile;
+
+/**
+ * Shadow of a single spot or point light rendered into the shadow atlas.
+ * A spot light uses a single perspective tile while a point light uses 
+ * six tiles, one for every face of a cube around the light.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name LocalShadow.java
+ */
+public class LocalShadow {
+	
+	/**
+	 * Distance to the near plane of the light projections.
+	 */
+	public static final float Z_NEAR = 0.1f;
+	
+	/**
+	 * Directions the six faces of a point light shadow look towards.
+	 * The order and orientation match the cube face lookup in the shader.
+	 */
+	private static final Vector3f[] FACE_DIRECTIONS = {
+			new Vector3f(1, 0, 0), new Vector3f(-1, 0, 0),
+			new Vector3f(0, 1, 0), new Vector3f(0, -1, 0),
+			new Vector3f(0, 0, 1), new Vector3f(0, 0, -1)
+	};
+	
+	/**
+	 * Up vectors of the six faces of a point light shadow.
+	 */
+	private static final Vector3f[] FACE_UPS = {
+			new Vector3f(0, -1, 0), new Vector3f(0, -1, 0),
+			new Vector3f(0, 0, 1), new Vector3f(0, 0, -1),
+			new Vector3f(0, -1, 0), new Vector3f(0, -1, 0)
+	};
+	
+	/**
+	 * Extra field of view added around the cone of a spot light.
+	 */
+	private static final float SPOT_FOV_MARGIN = (float) Math.toRadians(5.0f);
+	
+	/**
+	 * Largest field of view of a spot light shadow.
+	 */
+	private static final float MAX_SPOT_FOV = (float) Math.toRadians(170.0f);
+	
+	/**
+	 * Light intensity below which a light no longer casts a visible shadow.
+	 */
+	private static final float MIN_INTENSITY = 1.0f / 256.0f;
+	
+	/**
+	 * Range used for lights that do not attenuate.
+	 */
+	private static final float MAX_RANGE = 100.0f;
+	
+	/**
+	 * True if the shadow belongs to a point light; False for a spot light.
+	 */
+	private final boolean pointLight;
+	
+	/**
+	 * Tiles of the atlas the shadow is rendered into, null while unallocated.
+	 */
+	private Tile[] tiles;
+	
+	/**
+	 * Light view projection matrix of every tile.
+	 */
+	private final Matrix4f[] viewProjectionMatrices;
+	
+	/**
+	 * World space position of the light.
+	 */
+	private final Vector3f position;
+	
+	/**
+	 * World space direction of a spot light.
+	 */
+	private final Vector3f direction;
+	
+	/**
+	 * Cosine of the cut off angle of a spot light.
+	 */
+	private float cutOff;
+	
+	/**
+	 * Distance at which the light no longer contributes.
+	 */
+	private float range;
+	
+	/**
+	 * Screen space importance of the light in the current frame.
+	 */
+	private float importance;
+	
+	/**
+	 * Frame the shadow was last requested in.
+	 */
+	private int lastUsedFrame;
+	
+	/**
+	 * True if the tiles have to be rendered again.
+	 */
+	private boolean dirty;
+	
+	/**
+	 * True once the tiles have been rendered since they were allocated.
+	 */
+	private boolean ready;
+	
+	private final Matrix4f tmpMatrix;
+	
+	private final Vector3f tmpVec;
+	
+	/**
+	 * Creates a new LocalShadow.
+	 * 
+	 * @param pointLight - True for a point light shadow; False for a spot light shadow.
+	 */
+	LocalShadow(boolean pointLight) {
+		this.pointLight = pointLight;
+		this.viewProjectionMatrices = new Matrix4f[pointLight ? FACE_DIRECTIONS.length : 1];
+		for (int i = 0; i < this.viewProjectionMatrices.length; i++) {
+			this.viewProjectionMatrices[i] = new Matrix4f();
+		}
+		
+		this.position = new Vector3f();
+		this.direction = new Vector3f();
+		this.cutOff = 0;
+		this.range = 0;
+		this.tmpMatrix = new Matrix4f();
+		this.tmpVec = new Vector3f();
+	}
+	
+	/**
+	 * Updates the light this shadow is cast by and rebuilds the 
+	 * matrices when the light changed.
+	 * 
+	 * @param light - Point light or point light of a spot light.
+	 * @param direction - Direction of a spot light, null for a point light.
+	 * @param cutOff - Cosine of the cut off angle of a spot light.
+	 */
+	void update(PointLight light, Vector3f direction, float cutOff) {
+		float range = calculateRange(light);
+		
+		if (light.getPosition().equals(this.position) && range == this.range 
+				&& (direction == null || (direction.equals(this.direction) && cutOff == this.cutOff))) {
+			return;
+		}
+		
+		this.position.set(light.getPosition());
+		this.range = range;
+		if (direction != null) {
+			this.direction.set(direction);
+			this.cutOff = cutOff;
+		}
+		
+		if (this.pointLight) {
+			for (int i = 0; i < FACE_DIRECTIONS.length; i++) {
+				this.tmpVec.set(this.position).add(FACE_DIRECTIONS[i]);
+				this.viewProjectionMatrices[i].setPerspective((float) Math.toRadians(90.0f), 1.0f, Z_NEAR, this.range)
+						.mul(this.tmpMatrix.setLookAt(this.position, this.tmpVec, FACE_UPS[i]));
+			}
+		} else {
+			float fov = Math.min(2.0f * (float) Math.acos(cutOff) + SPOT_FOV_MARGIN, MAX_SPOT_FOV);
+			
+			this.tmpVec.set(this.direction).normalize();
+			float upY = Math.abs(this.tmpVec.y) > 0.99f ? 0 : 1;
+			this.tmpVec.add(this.position);
+			
+			this.viewProjectionMatrices[0].setPerspective(fov, 1.0f, Z_NEAR, this.range)
+					.mul(this.tmpMatrix.setLookAt(this.position.x, this.position.y, this.position.z, 
+							this.tmpVec.x, this.tmpVec.y, this.tmpVec.z, 1 - upY, upY, 0));
+		}
+		
+		this.dirty = true;
+	}
+	
+	/**
+	 * Calculates the distance at which the attenuated intensity of 
+	 * a light drops below the visible threshold.
+	 * 
+	 * @param light - Light to calculate the range of.
+	 * 
+	 * @return Range of the light.
+	 */
+	private static float calculateRange(PointLight light) {
+		PointLight.Attenuation att = light.getAttenuation();
+		
+		// Solve constant + linear * d + exponent * d^2 = intensity / MIN_INTENSITY.
+		float c = att.getConstant() - light.getIntensity() / MIN_INTENSITY;
+		float range;
+		if (att.getExponent() > 0) {
+			range = (-att.getLinear() + (float) Math.sqrt(att.getLinear() * att.getLinear() - 4 * att.getExponent() * c)) 
+					/ (2 * att.getExponent());
+		} else if (att.getLinear() > 0) {
+			range = -c / att.getLinear();
+		} else {
+			range = MAX_RANGE;
+		}
+		
+		return Math.max(Z_NEAR * 2, Math.min(range, MAX_RANGE));
+	}
+	
+	/**
+	 * Checks if the specified world space sphere is within the range of the light.
+	 * 
+	 * @param center - Center of the sphere.
+	 * @param radius - Radius of the sphere.
+	 * 
+	 * @return True if the sphere is within the range of the light; False otherwise.
+	 */
+	boolean inRange(Vector3f center, float radius) {
+		float distance = this.range + radius;
+		return center.distanceSquared(this.position) <= distance * distance;
+	}
+	
+	/**
+	 * Getter for whether this shadow belongs to a point light.
+	 * 
+	 * @return - True for a point light shadow; False for a spot light shadow.
+	 */
+	public boolean isPointLight() {
+		return this.pointLight;
+	}
+	
+	/**
+	 * Getter for the amount of tiles this shadow uses.
+	 * 
+	 * @return - 6 for a point light shadow; 1 for a spot light shadow.
+	 */
+	public int getFaces() {
+		return this.viewProjectionMatrices.length;
+	}
+	
+	/**
+	 * Getter for the tile of the specified face.
+	 * 
+	 * @param face - Index of the face.
+	 * 
+	 * @return - Tile of the face or null if the shadow has no tiles.
+	 */
+	public Tile getTile(int face) {
+		return this.tiles != null ? this.tiles[face] : null;
+	}
+	
+	/**
+	 * Getter for the tiles of this shadow.
+	 * 
+	 * @return - Tiles of this shadow or null if it has no tiles.
+	 */
+	Tile[] getTiles() {
+		return this.tiles;
+	}
+	
+	/**
+	 * Setter for the tiles of this shadow, the shadow has to be 
+	 * rendered again before it can be used.
+	 * 
+	 * @param tiles - Tiles to set or null to release the tiles.
+	 */
+	void setTiles(Tile[] tiles) {
+		this.tiles = tiles;
+		this.dirty = tiles != null;
+		this.ready = false;
+	}
+	
+	/**
+	 * Getter for the light view projection matrix of the specified face.
+	 * 
+	 * @param face - Index of the face.
+	 * 
+	 * @return - Light view projection matrix of the face.
+	 */
+	public Matrix4f getViewProjectionMatrix(int face) {
+		return this.viewProjectionMatrices[face];
+	}
+	
+	/**
+	 * Getter for the world space position of the light.
+	 * 
+	 * @return - Position of the light.
+	 */
+	public Vector3f getPosition() {
+		return this.position;
+	}
+	
+	/**
+	 * Getter for the range of the light, the far plane of the projections.
+	 * 
+	 * @return - Range of the light.
+	 */
+	public float getRange() {
+		return this.range;
+	}
+	
+	float getImportance() {
+		return this.importance;
+	}
+	
+	void setImportance(float importance) {
+		this.importance = importance;
+	}
+	
+	int getLastUsedFrame() {
+		return this.lastUsedFrame;
+	}
+	
+	void setLastUsedFrame(int lastUsedFrame) {
+		this.lastUsedFrame = lastUsedFrame;
+	}
+	
+	boolean isDirty() {
+		return this.dirty;
+	}
+	
+	void setDirty(boolean dirty) {
+		this.dirty = dirty && this.tiles != null;
+	}
+	
+	/**
+	 * Getter for whether the tiles of this shadow have been rendered
+	 * and can be sampled.
+	 * 
+	 * @return - True if the shadow can be sampled; False otherwise.
+	 */
+	public boolean isReady() {
+		return this.ready;
+	}
+	
+	void setReady(boolean ready) {
+		this.ready = ready;
+	}
+}
@@ -0,0 +1,592 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.shadow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import me.oskarmendel.mass.core.Camera;
+import me.oskarmendel.mass.core.Scene;
+import me.oskarmendel.mass.core.SceneLight;
+import me.oskarmendel.mass.core.Screen;
+import me.oskarmendel.mass.entity.Entity;
+import me.oskarmendel.mass.gfx.InstancedMesh;
+import me.oskarmendel.mass.gfx.Mesh;
+import me.oskarmendel.mass.gfx.Transformation;
+import me.oskarmendel.mass.gfx.light.PointLight;
+import me.oskarmendel.mass.gfx.light.SpotLight;
+import me.oskarmendel.mass.gfx.lod.LodSelector;
+import me.oskarmendel.mass.gfx.shader.Shader;
+import me.oskarmendel.mass.gfx.shader.ShaderProgram;
+import me.oskarmendel.mass.gfx.shadow.ShadowAtlas.Tile;
+
+import static org.lwjgl.opengl.GL11.glClear;
+import static org.lwjgl.opengl.GL11.glDisable;
+import static org.lwjgl.opengl.GL11.glEnable;
+import static org.lwjgl.opengl.GL11.glScissor;
+import static org.lwjgl.opengl.GL11.glViewport;
+import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11.GL_SCISSOR_TEST;
+import static org.lwjgl.opengl.GL20.GL_FRAGMENT_SHADER;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+
+/**
+ * Renders the shadows of the point and spot lights of a scene into 
+ * a single shadow atlas.
+ * 
+ * Every frame the lights are ranked by the screen space size of their range,
+ * which decides the size of the tiles they get. Tiles of lights that are
+ * no longer requested stay in the atlas until the space is needed and the 
+ * least recently used lights are evicted. A shadow is only rendered again
+ * when its light or a caster within its range moved, and only a limited 
+ * amount of shadows are rendered per frame.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name LocalShadowRenderer.java
+ */
+public class LocalShadowRenderer {
+	
+	/**
+	 * Largest amount of shadows rendered in a single frame.
+	 */
+	private static final int MAX_UPDATES_PER_FRAME = 4;
+	
+	/**
+	 * Screen space size below which a light casts no shadow.
+	 */
+	private static final float MIN_IMPORTANCE = 0.05f;
+	
+	/**
+	 * Relative margin around each tile size before switching size.
+	 */
+	private static final float TILE_SIZE_HYSTERESIS = 0.15f;
+	
+	/**
+	 * Depth shader program used to render the tiles.
+	 */
+	private ShaderProgram depthShaderProgram;
+	
+	/**
+	 * Atlas the shadows are rendered into.
+	 */
+	private ShadowAtlas shadowAtlas;
+	
+	/**
+	 * Shadows of the lights, keyed by the light casting them.
+	 */
+	private final Map<Object, LocalShadow> shadows;
+	
+	/**
+	 * Shadows requested in the current frame.
+	 */
+	private final List<LocalShadow> requested;
+	
+	/**
+	 * Lights present in the scene in the current frame.
+	 */
+	private final Set<Object> sceneLights;
+	
+	private final List<Entity> filteredEntities;
+	
+	private final FrustumIntersection cameraFrustum;
+	
+	private final FrustumIntersection tileFrustum;
+	
+	private final Matrix4f tmpMatrix;
+	
+	private final Vector3f tmpCenter;
+	
+	/**
+	 * Current frame, used to find the least recently used shadows.
+	 */
+	private int frame;
+	
+	/**
+	 * Creates a new LocalShadowRenderer.
+	 */
+	public LocalShadowRenderer() {
+		this.shadows = new IdentityHashMap<>();
+		this.requested = new ArrayList<>();
+		this.sceneLights = Collections.newSetFromMap(new IdentityHashMap<>());
+		this.filteredEntities = new ArrayList<>();
+		this.cameraFrustum = new FrustumIntersection();
+		this.tileFrustum = new FrustumIntersection();
+		this.tmpMatrix = new Matrix4f();
+		this.tmpCenter = new Vector3f();
+		this.frame = 0;
+	}
+	
+	/**
+	 * Initializes this LocalShadowRenderer with an atlas of the default size.
+	 */
+	public void init() throws Exception {
+		init(ShadowAtlas.DEFAULT_SIZE);
+	}
+	
+	/**
+	 * Initializes this LocalShadowRenderer.
+	 * 
+	 * @param atlasSize - Width and height of the shadow atlas.
+	 */
+	public void init(int atlasSize) throws Exception {
+		this.shadowAtlas = new ShadowAtlas(atlasSize);
+		System.out.println("Shadow atlas: " + atlasSize + "x" + atlasSize 
+				+ ", " + (this.shadowAtlas.getMemoryUsage() / (1024 * 1024)) + " MB");
+		
+		this.depthShaderProgram = new ShaderProgram();
+		
+		Shader vertexShader = Shader.loadShader(GL_VERTEX_SHADER, "src/main/resources/shaders/atlas_depth.vert");
+		Shader fragmentShader = Shader.loadShader(GL_FRAGMENT_SHADER, "src/main/resources/shaders/depth.frag");
+		
+		this.depthShaderProgram.attachShader(vertexShader);
+		this.depthShaderProgram.attachShader(fragmentShader);
+		this.depthShaderProgram.link();
+		
+		this.depthShaderProgram.createUniform("isInstanced");
+		this.depthShaderProgram.createUniform("modelNonInstancedMatrix");
+		this.depthShaderProgram.createUniform("jointsMatrix");
+		this.depthShaderProgram.createUniform("lightViewProjectionMatrix");
+	}
+	
+	/**
+	 * Allocates the tiles of the shadows of the lights in the scene and 
+	 * renders the shadows that changed.
+	 * 
+	 * @param screen
+	 * @param scene
+	 * @param camera
+	 * @param transformation
+	 */
+	public void render(Screen screen, Scene scene, Camera camera, Transformation transformation) {
+		this.frame++;
+		this.requested.clear();
+		this.sceneLights.clear();
+		
+		SceneLight sceneLight = scene.getSceneLight();
+		if (sceneLight == null) {
+			removeStaleShadows();
+			return;
+		}
+		
+		this.tmpMatrix.set(screen.getProjectionMatrix()).mul(camera.getViewMatrix());
+		this.cameraFrustum.set(this.tmpMatrix);
+		
+		PointLight[] pointLights = sceneLight.getPointLights();
+		if (pointLights != null) {
+			for (PointLight pointLight : pointLights) {
+				this.sceneLights.add(pointLight);
+				request(pointLight, pointLight, null, 0, camera);
+			}
+		}
+		
+		SpotLight[] spotLights = sceneLight.getSpotLights();
+		if (spotLights != null) {
+			for (SpotLight spotLight : spotLights) {
+				this.sceneLights.add(spotLight);
+				request(spotLight, spotLight.getPointLight(), spotLight.getConeDirection(), spotLight.getCutOff(), camera);
+			}
+		}
+		
+		removeStaleShadows();
+		
+		// The most important lights get their tiles first.
+		this.requested.sort((LocalShadow a, LocalShadow b) -> Float.compare(b.getImportance(), a.getImportance()));
+		for (LocalShadow shadow : this.requested) {
+			allocate(shadow);
+		}
+		
+		invalidateMovedCasters(scene, transformation);
+		
+		renderShadows(scene, transformation);
+	}
+	
+	/**
+	 * Drops the shadows of lights which are no longer in the scene and 
+	 * returns their tiles to the atlas.
+	 */
+	private void removeStaleShadows() {
+		Iterator<Map.Entry<Object, LocalShadow>> it = this.shadows.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Object, LocalShadow> e = it.next();
+			if (!this.sceneLights.contains(e.getKey())) {
+				release(e.getValue());
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Requests the shadow of a light for the current frame and 
+	 * updates its importance.
+	 * 
+	 * @param key - Light the shadow is stored for.
+	 * @param light - Point light or point light of a spot light.
+	 * @param direction - Direction of a spot light, null for a point light.
+	 * @param cutOff - Cosine of the cut off angle of a spot light.
+	 * @param camera
+	 */
+	private void request(Object key, PointLight light, Vector3f direction, float cutOff, Camera camera) {
+		if (light.getIntensity() <= 0) {
+			return;
+		}
+		
+		LocalShadow shadow = this.shadows.computeIfAbsent(key, (Object k) -> new LocalShadow(direction == null));
+		shadow.update(light, direction, cutOff);
+		
+		// The light casts no visible shadow when its range is outside of the view.
+		Vector3f position = shadow.getPosition();
+		float range = shadow.getRange();
+		if (!this.cameraFrustum.testSphere(position, range)) {
+			return;
+		}
+		
+		float distance = position.distance(camera.getPosition());
+		float importance = distance > range ? range / (distance * (float) Math.tan(Screen.FOV * 0.5f)) : 1.0f;
+		if (importance < MIN_IMPORTANCE) {
+			return;
+		}
+		
+		shadow.setImportance(Math.min(importance, 1.0f));
+		shadow.setLastUsedFrame(this.frame);
+		this.requested.add(shadow);
+	}
+	
+	/**
+	 * Calculates the tile size for the specified shadow from its importance.
+	 * Point lights use a smaller size since they need six tiles. The current 
+	 * size is kept until the importance is clearly past its range.
+	 * 
+	 * @param shadow - Shadow to calculate the tile size for.
+	 * @param currentSize - Size of the current tiles of the shadow, 0 if it has none.
+	 * 
+	 * @return Power of two tile size between the smallest and largest tile size.
+	 */
+	private static int calculateTileSize(LocalShadow shadow, int currentSize) {
+		float size = ShadowAtlas.MAX_TILE_SIZE * shadow.getImportance();
+		if (shadow.isPointLight()) {
+			size *= 0.5f;
+		}
+		
+		if (currentSize > 0 && size >= currentSize * (1 - TILE_SIZE_HYSTERESIS) 
+				&& size < 2 * currentSize * (1 + TILE_SIZE_HYSTERESIS)) {
+			return currentSize;
+		}
+		
+		int tileSize = Integer.highestOneBit(Math.max((int) size, 1));
+		return Math.max(ShadowAtlas.MIN_TILE_SIZE, Math.min(tileSize, ShadowAtlas.MAX_TILE_SIZE));
+	}
+	
+	/**
+	 * Makes sure the shadow has tiles of the size its importance asks for,
+	 * evicting the least recently used shadows when the atlas is full. 
+	 * If there is no room the shadow tries smaller tiles.
+	 * 
+	 * @param shadow - Shadow to allocate tiles for.
+	 */
+	private void allocate(LocalShadow shadow) {
+		Tile[] current = shadow.getTiles();
+		int tileSize = calculateTileSize(shadow, current != null ? current[0].getSize() : 0);
+		
+		if (current != null && current[0].getSize() == tileSize) {
+			return;
+		}
+		
+		release(shadow);
+		
+		for (int size = tileSize; size >= ShadowAtlas.MIN_TILE_SIZE; size /= 2) {
+			Tile[] tiles = new Tile[shadow.getFaces()];
+			
+			if (allocateTiles(tiles, size)) {
+				shadow.setTiles(tiles);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Allocates all the specified tiles with the specified size, evicting the
+	 * least recently used shadows until they fit.
+	 * 
+	 * @param tiles - Array to store the tiles in.
+	 * @param size - Width and height of the tiles.
+	 * 
+	 * @return True if all the tiles were allocated; False if they did not fit.
+	 */
+	private boolean allocateTiles(Tile[] tiles, int size) {
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = this.shadowAtlas.allocate(size);
+			
+			while (tiles[i] == null && evictLeastRecentlyUsed()) {
+				tiles[i] = this.shadowAtlas.allocate(size);
+			}
+			
+			if (tiles[i] == null) {
+				for (int j = 0; j < i; j++) {
+					this.shadowAtlas.free(tiles[j]);
+				}
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Releases the tiles of the least recently used shadow not 
+	 * requested in the current frame.
+	 * 
+	 * @return True if a shadow was evicted; False if there was none to evict.
+	 */
+	private boolean evictLeastRecentlyUsed() {
+		LocalShadow leastRecentlyUsed = null;
+		for (LocalShadow shadow : this.shadows.values()) {
+			if (shadow.getTiles() != null && shadow.getLastUsedFrame() < this.frame 
+					&& (leastRecentlyUsed == null || shadow.getLastUsedFrame() < leastRecentlyUsed.getLastUsedFrame())) {
+				leastRecentlyUsed = shadow;
+			}
+		}
+		
+		if (leastRecentlyUsed == null) {
+			return false;
+		}
+		
+		release(leastRecentlyUsed);
+		return true;
+	}
+	
+	/**
+	 * Returns the tiles of the specified shadow to the atlas.
+	 * 
+	 * @param shadow - Shadow to release.
+	 */
+	private void release(LocalShadow shadow) {
+		Tile[] tiles = shadow.getTiles();
+		if (tiles == null) {
+			return;
+		}
+		
+		for (Tile tile : tiles) {
+			this.shadowAtlas.free(tile);
+		}
+		shadow.setTiles(null);
+	}
+	
+	/**
+	 * Marks the shadows with a moved caster within their range as dirty.
+	 * 
+	 * @param scene
+	 * @param transformation
+	 */
+	private void invalidateMovedCasters(Scene scene, Transformation transformation) {
+		Entity[] entities = scene.getEntities();
+		if (entities == null) {
+			return;
+		}
+		
+		for (Entity entity : entities) {
+			if (!entity.isTransformChanged()) {
+				continue;
+			}
+			
+			Matrix4f modelMatrix = transformation.buildModelMatrix(entity);
+			for (Mesh mesh : entity.getMeshes()) {
+				float radius = boundingSphere(modelMatrix, mesh, entity.getScale());
+				
+				for (LocalShadow shadow : this.shadows.values()) {
+					if (!shadow.isDirty() && shadow.inRange(this.tmpCenter, radius)) {
+						shadow.setDirty(true);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Renders the dirty shadows, the shadows that have never been rendered
+	 * first and then by importance.
+	 * 
+	 * @param scene
+	 * @param transformation
+	 */
+	private void renderShadows(Scene scene, Transformation transformation) {
+		this.requested.removeIf((LocalShadow shadow) -> !shadow.isDirty());
+		if (this.requested.isEmpty()) {
+			return;
+		}
+		
+		this.requested.sort((LocalShadow a, LocalShadow b) -> a.isReady() != b.isReady() 
+				? Boolean.compare(a.isReady(), b.isReady()) : Float.compare(b.getImportance(), a.getImportance()));
+		
+		this.shadowAtlas.bind();
+		this.depthShaderProgram.use();
+		glEnable(GL_SCISSOR_TEST);
+		
+		int updates = Math.min(this.requested.size(), MAX_UPDATES_PER_FRAME);
+		for (int i = 0; i < updates; i++) {
+			LocalShadow shadow = this.requested.get(i);
+			
+			for (int face = 0; face < shadow.getFaces(); face++) {
+				Tile tile = shadow.getTile(face);
+				glViewport(tile.getX(), tile.getY(), tile.getSize(), tile.getSize());
+				glScissor(tile.getX(), tile.getY(), tile.getSize(), tile.getSize());
+				glClear(GL_DEPTH_BUFFER_BIT);
+				
+				Matrix4f viewProjectionMatrix = shadow.getViewProjectionMatrix(face);
+				this.tileFrustum.set(viewProjectionMatrix);
+				this.depthShaderProgram.setUniform("lightViewProjectionMatrix", viewProjectionMatrix);
+				
+				renderNonInstancedMeshes(scene, transformation);
+				renderInstancedMeshes(scene, transformation);
+			}
+			
+			shadow.setDirty(false);
+			shadow.setReady(true);
+		}
+		
+		glDisable(GL_SCISSOR_TEST);
+		this.depthShaderProgram.stopUse();
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+	}
+	
+	/**
+	 * Renders the non instanced meshes within the frustum of the current tile.
+	 * 
+	 * @param scene
+	 * @param transformation
+	 */
+	private void renderNonInstancedMeshes(Scene scene, Transformation transformation) {
+		this.depthShaderProgram.setUniform("isInstanced", 0);
+		
+		Map<Mesh, List<Entity>> mapMeshes = scene.getEntityMeshes();
+		for (Mesh mesh : mapMeshes.keySet()) {
+			mesh.renderList(mapMeshes.get(mesh), LodSelector.VIEW_SHADOW, (Entity entity) -> {
+				float radius = boundingSphere(transformation.buildModelMatrix(entity), mesh, entity.getScale());
+				return this.tileFrustum.testSphere(this.tmpCenter, radius);
+			}, (Entity entity) -> {
+				this.depthShaderProgram.setUniform("modelNonInstancedMatrix", transformation.buildModelMatrix(entity));
+			});
+		}
+	}
+	
+	/**
+	 * Renders the instanced meshes within the frustum of the current tile.
+	 * 
+	 * @param scene
+	 * @param transformation
+	 */
+	private void renderInstancedMeshes(Scene scene, Transformation transformation) {
+		this.depthShaderProgram.setUniform("isInstanced", 1);
+		
+		Map<InstancedMesh, List<Entity>> mapMeshes = scene.getEntityInstancedMeshes();
+		for (InstancedMesh mesh : mapMeshes.keySet()) {
+			this.filteredEntities.clear();
+			
+			for (Entity entity : mapMeshes.get(mesh)) {
+				float radius = boundingSphere(transformation.buildModelMatrix(entity), mesh, entity.getScale());
+				if (this.tileFrustum.testSphere(this.tmpCenter, radius)) {
+					this.filteredEntities.add(entity);
+				}
+			}
+			
+			if (!this.filteredEntities.isEmpty()) {
+				mesh.renderListInstanced(this.filteredEntities, transformation, null);
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the world space bounding sphere of a mesh, 
+	 * the center is stored in the center of this renderer.
+	 * 
+	 * @param modelMatrix - Model matrix of the mesh.
+	 * @param mesh - Mesh to calculate the bounding sphere for.
+	 * @param scale - Scale of the mesh.
+	 * 
+	 * @return The radius of the bounding sphere.
+	 */
+	private float boundingSphere(Matrix4f modelMatrix, Mesh mesh, float scale) {
+		Vector3f min = mesh.getBoundsMin();
+		Vector3f max = mesh.getBoundsMax();
+		
+		this.tmpCenter.set(min).add(max).mul(0.5f);
+		modelMatrix.transformPosition(this.tmpCenter);
+		
+		return min.distance(max) * 0.5f * scale;
+	}
+	
+	/**
+	 * Getter for the shadow of the specified point or spot light.
+	 * 
+	 * @param light - Light to get the shadow of.
+	 * 
+	 * @return - The shadow of the light or null if it has none.
+	 */
+	public LocalShadow getShadow(Object light) {
+		return this.shadows.get(light);
+	}
+	
+	/**
+	 * Getter for the width and height of the shadow atlas.
+	 * 
+	 * @return - Width and height of the shadow atlas.
+	 */
+	public int getAtlasSize() {
+		return this.shadowAtlas.getSize();
+	}
+	
+	/**
+	 * Binds the shadow atlas to the specified texture unit.
+	 * 
+	 * @param textureUnit - Texture unit to bind to.
+	 */
+	public void bindTextures(int textureUnit) {
+		this.shadowAtlas.bindTexture(textureUnit);
+	}
+	
+	/**
+	 * Deletes the resources of this LocalShadowRenderer.
+	 */
+	public void delete() {
+		if (this.shadowAtlas != null) {
+			this.shadowAtlas.delete();
+		}
+		
+		if (this.depthShaderProgram != null) {
+			this.depthShaderProgram.delete();
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.shadow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.oskarmendel.mass.gfx.Texture;
+
+import static org.lwjgl.opengl.GL11.glBindTexture;
+import static org.lwjgl.opengl.GL11.glDrawBuffer;
+import static org.lwjgl.opengl.GL11.glReadBuffer;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30.glCheckFramebufferStatus;
+import static org.lwjgl.opengl.GL30.glDeleteFramebuffers;
+import static org.lwjgl.opengl.GL30.glFramebufferTexture2D;
+import static org.lwjgl.opengl.GL30.glGenFramebuffers;
+import static org.lwjgl.opengl.GL11.GL_DEPTH_COMPONENT;
+import static org.lwjgl.opengl.GL11.GL_LEQUAL;
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_NONE;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_FUNC;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_MODE;
+import static org.lwjgl.opengl.GL30.GL_COMPARE_REF_TO_TEXTURE;
+import static org.lwjgl.opengl.GL30.GL_DEPTH_ATTACHMENT;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_COMPLETE;
+
+/**
+ * Single depth texture shared by the shadows of all the point and spot lights.
+ * 
+ * The atlas is handed out in square power of two tiles by a buddy allocator,
+ * a tile is split into four when a smaller tile is requested and four free 
+ * siblings are merged back when they are released.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name ShadowAtlas.java
+ */
+public class ShadowAtlas {
+	
+	/**
+	 * Default width and height of the atlas.
+	 */
+	public static final int DEFAULT_SIZE = 4096;
+	
+	/**
+	 * Width and height of the largest tile handed out.
+	 */
+	public static final int MAX_TILE_SIZE = 1024;
+	
+	/**
+	 * Width and height of the smallest tile handed out.
+	 */
+	public static final int MIN_TILE_SIZE = 128;
+	
+	/**
+	 * Amount of bytes stored per texel of the atlas.
+	 */
+	private static final int BYTES_PER_TEXEL = 4;
+	
+	/**
+	 * Width and height of the atlas.
+	 */
+	private final int size;
+	
+	/**
+	 * Depth texture of the atlas.
+	 */
+	private final Texture depthMap;
+	
+	/**
+	 * Frame buffer the tiles are rendered through.
+	 */
+	private final int depthMapFBO;
+	
+	/**
+	 * Free tiles of every size, index 0 holds the largest tiles.
+	 */
+	private final List<List<Tile>> freeTiles;
+	
+	/**
+	 * Creates a new ShadowAtlas with the specified size.
+	 * 
+	 * @param size - Width and height of the atlas, has to be a power of two of at least the largest tile size.
+	 * 
+	 * @throws Exception
+	 */
+	public ShadowAtlas(int size) throws Exception {
+		if (size < MAX_TILE_SIZE || Integer.bitCount(size) != 1) {
+			throw new Exception("Shadow atlas size has to be a power of two of at least " + MAX_TILE_SIZE + ": " + size);
+		}
+		
+		this.size = size;
+		
+		this.depthMap = new Texture(size, size, GL_DEPTH_COMPONENT);
+		this.depthMap.bind();
+		this.depthMap.setParameter(GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+		this.depthMap.setParameter(GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		this.depthMap.setParameter(GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
+		this.depthMap.setParameter(GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+		glBindTexture(GL_TEXTURE_2D, 0);
+		
+		this.depthMapFBO = glGenFramebuffers();
+		glBindFramebuffer(GL_FRAMEBUFFER, this.depthMapFBO);
+		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, this.depthMap.getId(), 0);
+		
+		// Set depth only.
+		glDrawBuffer(GL_NONE);
+		glReadBuffer(GL_NONE);
+		
+		if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+			throw new Exception("Failed to create FrameBuffer");
+		}
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		
+		this.freeTiles = new ArrayList<>();
+		for (int tileSize = MAX_TILE_SIZE; tileSize >= MIN_TILE_SIZE; tileSize /= 2) {
+			this.freeTiles.add(new ArrayList<>());
+		}
+		
+		for (int y = 0; y < size; y += MAX_TILE_SIZE) {
+			for (int x = 0; x < size; x += MAX_TILE_SIZE) {
+				this.freeTiles.get(0).add(new Tile(x, y, MAX_TILE_SIZE, 0));
+			}
+		}
+	}
+	
+	/**
+	 * Allocates a tile of the specified size.
+	 * 
+	 * @param tileSize - Power of two width and height of the tile, 
+	 * 		between the smallest and largest tile size.
+	 * 
+	 * @return The allocated tile or null if the atlas has no room for it.
+	 */
+	public Tile allocate(int tileSize) {
+		return allocateLevel(Integer.numberOfTrailingZeros(MAX_TILE_SIZE) - Integer.numberOfTrailingZeros(tileSize));
+	}
+	
+	/**
+	 * Allocates a tile of the specified level, splitting a larger tile if 
+	 * no tile of that level is free.
+	 * 
+	 * @param level - Level of the tile, 0 being the largest tiles.
+	 * 
+	 * @return The allocated tile or null if the atlas has no room for it.
+	 */
+	private Tile allocateLevel(int level) {
+		List<Tile> free = this.freeTiles.get(level);
+		if (!free.isEmpty()) {
+			return free.remove(free.size() - 1);
+		}
+		
+		if (level == 0) {
+			return null;
+		}
+		
+		Tile parent = allocateLevel(level - 1);
+		if (parent == null) {
+			return null;
+		}
+		
+		int half = parent.size / 2;
+		free.add(new Tile(parent.x + half, parent.y, half, level));
+		free.add(new Tile(parent.x, parent.y + half, half, level));
+		free.add(new Tile(parent.x + half, parent.y + half, half, level));
+		return new Tile(parent.x, parent.y, half, level);
+	}
+	
+	/**
+	 * Returns a tile to the atlas, merging it with its siblings
+	 * when all four of them are free.
+	 * 
+	 * @param tile - Tile to release.
+	 */
+	public void free(Tile tile) {
+		List<Tile> free = this.freeTiles.get(tile.level);
+		free.add(tile);
+		
+		if (tile.level == 0) {
+			return;
+		}
+		
+		int parentSize = tile.size * 2;
+		int parentX = tile.x - tile.x % parentSize;
+		int parentY = tile.y - tile.y % parentSize;
+		
+		int siblings = 0;
+		for (Tile t : free) {
+			if (t.x - t.x % parentSize == parentX && t.y - t.y % parentSize == parentY) {
+				siblings++;
+			}
+		}
+		
+		if (siblings == 4) {
+			free.removeIf((Tile t) -> t.x - t.x % parentSize == parentX && t.y - t.y % parentSize == parentY);
+			free(new Tile(parentX, parentY, parentSize, tile.level - 1));
+		}
+	}
+	
+	/**
+	 * Binds the frame buffer of the atlas.
+	 */
+	public void bind() {
+		glBindFramebuffer(GL_FRAMEBUFFER, this.depthMapFBO);
+	}
+	
+	/**
+	 * Binds the depth texture of the atlas to the specified texture unit.
+	 * 
+	 * @param textureUnit - Texture unit to bind to.
+	 */
+	public void bindTexture(int textureUnit) {
+		glActiveTexture(textureUnit);
+		this.depthMap.bind();
+	}
+	
+	/**
+	 * Getter for the width and height of the atlas.
+	 * 
+	 * @return - Width and height of the atlas.
+	 */
+	public int getSize() {
+		return this.size;
+	}
+	
+	/**
+	 * Getter for the amount of video memory used by the atlas.
+	 * 
+	 * @return - Amount of bytes used by the depth texture.
+	 */
+	public long getMemoryUsage() {
+		return (long) this.size * this.size * BYTES_PER_TEXEL;
+	}
+	
+	/**
+	 * Deletes the frame buffer and the texture of the atlas.
+	 */
+	public void delete() {
+		glDeleteFramebuffers(this.depthMapFBO);
+		this.depthMap.delete();
+	}
+	
+	/**
+	 * Square region of the atlas.
+	 */
+	public static class Tile {
+		
+		private final int x;
+		
+		private final int y;
+		
+		private final int size;
+		
+		private final int level;
+		
+		/**
+		 * Creates a new tile.
+		 * 
+		 * @param x - Left edge of the tile in texels.
+		 * @param y - Bottom edge of the tile in texels.
+		 * @param size - Width and height of the tile in texels.
+		 * @param level - Level of the tile, 0 being the largest tiles.
+		 */
+		private Tile(int x, int y, int size, int level) {
+			this.x = x;
+			this.y = y;
+			this.size = size;
+			this.level = level;
+		}
+		
+		/**
+		 * Getter for the left edge of this tile.
+		 * 
+		 * @return - Left edge of this tile in texels.
+		 */
+		public int getX() {
+			return this.x;
+		}
+		
+		/**
+		 * Getter for the bottom edge of this tile.
+		 * 
+		 * @return - Bottom edge of this tile in texels.
+		 */
+		public int getY() {
+			return this.y;
+		}
+		
+		/**
+		 * Getter for the width and height of this tile.
+		 * 
+		 * @return - Width and height of this tile in texels.
+		 */
+		public int getSize() {
+			return this.size;
+		}
+	}
+}
@@ -26,24 +26,37 @@ package me.oskarmendel.mass.gfx.shadow;
 
 import me.oskarmendel.mass.gfx.ArrayTexture;
 
+import static org.lwjgl.opengl.GL11.glClear;
 import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30.glBlitFramebuffer;
+import static org.lwjgl.opengl.GL30.glFramebufferTextureLayer;
 import static org.lwjgl.opengl.GL30.glGenFramebuffers;
-import static org.lwjgl.opengl.GL30.glFramebufferTexture2D;
+import static org.lwjgl.opengl.GL32.glFramebufferTexture;
 import static org.lwjgl.opengl.GL11.glDrawBuffer;
 import static org.lwjgl.opengl.GL11.glReadBuffer;
 import static org.lwjgl.opengl.GL30.glCheckFramebufferStatus;
 import static org.lwjgl.opengl.GL30.glDeleteFramebuffers;
 import static org.lwjgl.opengl.GL13.glActiveTexture;
 import static org.lwjgl.opengl.GL11.glBindTexture;
+import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_DEPTH_COMPONENT;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL30.GL_DEPTH_COMPONENT32F;
 import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_DRAW_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_READ_FRAMEBUFFER;
 import static org.lwjgl.opengl.GL30.GL_DEPTH_ATTACHMENT;
-import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
 import static org.lwjgl.opengl.GL11.GL_NONE;
 import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_COMPLETE;
 
 /**
+ * Frame buffer holding the depth maps of all the shadow cascades
+ * as the layers of a single depth texture array.
  * 
+ * A second texture array caches the depth of the static casters of every
+ * cascade, it is copied into the depth map before the dynamic casters
+ * are rendered on top of it.
  *
  * @author Oskar Mendel
  * @version 0.00.00
@@ -51,24 +64,70 @@ import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_COMPLETE;
  */
 public class ShadowBuffer {
 	
-	public static final int SHADOW_MAP_WIDTH = (int)Math.pow(65, 2);
+	/**
+	 * Default width and height of the shadow map layers.
+	 */
+	public static final int DEFAULT_RESOLUTION = 2048;
 	
-	public static final int SHADOW_MAP_HEIGHT = SHADOW_MAP_WIDTH;
+	/**
+	 * Bytes used per texel by the depth format of the shadow map.
+	 */
+	private static final int BYTES_PER_TEXEL = 4;
 	
 	private final int depthMapFBO;
 	
 	private final ArrayTexture depthMap;
 	
-	public ShadowBuffer() throws Exception {
-		// Create frame buffer to render depth map.
-		depthMapFBO = glGenFramebuffers();
+	private final int staticDepthMapFBO;
+	
+	private final ArrayTexture staticDepthMap;
+	
+	/**
+	 * Width and height of the shadow map layers.
+	 */
+	private final int resolution;
+	
+	/**
+	 * Creates a new ShadowBuffer with one layer for every shadow cascade.
+	 * 
+	 * @param resolution - Width and height of the layers, has to be a power of two.
+	 * 
+	 * @throws Exception
+	 */
+	public ShadowBuffer(int resolution) throws Exception {
+		if (resolution <= 0 || Integer.bitCount(resolution) != 1) {
+			throw new Exception("Shadow map resolution has to be a power of two: " + resolution);
+		}
 		
-		// Create the depth map textures.
-		depthMap = new ArrayTexture(ShadowRenderer.NUM_CASCADES, SHADOW_MAP_WIDTH, SHADOW_MAP_HEIGHT, GL_DEPTH_COMPONENT);
+		this.resolution = resolution;
 		
-		// Attatch depth map textures to frame buffer.
-		glBindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
-		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, depthMap.getIds()[0], 0);
+		// Create the depth map texture arrays.
+		depthMap = new ArrayTexture(ShadowRenderer.NUM_CASCADES, resolution, resolution, GL_DEPTH_COMPONENT32F, GL_DEPTH_COMPONENT);
+		staticDepthMap = new ArrayTexture(ShadowRenderer.NUM_CASCADES, resolution, resolution, GL_DEPTH_COMPONENT32F, GL_DEPTH_COMPONENT);
+		
+		// The depth map is sampled with hardware depth comparison and bilinear filtering.
+		depthMap.setDepthCompare(true);
+		
+		// Create frame buffers to render the depth maps.
+		depthMapFBO = createFramebuffer(depthMap);
+		staticDepthMapFBO = createFramebuffer(staticDepthMap);
+	}
+	
+	/**
+	 * Creates a depth only frame buffer with all the layers of the specified
+	 * texture array attached so the cascades are selected with gl_Layer.
+	 * 
+	 * @param texture - Depth texture array to attach.
+	 * 
+	 * @return The id of the created frame buffer.
+	 * 
+	 * @throws Exception
+	 */
+	private static int createFramebuffer(ArrayTexture texture) throws Exception {
+		int fbo = glGenFramebuffers();
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, fbo);
+		glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, texture.getId(), 0);
 		
 		// Set depth only.
 		glDrawBuffer(GL_NONE);
@@ -80,17 +139,62 @@ public class ShadowBuffer {
         
 		// Unbind frame buffer.
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        
+        return fbo;
 	}
 	
 	/**
+	 * Binds the static cache frame buffer and clears the layers of the 
+	 * specified cascades so their static casters can be rendered again.
 	 * 
-	 * @param start
+	 * @param cascadeMask - Bit mask of the cascades to clear.
 	 */
-	public void bindTextures(int start) {
-		for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            glActiveTexture(start + i);
-            glBindTexture(GL_TEXTURE_2D, depthMap.getIds()[i]);
-        }
+	public void clearStaticLayers(int cascadeMask) {
+		glBindFramebuffer(GL_FRAMEBUFFER, staticDepthMapFBO);
+		
+		for (int i = 0; i < staticDepthMap.getLayers(); i++) {
+			if ((cascadeMask & (1 << i)) != 0) {
+				glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticDepthMap.getId(), 0, i);
+				glClear(GL_DEPTH_BUFFER_BIT);
+			}
+		}
+		
+		glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticDepthMap.getId(), 0);
+	}
+	
+	/**
+	 * Copies the cached static depth of the specified cascades into the depth map
+	 * and leaves the depth map frame buffer bound. The layers of the other 
+	 * cascades keep their previous content.
+	 * 
+	 * @param cascadeMask - Bit mask of the cascades to copy.
+	 */
+	public void copyStaticLayers(int cascadeMask) {
+		glBindFramebuffer(GL_READ_FRAMEBUFFER, staticDepthMapFBO);
+		glBindFramebuffer(GL_DRAW_FRAMEBUFFER, depthMapFBO);
+		
+		for (int i = 0; i < depthMap.getLayers(); i++) {
+			if ((cascadeMask & (1 << i)) != 0) {
+				glFramebufferTextureLayer(GL_READ_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticDepthMap.getId(), 0, i);
+				glFramebufferTextureLayer(GL_DRAW_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthMap.getId(), 0, i);
+				glBlitFramebuffer(0, 0, resolution, resolution, 0, 0, resolution, resolution, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+			}
+		}
+		
+		glFramebufferTexture(GL_READ_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticDepthMap.getId(), 0);
+		glFramebufferTexture(GL_DRAW_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthMap.getId(), 0);
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
+	}
+	
+	/**
+	 * Binds the depth map texture array to the specified texture unit.
+	 * 
+	 * @param textureUnit - Texture unit to bind to.
+	 */
+	public void bindTextures(int textureUnit) {
+		glActiveTexture(textureUnit);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, depthMap.getId());
 	}
 	
 	public ArrayTexture getDepthMapTexture() {
@@ -105,11 +209,31 @@ public class ShadowBuffer {
 		return this.depthMapFBO;
 	}
 	
+	/**
+	 * Getter for the width and height of the shadow map layers.
+	 * 
+	 * @return The resolution of the shadow map.
+	 */
+	public int getResolution() {
+		return this.resolution;
+	}
+	
+	/**
+	 * Getter for the amount of video memory used by the shadow map.
+	 * 
+	 * @return The size of the shadow map in bytes.
+	 */
+	public long getMemoryUsage() {
+		return (long) this.resolution * this.resolution * (depthMap.getLayers() + staticDepthMap.getLayers()) * BYTES_PER_TEXEL;
+	}
+	
 	/**
 	 * 
 	 */
 	public void delete() {
 		glDeleteFramebuffers(depthMapFBO);
+		glDeleteFramebuffers(staticDepthMapFBO);
 		depthMap.delete();
+		staticDepthMap.delete();
 	}
 }
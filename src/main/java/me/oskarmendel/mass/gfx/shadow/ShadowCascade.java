@@ -29,6 +29,7 @@ import org.joml.Vector3f;
 import org.joml.Vector4f;
 
 import me.oskarmendel.mass.core.Screen;
+import me.oskarmendel.mass.gfx.Mesh;
 import me.oskarmendel.mass.gfx.Transformation;
 import me.oskarmendel.mass.gfx.light.DirectionalLight;
 
@@ -43,6 +44,21 @@ public class ShadowCascade {
 
 	private static final int FRUSTUM_CORNERS = 8;
 	
+	/**
+	 * Steps per world unit the radius of a cascade is rounded up to.
+	 */
+	private static final float RADIUS_ROUNDING = 16.0f;
+	
+	/**
+	 * Step of the depth range snapping relative to the radius of a cascade.
+	 */
+	private static final float DEPTH_SNAP = 0.25f;
+	
+	/**
+	 * Position of the light view, the view only holds the light orientation.
+	 */
+	private static final Vector3f LIGHT_ORIGIN = new Vector3f();
+	
 	private final Matrix4f projectionViewMatrix;
 	
 	private final Matrix4f orthoProjectionMatrix;
@@ -59,6 +75,26 @@ public class ShadowCascade {
 	
 	private final Vector4f tmpVec;
 	
+	/**
+	 * Bounds of the orthographic projection in light view space.
+	 */
+	private float orthoMinX, orthoMaxX, orthoMinY, orthoMaxY, orthoNear, orthoFar;
+	
+	/**
+	 * Direction of the light the cascade was last updated with.
+	 */
+	private final Vector3f lightDirection;
+	
+	/**
+	 * True if the snapped bounds or the light changed since the last reset.
+	 */
+	private boolean boundsChanged;
+	
+	/**
+	 * Temporary center used when culling shadow casters.
+	 */
+	private final Vector3f tmpCenter;
+	
 	/**
 	 * 
 	 * @param zNear
@@ -78,86 +114,171 @@ public class ShadowCascade {
 		}
 		
 		this.tmpVec = new Vector4f();
+		this.tmpCenter = new Vector3f();
+		this.lightDirection = new Vector3f();
+		this.boundsChanged = true;
 	}
 	
 	/**
+	 * Updates the light view and the orthographic projection of this cascade
+	 * to cover the slice of the camera frustum between its near and far plane.
+	 * 
+	 * The projection covers the bounding sphere of the slice so its size does 
+	 * not change when the camera rotates, and its position is snapped to whole
+	 * shadow map texels so the rendered depth stays the same while the camera moves.
 	 * 
 	 * @param screen
 	 * @param viewMatrix
 	 * @param light
+	 * @param resolution - Width and height of the shadow map of this cascade.
 	 */
-	public void update(Screen screen, Matrix4f viewMatrix, DirectionalLight light) {
+	public void update(Screen screen, Matrix4f viewMatrix, DirectionalLight light, int resolution) {
 		float aspectRatio = (float) screen.getWidth() / (float) screen.getHeight();
 		// Build view matrix for this shadow cascade.
 		this.projectionViewMatrix.setPerspective(Screen.FOV, aspectRatio, zNear, zFar);
 		this.projectionViewMatrix.mul(viewMatrix);
 		
 		// Calculate frustum corners in space
-		float maxZ = Float.MIN_VALUE;
-		float minZ = Float.MAX_VALUE;
-		
+		this.centr.set(0, 0, 0);
 		for (int i = 0; i < FRUSTUM_CORNERS; i++) {
 			Vector3f corner = this.frustumCorners[i];
-			corner.set(0, 0, 0);
-			
 			this.projectionViewMatrix.frustumCorner(i, corner);
 			this.centr.add(corner);
-			this.centr.div(8.0f);
-			
-			minZ = Math.min(minZ, corner.z);
-			maxZ = Math.max(maxZ, corner.z);
 		}
+		this.centr.div(FRUSTUM_CORNERS);
+		
+		float radius = 0;
+		for (int i = 0; i < FRUSTUM_CORNERS; i++) {
+			radius = Math.max(radius, this.frustumCorners[i].distance(this.centr));
+		}
+		radius = (float) Math.ceil(radius * RADIUS_ROUNDING) / RADIUS_ROUNDING;
 		
 		Vector3f lightDir = light.getDirection();
-		Vector3f lightPosInc = new Vector3f().set(lightDir);
-		float distance = maxZ - minZ;
+		if (!lightDir.equals(this.lightDirection)) {
+			this.lightDirection.set(lightDir);
+			this.boundsChanged = true;
+		}
 		
-		lightPosInc.mul(distance);
-		Vector3f lightPos = new Vector3f();
-        lightPos.set(this.centr);
-        lightPos.add(lightPosInc);
-        
-        updateLightViewMatrix(lightDir, lightPos);
-        updateLightProjectionMatrix();
+        updateLightViewMatrix(lightDir);
+        updateLightProjectionMatrix(radius, resolution);
 	}
 	
 	/**
+	 * Updates the light view matrix, it only holds the orientation of the light
+	 * so positions in light space do not depend on the camera.
 	 * 
 	 * @param lightDirection
-	 * @param lightPosition
 	 */
-	private void updateLightViewMatrix(Vector3f lightDirection, Vector3f lightPosition) {
+	private void updateLightViewMatrix(Vector3f lightDirection) {
 		float lightAngleX = (float) Math.toDegrees(Math.acos(lightDirection.z));
         float lightAngleY = (float) Math.toDegrees(Math.asin(lightDirection.x));
         float lightAngleZ = 0;
-        Transformation.updateGenericViewMatrix(lightPosition, new Vector3f(lightAngleX, lightAngleY, lightAngleZ), lightViewMatrix);
+        Transformation.updateGenericViewMatrix(LIGHT_ORIGIN, new Vector3f(lightAngleX, lightAngleY, lightAngleZ), lightViewMatrix);
 	}
 	
 	/**
+	 * Updates the orthographic projection around the bounding sphere of the 
+	 * frustum slice with its center snapped to the texel grid of the shadow map.
 	 * 
+	 * @param radius - Radius of the bounding sphere of the frustum slice.
+	 * @param resolution - Width and height of the shadow map of this cascade.
 	 */
-	private void updateLightProjectionMatrix() {
-		float minX =  Float.MAX_VALUE;
-        float maxX = -Float.MIN_VALUE;
-        float minY =  Float.MAX_VALUE;
-        float maxY = -Float.MIN_VALUE;
-        float minZ =  Float.MAX_VALUE;
-        float maxZ = -Float.MIN_VALUE;
-        
-        for (int i = 0; i < FRUSTUM_CORNERS; i++) {
-            Vector3f corner = frustumCorners[i];
-            tmpVec.set(corner, 1);
-            tmpVec.mul(lightViewMatrix);
-            minX = Math.min(tmpVec.x, minX);
-            maxX = Math.max(tmpVec.x, maxX);
-            minY = Math.min(tmpVec.y, minY);
-            maxY = Math.max(tmpVec.y, maxY);
-            minZ = Math.min(tmpVec.z, minZ);
-            maxZ = Math.max(tmpVec.z, maxZ);
-        }
+	private void updateLightProjectionMatrix(float radius, int resolution) {
+		tmpVec.set(this.centr, 1);
+		tmpVec.mul(lightViewMatrix);
+		
+		float texelSize = 2 * radius / resolution;
+		float x = (float) Math.floor(tmpVec.x / texelSize) * texelSize;
+		float y = (float) Math.floor(tmpVec.y / texelSize) * texelSize;
+		
+		// The depth range is snapped in coarser steps and widened by one step to stay conservative.
+		float depthStep = radius * DEPTH_SNAP;
+		float z = (float) Math.floor(tmpVec.z / depthStep) * depthStep;
+		float near = -(z + radius + depthStep);
+		float far = -(z - radius - depthStep);
+		
+		if (x - radius != this.orthoMinX || y - radius != this.orthoMinY 
+				|| near != this.orthoNear || far != this.orthoFar || 2 * radius != getOrthoSize()) {
+			this.boundsChanged = true;
+		}
+		
+        this.orthoProjectionMatrix.setOrtho(x - radius, x + radius, y - radius, y + radius, near, far);
         
-        float distz = maxZ - minZ;
-        this.orthoProjectionMatrix.setOrtho(minX, maxX, minY, maxY, 0, distz);
+        this.orthoMinX = x - radius;
+        this.orthoMaxX = x + radius;
+        this.orthoMinY = y - radius;
+        this.orthoMaxY = y + radius;
+        this.orthoNear = near;
+        this.orthoFar = far;
+	}
+	
+	/**
+	 * Getter for the bounds changed value of this cascade.
+	 * 
+	 * @return True if the snapped bounds or the light changed since the last reset; False otherwise.
+	 */
+	public boolean hasBoundsChanged() {
+		return this.boundsChanged;
+	}
+	
+	/**
+	 * Setter for the bounds changed value of this cascade.
+	 * 
+	 * @param boundsChanged - The bounds changed value to set.
+	 */
+	public void setBoundsChanged(boolean boundsChanged) {
+		this.boundsChanged = boundsChanged;
+	}
+	
+	/**
+	 * Getter for the size of the orthographic projection of this cascade,
+	 * the largest of its width and height in light view space.
+	 * 
+	 * @return The size of the orthographic projection.
+	 */
+	public float getOrthoSize() {
+		return Math.max(this.orthoMaxX - this.orthoMinX, this.orthoMaxY - this.orthoMinY);
+	}
+	
+	/**
+	 * Checks if the specified mesh rendered with the specified model matrix can
+	 * cast a shadow into this cascade. The orthographic volume of the cascade
+	 * is extruded towards the light so casters between the light and the 
+	 * cascade are kept even when they are outside of the camera view.
+	 * 
+	 * @param modelMatrix - Model matrix of the caster.
+	 * @param mesh - Mesh of the caster.
+	 * @param scale - Scale of the caster.
+	 * 
+	 * @return True if the caster has to be rendered into this cascade; False otherwise.
+	 */
+	public boolean containsCaster(Matrix4f modelMatrix, Mesh mesh, float scale) {
+		Vector3f min = mesh.getBoundsMin();
+		Vector3f max = mesh.getBoundsMax();
+		float radius = min.distance(max) * 0.5f * scale;
+		
+		this.tmpCenter.set(min).add(max).mul(0.5f);
+		modelMatrix.transformPosition(this.tmpCenter);
+		
+		return containsSphere(this.tmpCenter, radius);
+	}
+	
+	/**
+	 * Checks if the specified world space sphere can cast a shadow into 
+	 * this cascade.
+	 * 
+	 * @param center - Center of the sphere.
+	 * @param radius - Radius of the sphere.
+	 * 
+	 * @return True if the sphere reaches the extruded volume of this cascade; False otherwise.
+	 */
+	public boolean containsSphere(Vector3f center, float radius) {
+		this.tmpVec.set(center, 1);
+		this.tmpVec.mul(this.lightViewMatrix);
+		
+		return this.tmpVec.x + radius >= this.orthoMinX && this.tmpVec.x - radius <= this.orthoMaxX
+				&& this.tmpVec.y + radius >= this.orthoMinY && this.tmpVec.y - radius <= this.orthoMaxY
+				&& this.tmpVec.z + radius >= -this.orthoFar;
 	}
 	
 	/**
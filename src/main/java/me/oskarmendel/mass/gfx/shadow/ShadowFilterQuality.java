@@ -0,0 +1,84 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.shadow;
+
+/**
+ * Presets for the filter kernel used when sampling the shadow maps.
+ * Every tap is a hardware depth compare with bilinear filtering, 
+ * so a single tap already blends the four nearest texels.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name ShadowFilterQuality.java
+ */
+public enum ShadowFilterQuality {
+	
+	/**
+	 * Single bilinear tap.
+	 */
+	LOW(1),
+	
+	/**
+	 * 2x2 bilinear taps.
+	 */
+	MEDIUM(2),
+	
+	/**
+	 * 4x4 bilinear taps.
+	 */
+	HIGH(4);
+	
+	/**
+	 * Width and height of the kernel in taps.
+	 */
+	private final int kernelSize;
+	
+	/**
+	 * Creates a new ShadowFilterQuality with the specified kernel size.
+	 * 
+	 * @param kernelSize - Width and height of the kernel in taps.
+	 */
+	ShadowFilterQuality(int kernelSize) {
+		this.kernelSize = kernelSize;
+	}
+	
+	/**
+	 * Getter for the width and height of the kernel in taps.
+	 * 
+	 * @return - Width and height of the kernel.
+	 */
+	public int getKernelSize() {
+		return this.kernelSize;
+	}
+	
+	/**
+	 * Getter for the amount of texture fetches per shaded fragment.
+	 * 
+	 * @return - Amount of texture fetches of the kernel.
+	 */
+	public int getFetches() {
+		return this.kernelSize * this.kernelSize;
+	}
+}
@@ -0,0 +1,273 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.gfx.shadow;
+
+import me.oskarmendel.mass.gfx.ArrayTexture;
+import me.oskarmendel.mass.gfx.shader.Shader;
+import me.oskarmendel.mass.gfx.shader.ShaderProgram;
+
+import static org.lwjgl.opengl.GL11.glBindTexture;
+import static org.lwjgl.opengl.GL11.glDisable;
+import static org.lwjgl.opengl.GL11.glDrawArrays;
+import static org.lwjgl.opengl.GL11.glDrawBuffer;
+import static org.lwjgl.opengl.GL11.glEnable;
+import static org.lwjgl.opengl.GL11.glReadBuffer;
+import static org.lwjgl.opengl.GL11.glViewport;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glCheckFramebufferStatus;
+import static org.lwjgl.opengl.GL30.glDeleteFramebuffers;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
+import static org.lwjgl.opengl.GL30.glFramebufferTextureLayer;
+import static org.lwjgl.opengl.GL30.glGenFramebuffers;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL11.GL_DEPTH_TEST;
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL20.GL_FRAGMENT_SHADER;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
+import static org.lwjgl.opengl.GL30.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_COMPLETE;
+import static org.lwjgl.opengl.GL30.GL_RGBA32F;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
+
+/**
+ * Frame buffer holding the exponential variance moments of the shadow 
+ * cascades at a lower resolution than the depth maps.
+ * 
+ * The moments of a cascade are built from its depth map, averaging 
+ * blocks of depth texels, and then blurred with a separable filter so
+ * the shadows can be sampled with a single filtered fetch.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name ShadowMomentsBuffer.java
+ */
+public class ShadowMomentsBuffer {
+	
+	/**
+	 * Factor the depth map resolution is divided by.
+	 */
+	public static final int DOWNSAMPLE = 2;
+	
+	/**
+	 * Amount of bytes stored per texel, four 32 bit moments.
+	 */
+	private static final int BYTES_PER_TEXEL = 16;
+	
+	/**
+	 * Width and height of the moment maps.
+	 */
+	private final int resolution;
+	
+	/**
+	 * Texture array holding the moments of every cascade.
+	 */
+	private final ArrayTexture momentsMap;
+	
+	/**
+	 * Single layer holding the horizontally blurred moments of a cascade.
+	 */
+	private final ArrayTexture blurMap;
+	
+	/**
+	 * Frame buffer the moments are rendered through.
+	 */
+	private final int momentsFBO;
+	
+	/**
+	 * Empty vertex array used to draw the full screen triangle.
+	 */
+	private final int vaoId;
+	
+	private final ShaderProgram momentsShaderProgram;
+	
+	private final ShaderProgram blurShaderProgram;
+	
+	/**
+	 * Creates a new ShadowMomentsBuffer for depth maps of the specified resolution.
+	 * 
+	 * @param depthMapResolution - Width and height of the depth maps of the cascades.
+	 * 
+	 * @throws Exception
+	 */
+	public ShadowMomentsBuffer(int depthMapResolution) throws Exception {
+		this.resolution = Math.max(1, depthMapResolution / DOWNSAMPLE);
+		
+		this.momentsMap = new ArrayTexture(ShadowRenderer.NUM_CASCADES, this.resolution, this.resolution, GL_RGBA32F, GL_RGBA);
+		this.blurMap = new ArrayTexture(1, this.resolution, this.resolution, GL_RGBA32F, GL_RGBA);
+		
+		this.momentsFBO = glGenFramebuffers();
+		glBindFramebuffer(GL_FRAMEBUFFER, this.momentsFBO);
+		glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, this.momentsMap.getId(), 0, 0);
+		glDrawBuffer(GL_COLOR_ATTACHMENT0);
+		glReadBuffer(GL_COLOR_ATTACHMENT0);
+		
+		if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+			throw new Exception("Failed to create FrameBuffer");
+		}
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		
+		this.vaoId = glGenVertexArrays();
+		
+		this.momentsShaderProgram = createProgram("src/main/resources/shaders/evsm_moments.frag");
+		this.momentsShaderProgram.createUniform("depthMap");
+		this.momentsShaderProgram.createUniform("layer");
+		
+		this.blurShaderProgram = createProgram("src/main/resources/shaders/evsm_blur.frag");
+		this.blurShaderProgram.createUniform("source");
+		this.blurShaderProgram.createUniform("layer");
+		this.blurShaderProgram.createUniform("horizontal");
+	}
+	
+	/**
+	 * Creates a shader program drawing a full screen triangle with 
+	 * the specified fragment shader.
+	 * 
+	 * @param fragmentShaderPath - Path of the fragment shader.
+	 * 
+	 * @return The linked shader program.
+	 */
+	private static ShaderProgram createProgram(String fragmentShaderPath) {
+		ShaderProgram shaderProgram = new ShaderProgram();
+		
+		Shader vertexShader = Shader.loadShader(GL_VERTEX_SHADER, "src/main/resources/shaders/fullscreen.vert");
+		Shader fragmentShader = Shader.loadShader(GL_FRAGMENT_SHADER, fragmentShaderPath);
+		
+		shaderProgram.attachShader(vertexShader);
+		shaderProgram.attachShader(fragmentShader);
+		shaderProgram.link();
+		
+		return shaderProgram;
+	}
+	
+	/**
+	 * Rebuilds the moments of the specified cascades from their depth maps.
+	 * 
+	 * @param depthMap - Depth texture array of the cascades.
+	 * @param cascadeMask - Bit mask of the cascades to rebuild.
+	 */
+	public void update(ArrayTexture depthMap, int cascadeMask) {
+		if (cascadeMask == 0) {
+			return;
+		}
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, this.momentsFBO);
+		glViewport(0, 0, this.resolution, this.resolution);
+		glDisable(GL_DEPTH_TEST);
+		glBindVertexArray(this.vaoId);
+		glActiveTexture(GL_TEXTURE0);
+		
+		// The depth values are read directly so the comparison is turned off meanwhile.
+		depthMap.setDepthCompare(false);
+		
+		this.momentsShaderProgram.use();
+		this.momentsShaderProgram.setUniform("depthMap", 0);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, depthMap.getId());
+		
+		for (int i = 0; i < this.momentsMap.getLayers(); i++) {
+			if ((cascadeMask & (1 << i)) != 0) {
+				glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, this.momentsMap.getId(), 0, i);
+				this.momentsShaderProgram.setUniform("layer", i);
+				glDrawArrays(GL_TRIANGLES, 0, 3);
+			}
+		}
+		
+		depthMap.setDepthCompare(true);
+		
+		// Blur horizontally into the blur map and vertically back into the moments.
+		this.blurShaderProgram.use();
+		this.blurShaderProgram.setUniform("source", 0);
+		
+		for (int i = 0; i < this.momentsMap.getLayers(); i++) {
+			if ((cascadeMask & (1 << i)) == 0) {
+				continue;
+			}
+			
+			glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, this.blurMap.getId(), 0, 0);
+			glBindTexture(GL_TEXTURE_2D_ARRAY, this.momentsMap.getId());
+			this.blurShaderProgram.setUniform("layer", i);
+			this.blurShaderProgram.setUniform("horizontal", 1);
+			glDrawArrays(GL_TRIANGLES, 0, 3);
+			
+			glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, this.momentsMap.getId(), 0, i);
+			glBindTexture(GL_TEXTURE_2D_ARRAY, this.blurMap.getId());
+			this.blurShaderProgram.setUniform("layer", 0);
+			this.blurShaderProgram.setUniform("horizontal", 0);
+			glDrawArrays(GL_TRIANGLES, 0, 3);
+		}
+		
+		this.blurShaderProgram.stopUse();
+		glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+		glBindVertexArray(0);
+		glEnable(GL_DEPTH_TEST);
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+	}
+	
+	/**
+	 * Binds the moments texture array to the specified texture unit.
+	 * 
+	 * @param textureUnit - Texture unit to bind to.
+	 */
+	public void bindTextures(int textureUnit) {
+		glActiveTexture(textureUnit);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, this.momentsMap.getId());
+	}
+	
+	/**
+	 * Getter for the width and height of the moment maps.
+	 * 
+	 * @return - Width and height of the moment maps.
+	 */
+	public int getResolution() {
+		return this.resolution;
+	}
+	
+	/**
+	 * Getter for the amount of video memory used by this buffer.
+	 * 
+	 * @return - Amount of bytes used by the moments and the blur map.
+	 */
+	public long getMemoryUsage() {
+		return (long) this.resolution * this.resolution * BYTES_PER_TEXEL 
+				* (this.momentsMap.getLayers() + this.blurMap.getLayers());
+	}
+	
+	/**
+	 * Deletes the resources of this buffer.
+	 */
+	public void delete() {
+		glDeleteFramebuffers(this.momentsFBO);
+		glDeleteVertexArrays(this.vaoId);
+		this.momentsMap.delete();
+		this.blurMap.delete();
+		this.momentsShaderProgram.delete();
+		this.blurShaderProgram.delete();
+	}
+}
@@ -40,21 +40,21 @@ import me.oskarmendel.mass.gfx.InstancedMesh;
 import me.oskarmendel.mass.gfx.Mesh;
 import me.oskarmendel.mass.gfx.Renderer;
 import me.oskarmendel.mass.gfx.Transformation;
+import me.oskarmendel.mass.gfx.lod.LodSelector;
 import me.oskarmendel.mass.gfx.light.DirectionalLight;
+import me.oskarmendel.mass.gfx.pvs.PotentiallyVisibleSet;
 import me.oskarmendel.mass.gfx.shader.Shader;
 import me.oskarmendel.mass.gfx.shader.ShaderProgram;
 
-import static org.lwjgl.opengl.GL11.glClear;
-import static org.lwjgl.opengl.GL30.glFramebufferTexture2D;
+import static org.lwjgl.opengl.GL11.glDisable;
+import static org.lwjgl.opengl.GL11.glEnable;
 import static org.lwjgl.opengl.GL30.glBindFramebuffer;
 import static org.lwjgl.opengl.GL11.glViewport;
 import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
 import static org.lwjgl.opengl.GL20.GL_FRAGMENT_SHADER;
+import static org.lwjgl.opengl.GL32.GL_GEOMETRY_SHADER;
 import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
-import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
-import static org.lwjgl.opengl.GL30.GL_DEPTH_ATTACHMENT;
-import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
-import static org.lwjgl.opengl.GL13.GL_TEXTURE2;
+import static org.lwjgl.opengl.GL32.GL_DEPTH_CLAMP;
 
 
 /**
@@ -70,6 +70,11 @@ public class ShadowRenderer {
 	 */
 	public static final int NUM_CASCADES = 3;
 	
+	/**
+	 * Bit mask with every cascade set.
+	 */
+	private static final int ALL_CASCADES = (1 << NUM_CASCADES) - 1;
+	
 	/**
 	 * 
 	 */
@@ -99,18 +104,80 @@ public class ShadowRenderer {
 	 */
 	private final List<Entity> filteredEntities;
 	
+	/**
+	 * Selects the levels of detail of the shadow casters for every cascade.
+	 */
+	private final LodSelector lodSelector;
+	
+	/**
+	 * Bit mask of the cascades the caster currently being rendered reaches.
+	 */
+	private int cascadeMask;
+	
+	/**
+	 * Decides which cascades are updated every frame.
+	 */
+	private final CascadeScheduler cascadeScheduler;
+	
+	/**
+	 * Filter kernel used when sampling the shadow maps.
+	 */
+	private ShadowFilterQuality filterQuality;
+	
+	/**
+	 * Technique the cascades are filtered with.
+	 */
+	private ShadowTechnique technique;
+	
+	/**
+	 * Low resolution moments of the cascades used by the EVSM technique.
+	 */
+	private ShadowMomentsBuffer momentsBuffer;
+	
+	/**
+	 * Bit mask of the cascades whose moments are out of date with their depth.
+	 */
+	private int staleMomentsMask;
+	
+	/**
+	 * Bit mask of the cascades whose cached static depth is stale
+	 * but which have not been updated since.
+	 */
+	private int staleStaticMask;
+	
 	/**
 	 * 
 	 */
 	public ShadowRenderer() {
 		this.filteredEntities = new ArrayList<>();
+		this.lodSelector = new LodSelector();
+		this.cascadeScheduler = new CascadeScheduler(NUM_CASCADES);
+		this.staleStaticMask = ALL_CASCADES;
+		this.filterQuality = ShadowFilterQuality.MEDIUM;
+		this.technique = ShadowTechnique.PCF;
+		this.staleMomentsMask = ALL_CASCADES;
 	}
 	
 	/**
-	 * 
+	 * Initializes this ShadowRenderer with the default shadow map resolution.
 	 */
 	public void init() throws Exception {
-		shadowBuffer = new ShadowBuffer();
+		init(ShadowBuffer.DEFAULT_RESOLUTION);
+	}
+	
+	/**
+	 * Initializes this ShadowRenderer.
+	 * 
+	 * @param resolution - Width and height of the shadow map of every cascade, has to be a power of two.
+	 */
+	public void init(int resolution) throws Exception {
+		shadowBuffer = new ShadowBuffer(resolution);
+		System.out.println("Shadow map: " + NUM_CASCADES + " x " + resolution + "x" + resolution 
+				+ ", " + (shadowBuffer.getMemoryUsage() / (1024 * 1024)) + " MB");
+		
+		momentsBuffer = new ShadowMomentsBuffer(resolution);
+		System.out.println("Shadow moments: " + NUM_CASCADES + " x " + momentsBuffer.getResolution() + "x" 
+				+ momentsBuffer.getResolution() + ", " + (momentsBuffer.getMemoryUsage() / (1024 * 1024)) + " MB");
 		this.shadowCascades = new ArrayList<>();
 		
 		setupDepthShader();
@@ -131,17 +198,20 @@ public class ShadowRenderer {
 		depthShaderProgram = new ShaderProgram();
 		
 		Shader vertexShader = Shader.loadShader(GL_VERTEX_SHADER, "src/main/resources/shaders/depth.vert");
+		Shader geometryShader = Shader.loadShader(GL_GEOMETRY_SHADER, "src/main/resources/shaders/depth.geom");
 		Shader fragmentShader = Shader.loadShader(GL_FRAGMENT_SHADER, "src/main/resources/shaders/depth.frag");
 		
 		depthShaderProgram.attachShader(vertexShader);
+		depthShaderProgram.attachShader(geometryShader);
 		depthShaderProgram.attachShader(fragmentShader);
 		depthShaderProgram.link();
 		
 		depthShaderProgram.createUniform("isInstanced");
 		depthShaderProgram.createUniform("modelNonInstancedMatrix");
-		depthShaderProgram.createUniform("lightViewMatrix");
+		depthShaderProgram.createUniform("lightViewMatrix", NUM_CASCADES);
 		depthShaderProgram.createUniform("jointsMatrix");
-		depthShaderProgram.createUniform("orthoProjectionMatrix");
+		depthShaderProgram.createUniform("orthoProjectionMatrix", NUM_CASCADES);
+		depthShaderProgram.createUniform("cascadeMask");
 	}
 	
 	/**
@@ -151,12 +221,27 @@ public class ShadowRenderer {
 	 * @param scene
 	 */
 	public void update(Screen screen, Matrix4f viewMatrix, Scene scene) {
+		update(screen, viewMatrix, scene, ALL_CASCADES);
+	}
+	
+	/**
+	 * Updates the specified cascades, the other cascades keep the 
+	 * bounds they were last rendered with.
+	 * 
+	 * @param screen
+	 * @param viewMatrix
+	 * @param scene
+	 * @param updateMask - Bit mask of the cascades to update.
+	 */
+	private void update(Screen screen, Matrix4f viewMatrix, Scene scene, int updateMask) {
 		SceneLight sceneLight = scene.getSceneLight();
 		DirectionalLight directionalLight = sceneLight != null ? sceneLight.getDirectionalLight() : null;
 		
 		for (int i = 0; i < NUM_CASCADES; i++) {
-			ShadowCascade shadowCascade = shadowCascades.get(i);
-			shadowCascade.update(screen, viewMatrix, directionalLight);
+			if ((updateMask & (1 << i)) != 0) {
+				ShadowCascade shadowCascade = shadowCascades.get(i);
+				shadowCascade.update(screen, viewMatrix, directionalLight, shadowBuffer.getResolution());
+			}
 		}
 	}
 	
@@ -167,47 +252,161 @@ public class ShadowRenderer {
 	 * @param camera
 	 * @param transformation
 	 * @param renderer
+	 * @param changed - True if the camera or the scene changed this frame.
 	 */
-	public void render(Screen screen, Scene scene, Camera camera, Transformation transformation, Renderer renderer) {
-		update(screen, camera.getViewMatrix(), scene);
+	public void render(Screen screen, Scene scene, Camera camera, Transformation transformation, Renderer renderer, 
+			boolean changed) {
+		// Farther cascades are updated less often, the cascades skipped this 
+		// frame keep both their bounds and their depth from the last update.
+		SceneLight sceneLight = scene.getSceneLight();
+		int updateMask = this.cascadeScheduler.schedule(camera, 
+				sceneLight != null ? sceneLight.getDirectionalLight() : null, changed);
 		
-		glBindFramebuffer(GL_FRAMEBUFFER, shadowBuffer.getDepthMapFBO());
-		glViewport(0, 0, ShadowBuffer.SHADOW_MAP_WIDTH, ShadowBuffer.SHADOW_MAP_HEIGHT);
-		glClear(GL_DEPTH_BUFFER_BIT);
+		update(screen, camera.getViewMatrix(), scene, updateMask);
+		
+		this.lodSelector.updateCascades(scene.getEntities(), this.shadowCascades, transformation);
+		
+		this.staleStaticMask |= findStaleCascades(scene);
+		int staleMask = this.staleStaticMask & updateMask;
+		this.staleStaticMask &= ~updateMask;
+		
+		glViewport(0, 0, shadowBuffer.getResolution(), shadowBuffer.getResolution());
 		
 		depthShaderProgram.use();
 		
 		for (int i = 0; i < NUM_CASCADES; i++) {
 			ShadowCascade shadowCascade = shadowCascades.get(i);
 			
-			depthShaderProgram.setUniform(("orthoProjectionMatrix"), shadowCascade.getOrthoProjectionMatrix());
-			depthShaderProgram.setUniform(("lightViewMatrix"), shadowCascade.getLightViewMatrix());
-			
-			glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, shadowBuffer.getDepthMapTexture().getIds()[i], 0);
-			
-			renderNonInstancedMeshes(scene, transformation);
+			depthShaderProgram.setUniform(("orthoProjectionMatrix"), shadowCascade.getOrthoProjectionMatrix(), i);
+			depthShaderProgram.setUniform(("lightViewMatrix"), shadowCascade.getLightViewMatrix(), i);
+		}
+		
+		// Casters between the light and the near plane are clamped onto it.
+		glEnable(GL_DEPTH_CLAMP);
+		
+		// Re-render the static casters of the cascades whose cache is no longer valid.
+		if (staleMask != 0) {
+			shadowBuffer.clearStaticLayers(staleMask);
 			
-			renderInstancedMeshes(scene, transformation);
+			renderNonInstancedMeshes(scene, transformation, true, staleMask);
+			renderInstancedMeshes(scene, transformation, true, staleMask);
 		}
 		
+		// Composite the cached static depth and render the dynamic casters on top of it. 
+		// All cascades are rendered in one pass, the geometry shader routes each 
+		// triangle to the layers of the cascades the caster reaches.
+		shadowBuffer.copyStaticLayers(updateMask);
+		
+		renderNonInstancedMeshes(scene, transformation, false, updateMask);
+		renderInstancedMeshes(scene, transformation, false, updateMask);
+		
+		glDisable(GL_DEPTH_CLAMP);
+		
 		depthShaderProgram.stopUse();
 		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		
+		// The moments are only kept up to date while they are used, 
+		// the other cascades are rebuilt once the technique is selected.
+		if (this.technique == ShadowTechnique.EVSM) {
+			momentsBuffer.update(shadowBuffer.getDepthMapTexture(), updateMask | this.staleMomentsMask);
+			this.staleMomentsMask = 0;
+		} else {
+			this.staleMomentsMask |= updateMask;
+		}
+	}
+	
+	/**
+	 * Checks if the shadows have to be rendered on a frame without changes 
+	 * because cascades skipped on the last frames with changes are still 
+	 * out of date.
+	 * 
+	 * @return True if a cascade is still out of date.
+	 */
+	public boolean hasPendingCascades() {
+		return this.cascadeScheduler.hasPendingCascades();
+	}
+	
+	/**
+	 * Finds the cascades whose cached static depth has to be rendered again,
+	 * either because their snapped bounds moved or because a static 
+	 * entity moved.
+	 * 
+	 * @param scene
+	 * 
+	 * @return Bit mask of the stale cascades.
+	 */
+	private int findStaleCascades(Scene scene) {
+		int staleMask = 0;
+		
+		Entity[] entities = scene.getEntities();
+		if (entities != null) {
+			for (Entity entity : entities) {
+				if (entity.isStatic() && entity.isTransformChanged()) {
+					staleMask = ALL_CASCADES;
+					break;
+				}
+			}
+		}
+		
+		for (int i = 0; i < NUM_CASCADES; i++) {
+			ShadowCascade shadowCascade = shadowCascades.get(i);
+			if (shadowCascade.hasBoundsChanged()) {
+				staleMask |= 1 << i;
+				shadowCascade.setBoundsChanged(false);
+			}
+		}
+		
+		return staleMask;
+	}
+	
+	/**
+	 * Calculates the bit mask of the cascades a caster reaches.
+	 * 
+	 * @param modelMatrix - Model matrix of the caster.
+	 * @param mesh - Mesh of the caster.
+	 * @param scale - Scale of the caster.
+	 * 
+	 * @return Bit mask with one bit set for every cascade the caster is rendered into.
+	 */
+	private int calculateCascadeMask(Matrix4f modelMatrix, Mesh mesh, float scale) {
+		int mask = 0;
+		for (int i = 0; i < NUM_CASCADES; i++) {
+			if (shadowCascades.get(i).containsCaster(modelMatrix, mesh, scale)) {
+				mask |= 1 << i;
+			}
+		}
+		
+		return mask;
 	}
 	
 	/**
+	 * Renders the static or dynamic non instanced meshes casting shadows 
+	 * into the specified cascades.
 	 * 
 	 * @param scene
 	 * @param transformation
+	 * @param staticCasters - True to render the static casters; False to render the dynamic ones.
+	 * @param layerMask - Bit mask of the cascades to render into.
 	 */
-	public void renderNonInstancedMeshes(Scene scene, Transformation transformation) {
+	public void renderNonInstancedMeshes(Scene scene, Transformation transformation, boolean staticCasters, int layerMask) {
 		depthShaderProgram.setUniform(("isInstanced"), 0);
 		
 		Map<Mesh, List<Entity>> mapMeshes = scene.getEntityMeshes();
+		PotentiallyVisibleSet pvs = scene.getPotentiallyVisibleSet();
 		
 		for (Mesh mesh : mapMeshes.keySet()) {
-			mesh.renderList(mapMeshes.get(mesh), (Entity entity) -> {
+			mesh.renderList(mapMeshes.get(mesh), LodSelector.VIEW_SHADOW, (Entity entity) -> {
+				// The cached static depth may not depend on the position of the camera.
+				if (entity.isStatic() != staticCasters || (!staticCasters && !Renderer.isPotentiallyVisible(pvs, mesh, entity))) {
+					return false;
+				}
+				
+				this.cascadeMask = layerMask & calculateCascadeMask(transformation.buildModelMatrix(entity), mesh, entity.getScale());
+				return this.cascadeMask != 0;
+			}, (Entity entity) -> {
 				Matrix4f modelMatrix = transformation.buildModelMatrix(entity);
 				depthShaderProgram.setUniform(("modelNonInstancedMatrix"), modelMatrix);
+				depthShaderProgram.setUniform(("cascadeMask"), this.cascadeMask);
 				if (entity instanceof AnimatedEntity) {
 					// TODO: If its animated render the shadows differently.
 					// Oskar Mendel - 2017-07-01
@@ -217,29 +416,63 @@ public class ShadowRenderer {
 	}
 	
 	/**
+	 * Renders the static or dynamic instanced meshes casting shadows 
+	 * into the specified cascades.
 	 * 
 	 * @param scene
 	 * @param transformation
+	 * @param staticCasters - True to render the static casters; False to render the dynamic ones.
+	 * @param layerMask - Bit mask of the cascades to render into.
 	 */
-	public void renderInstancedMeshes(Scene scene, Transformation transformation) {
+	public void renderInstancedMeshes(Scene scene, Transformation transformation, boolean staticCasters, int layerMask) {
 		depthShaderProgram.setUniform(("isInstanced"), 1);
 		
 		Map<InstancedMesh, List<Entity>> mapMeshes = scene.getEntityInstancedMeshes();
+		PotentiallyVisibleSet pvs = scene.getPotentiallyVisibleSet();
 		for (InstancedMesh mesh : mapMeshes.keySet()) {
 			this.filteredEntities.clear();
 			
+			int mask = 0;
 			for (Entity e : mapMeshes.get(mesh)) {
-				if (e.insideFrustrum()) {
+				if (e.isStatic() != staticCasters || (!staticCasters && !Renderer.isPotentiallyVisible(pvs, mesh, e))) {
+					continue;
+				}
+				
+				int entityMask = layerMask & calculateCascadeMask(transformation.buildModelMatrix(e), mesh, e.getScale());
+				if (entityMask != 0) {
 					this.filteredEntities.add(e);
+					mask |= entityMask;
 				}
 			}
 			
-			bindTextures(GL_TEXTURE2);
+			if (this.filteredEntities.isEmpty()) {
+				continue;
+			}
 			
+			depthShaderProgram.setUniform(("cascadeMask"), mask);
 			mesh.renderListInstanced(this.filteredEntities, transformation, null);
 		}
 	}
 	
+	/**
+	 * Getter for the filter kernel used when sampling the shadow maps.
+	 * 
+	 * @return - Filter kernel preset in use.
+	 */
+	public ShadowFilterQuality getFilterQuality() {
+		return this.filterQuality;
+	}
+	
+	/**
+	 * Setter for the filter kernel used when sampling the shadow maps,
+	 * can be changed at any time.
+	 * 
+	 * @param filterQuality - Filter kernel preset to use.
+	 */
+	public void setFilterQuality(ShadowFilterQuality filterQuality) {
+		this.filterQuality = filterQuality;
+	}
+	
 	/**
 	 * 
 	 * @return
@@ -248,6 +481,25 @@ public class ShadowRenderer {
 		return this.shadowCascades;
 	}
 	
+	/**
+	 * Getter for the technique the cascades are filtered with.
+	 * 
+	 * @return - Shadow technique in use.
+	 */
+	public ShadowTechnique getTechnique() {
+		return this.technique;
+	}
+	
+	/**
+	 * Setter for the technique the cascades are filtered with,
+	 * can be changed at any time.
+	 * 
+	 * @param technique - Shadow technique to use.
+	 */
+	public void setTechnique(ShadowTechnique technique) {
+		this.technique = technique;
+	}
+	
 	/**
 	 * 
 	 * @param start
@@ -256,6 +508,15 @@ public class ShadowRenderer {
 		this.shadowBuffer.bindTextures(start);
 	}
 	
+	/**
+	 * Binds the moments of the cascades to the specified texture unit.
+	 * 
+	 * @param textureUnit - Texture unit to bind to.
+	 */
+	public void bindMomentsTextures(int textureUnit) {
+		this.momentsBuffer.bindTextures(textureUnit);
+	}
+	
 	/**
 	 * 
 	 */
@@ -264,6 +525,10 @@ public class ShadowRenderer {
 			shadowBuffer.delete();
 		}
 		
+		if (momentsBuffer != null) {
+			momentsBuffer.delete();
+		}
+		
 		if (depthShaderProgram != null) {
 			depthShaderProgram.delete();
 		}
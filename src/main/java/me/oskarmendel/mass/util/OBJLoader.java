@@ -1,12 +1,18 @@
 package me.oskarmendel.mass.util;
 
 import me.oskarmendel.mass.gfx.Mesh;
-import org.joml.Vector2f;
-import org.joml.Vector3f;
-
-import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import me.oskarmendel.mass.gfx.MeshGeometry;
+import me.oskarmendel.mass.gfx.cook.MaterialData;
+import me.oskarmendel.mass.gfx.cook.MeshCache;
+import me.oskarmendel.mass.gfx.cook.MeshData;
+import me.oskarmendel.mass.gfx.cook.ModelData;
+import me.oskarmendel.mass.gfx.lod.LodGenerator;
+import me.oskarmendel.mass.gfx.meshlet.MeshletBuilder;
+import me.oskarmendel.mass.gfx.meshlet.MeshletSet;
+import me.oskarmendel.mass.gfx.optimize.MeshOptimizer;
+
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * This utility class handles loading of complex models.
@@ -34,6 +40,9 @@ public class OBJLoader {
      * Example line: v 0.155 0.211 0.32 1.0
      * Defines a geometric vertex with the coordinates (0.155, 0.211, 0.32, 1.0).
      *
+     * The loaded mesh is cooked next to the OBJ file and later loads read
+     * the cooked mesh as long as the OBJ file is unchanged.
+     *
      * @param path - File path for the OBJ file.
      *
      * @return - Parsed Mesh from the specified OBJ file.
@@ -41,248 +50,226 @@ public class OBJLoader {
      * @throws IOException - When IO operation failed.
      */
     public static Mesh loadMesh(String path) throws IOException{
-        List<String> lines = readAllLines(path);
-
-        List<Vector3f> vertices = new ArrayList<>();
-        List<Vector2f> textures = new ArrayList<>();
-        List<Vector3f> normals = new ArrayList<>();
-        List<Face> faces = new ArrayList<>();
-
-        for (String line : lines) {
-            // Split when one or more whitespace characters were encountered.
-            String[] tokens = line.split("\\s+");
-
-            switch (tokens[0]) {
-                case "v":
-                    // Geometric vertex
-                    Vector3f vec3f = new Vector3f(
-                            Float.parseFloat(tokens[1]),
-                            Float.parseFloat(tokens[2]),
-                            Float.parseFloat(tokens[3]));
-
-                    vertices.add(vec3f);
-                    break;
-                case "vn":
-                    // Vertex normal.
-                    Vector3f vec3fNorm = new Vector3f(
-                            Float.parseFloat(tokens[1]),
-                            Float.parseFloat(tokens[2]),
-                            Float.parseFloat(tokens[3]));
-
-                    normals.add(vec3fNorm);
-                    break;
-                case "vt":
-                    // Texture coordinate.
-                    Vector2f vec2f = new Vector2f(
-                            Float.parseFloat(tokens[1]),
-                            Float.parseFloat(tokens[2]));
-
-                    textures.add(vec2f);
-                    break;
-                case "f":
-                    // Face
-                    Face face = new Face(tokens[1], tokens[2], tokens[3]);
-
-                    faces.add(face);
-                    break;
-                default:
-                    // Ignore all other lines.
-                    break;
-            }
-        }
-
-        return reorderLists(vertices, textures, normals, faces, 1);
+        return importMesh(path).upload()[0];
     }
 
     /**
-     * Reorders the given lists translating them into the right format to
-     * produce a new mesh out of the data.
+     * Imports an OBJ file at the specified path into a model holding a single
+     * mesh without making any GL calls, so it can run on any thread. The 
+     * cooked model is read if the OBJ file is unchanged.
+     *
+     * @param path - File path for the OBJ file.
      *
-     * @param posList - List of read vertices.
-     * @param textCoordList - List of read texture coordinates.
-     * @param normalsList - List of read normals.
-     * @param facesList - List of read faces.
-     * @param instances - 
+     * @return - The imported model, ready to be uploaded.
      *
-     * @return
+     * @throws IOException - When IO operation failed.
      */
-    private static Mesh reorderLists(List<Vector3f> posList, List<Vector2f> textCoordList,
-                                     List<Vector3f> normalsList, List<Face> facesList, int instances) {
-
-        List<Integer> indices = new ArrayList<>();
-
-        float[] posArr = new float[posList.size() * 3];
-        int i = 0;
-        for (Vector3f pos : posList) {
-            posArr[i * 3] = pos.x;
-            posArr[i * 3 + 1] = pos.y;
-            posArr[i * 3 + 2] = pos.z;
-            i++;
+    public static ModelData importMesh(String path) throws IOException {
+        byte[] hash = MeshCache.hash(path, 0);
+        ModelData cooked = MeshCache.read(path, hash);
+        if (cooked != null && cooked.getMeshes().length == 1) {
+            return cooked;
         }
 
-        float[] textCoordArr = new float[posList.size() * 2];
-        float[] normalsArr = new float[posList.size() * 3];
+        OBJParser parser = OBJParser.parseFile(path);
+        MeshData mesh = processMesh(path, parser.getPositions(), parser.getTextCoords(), parser.getNormals(),
+                parser.getCorners(), parser.getCornerCount());
+        ModelData model = new ModelData(new MaterialData[0], new MeshData[]{mesh});
 
-        for (Face face : facesList) {
-            IndexGroup[] faceVertexIndices = face.getFaceVertexIndices();
-            for (IndexGroup indexValue : faceVertexIndices) {
-                processFaceVertex(indexValue, textCoordList, normalsList, indices, textCoordArr, normalsArr);
-            }
+        try {
+            MeshCache.write(path, hash, model);
+        } catch (IOException e) {
+            System.err.println("Failed to cook " + path + ": " + e.getMessage());
         }
 
-        int[] indicesArr = new int[indices.size()];
-        indicesArr = indices.stream().mapToInt((Integer v) -> v).toArray();
-
-        Mesh mesh;
-
-        /*if (instances > 1) {
-        } else {
-            mesh = new Mesh(posArr, textCoordArr, normalsArr, indicesArr);
-        }*/
-
-
-        mesh = new Mesh(posArr, textCoordArr, normalsArr, indicesArr);
-        return mesh;
+        return model;
     }
 
     /**
-     * Processes all the Face vertices by transforming them into the
-     * correct data types.
+     * Welds the face corners into unique vertices and processes them into a mesh.
+     * Corners sharing the same position, texture coordinate and normal become
+     * one vertex while corners that only share a position keep their own
+     * texture coordinates and normals.
+     *
+     * @param path - Path of the loaded file.
+     * @param positions - Read positions, three components each.
+     * @param textCoords - Read texture coordinates, two components each.
+     * @param normals - Read normals, three components each.
+     * @param corners - Position, texture coordinate and normal index of every
+     *                  face corner, -1 where the face left the index out.
+     * @param cornerCount - Amount of face corners.
      *
-     * @param indices - Indices to process.
-     * @param textCoordList - List of read texture coordinates.
-     * @param normalsList - List of read normals.
-     * @param indicesList - Destination indices list.
-     * @param textCoordArr - Destination texture coordinates array.
-     * @param normalsArr - Destination normals array.
+     * @return - Mesh made out of the welded vertices, ready to be uploaded.
      */
-    private static void processFaceVertex(IndexGroup indices, List<Vector2f> textCoordList,
-                                          List<Vector3f> normalsList, List<Integer> indicesList,
-                                          float[] textCoordArr, float[] normalsArr) {
-        // Set index for vertex coordinates.
-        int positionIndex = indices.indexPos;
-        indicesList.add(positionIndex);
-
-        // Reorder texture coordinates.
-        if (indices.indexTextCoordinate >= 0) {
-            Vector2f textCoord = textCoordList.get(indices.indexTextCoordinate);
-            textCoordArr[positionIndex * 2] = textCoord.x;
-            textCoordArr[positionIndex * 2 + 1] = 1 - textCoord.y;
-        }
-        if (indices.indexVecNormal >= 0) {
-            Vector3f vecNormal = normalsList.get(indices.indexVecNormal);
-            normalsArr[positionIndex * 3] = vecNormal.x;
-            normalsArr[positionIndex * 3 + 1] = vecNormal.y;
-            normalsArr[positionIndex * 3 + 2] = vecNormal.z;
+    private static MeshData processMesh(String path, float[] positions, float[] textCoords, float[] normals,
+                                    int[] corners, int cornerCount) {
+        VertexWelder welder = new VertexWelder(cornerCount);
+        int[] indicesArr = new int[cornerCount];
+
+        for (int i = 0; i < cornerCount; i++) {
+            indicesArr[i] = welder.weld(corners[i * 3], corners[i * 3 + 1], corners[i * 3 + 2]);
         }
-    }
 
-    /**
-     * Reads all lines from the file at the specified path.
-     * Expects the path to point to an .obj file.
-     *
-     * @param path - File path for the .obj file.
-     *
-     * @return - A list containing all the read lines from the file.
-     *
-     * @throws IOException - When IO operation failed.
-     */
-    private static List<String> readAllLines(String path) throws IOException {
-        List<String> list = new ArrayList<>();
+        int vertexCount = welder.getVertexCount();
+        float[] posArr = new float[vertexCount * 3];
+        float[] textCoordArr = new float[vertexCount * 2];
+        float[] normalsArr = new float[vertexCount * 3];
 
-        try(InputStream in = new FileInputStream(path);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+        for (int v = 0; v < vertexCount; v++) {
+            int positionIndex = welder.getPositionIndex(v);
+            System.arraycopy(positions, positionIndex * 3, posArr, v * 3, 3);
 
-            String line;
+            int textCoordIndex = welder.getTextCoordIndex(v);
+            if (textCoordIndex >= 0) {
+                textCoordArr[v * 2] = textCoords[textCoordIndex * 2];
+                textCoordArr[v * 2 + 1] = 1 - textCoords[textCoordIndex * 2 + 1];
+            }
 
-            while ((line = reader.readLine()) != null) {
-                list.add(line);
+            int normalIndex = welder.getNormalIndex(v);
+            if (normalIndex >= 0) {
+                System.arraycopy(normals, normalIndex * 3, normalsArr, v * 3, 3);
             }
         }
 
-        return list;
+        MeshOptimizer.Statistics statistics = MeshOptimizer.optimize(posArr, textCoordArr, normalsArr, indicesArr);
+        System.out.println("Optimized " + path + ": " + statistics);
+
+        MeshletSet meshlets = null;
+        if (MeshletBuilder.shouldBuild(indicesArr)) {
+            meshlets = MeshletBuilder.build(posArr, indicesArr);
+        }
+        MeshGeometry[] lods = LodGenerator.simplify(posArr, textCoordArr, normalsArr, indicesArr);
+        MeshGeometry geometry = new MeshGeometry(posArr, textCoordArr, normalsArr, indicesArr, null, null);
+
+        return new MeshData(geometry, meshlets, lods, MeshData.NO_MATERIAL);
     }
 
     /**
-     * Inner class representation of a Face triangle.
+     * Open addressing hash map from the (position, texture coordinate, normal)
+     * index triple of a face corner to the index of the welded vertex. The keys
+     * are stored in primitive arrays so no objects are allocated per corner.
      */
-    protected static class Face {
+    private static class VertexWelder {
+        private static final int EMPTY = -1;
 
         /**
-         * List of index groups for a face triangle, three vertices per face.
+         * Vertex index stored in every slot or EMPTY.
          */
-        private IndexGroup[] indexGroups;
+        private int[] slots;
 
-        public Face(String v1, String v2, String v3) {
-            indexGroups  = new IndexGroup[3];
+        /**
+         * Position, texture coordinate and normal index of every vertex.
+         */
+        private int[] keys;
 
-            // Parse the three index groups
-            indexGroups[0] = parseIndexGroup(v1);
-            indexGroups[1] = parseIndexGroup(v2);
-            indexGroups[2] = parseIndexGroup(v3);
+        private int vertexCount;
+
+        /**
+         * Creates a new VertexWelder sized for the specified amount of corners.
+         *
+         * @param expectedCorners - Amount of face corners to weld.
+         */
+        public VertexWelder(int expectedCorners) {
+            // Most corners are shared by several faces so start smaller and grow.
+            int expectedVertices = Math.max(expectedCorners / 4, 16);
+            slots = new int[tableSize(expectedVertices)];
+            Arrays.fill(slots, EMPTY);
+            keys = new int[expectedVertices * 3];
         }
 
         /**
-         * Parses an Index group and matches is with corresponding
-         * position, textures and normal values.
+         * Finds the vertex with the specified indices, adding a new vertex
+         * if no corner used the same indices before.
          *
-         * @param line - Face line to parse.
+         * @param position - Position index.
+         * @param textCoord - Texture coordinate index or -1.
+         * @param normal - Normal index or -1.
          *
-         * @return - The parsed IndexGroup generated from the specified line.
+         * @return - Index of the welded vertex.
          */
-        private IndexGroup parseIndexGroup(String line) {
-            IndexGroup indexGroup = new IndexGroup();
+        public int weld(int position, int textCoord, int normal) {
+            int mask = slots.length - 1;
+            int slot = hash(position, textCoord, normal) & mask;
+
+            while (slots[slot] != EMPTY) {
+                int k = slots[slot] * 3;
+                if (keys[k] == position && keys[k + 1] == textCoord && keys[k + 2] == normal) {
+                    return slots[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
 
-            // Split when a '/' is encountered.
-            String[] tokens = line.split("/");
-            int len = tokens.length;
+            if (vertexCount * 3 == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
 
-            indexGroup.indexPos = Integer.parseInt(tokens[0]) - 1;
+            int vertex = vertexCount++;
+            keys[vertex * 3] = position;
+            keys[vertex * 3 + 1] = textCoord;
+            keys[vertex * 3 + 2] = normal;
+            slots[slot] = vertex;
 
-            if (len > 1) {
-                // Can be empty if no texture coordinates are defined
-                String textureCoord = tokens[1];
-                indexGroup.indexTextCoordinate = textureCoord.length() > 0 ?
-                        Integer.parseInt(textureCoord) - 1 : IndexGroup.NO_VALUE;
+            // Keep the load factor at or below one half.
+            if (vertexCount * 2 > slots.length) {
+                rehash();
+            }
 
-                if (len > 2) {
-                    indexGroup.indexVecNormal = Integer.parseInt(tokens[2]) - 1;
+            return vertex;
+        }
+
+        /**
+         * Doubles the table and reinserts all vertices.
+         */
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            Arrays.fill(slots, EMPTY);
+            int mask = slots.length - 1;
+
+            for (int v = 0; v < vertexCount; v++) {
+                int slot = hash(keys[v * 3], keys[v * 3 + 1], keys[v * 3 + 2]) & mask;
+                while (slots[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
                 }
+                slots[slot] = v;
             }
-
-            return indexGroup;
         }
 
         /**
-         * Getter for the Face IndexGroup array.
-         *
-         * @return - The IndexGroup array of this Face.
+         * Mixes the three indices into a well distributed hash.
          */
-        public IndexGroup[] getFaceVertexIndices() {
-            return indexGroups;
+        private static int hash(int position, int textCoord, int normal) {
+            int h = position * 0x9E3779B1;
+            h = (h ^ (h >>> 15) ^ textCoord) * 0x85EBCA77;
+            h = (h ^ (h >>> 13) ^ normal) * 0xC2B2AE3D;
+            return h ^ (h >>> 16);
         }
-    }
 
-    /**
-     * This inner class is a representation of one of a Face's index
-     * groups.
-     *
-     * A Face is defined using three index groups, Example:
-     * f 6/4/1 3/5/3 7/6/5
-     */
-    protected static class IndexGroup {
-        public static final int NO_VALUE = -1;
+        /**
+         * Smallest power of two holding the specified amount of vertices at
+         * a load factor of one half.
+         */
+        private static int tableSize(int vertices) {
+            int size = 16;
+            while (size < vertices * 2) {
+                size <<= 1;
+            }
+            return size;
+        }
 
-        public int indexPos;
+        public int getVertexCount() {
+            return vertexCount;
+        }
 
-        public int indexTextCoordinate;
+        public int getPositionIndex(int vertex) {
+            return keys[vertex * 3];
+        }
 
-        public int indexVecNormal;
+        public int getTextCoordIndex(int vertex) {
+            return keys[vertex * 3 + 1];
+        }
 
-        public IndexGroup() {
-            indexPos = NO_VALUE;
-            indexTextCoordinate = NO_VALUE;
-            indexVecNormal = NO_VALUE;
+        public int getNormalIndex(int vertex) {
+            return keys[vertex * 3 + 2];
         }
     }
 }
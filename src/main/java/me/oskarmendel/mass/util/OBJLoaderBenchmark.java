@@ -0,0 +1,201 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.util;
+
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmark of the OBJ parsing phase, comparing OBJParser, sequential and
+ * chunked in parallel, against the line and string splitting parser 
+ * OBJLoader used before. Only parsing is timed,
+ * welding and uploading the mesh need a GL context and are the same for both.
+ * 
+ * Usage: OBJLoaderBenchmark [file.obj] [runs]
+ * Without a file a grid of about three million lines is generated into a
+ * temporary file.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name OBJLoaderBenchmark.java
+ */
+public class OBJLoaderBenchmark {
+	
+	/**
+	 * Vertices along each side of the generated grid.
+	 */
+	private static final int GRID_SIZE = 800;
+	
+	public static void main(String[] args) throws IOException {
+		File file;
+		if (args.length > 0) {
+			file = new File(args[0]);
+		} else {
+			file = File.createTempFile("mass-benchmark", ".obj");
+			file.deleteOnExit();
+			generateGrid(file, GRID_SIZE);
+		}
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		
+		System.out.println("Parsing " + file + " (" + (file.length() >> 20) + " MiB), best of " + runs + " runs");
+		
+		long legacyBest = Long.MAX_VALUE;
+		long sequentialBest = Long.MAX_VALUE;
+		long parallelBest = Long.MAX_VALUE;
+		int legacyCorners = 0;
+		OBJParser sequential = null;
+		OBJParser parallel = null;
+		
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			legacyCorners = parseLegacy(file.getPath());
+			legacyBest = Math.min(legacyBest, System.nanoTime() - start);
+			
+			start = System.nanoTime();
+			ByteBuffer buffer = OBJParser.map(file.getPath());
+			sequential = OBJParser.parse(buffer, 1);
+			sequentialBest = Math.min(sequentialBest, System.nanoTime() - start);
+			
+			start = System.nanoTime();
+			parallel = OBJParser.parseFile(file.getPath());
+			parallelBest = Math.min(parallelBest, System.nanoTime() - start);
+		}
+		
+		if (legacyCorners != sequential.getCornerCount()) {
+			throw new IllegalStateException("Parsers disagree: " + legacyCorners + " and " + sequential.getCornerCount() + " corners");
+		}
+		if (!Arrays.equals(sequential.getPositions(), parallel.getPositions()) 
+				|| !Arrays.equals(sequential.getTextCoords(), parallel.getTextCoords()) 
+				|| !Arrays.equals(sequential.getNormals(), parallel.getNormals()) 
+				|| !Arrays.equals(sequential.getCorners(), parallel.getCorners())) {
+			throw new IllegalStateException("Parallel parsing differs from sequential parsing");
+		}
+		
+		System.out.printf("Legacy parser:         %.1f ms%n", legacyBest / 1e6);
+		System.out.printf("OBJParser, sequential: %.1f ms (%.1fx)%n", sequentialBest / 1e6, (double) legacyBest / sequentialBest);
+		System.out.printf("OBJParser, parallel:   %.1f ms (%.1fx) on %d processors, %d triangles%n", parallelBest / 1e6, 
+				(double) legacyBest / parallelBest, Runtime.getRuntime().availableProcessors(), sequential.getCornerCount() / 3);
+	}
+	
+	/**
+	 * Writes a textured and lit grid of the specified size as an OBJ file.
+	 * 
+	 * @param file - File to write.
+	 * @param size - Vertices along each side of the grid.
+	 * 
+	 * @throws IOException - When the file couldn't be written.
+	 */
+	private static void generateGrid(File file, int size) throws IOException {
+		try (Writer writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+			writer.write("# Generated benchmark grid\n");
+			for (int z = 0; z < size; z++) {
+				for (int x = 0; x < size; x++) {
+					float height = (float) (Math.sin(x * 0.05) * Math.cos(z * 0.05));
+					writer.write("v " + (x * 0.25f) + " " + height + " " + (z * 0.25f) + "\n");
+					writer.write("vt " + ((float) x / size) + " " + ((float) z / size) + "\n");
+					writer.write("vn 0.0 1.0 0.0\n");
+				}
+			}
+			
+			for (int z = 0; z < size - 1; z++) {
+				for (int x = 0; x < size - 1; x++) {
+					int a = z * size + x + 1;
+					int b = a + 1;
+					int c = a + size;
+					int d = c + 1;
+					writer.write("f " + a + "/" + a + "/" + a + " " + c + "/" + c + "/" + c + " " + b + "/" + b + "/" + b + "\n");
+					writer.write("f " + b + "/" + b + "/" + b + " " + c + "/" + c + "/" + c + " " + d + "/" + d + "/" + d + "\n");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Parses the file the way OBJLoader did before OBJParser, reading all lines,
+	 * splitting them and creating vector objects for every attribute.
+	 * 
+	 * @param path - File path of the OBJ file.
+	 * 
+	 * @return - Amount of parsed triangle corners.
+	 * 
+	 * @throws IOException - When the file couldn't be read.
+	 */
+	private static int parseLegacy(String path) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		
+		List<Vector3f> vertices = new ArrayList<>();
+		List<Vector2f> textures = new ArrayList<>();
+		List<Vector3f> normals = new ArrayList<>();
+		List<int[]> faces = new ArrayList<>();
+		
+		for (String line : lines) {
+			String[] tokens = line.split("\\s+");
+			
+			switch (tokens[0]) {
+				case "v":
+					vertices.add(new Vector3f(Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2]), Float.parseFloat(tokens[3])));
+					break;
+				case "vn":
+					normals.add(new Vector3f(Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2]), Float.parseFloat(tokens[3])));
+					break;
+				case "vt":
+					textures.add(new Vector2f(Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2])));
+					break;
+				case "f":
+					int[] face = new int[9];
+					for (int i = 0; i < 3; i++) {
+						String[] group = tokens[i + 1].split("/");
+						face[i * 3] = Integer.parseInt(group[0]) - 1;
+						face[i * 3 + 1] = group.length > 1 && group[1].length() > 0 ? Integer.parseInt(group[1]) - 1 : -1;
+						face[i * 3 + 2] = group.length > 2 ? Integer.parseInt(group[2]) - 1 : -1;
+					}
+					faces.add(face);
+					break;
+				default:
+					break;
+			}
+		}
+		
+		return faces.size() * 3;
+	}
+}
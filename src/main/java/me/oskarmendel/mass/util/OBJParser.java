@@ -0,0 +1,657 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Oskar Mendel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.oskarmendel.mass.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Byte level parser for OBJ files. The file is memory mapped and parsed
+ * in place with hand written number parsing into growable primitive arrays,
+ * so no objects are created per line, token or attribute.
+ * 
+ * Only the v, vt, vn and f records are read. Polygons with more than three
+ * vertices are split into a triangle fan and negative indices are resolved
+ * relative to the attributes read so far.
+ * 
+ * Large files are split into line aligned chunks which are parsed in 
+ * parallel and merged in file order, rebasing the indices of every chunk by
+ * the amount of attributes in the chunks before it. The result is identical
+ * to parsing the file sequentially.
+ *
+ * @author Oskar Mendel
+ * @version 0.00.00
+ * @name OBJParser.java
+ */
+public class OBJParser {
+	
+	/**
+	 * Exact powers of ten representable by a double.
+	 */
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	
+	/**
+	 * Digits accumulated into the mantissa, further digits only scale it.
+	 */
+	private static final int MAX_MANTISSA_DIGITS = 18;
+	
+	/**
+	 * Smallest chunk worth parsing on its own thread, in bytes.
+	 */
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+	
+	/**
+	 * Chunks per available processor, to even out chunks of different cost.
+	 */
+	private static final int CHUNKS_PER_PROCESSOR = 4;
+	
+	private final FloatArray positions;
+	
+	private final FloatArray textCoords;
+	
+	private final FloatArray normals;
+	
+	/**
+	 * Position, texture coordinate and normal index of every triangle corner,
+	 * -1 where the face left the index out.
+	 */
+	private final IntArray corners;
+	
+	/**
+	 * Slots in corners holding a negative index resolved against the 
+	 * attributes of this parser only, which need to be rebased when the
+	 * parser is merged after others.
+	 */
+	private final IntArray relativeCorners;
+	
+	/**
+	 * Buffer being parsed.
+	 */
+	private ByteBuffer buffer;
+	
+	/**
+	 * Current read position in the buffer.
+	 */
+	private int position;
+	
+	/**
+	 * End of the range being parsed.
+	 */
+	private int end;
+	
+	/**
+	 * Creates a new empty OBJParser.
+	 */
+	public OBJParser() {
+		this.positions = new FloatArray();
+		this.textCoords = new FloatArray();
+		this.normals = new FloatArray();
+		this.corners = new IntArray();
+		this.relativeCorners = new IntArray();
+	}
+	
+	/**
+	 * Memory maps and parses the OBJ file at the specified path, in parallel
+	 * when the file is large enough.
+	 * 
+	 * @param path - File path of the OBJ file.
+	 * 
+	 * @return - The parser holding the parsed data.
+	 * 
+	 * @throws IOException - When the file couldn't be read.
+	 */
+	public static OBJParser parseFile(String path) throws IOException {
+		ByteBuffer buffer = map(path);
+		int chunks = Math.min(Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR, 
+				buffer.limit() / MIN_CHUNK_SIZE);
+		
+		return parse(buffer, chunks);
+	}
+	
+	/**
+	 * Parses the whole buffer split into the specified amount of line 
+	 * aligned chunks, which are parsed in parallel and merged in order.
+	 * 
+	 * @param buffer - Buffer holding the OBJ file.
+	 * @param chunks - Amount of chunks to split the buffer into.
+	 * 
+	 * @return - The parser holding the parsed data.
+	 */
+	public static OBJParser parse(ByteBuffer buffer, int chunks) {
+		OBJParser result = new OBJParser();
+		if (chunks <= 1) {
+			result.parse(buffer, 0, buffer.limit());
+			return result;
+		}
+		
+		// Move every boundary past the end of the line it falls into.
+		int[] boundaries = new int[chunks + 1];
+		boundaries[chunks] = buffer.limit();
+		for (int i = 1; i < chunks; i++) {
+			int boundary = Math.max(boundaries[i - 1], (int) ((long) buffer.limit() * i / chunks));
+			while (boundary < buffer.limit() && boundary > 0 && buffer.get(boundary - 1) != '\n') {
+				boundary++;
+			}
+			boundaries[i] = boundary;
+		}
+		
+		OBJParser[] parsers = new OBJParser[chunks];
+		IntStream.range(0, chunks).parallel().forEach((int i) -> {
+			OBJParser parser = new OBJParser();
+			parser.parse(buffer, boundaries[i], boundaries[i + 1]);
+			parsers[i] = parser;
+		});
+		
+		int positions = 0;
+		int textCoords = 0;
+		int normals = 0;
+		int corners = 0;
+		for (OBJParser parser : parsers) {
+			positions += parser.positions.size();
+			textCoords += parser.textCoords.size();
+			normals += parser.normals.size();
+			corners += parser.corners.size();
+		}
+		result.positions.ensureCapacity(positions);
+		result.textCoords.ensureCapacity(textCoords);
+		result.normals.ensureCapacity(normals);
+		result.corners.ensureCapacity(corners);
+		
+		for (OBJParser parser : parsers) {
+			result.append(parser);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Appends the data of a parser which parsed the lines following the 
+	 * lines parsed by this parser.
+	 * 
+	 * @param parser - Parser of the following lines.
+	 */
+	private void append(OBJParser parser) {
+		// Amount of attributes before the appended ones, by corner component.
+		int[] bases = {
+				this.positions.size() / 3, 
+				this.textCoords.size() / 2, 
+				this.normals.size() / 3
+		};
+		int cornerBase = this.corners.size();
+		
+		this.positions.addAll(parser.positions);
+		this.textCoords.addAll(parser.textCoords);
+		this.normals.addAll(parser.normals);
+		this.corners.addAll(parser.corners);
+		
+		for (int i = 0; i < parser.relativeCorners.size(); i++) {
+			int slot = cornerBase + parser.relativeCorners.get(i);
+			this.corners.set(slot, this.corners.get(slot) + bases[slot % 3]);
+		}
+	}
+	
+	/**
+	 * Memory maps the file at the specified path.
+	 * 
+	 * @param path - File path.
+	 * 
+	 * @return - Buffer mapping the whole file.
+	 * 
+	 * @throws IOException - When the file couldn't be mapped.
+	 */
+	public static MappedByteBuffer map(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("OBJ file is too large to be mapped: " + path);
+			}
+			
+			// The mapping stays valid after the channel is closed.
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+	
+	/**
+	 * Parses the records in the specified range of the buffer, appending
+	 * them to the data parsed before.
+	 * 
+	 * @param buffer - Buffer holding the OBJ file.
+	 * @param start - Offset of the first byte to parse, at the start of a line.
+	 * @param end - Offset after the last byte to parse.
+	 */
+	public void parse(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.position = start;
+		this.end = end;
+		
+		while (this.position < this.end) {
+			byte c = buffer.get(this.position);
+			byte next = this.position + 1 < this.end ? buffer.get(this.position + 1) : (byte) '\n';
+			
+			if (c == 'v') {
+				if (isSpace(next)) {
+					this.position++;
+					this.positions.add(parseFloat());
+					this.positions.add(parseFloat());
+					this.positions.add(parseFloat());
+				} else if (next == 't') {
+					this.position += 2;
+					this.textCoords.add(parseFloat());
+					this.textCoords.add(parseFloat());
+				} else if (next == 'n') {
+					this.position += 2;
+					this.normals.add(parseFloat());
+					this.normals.add(parseFloat());
+					this.normals.add(parseFloat());
+				}
+			} else if (c == 'f' && isSpace(next)) {
+				this.position++;
+				parseFace();
+			}
+			
+			skipLine();
+		}
+		
+		this.buffer = null;
+	}
+	
+	/**
+	 * Parses the vertices of a face and appends them as a triangle fan.
+	 */
+	private void parseFace() {
+		int firstCorner = this.corners.size();
+		int firstRelative = this.relativeCorners.size();
+		int vertices = 0;
+		
+		// The first and the previous vertex and which of their indices are relative.
+		int firstPosition = 0, firstTextCoord = 0, firstNormal = 0, firstMask = 0;
+		int previousPosition = 0, previousTextCoord = 0, previousNormal = 0, previousMask = 0;
+		
+		while (true) {
+			skipSpaces();
+			if (this.position >= this.end || !isDigitOrSign(this.buffer.get(this.position))) {
+				break;
+			}
+			
+			int mask = 0;
+			int index = parseInt();
+			int positionIndex = resolve(index, this.positions.size() / 3);
+			mask |= index < 0 ? 1 : 0;
+			int textCoordIndex = -1;
+			int normalIndex = -1;
+			
+			if (peek() == '/') {
+				this.position++;
+				if (peek() != '/') {
+					index = parseInt();
+					textCoordIndex = resolve(index, this.textCoords.size() / 2);
+					mask |= index < 0 ? 2 : 0;
+				}
+				
+				if (peek() == '/') {
+					this.position++;
+					index = parseInt();
+					normalIndex = resolve(index, this.normals.size() / 3);
+					mask |= index < 0 ? 4 : 0;
+				}
+			}
+			
+			// Triangulate polygons as a fan around their first vertex.
+			if (vertices >= 3) {
+				addCorner(firstPosition, firstTextCoord, firstNormal, firstMask);
+				addCorner(previousPosition, previousTextCoord, previousNormal, previousMask);
+			}
+			addCorner(positionIndex, textCoordIndex, normalIndex, mask);
+			
+			if (vertices == 0) {
+				firstPosition = positionIndex;
+				firstTextCoord = textCoordIndex;
+				firstNormal = normalIndex;
+				firstMask = mask;
+			}
+			previousPosition = positionIndex;
+			previousTextCoord = textCoordIndex;
+			previousNormal = normalIndex;
+			previousMask = mask;
+			vertices++;
+		}
+		
+		// Drop incomplete faces.
+		if (vertices < 3) {
+			this.corners.truncate(firstCorner);
+			this.relativeCorners.truncate(firstRelative);
+		}
+	}
+	
+	/**
+	 * Appends a triangle corner.
+	 * 
+	 * @param positionIndex - Index of the position.
+	 * @param textCoordIndex - Index of the texture coordinate or -1.
+	 * @param normalIndex - Index of the normal or -1.
+	 * @param relativeMask - Bit set of the indices which are relative, one bit
+	 *                       per index in the order above.
+	 */
+	private void addCorner(int positionIndex, int textCoordIndex, int normalIndex, int relativeMask) {
+		int slot = this.corners.size();
+		this.corners.add(positionIndex);
+		this.corners.add(textCoordIndex);
+		this.corners.add(normalIndex);
+		
+		for (int i = 0; i < 3; i++) {
+			if ((relativeMask & (1 << i)) != 0) {
+				this.relativeCorners.add(slot + i);
+			}
+		}
+	}
+	
+	/**
+	 * Converts a one based, possibly negative, OBJ index into a zero based index.
+	 * 
+	 * @param index - The OBJ index.
+	 * @param count - Amount of attributes read so far.
+	 * 
+	 * @return - The zero based index or -1 if the index is invalid.
+	 */
+	private static int resolve(int index, int count) {
+		if (index > 0) {
+			return index - 1;
+		}
+		
+		return index < 0 ? count + index : -1;
+	}
+	
+	/**
+	 * Parses a decimal integer at the current position.
+	 * 
+	 * @return - The parsed integer, zero if there is none.
+	 */
+	private int parseInt() {
+		boolean negative = false;
+		byte c = peek();
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			this.position++;
+		}
+		
+		int value = 0;
+		while (this.position < this.end) {
+			c = this.buffer.get(this.position);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			value = value * 10 + (c - '0');
+			this.position++;
+		}
+		
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Skips leading spaces and parses a decimal floating point number with 
+	 * an optional exponent at the current position.
+	 * 
+	 * @return - The parsed number, zero if there is none.
+	 */
+	private float parseFloat() {
+		skipSpaces();
+		
+		boolean negative = false;
+		byte c = peek();
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			this.position++;
+		}
+		
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		
+		while (this.position < this.end) {
+			c = this.buffer.get(this.position);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			if (digits < MAX_MANTISSA_DIGITS) {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa != 0) {
+					digits++;
+				}
+			} else {
+				exponent++;
+			}
+			this.position++;
+		}
+		
+		if (peek() == '.') {
+			this.position++;
+			
+			while (this.position < this.end) {
+				c = this.buffer.get(this.position);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				if (digits < MAX_MANTISSA_DIGITS) {
+					mantissa = mantissa * 10 + (c - '0');
+					exponent--;
+					if (mantissa != 0) {
+						digits++;
+					}
+				}
+				this.position++;
+			}
+		}
+		
+		c = peek();
+		if (c == 'e' || c == 'E') {
+			this.position++;
+			exponent += parseInt();
+		}
+		
+		double value = mantissa;
+		if (exponent != 0 && mantissa != 0) {
+			if (exponent > 0) {
+				value = exponent < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[exponent] : value * Math.pow(10, exponent);
+			} else {
+				value = -exponent < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[-exponent] : value * Math.pow(10, exponent);
+			}
+		}
+		
+		return (float) (negative ? -value : value);
+	}
+	
+	/**
+	 * Getter for the byte at the current position.
+	 * 
+	 * @return - The byte or a line feed at the end of the range.
+	 */
+	private byte peek() {
+		return this.position < this.end ? this.buffer.get(this.position) : (byte) '\n';
+	}
+	
+	/**
+	 * Advances the position past spaces and tabs.
+	 */
+	private void skipSpaces() {
+		while (this.position < this.end && isSpace(this.buffer.get(this.position))) {
+			this.position++;
+		}
+	}
+	
+	/**
+	 * Advances the position to the start of the next line.
+	 */
+	private void skipLine() {
+		while (this.position < this.end && this.buffer.get(this.position) != '\n') {
+			this.position++;
+		}
+		this.position++;
+	}
+	
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t';
+	}
+	
+	private static boolean isDigitOrSign(byte c) {
+		return (c >= '0' && c <= '9') || c == '-' || c == '+';
+	}
+	
+	/**
+	 * Getter for the parsed positions.
+	 * 
+	 * @return - Three floats per position.
+	 */
+	public float[] getPositions() {
+		return this.positions.toArray();
+	}
+	
+	/**
+	 * Getter for the parsed texture coordinates, as stored in the file.
+	 * 
+	 * @return - Two floats per texture coordinate.
+	 */
+	public float[] getTextCoords() {
+		return this.textCoords.toArray();
+	}
+	
+	/**
+	 * Getter for the parsed normals.
+	 * 
+	 * @return - Three floats per normal.
+	 */
+	public float[] getNormals() {
+		return this.normals.toArray();
+	}
+	
+	/**
+	 * Getter for the parsed triangle corners.
+	 * 
+	 * @return - Position, texture coordinate and normal index of every corner.
+	 */
+	public int[] getCorners() {
+		return this.corners.toArray();
+	}
+	
+	/**
+	 * Getter for the amount of parsed triangle corners.
+	 * 
+	 * @return - Three corners per triangle.
+	 */
+	public int getCornerCount() {
+		return this.corners.size() / 3;
+	}
+	
+	/**
+	 * Growable array of primitive floats.
+	 */
+	private static class FloatArray {
+		private float[] data = new float[1024];
+		
+		private int size;
+		
+		void add(float value) {
+			if (this.size == this.data.length) {
+				this.data = Arrays.copyOf(this.data, this.size * 2);
+			}
+			this.data[this.size++] = value;
+		}
+		
+		void addAll(FloatArray values) {
+			ensureCapacity(this.size + values.size);
+			System.arraycopy(values.data, 0, this.data, this.size, values.size);
+			this.size += values.size;
+		}
+		
+		void ensureCapacity(int capacity) {
+			if (capacity > this.data.length) {
+				this.data = Arrays.copyOf(this.data, Math.max(capacity, this.data.length * 2));
+			}
+		}
+		
+		int size() {
+			return this.size;
+		}
+		
+		float[] toArray() {
+			return Arrays.copyOf(this.data, this.size);
+		}
+	}
+	
+	/**
+	 * Growable array of primitive ints.
+	 */
+	private static class IntArray {
+		private int[] data = new int[1024];
+		
+		private int size;
+		
+		void add(int value) {
+			if (this.size == this.data.length) {
+				this.data = Arrays.copyOf(this.data, this.size * 2);
+			}
+			this.data[this.size++] = value;
+		}
+		
+		void addAll(IntArray values) {
+			ensureCapacity(this.size + values.size);
+			System.arraycopy(values.data, 0, this.data, this.size, values.size);
+			this.size += values.size;
+		}
+		
+		void ensureCapacity(int capacity) {
+			if (capacity > this.data.length) {
+				this.data = Arrays.copyOf(this.data, Math.max(capacity, this.data.length * 2));
+			}
+		}
+		
+		int get(int index) {
+			return this.data[index];
+		}
+		
+		void set(int index, int value) {
+			this.data[index] = value;
+		}
+		
+		void truncate(int size) {
+			this.size = size;
+		}
+		
+		int size() {
+			return this.size;
+		}
+		
+		int[] toArray() {
+			return Arrays.copyOf(this.data, this.size);
+		}
+	}
+}
@@ -24,9 +24,12 @@
 
 package me.oskarmendel.mass.util.assimp;
 
+import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.joml.Vector4f;
 import org.lwjgl.PointerBuffer;
@@ -38,11 +41,19 @@ import org.lwjgl.assimp.AIScene;
 import org.lwjgl.assimp.AIString;
 import org.lwjgl.assimp.AIVector3D;
 import org.lwjgl.assimp.Assimp;
+import org.lwjgl.system.MemoryUtil;
 
 import me.oskarmendel.mass.gfx.Material;
 import me.oskarmendel.mass.gfx.Mesh;
-import me.oskarmendel.mass.gfx.Texture;
-import me.oskarmendel.mass.util.ArrayHelper;
+import me.oskarmendel.mass.gfx.MeshGeometry;
+import me.oskarmendel.mass.gfx.cook.MaterialData;
+import me.oskarmendel.mass.gfx.cook.MeshCache;
+import me.oskarmendel.mass.gfx.cook.MeshData;
+import me.oskarmendel.mass.gfx.cook.ModelData;
+import me.oskarmendel.mass.gfx.lod.LodGenerator;
+import me.oskarmendel.mass.gfx.meshlet.MeshletBuilder;
+import me.oskarmendel.mass.gfx.meshlet.MeshletSet;
+import me.oskarmendel.mass.gfx.optimize.MeshOptimizer;
 
 /**
  * This class is used together with Assimp to load 
@@ -54,6 +65,11 @@ import me.oskarmendel.mass.util.ArrayHelper;
  */
 public class StaticMeshLoader {
 	
+	/**
+	 * Import flags used when loading without specifying flags.
+	 */
+	public static final int DEFAULT_FLAGS = Assimp.aiProcess_JoinIdenticalVertices | Assimp.aiProcess_Triangulate | Assimp.aiProcess_FixInfacingNormals;
+	
 	/**
 	 * Loads one or more meshes at the specified resource path with 
 	 * the textures at the specified texture path.
@@ -66,12 +82,14 @@ public class StaticMeshLoader {
 	 * @throws Exception
 	 */
 	public static Mesh[] load(String resourcePath, String texturePath) throws Exception {
-	    return load(resourcePath, texturePath, Assimp.aiProcess_JoinIdenticalVertices | Assimp.aiProcess_Triangulate | Assimp.aiProcess_FixInfacingNormals);
+	    return load(resourcePath, texturePath, DEFAULT_FLAGS);
 	}
 	
 	/**
 	 * Loads one or more meshes at the specified resource path with 
 	 * the textures at the specified texture path with the specified flags.
+	 * The meshes are cooked next to the resource and read from the cooked 
+	 * file as long as the resource and the flags are unchanged.
 	 * 
 	 * @param resourcePath - Path for the mesh resource to load.
 	 * @param texturesDir - Path for the textures to use for the mesh.
@@ -82,29 +100,72 @@ public class StaticMeshLoader {
 	 * @throws Exception
 	 */
 	public static Mesh[] load(String resourcePath, String texturesDir, int flags) throws Exception {
+		return importModel(resourcePath, texturesDir, flags).upload();
+	}
+	
+	/**
+	 * Imports the model at the specified resource path without making any GL
+	 * calls, so it can run on any thread. The model is cooked next to the 
+	 * resource and read from the cooked file as long as the resource and the 
+	 * flags are unchanged.
+	 * 
+	 * @param resourcePath - Path for the mesh resource to load.
+	 * @param texturesDir - Path for the textures to use for the mesh.
+	 * @param flags - Flags for the Assimp importer to use.
+	 * 
+	 * @return The imported model, ready to be uploaded.
+	 * 
+	 * @throws Exception
+	 */
+	public static ModelData importModel(String resourcePath, String texturesDir, int flags) throws Exception {
+		byte[] hash = MeshCache.hash(resourcePath, flags);
+		ModelData cooked = MeshCache.read(resourcePath, hash);
+		if (cooked != null) {
+			return cooked;
+		}
+		
 		AIScene aiScene = Assimp.aiImportFile(resourcePath, flags);
         if (aiScene == null) {
             throw new Exception("Error loading model");
         }
         
-        int numMaterials = aiScene.mNumMaterials();
-        PointerBuffer aiMaterials = aiScene.mMaterials();
-        List<Material> materials = new ArrayList<>();
-        for (int i = 0; i < numMaterials; i++) {
-            AIMaterial aiMaterial = AIMaterial.create(aiMaterials.get(i));
-            processMaterial(aiMaterial, materials, texturesDir);
+        List<MaterialData> materials = new ArrayList<>();
+        MeshData[] meshes = new MeshData[aiScene.mNumMeshes()];
+        MeshOptimizer.Statistics[] meshStatistics = new MeshOptimizer.Statistics[meshes.length];
+        try {
+            int numMaterials = aiScene.mNumMaterials();
+            PointerBuffer aiMaterials = aiScene.mMaterials();
+            for (int i = 0; i < numMaterials; i++) {
+                AIMaterial aiMaterial = AIMaterial.create(aiMaterials.get(i));
+                processMaterial(aiMaterial, materials, texturesDir);
+            }
+            
+            // Submeshes are processed in parallel, only their upload needs a GL context.
+            PointerBuffer aiMeshes = aiScene.mMeshes();
+            IntStream.range(0, meshes.length).parallel().forEach((int i) -> {
+                meshes[i] = processMesh(AIMesh.create(aiMeshes.get(i)), numMaterials, meshStatistics, i);
+            });
+        } finally {
+            Assimp.aiReleaseImport(aiScene);
         }
         
-        int numMeshes = aiScene.mNumMeshes();
-        PointerBuffer aiMeshes = aiScene.mMeshes();
-        Mesh[] meshes = new Mesh[numMeshes];
-        for (int i = 0; i < numMeshes; i++) {
-            AIMesh aiMesh = AIMesh.create(aiMeshes.get(i));
-            Mesh mesh = processMesh(aiMesh, materials);
-            meshes[i] = mesh;
+        MeshOptimizer.Statistics statistics = new MeshOptimizer.Statistics();
+        for (MeshOptimizer.Statistics meshStatistic : meshStatistics) {
+            statistics.add(meshStatistic);
         }
+        System.out.println("Optimized " + resourcePath + ": " + statistics);
         
-        return meshes;
+        // Meshes referencing a missing material use the default one.
+        materials.add(new MaterialData());
+        ModelData model = new ModelData(materials.toArray(new MaterialData[materials.size()]), meshes);
+        
+        try {
+            MeshCache.write(resourcePath, hash, model);
+        } catch (IOException e) {
+            System.err.println("Failed to cook " + resourcePath + ": " + e.getMessage());
+        }
+        
+        return model;
 	}
 	
 	/**
@@ -113,22 +174,20 @@ public class StaticMeshLoader {
 	 * @param aiMaterial - AIMaterial to process.
 	 * @param materials - List of processed materials.
 	 * @param texturePath - Path for the texture for currnet material.
-	 * 
-	 * @throws Exception
 	 */
-	private static void processMaterial(AIMaterial aiMaterial, List<Material> materials, String texturePath) throws Exception{
+	private static void processMaterial(AIMaterial aiMaterial, List<MaterialData> materials, String texturePath) {
 		AIColor4D color = AIColor4D.create();
 		
 		AIString path = AIString.calloc();
 		Assimp.aiGetMaterialTexture(aiMaterial, Assimp.aiTextureType_DIFFUSE, 0, path, (IntBuffer) null, null, null, null, null, null);
 		String textureP = path.dataString();
-		Texture texture = null;
+		path.free();
+		String textureFile = null;
 		
+		// The texture is loaded through the TextureCache when the model is uploaded.
 		if (textureP != null && textureP.length() > 0) {
-			TextureCache textCache = TextureCache.getInstance();
-			String textureFile = texturePath + "/" + textureP;
+			textureFile = texturePath + "/" + textureP;
 			textureFile = textureFile.replace("//", "/").replace("\\", "/");
-			texture = textCache.getTexture(textureFile);
 		}
 		
 		Vector4f ambient = Material.DEFAULT_COLOR.toVector4f();
@@ -152,115 +211,135 @@ public class StaticMeshLoader {
 			diffuse = new Vector4f(color.r(), color.g(), color.b(), color.a());
 		}
 		
-		Material material = new Material(ambient, diffuse, specular, 1.0f);
-		material.setTexture(texture);
-		materials.add(material);
+		materials.add(new MaterialData(ambient, diffuse, specular, 1.0f, textureFile, null));
 	}
 	
 	/**
-	 * Process one mesh.
+	 * Processes one mesh without making any GL calls. The attributes are bulk
+	 * copied out of the native memory of Assimp into primitive arrays, which 
+	 * are optimized and packed into the geometry uploaded later.
 	 * 
 	 * @param aiMesh - AIMesh to process.
-	 * @param materials - List of materials.
+	 * @param numMaterials - Amount of materials in the model, the default 
+	 *                       material follows them.
+	 * @param statistics - Optimization statistics of every mesh.
+	 * @param index - Index of the mesh in the model.
 	 * 
-	 * @return A fully processed mesh.
+	 * @return The processed mesh, ready to be uploaded.
 	 */
-	private static Mesh processMesh(AIMesh aiMesh, List<Material> materials) {
-		List<Float> vertices = new ArrayList<>();
-		List<Float> textures = new ArrayList<>();
-		List<Float> normals = new ArrayList<>();
-		List<Integer> indices = new ArrayList<>();
+	private static MeshData processMesh(AIMesh aiMesh, int numMaterials, MeshOptimizer.Statistics[] statistics, int index) {
+		float[] positions = processVertices(aiMesh);
+		float[] textCoords = processTextureCoordinates(aiMesh);
+		float[] normals = processNormals(aiMesh);
+		int[] indices = processIndices(aiMesh);
 		
-		processVertices(aiMesh, vertices);
-		processTextureCoordinates(aiMesh, textures);
-		processNormals(aiMesh, normals);
-		processIndices(aiMesh, indices);
+		statistics[index] = MeshOptimizer.optimize(positions, textCoords, normals, indices);
 		
-		Mesh mesh = new Mesh(ArrayHelper.listToArrayFloat(vertices), 
-				ArrayHelper.listToArrayFloat(textures),
-				ArrayHelper.listToArrayFloat(normals), ArrayHelper.listToArrayInt(indices));
+		MeshletSet meshlets = null;
+		if (MeshletBuilder.shouldBuild(indices)) {
+			meshlets = MeshletBuilder.build(positions, indices);
+		}
+		MeshGeometry[] lods = LodGenerator.simplify(positions, textCoords, normals, indices);
+		MeshGeometry geometry = new MeshGeometry(positions, textCoords, normals, indices, null, null);
 		
-		Material material;
+		int materialIndex = aiMesh.mMaterialIndex();
+		if (materialIndex < 0 || materialIndex >= numMaterials) {
+			materialIndex = numMaterials;
+		}
 		
-		int materialIdx = aiMesh.mMaterialIndex();
-        if (materialIdx >= 0 && materialIdx < materials.size()) {
-            material = materials.get(materialIdx);
-        } else {
-            material = new Material();
-        }
-        mesh.setMaterial(material);
-
-        return mesh;
+		return new MeshData(geometry, meshlets, lods, materialIndex);
 	}
 	
 	/**
 	 * Proceses the vertices of a mesh.
 	 * 
 	 * @param aiMesh - AIMesh to process vertices for.
-	 * @param vertices - List of vertices to add processed vertices to.
+	 * 
+	 * @return The vertex positions.
 	 */
-	private static void processVertices(AIMesh aiMesh, List<Float> vertices) {
+	private static float[] processVertices(AIMesh aiMesh) {
 		AIVector3D.Buffer aiVertices = aiMesh.mVertices();
+		float[] vertices = new float[aiMesh.mNumVertices() * 3];
 		
-		while(aiVertices.remaining() > 0) {
-			AIVector3D aiVertex = aiVertices.get();
-	        vertices.add(aiVertex.x());
-	        vertices.add(aiVertex.y());
-	        vertices.add(aiVertex.z());
-		}
+		// AIVector3D is three tightly packed floats so the vertices are copied at once.
+		MemoryUtil.memFloatBuffer(aiVertices.address(), vertices.length).get(vertices);
+		
+		return vertices;
 	}
 	
 	/**
 	 * Proceses the texture coordinates of a mesh.
 	 * 
 	 * @param aiMesh - AIMesh to process texture coordinates for.
-	 * @param textures - List of texture coordinates to add 
-	 * processed coordinates to.
+	 * 
+	 * @return The texture coordinates, empty if the mesh has none.
 	 */
-	private static void processTextureCoordinates(AIMesh aiMesh, List<Float> textures) {
+	private static float[] processTextureCoordinates(AIMesh aiMesh) {
 		AIVector3D.Buffer aiTextures = aiMesh.mTextureCoords(0);
-		int numTextCoords = aiTextures != null ? aiTextures.remaining() : 0;
+		if (aiTextures == null) {
+			return new float[0];
+		}
+		
+		int numTextCoords = aiMesh.mNumVertices();
+		float[] textures = new float[numTextCoords * 2];
+		FloatBuffer source = MemoryUtil.memFloatBuffer(aiTextures.address(), numTextCoords * 3);
 		
 		for (int i = 0; i < numTextCoords; i++) {
-			AIVector3D textCoord = aiTextures.get();
-            textures.add(textCoord.x());
-            textures.add(1 - textCoord.y());
+			textures[i * 2] = source.get(i * 3);
+			textures[i * 2 + 1] = 1 - source.get(i * 3 + 1);
 		}
+		
+		return textures;
 	}
 	
 	/**
 	 * Proceses the normals of a mesh.
 	 * 
 	 * @param aiMesh - AIMesh to process normals for.
-	 * @param normals - List of normals to add processed normals to.
+	 * 
+	 * @return The normals, empty if the mesh has none.
 	 */
-	private static void processNormals(AIMesh aiMesh, List<Float> normals) {
+	private static float[] processNormals(AIMesh aiMesh) {
 		AIVector3D.Buffer aiNormals = aiMesh.mNormals();
-		
-		while(aiNormals != null && aiNormals.remaining() > 0) {
-			AIVector3D aiVertex = aiNormals.get();
-	        normals.add(aiVertex.x());
-	        normals.add(aiVertex.y());
-	        normals.add(aiVertex.z());
+		if (aiNormals == null) {
+			return new float[0];
 		}
+		
+		float[] normals = new float[aiMesh.mNumVertices() * 3];
+		MemoryUtil.memFloatBuffer(aiNormals.address(), normals.length).get(normals);
+		
+		return normals;
 	}
 	
 	/**
-	 * Proceses the indices of a mesh.
+	 * Proceses the indices of a mesh. The faces are read straight from native
+	 * memory without creating an AIFace per face.
 	 * 
 	 * @param aiMesh - AIMesh to process indices for.
-	 * @param indices - List of indices to add processed indices to.
+	 * 
+	 * @return The indices of all faces.
 	 */
-	private static void processIndices(AIMesh aiMesh, List<Integer> indices) {
+	private static int[] processIndices(AIMesh aiMesh) {
 		int numFaces = aiMesh.mNumFaces();
-		AIFace.Buffer aiFaces = aiMesh.mFaces();
+		long faces = aiMesh.mFaces().address();
 		
+		int numIndices = 0;
 		for (int i = 0; i < numFaces; i++) {
-			AIFace aiFace = aiFaces.get();
-			IntBuffer buffer = aiFace.mIndices();
-			while (buffer.remaining() > 0) {
-				indices.add(buffer.get());
+			numIndices += AIFace.nmNumIndices(faces + (long) i * AIFace.SIZEOF);
+		}
+		
+		int[] indices = new int[numIndices];
+		int offset = 0;
+		for (int i = 0; i < numFaces; i++) {
+			long face = faces + (long) i * AIFace.SIZEOF;
+			int count = AIFace.nmNumIndices(face);
+			long faceIndices = MemoryUtil.memGetAddress(face + AIFace.MINDICES);
+			
+			for (int j = 0; j < count; j++) {
+				indices[offset++] = MemoryUtil.memGetInt(faceIndices + j * 4L);
 			}
 		}
+		
+		return indices;
 	}
 }
@@ -83,4 +83,25 @@ public class TextureCache {
 		
 		return texture;
 	}
+	
+	/**
+	 * Checks if a texture with the specified path is cached.
+	 * 
+	 * @param path - Path of the texture.
+	 * 
+	 * @return True if the texture is cached; False otherwise.
+	 */
+	public boolean contains(String path) {
+		return textureMap.containsKey(path);
+	}
+	
+	/**
+	 * Adds a texture loaded elsewhere to this texture cache.
+	 * 
+	 * @param path - Path of the texture.
+	 * @param texture - The loaded texture.
+	 */
+	public void putTexture(String path, Texture texture) {
+		textureMap.put(path, texture);
+	}
 }
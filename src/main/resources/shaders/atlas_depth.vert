@@ -0,0 +1,42 @@
+#version 330
+
+const int MAX_WEIGHTS = 4;
+const int MAX_JOINTS = 150;
+
+in vec3 position;
+in vec2 texCoord;
+in vec3 vertexNormal;
+in vec4 jointWeights;
+in ivec4 jointIndices;
+in mat4 modelInstancedMatrix;
+
+uniform int isInstanced;
+uniform mat4 modelNonInstancedMatrix;
+uniform mat4 jointsMatrix[MAX_JOINTS];
+uniform mat4 lightViewProjectionMatrix;
+
+void main() {
+    vec4 initPos = vec4(0, 0, 0, 0);
+    mat4 modelMatrix;
+    
+    if ( isInstanced > 0 ) {
+        modelMatrix = modelInstancedMatrix;
+        initPos = vec4(position, 1.0);
+    } else {
+        modelMatrix = modelNonInstancedMatrix;
+
+        int count = 0;
+        for(int i = 0; i < MAX_WEIGHTS; i++) {
+            float weight = jointWeights[i];
+            if(weight > 0) {
+                count++;
+                int jointIndex = jointIndices[i];
+                vec4 tmpPos = jointsMatrix[jointIndex] * vec4(position, 1.0);
+                initPos += weight * tmpPos;
+            }
+        } if (count == 0) {
+            initPos = vec4(position, 1.0);
+        }
+    }
+    gl_Position = lightViewProjectionMatrix * modelMatrix * initPos;
+}
@@ -3,6 +3,19 @@
 const int MAX_POINT_LIGHTS = 5;
 const int MAX_SPOT_LIGHTS = 5;
 const int NUM_CASCADES = 3;
+const float LOCAL_SHADOW_BIAS = 0.0005;
+const int SHADOW_TECHNIQUE_EVSM = 1;
+const float EVSM_POSITIVE_EXPONENT = 40.0;
+const float EVSM_NEGATIVE_EXPONENT = 5.0;
+const float EVSM_MIN_VARIANCE = 0.0001;
+const float EVSM_LIGHT_BLEED_REDUCTION = 0.3;
+
+// Directions and up vectors of the faces of point light shadows,
+// matching the order and orientation the faces are rendered with.
+const vec3 CUBE_FACE_DIRECTIONS[6] = vec3[](vec3(1, 0, 0), vec3(-1, 0, 0), 
+    vec3(0, 1, 0), vec3(0, -1, 0), vec3(0, 0, 1), vec3(0, 0, -1));
+const vec3 CUBE_FACE_UPS[6] = vec3[](vec3(0, -1, 0), vec3(0, -1, 0), 
+    vec3(0, 0, 1), vec3(0, 0, -1), vec3(0, -1, 0), vec3(0, -1, 0));
 
 in vec2 outTexCoord;
 in vec3 mvVertexNormal;
@@ -56,9 +69,7 @@ struct Fog {
 
 uniform sampler2D texture_sampler;
 uniform sampler2D normalMap;
-uniform sampler2D shadowMap_0;
-uniform sampler2D shadowMap_1;
-uniform sampler2D shadowMap_2;
+uniform sampler2DArrayShadow shadowMap;
 uniform vec3 ambientLight;
 uniform float specularPower;
 uniform Material material;
@@ -68,6 +79,17 @@ uniform DirectionalLight directionalLight;
 uniform Fog fog;
 uniform float cascadeFarPlanes[NUM_CASCADES];
 uniform int renderShadow;
+uniform int shadowKernelSize;
+uniform sampler2DArray shadowMoments;
+uniform int shadowTechnique;
+uniform sampler2DShadow shadowAtlas;
+uniform mat4 viewInverseMatrix;
+uniform mat4 spotLightShadowMatrices[MAX_SPOT_LIGHTS];
+// Offset and size of the tile within the atlas, a size of 0 disables the shadow.
+uniform vec4 spotLightShadowTiles[MAX_SPOT_LIGHTS];
+uniform vec4 pointLightShadowTiles[MAX_POINT_LIGHTS * 6];
+// Near plane, far plane and 1 if the shadow is enabled.
+uniform vec4 pointLightShadowParams[MAX_POINT_LIGHTS];
 
 vec4 ambientC;
 vec4 diffuseC;
@@ -164,6 +186,32 @@ vec3 calcNormal(Material material, vec3 normal, vec2 text_coord, mat4 modelViewM
     return newNormal;
 }
 
+float chebyshevUpperBound(vec2 moments, float mean, float minVariance) {
+    float variance = max(moments.y - moments.x * moments.x, minVariance);
+    float d = mean - moments.x;
+    float pMax = variance / (variance + d * d);
+
+    // Cut off the tail of the bound to reduce light bleeding.
+    pMax = clamp((pMax - EVSM_LIGHT_BLEED_REDUCTION) / (1.0 - EVSM_LIGHT_BLEED_REDUCTION), 0.0, 1.0);
+    return mean <= moments.x ? 1.0 : pMax;
+}
+
+float calcMomentShadow(vec3 projCoords, int idx) {
+    // Single filtered fetch of the prefiltered moments.
+    vec4 moments = texture(shadowMoments, vec3(projCoords.xy, idx));
+
+    float depth = projCoords.z * 2.0 - 1.0;
+    float pos = exp(EVSM_POSITIVE_EXPONENT * depth);
+    float neg = -exp(-EVSM_NEGATIVE_EXPONENT * depth);
+
+    float posScale = EVSM_MIN_VARIANCE * EVSM_POSITIVE_EXPONENT * pos;
+    float negScale = EVSM_MIN_VARIANCE * EVSM_NEGATIVE_EXPONENT * neg;
+
+    float posLit = chebyshevUpperBound(moments.xy, pos, posScale * posScale);
+    float negLit = chebyshevUpperBound(moments.zw, neg, negScale * negScale);
+    return min(posLit, negLit);
+}
+
 float calcShadow(vec4 position, int idx) {
     if ( renderShadow == 0 )
     {
@@ -176,40 +224,23 @@ float calcShadow(vec4 position, int idx) {
     float bias = 0.005;
 
     float shadowFactor = 0.0;
-    vec2 inc;
-    if (idx == 0)
-    {
-        inc = 1.0 / textureSize(shadowMap_0, 0);
-    }
-    else if (idx == 1)
-    {
-        inc = 1.0 / textureSize(shadowMap_1, 0);
-    }
-    else
-    {
-        inc = 1.0 / textureSize(shadowMap_2, 0);
-    }
-    for(int row = -1; row <= 1; ++row)
-    {
-        for(int col = -1; col <= 1; ++col)
+    if ( shadowTechnique == SHADOW_TECHNIQUE_EVSM ) {
+        shadowFactor = 1.0 - calcMomentShadow(projCoords, idx);
+    } else {
+        // Every tap is a hardware depth compare with bilinear filtering,
+        // the taps are spaced one texel apart around the sample position.
+        vec2 inc = 1.0 / textureSize(shadowMap, 0).xy;
+        float start = -0.5 * float(shadowKernelSize - 1);
+        for(int row = 0; row < shadowKernelSize; ++row)
         {
-            float textDepth;
-            if (idx == 0)
-            {
-                textDepth = texture(shadowMap_0, projCoords.xy + vec2(row, col) * inc).r; 
-            }
-            else if (idx == 1)
-            {
-                textDepth = texture(shadowMap_1, projCoords.xy + vec2(row, col) * inc).r; 
-            }
-            else
+            for(int col = 0; col < shadowKernelSize; ++col)
             {
-                textDepth = texture(shadowMap_2, projCoords.xy + vec2(row, col) * inc).r; 
+                vec2 offset = vec2(start + float(row), start + float(col)) * inc;
+                shadowFactor += 1.0 - texture(shadowMap, vec4(projCoords.xy + offset, idx, projCoords.z - bias));
             }
-            shadowFactor += projCoords.z - bias > textDepth ? 1.0 : 0.0;        
-        }    
+        }
+        shadowFactor /= float(shadowKernelSize * shadowKernelSize);
     }
-    shadowFactor /= 9.0;
 
     if(projCoords.z > 1.0)
     {
@@ -219,22 +250,77 @@ float calcShadow(vec4 position, int idx) {
     return 1 - shadowFactor;
 }
 
+float sampleShadowAtlas(vec4 tile, vec2 uv, float depth) {
+    // Keep the bilinear footprint inside of the tile.
+    vec2 halfTexel = 0.5 / textureSize(shadowAtlas, 0);
+    uv = clamp(uv, tile.xy + halfTexel, tile.xy + tile.z - halfTexel);
+    return texture(shadowAtlas, vec3(uv, depth - LOCAL_SHADOW_BIAS));
+}
+
+float calcSpotShadow(int i, vec3 position) {
+    vec4 tile = spotLightShadowTiles[i];
+    if ( renderShadow == 0 || tile.z == 0 ) {
+        return 1.0;
+    }
+
+    vec4 coords = spotLightShadowMatrices[i] * vec4(position, 1);
+    if ( coords.w <= 0 ) {
+        return 1.0;
+    }
+    coords.xyz /= coords.w;
+    return sampleShadowAtlas(tile, coords.xy, coords.z);
+}
+
+float calcPointShadow(int i, vec3 position) {
+    vec4 params = pointLightShadowParams[i];
+    if ( renderShadow == 0 || params.z == 0 ) {
+        return 1.0;
+    }
+
+    // Direction from the light to the fragment in world space selects the face.
+    vec3 dir = (viewInverseMatrix * vec4(position - pointLights[i].position, 0)).xyz;
+    vec3 absDir = abs(dir);
+    int face;
+    if ( absDir.x >= absDir.y && absDir.x >= absDir.z ) {
+        face = dir.x > 0 ? 0 : 1;
+    } else if ( absDir.y >= absDir.z ) {
+        face = dir.y > 0 ? 2 : 3;
+    } else {
+        face = dir.z > 0 ? 4 : 5;
+    }
+
+    // Project onto the face the same way as a 90 degree perspective look at.
+    vec3 forward = CUBE_FACE_DIRECTIONS[face];
+    vec3 side = normalize(cross(forward, CUBE_FACE_UPS[face]));
+    vec3 up = cross(side, forward);
+    float dist = dot(dir, forward);
+    vec2 ndc = vec2(dot(dir, side), dot(dir, up)) / dist;
+
+    float near = params.x;
+    float far = params.y;
+    float depth = (far + near) / (far - near) - 2.0 * far * near / ((far - near) * dist);
+
+    vec4 tile = pointLightShadowTiles[i * 6 + face];
+    return sampleShadowAtlas(tile, tile.xy + (ndc * 0.5 + 0.5) * tile.z, depth * 0.5 + 0.5);
+}
+
 void main() {
     setupColors(material, outTexCoord);
 
     vec3 currNomal = calcNormal(material, mvVertexNormal, outTexCoord, outModelViewMatrix);
 
     vec4 diffuseSpecularComp = calcDirectionalLight(directionalLight, mvVertexPos, currNomal);
+    vec4 localComp = vec4(0, 0, 0, 0);
 
     for (int i=0; i<MAX_POINT_LIGHTS; i++){
         if ( pointLights[i].intensity > 0 ){
-            diffuseSpecularComp += calcPointLight(pointLights[i], mvVertexPos, currNomal); 
+            localComp += calcPointLight(pointLights[i], mvVertexPos, currNomal) * calcPointShadow(i, mvVertexPos); 
         }
     }
 
     for (int i=0; i<MAX_SPOT_LIGHTS; i++){
         if ( spotLights[i].pl.intensity > 0 ){
-            diffuseSpecularComp += calcSpotLight(spotLights[i], mvVertexPos, currNomal);
+            localComp += calcSpotLight(spotLights[i], mvVertexPos, currNomal) * calcSpotShadow(i, mvVertexPos);
         }
     }
     int idx;
@@ -245,7 +331,7 @@ void main() {
         }
     }
     float shadow = calcShadow(mlightviewVertexPos[idx], idx);
-    fragColor = clamp(ambientC * vec4(ambientLight, 1) + diffuseSpecularComp * shadow, 0, 1);
+    fragColor = clamp(ambientC * vec4(ambientLight, 1) + diffuseSpecularComp * shadow + localComp, 0, 1);
     if ( fog.activeFog == 1 ) {
         fragColor = calcFog(mvVertexPos, fragColor, fog, ambientLight, directionalLight);
     }
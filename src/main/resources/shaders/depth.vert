@@ -3,18 +3,16 @@
 const int MAX_WEIGHTS = 4;
 const int MAX_JOINTS = 150;
 
-vec3 position;
-vec2 texCoord;
-vec3 vertexNormal;
-vec4 jointWeights;
-ivec4 jointIndices;
-mat4 modelInstancedMatrix;
+in vec3 position;
+in vec2 texCoord;
+in vec3 vertexNormal;
+in vec4 jointWeights;
+in ivec4 jointIndices;
+in mat4 modelInstancedMatrix;
 
 uniform int isInstanced;
 uniform mat4 modelNonInstancedMatrix;
-uniform mat4 lightViewMatrix;
 uniform mat4 jointsMatrix[MAX_JOINTS];
-uniform mat4 orthoProjectionMatrix;
 
 void main() {
     vec4 initPos = vec4(0, 0, 0, 0);
@@ -39,5 +37,6 @@ void main() {
             initPos = vec4(position, 1.0);
         }
     }
-    gl_Position = orthoProjectionMatrix * lightViewMatrix * modelMatrix * initPos;
+    // Projected into the cascades by the geometry shader.
+    gl_Position = modelMatrix * initPos;
 }
@@ -0,0 +1,25 @@
+#version 330
+
+const int RADIUS = 3;
+// Binomial weights of a 7 tap kernel.
+const float WEIGHTS[RADIUS + 1] = float[](20.0 / 64.0, 15.0 / 64.0, 6.0 / 64.0, 1.0 / 64.0);
+
+uniform sampler2DArray source;
+uniform int layer;
+uniform int horizontal;
+
+out vec4 fragColor;
+
+void main() {
+    ivec2 coord = ivec2(gl_FragCoord.xy);
+    ivec2 step = horizontal == 1 ? ivec2(1, 0) : ivec2(0, 1);
+    ivec2 maxCoord = textureSize(source, 0).xy - 1;
+
+    vec4 sum = texelFetch(source, ivec3(coord, layer), 0) * WEIGHTS[0];
+    for (int i = 1; i <= RADIUS; i++) {
+        ivec2 forward = clamp(coord + step * i, ivec2(0), maxCoord);
+        ivec2 backward = clamp(coord - step * i, ivec2(0), maxCoord);
+        sum += (texelFetch(source, ivec3(forward, layer), 0) + texelFetch(source, ivec3(backward, layer), 0)) * WEIGHTS[i];
+    }
+    fragColor = sum;
+}
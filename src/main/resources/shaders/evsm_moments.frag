@@ -0,0 +1,30 @@
+#version 330
+
+const float POSITIVE_EXPONENT = 40.0;
+const float NEGATIVE_EXPONENT = 5.0;
+const int DOWNSAMPLE = 2;
+
+uniform sampler2DArray depthMap;
+uniform int layer;
+
+out vec4 fragColor;
+
+vec4 warpDepth(float depth) {
+    // Exponents are applied to the depth in the range [-1, 1].
+    depth = depth * 2.0 - 1.0;
+    float pos = exp(POSITIVE_EXPONENT * depth);
+    float neg = -exp(-NEGATIVE_EXPONENT * depth);
+    return vec4(pos, pos * pos, neg, neg * neg);
+}
+
+void main() {
+    ivec2 base = ivec2(gl_FragCoord.xy) * DOWNSAMPLE;
+    vec4 moments = vec4(0, 0, 0, 0);
+    for (int y = 0; y < DOWNSAMPLE; y++) {
+        for (int x = 0; x < DOWNSAMPLE; x++) {
+            float depth = texelFetch(depthMap, ivec3(base + ivec2(x, y), layer), 0).r;
+            moments += warpDepth(depth);
+        }
+    }
+    fragColor = moments / float(DOWNSAMPLE * DOWNSAMPLE);
+}